@@ -0,0 +1,161 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * 音訊的解碼工具。
+ *
+ * @author Magic Len
+ */
+final class AudioDecoding {
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private AudioDecoding() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 開啟音訊輸入串流，如果音訊不是PCM格式，會被轉換成16位元的PCM格式。有設定磁碟快取時，會優先使用快取中已經解碼的資料。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回PCM格式的音訊輸入串流
+     * @throws Exception 拋出例外
+     */
+    static AudioInputStream open(final URL url) throws Exception {
+        final PcmDiskCache diskCache = LoadingConfig.getDiskCache();
+        if (diskCache != null) {
+            try {
+                return diskCache.open(url);
+            } catch (final Exception ex) {
+                //快取無法使用時直接解碼
+            }
+        }
+        final AudioInputStream sourceStream = AudioSystem.getAudioInputStream(url);
+        return toPCM(sourceStream);
+    }
+
+    /**
+     * 將音訊輸入串流轉換成PCM格式，如果已經是PCM格式就直接傳回。
+     *
+     * @param sourceStream 傳入音訊輸入串流
+     * @return 傳回PCM格式的音訊輸入串流
+     */
+    static AudioInputStream toPCM(final AudioInputStream sourceStream) {
+        final AudioFormat sourceFormat = sourceStream.getFormat();
+        if (isPCM(sourceFormat)) {
+            return sourceStream;
+        }
+        final int channels = sourceFormat.getChannels();
+        final AudioFormat pcmFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sourceFormat.getSampleRate(), 16, channels, channels * 2, sourceFormat.getSampleRate(), false);
+        return AudioSystem.getAudioInputStream(pcmFormat, sourceStream);
+    }
+
+    /**
+     * 判斷音訊格式是否為PCM格式。
+     *
+     * @param format 傳入音訊格式
+     * @return 傳回是否為PCM格式
+     */
+    static boolean isPCM(final AudioFormat format) {
+        final AudioFormat.Encoding encoding = format.getEncoding();
+        return AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding) || AudioFormat.Encoding.PCM_FLOAT.equals(encoding);
+    }
+
+    /**
+     * 略過音訊輸入串流中的資料。
+     *
+     * @param stream 傳入音訊輸入串流
+     * @param bytes 傳入要略過的位元組數量
+     * @return 傳回實際略過的位元組數量
+     * @throws Exception 拋出例外
+     */
+    static long skipFully(final AudioInputStream stream, final long bytes) throws Exception {
+        long skipped = 0;
+        byte[] frame = null;
+        while (skipped < bytes) {
+            final long s = stream.skip(bytes - skipped);
+            if (s <= 0) {
+                if (frame == null) {
+                    frame = new byte[Math.max(1, stream.getFormat().getFrameSize())];
+                }
+                final int r = stream.read(frame, 0, (int) Math.min(frame.length, bytes - skipped));
+                if (r <= 0) {
+                    break;
+                }
+                skipped += r;
+            } else {
+                skipped += s;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * 盡可能讀滿緩衝空間。
+     *
+     * @param stream 傳入音訊輸入串流
+     * @param buffer 傳入緩衝空間
+     * @param offset 傳入緩衝空間的起始位置
+     * @param length 傳入要讀取的位元組數量
+     * @return 傳回實際讀取的位元組數量，小於length時表示串流已經結束，或是剩下的空間不足一個音框
+     * @throws Exception 拋出例外
+     */
+    static int readFully(final AudioInputStream stream, final byte[] buffer, final int offset, final int length) throws Exception {
+        int read = 0;
+        while (read < length) {
+            final int c = stream.read(buffer, offset + read, length - read);
+            //剩下的空間不足一個音框時，音訊輸入串流會傳回0
+            if (c <= 0) {
+                break;
+            }
+            read += c;
+        }
+        return read;
+    }
+
+    /**
+     * 將音框數量換算為微秒。
+     *
+     * @param frames 傳入音框數量
+     * @param format 傳入音訊格式
+     * @return 傳回微秒
+     */
+    static long framesToMicros(final long frames, final AudioFormat format) {
+        return (long) (frames * 1000000.0 / format.getFrameRate());
+    }
+
+    /**
+     * 將微秒換算為音框數量。
+     *
+     * @param micros 傳入微秒
+     * @param format 傳入音訊格式
+     * @return 傳回音框數量
+     */
+    static long microsToFrames(final long micros, final AudioFormat format) {
+        return (long) (micros * (double) format.getFrameRate() / 1000000.0);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 音訊檔案的中繼資料，包括容器、編碼、取樣率、聲道數量、長度以及標籤。這些資料只需要讀取檔案的標頭就能取得，不必解碼整個檔案。
+ *
+ * @author Magic Len
+ */
+public final class AudioMetadata {
+
+    // -----類別常數-----
+    /**
+     * 標題標籤的名稱。
+     */
+    public static final String TITLE = "title";
+    /**
+     * 演出者標籤的名稱。
+     */
+    public static final String ARTIST = "artist";
+    /**
+     * 專輯標籤的名稱。
+     */
+    public static final String ALBUM = "album";
+    /**
+     * 類型標籤的名稱。
+     */
+    public static final String GENRE = "genre";
+    /**
+     * 日期標籤的名稱。
+     */
+    public static final String DATE = "date";
+    /**
+     * 音軌編號標籤的名稱。
+     */
+    public static final String TRACK = "track";
+    /**
+     * 註解標籤的名稱。
+     */
+    public static final String COMMENT = "comment";
+
+    //-----物件常數-----
+    private final String container, encoding;
+    private final float sampleRate;
+    private final int channels, sampleSizeInBits, bitrate;
+    private final long durationMicros;
+    private final Map<String, String> tags;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param container 傳入容器，例如wav、aiff、au、mp3、mp4
+     * @param encoding 傳入編碼
+     * @param sampleRate 傳入取樣率，未知時為AudioSystem.NOT_SPECIFIED
+     * @param channels 傳入聲道數量，未知時為AudioSystem.NOT_SPECIFIED
+     * @param sampleSizeInBits 傳入取樣位元數，壓縮過的音訊或未知時為AudioSystem.NOT_SPECIFIED
+     * @param bitrate 傳入位元率(bps)，未知時為AudioSystem.NOT_SPECIFIED
+     * @param durationMicros 傳入長度(微秒)，未知時為-1
+     * @param tags 傳入標籤
+     */
+    AudioMetadata(final String container, final String encoding, final float sampleRate, final int channels, final int sampleSizeInBits, final int bitrate, final long durationMicros, final Map<String, String> tags) {
+        this.container = container;
+        this.encoding = encoding;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.sampleSizeInBits = sampleSizeInBits;
+        this.bitrate = bitrate;
+        this.durationMicros = durationMicros;
+        this.tags = Collections.unmodifiableMap(new TreeMap<>(tags));
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得容器，例如wav、aiff、au、mp3、mp4。
+     *
+     * @return 傳回容器
+     */
+    public String getContainer() {
+        return container;
+    }
+
+    /**
+     * 取得編碼。
+     *
+     * @return 傳回編碼
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * 取得取樣率。
+     *
+     * @return 傳回取樣率，未知時傳回AudioSystem.NOT_SPECIFIED
+     */
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 取得聲道數量。
+     *
+     * @return 傳回聲道數量，未知時傳回AudioSystem.NOT_SPECIFIED
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * 取得取樣位元數。
+     *
+     * @return 傳回取樣位元數，壓縮過的音訊或未知時傳回AudioSystem.NOT_SPECIFIED
+     */
+    public int getSampleSizeInBits() {
+        return sampleSizeInBits;
+    }
+
+    /**
+     * 取得位元率。
+     *
+     * @return 傳回位元率(bps)，未知時傳回AudioSystem.NOT_SPECIFIED
+     */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * 取得長度，單位是微秒，和AudioPlayer.getAudioLength方法相同。
+     *
+     * @return 傳回長度(微秒)，未知時傳回-1
+     */
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    /**
+     * 取得所有標籤，標籤的名稱為這個類別中的常數。
+     *
+     * @return 傳回標籤
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * 取得標籤。
+     *
+     * @param name 傳入標籤的名稱
+     * @return 傳回標籤的值，沒有這個標籤時傳回null
+     */
+    public String getTag(final String name) {
+        return tags.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %s, %.0f Hz, %d channel(s), %d bit(s), %d bps, %d us, %s", container, encoding, sampleRate, channels, sampleSizeInBits, bitrate, durationMicros, tags);
+    }
+}
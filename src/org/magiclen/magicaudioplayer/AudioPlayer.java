@@ -18,14 +18,18 @@
 package org.magiclen.magicaudioplayer;
 
 import java.io.File;
+import java.net.URI;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 /**
- * 聲音播放器。
+ * 聲音播放器。播放器使用完畢後應該要被關閉，可以使用try-with-resources敘述。
  *
  * @author Magic Len
  */
-public interface AudioPlayer {
+public interface AudioPlayer extends AutoCloseable {
 
     // -----介面列舉-----
     /**
@@ -53,17 +57,19 @@ public interface AudioPlayer {
 
     // -----介面預設方法-----
     /**
-     * 建立聲音播放器。
+     * 建立聲音播放器。播放器的後端會由已註冊的AudioPlayerProvider依照格式來選擇。
      *
      * @param file 傳入聲音檔案
      * @return 傳回合適的聲音播放器
      */
     static AudioPlayer createPlayer(final File file) {
+        final URL url;
         try {
-            return new TraditionalPlayer(file);
+            url = file.getAbsoluteFile().toURI().toURL();
         } catch (final Exception ex) {
-            return new FXPlayer(file);
+            throw new RuntimeException(ex.getMessage());
         }
+        return AudioPlayerProviders.createPlayer(url);
     }
 
     /**
@@ -73,11 +79,7 @@ public interface AudioPlayer {
      * @return 傳回合適的聲音播放器
      */
     static AudioPlayer createPlayer(final URL url) {
-        try {
-            return new TraditionalPlayer(url);
-        } catch (final Exception ex) {
-            return new FXPlayer(url);
-        }
+        return AudioPlayerProviders.createPlayer(url);
     }
 
     /**
@@ -87,11 +89,31 @@ public interface AudioPlayer {
      * @return 傳回合適的聲音播放器
      */
     static AudioPlayer createPlayer(final String str) {
+        final URL url;
         try {
-            return new TraditionalPlayer(str);
+            url = URI.create(str).toURL();
         } catch (final Exception ex) {
-            return new FXPlayer(str);
+            throw new RuntimeException(ex.getMessage());
         }
+        return AudioPlayerProviders.createPlayer(url);
+    }
+
+    /**
+     * 設定響度索引。設定之後，使用createPlayer建立的播放器會自動依照索引中的響度套用正規化增益，還沒被分析過的聲音會在建立播放器時被分析。
+     *
+     * @param loudnessIndex 傳入響度索引，null表示不自動套用正規化增益
+     */
+    static void setLoudnessIndex(final LoudnessIndex loudnessIndex) {
+        LoadingConfig.setLoudnessIndex(loudnessIndex);
+    }
+
+    /**
+     * 設定解碼後音訊的磁碟快取。設定之後，TraditionalPlayer和StreamingPlayer開啟壓縮格式的音訊時會優先使用快取中已經解碼的資料。
+     *
+     * @param diskCache 傳入磁碟快取，null表示不使用快取
+     */
+    static void setDiskCache(final PcmDiskCache diskCache) {
+        LoadingConfig.setDiskCache(diskCache);
     }
 
     /**
@@ -104,6 +126,26 @@ public interface AudioPlayer {
         return (float) (Math.log10(volume * 0.039) * 10);
     }
 
+    /**
+     * 將浮點數的音量換算為dB，使用與volumeToDB(int)相同的曲線，但使用查找表計算。
+     *
+     * @param volume 傳入音量，範圍是0~100
+     * @return dB單位的音量，音量為0時傳回Float.NEGATIVE_INFINITY
+     */
+    static float volumeToDB(final float volume) {
+        return GainTable.volumeToDB(volume);
+    }
+
+    /**
+     * 將dB換算為線性增益，使用查找表計算。
+     *
+     * @param db 傳入dB
+     * @return 傳回線性增益，小於-120dB時傳回0
+     */
+    static float dbToLinear(final float db) {
+        return GainTable.dbToLinear(db);
+    }
+
     // -----介面方法-----
     /**
      * 開始播放音訊，可以回復暫停時的狀態。
@@ -126,20 +168,20 @@ public interface AudioPlayer {
     public boolean isPlaying();
 
     /**
-     * 等待播放暫停、停止或中止。
+     * 等待播放暫停、停止或中止。等待時被中斷的話，會保留執行緒的中斷狀態並拋出RuntimeException。
      *
-     * @param checkInterval 檢查間隔時間(毫秒)
+     * @param checkInterval 檢查間隔時間(毫秒)，播放器的狀態改變時也會立刻檢查
      */
     default void waitForPlaying(final int checkInterval) {
         if (checkInterval < 20 || checkInterval > 10000) {
             throw new RuntimeException("The checking time interval must be at least 20(ms) and at most 10000(ms)!");
         }
         try {
-            while (isPlaying()) {
-                Thread.sleep(checkInterval);
+            while (!await(() -> !isPlaying(), checkInterval, TimeUnit.MILLISECONDS)) {
             }
-        } catch (final Exception ex) {
-            throw new RuntimeException("There are some problems when waiting for playing. Exception: ".concat(ex.getMessage()));
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("The thread was interrupted when waiting for playing.");
         }
     }
 
@@ -150,6 +192,91 @@ public interface AudioPlayer {
         waitForPlaying(200);
     }
 
+    /**
+     * 等待直到條件成立。條件會在播放器的狀態改變時被重新檢查，因此條件應該只依賴getStatus、isPlaying這類會伴隨狀態改變的值。等待的執行緒會被停放(park)，不會持有任何鎖，而且可以被中斷。不支援狀態改變通知的播放器會每10毫秒檢查一次條件。
+     *
+     * @param condition 傳入條件
+     * @param timeout 傳入最長的等待時間
+     * @param unit 傳入等待時間的單位
+     * @return 傳回條件是否成立，超過等待時間時傳回false
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    default boolean await(final BooleanSupplier condition, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (condition == null) {
+            throw new RuntimeException("Condition can't be null!");
+        }
+        final long nanos = unit.toNanos(timeout);
+        final long deadline = System.nanoTime() + nanos;
+        while (!condition.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final long remaining = nanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, 10000000L));
+        }
+        return true;
+    }
+
+    /**
+     * 等待播放器進入某個狀態。
+     *
+     * @param status 傳入狀態
+     * @param timeout 傳入最長的等待時間
+     * @param unit 傳入等待時間的單位
+     * @return 傳回是否進入該狀態，超過等待時間時傳回false
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    default boolean awaitStatus(final Status status, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (status == null) {
+            throw new RuntimeException("Status can't be null!");
+        }
+        return await(() -> getStatus() == status, timeout, unit);
+    }
+
+    /**
+     * 等待播放器進入某個狀態，不限制等待時間。
+     *
+     * @param status 傳入狀態
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    default void awaitStatus(final Status status) throws InterruptedException {
+        awaitStatus(status, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 播放音訊並等待播放結束、暫停、停止或中止。執行緒在等待時被中斷的話會停止播放，因此可以被結構化並行(structured concurrency)的範圍取消。
+     *
+     * @param timeout 傳入最長的等待時間，超過等待時間時不會停止播放
+     * @param unit 傳入等待時間的單位
+     * @return 傳回播放是否已經結束，超過等待時間時傳回false
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    default boolean playAndAwait(final long timeout, final TimeUnit unit) throws InterruptedException {
+        play();
+        try {
+            return await(() -> !isPlaying(), timeout, unit);
+        } catch (final InterruptedException ex) {
+            try {
+                stop();
+            } catch (final RuntimeException ex2) {
+                //播放器可能已經被關閉
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * 播放音訊並等待播放結束、暫停、停止或中止，不限制等待時間。執行緒在等待時被中斷的話會停止播放。
+     *
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    default void playAndAwait() throws InterruptedException {
+        playAndAwait(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * 暫停播放音訊。
      */
@@ -211,6 +338,45 @@ public interface AudioPlayer {
      */
     public int getVolume();
 
+    /**
+     * 設定增益(dB)，比起setVolume可以更精細地調整音量。
+     *
+     * @param db 傳入增益，Float.NEGATIVE_INFINITY表示靜音
+     */
+    default void setGain(final float db) {
+        setVolume(GainTable.dbToVolume(db));
+    }
+
+    /**
+     * 取得增益(dB)。
+     *
+     * @return 傳回增益
+     */
+    default float getGain() {
+        return volumeToDB((float) getVolume());
+    }
+
+    /**
+     * 設定線性增益，1表示不改變音量。
+     *
+     * @param gain 傳入線性增益，必須大於等於0
+     */
+    default void setLinearGain(final float gain) {
+        if (!(gain >= 0) || Float.isInfinite(gain)) {
+            throw new RuntimeException("Gain must be a finite number and at least 0!");
+        }
+        setGain(GainTable.linearToDB(gain));
+    }
+
+    /**
+     * 取得線性增益。
+     *
+     * @return 傳回線性增益
+     */
+    default float getLinearGain() {
+        return dbToLinear(getGain());
+    }
+
     /**
      * 取得目前音訊播放器的狀態。
      *
@@ -232,6 +398,27 @@ public interface AudioPlayer {
      */
     public int getBalance();
 
+    /**
+     * 設定聲道平衡，範圍-1~1，數值愈大愈靠近右邊，0為平衡狀態。比起setBalance可以更精細地調整。
+     *
+     * @param pan 傳入聲道平衡
+     */
+    default void setPan(final float pan) {
+        if (!(pan >= -1 && pan <= 1)) {
+            throw new RuntimeException("Pan must be at least -1 and at most 1!");
+        }
+        setBalance(Math.round(pan * 100));
+    }
+
+    /**
+     * 取得聲道平衡。
+     *
+     * @return 傳回聲道平衡
+     */
+    default float getPan() {
+        return getBalance() / 100.0f;
+    }
+
     /**
      * 只開啟右聲道。
      */
@@ -280,6 +467,24 @@ public interface AudioPlayer {
         return getBalance() == 0;
     }
 
+    /**
+     * 設定響度正規化的增益，這個增益會與音量疊加。
+     *
+     * @param db 傳入增益(dB)
+     */
+    default void setNormalizationGain(final float db) {
+        throw new UnsupportedOperationException("This player doesn't support normalization gain!");
+    }
+
+    /**
+     * 取得響度正規化的增益。
+     *
+     * @return 傳回增益(dB)
+     */
+    default float getNormalizationGain() {
+        return 0;
+    }
+
     /**
      * 取得音訊的長度(微秒)。
      *
@@ -303,8 +508,82 @@ public interface AudioPlayer {
     public void setAudioPosition(final long position);
 
     /**
-     * 關閉音訊。
+     * 取得實際的輸出延遲(微秒)，也就是寫入的資料要經過多久才會被聽到。
+     *
+     * @return 傳回輸出延遲，無法得知時傳回-1
      */
+    default long getOutputLatency() {
+        return -1;
+    }
+
+    /**
+     * 加入音訊監聽點，用來取得正在播放的音訊的峰值、RMS值以及頻譜。
+     *
+     * @param tap 傳入音訊監聽點
+     */
+    default void addAudioTap(final AudioTap tap) {
+        throw new UnsupportedOperationException("This player doesn't support audio taps!");
+    }
+
+    /**
+     * 移除音訊監聽點。
+     *
+     * @param tap 傳入音訊監聽點
+     */
+    default void removeAudioTap(final AudioTap tap) {
+        throw new UnsupportedOperationException("This player doesn't support audio taps!");
+    }
+
+    /**
+     * 加入提示點，當音訊播放到這個位置時會執行動作。動作會在播放器的事件執行緒中被執行，不應該執行太久。
+     *
+     * @param frame 傳入位置(音框)
+     * @param action 傳入動作
+     */
+    default void addCuePoint(final long frame, final Runnable action) {
+        throw new UnsupportedOperationException("This player doesn't support cue points in frames!");
+    }
+
+    /**
+     * 加入提示點，當音訊播放到這個位置時會執行動作。動作會在播放器的事件執行緒中被執行，不應該執行太久。
+     *
+     * @param micros 傳入位置(微秒)
+     * @param action 傳入動作
+     */
+    default void addCuePointMicros(final long micros, final Runnable action) {
+        throw new UnsupportedOperationException("This player doesn't support cue points!");
+    }
+
+    /**
+     * 移除使用某個動作的所有提示點。
+     *
+     * @param action 傳入動作
+     * @return 傳回是否有提示點被移除
+     */
+    default boolean removeCuePoint(final Runnable action) {
+        return false;
+    }
+
+    /**
+     * 移除所有提示點。
+     */
+    default void clearCuePoints() {
+
+    }
+
+    /**
+     * 取得提示點的準確度統計。
+     *
+     * @return 傳回準確度統計，不支援提示點時傳回null
+     */
+    default CueStatistics getCueStatistics() {
+        return null;
+    }
+
+    /**
+     * 關閉音訊，釋放播放器所使用的音訊線路和串流。
+     */
+    @Override
     public void close();
 
     /**
@@ -334,4 +613,22 @@ public interface AudioPlayer {
      * @return 傳回狀態改變後的監聽事件
      */
     public StatusChangedListener getStatusChangedListener();
+
+    /**
+     * 設定狀態改變事件的監聽者。事件包含了狀態改變當下的位置、重複播放的索引、時間以及原因，而且不會在每次狀態改變時建立新的物件。這個監聽者和StatusChangedListener可以同時使用。
+     *
+     * @param listener 傳入監聽者
+     */
+    default void setStatusEventListener(final StatusEvent.Listener listener) {
+        throw new UnsupportedOperationException("This player doesn't support status events!");
+    }
+
+    /**
+     * 取得狀態改變事件的監聽者。
+     *
+     * @return 傳回監聽者
+     */
+    default StatusEvent.Listener getStatusEventListener() {
+        return null;
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import java.util.Set;
+
+/**
+ * <p>
+ * 聲音播放器的提供者(SPI)。</p>
+ *
+ * <p>
+ * 實作這個介面，並在<b>META-INF/services/org.magiclen.magicaudioplayer.AudioPlayerProvider</b>中註冊實作類別，即可讓AudioPlayer的createPlayer方法使用自訂的播放器後端。</p>
+ *
+ * @author Magic Len
+ * @see AudioPlayerProviders
+ */
+public interface AudioPlayerProvider {
+
+    // -----介面列舉-----
+    /**
+     * 播放器的延遲等級。LOW：適合互動用途的低延遲；NORMAL：一般播放；HIGH：延遲較高或是不確定；OFFLINE：不輸出到音訊裝置。
+     */
+    public static enum LatencyClass {
+
+        LOW, NORMAL, HIGH, OFFLINE;
+    }
+
+    // -----介面方法-----
+    /**
+     * 取得提供者的名稱。
+     *
+     * @return 傳回提供者的名稱
+     */
+    public String getName();
+
+    /**
+     * 取得提供者對於某種格式的優先順序，數值愈大愈優先被使用，小於0表示不支援這個格式。
+     *
+     * @param format 傳入格式，也就是小寫的副檔名，無法得知時為空字串
+     * @return 傳回優先順序
+     */
+    public int getPriority(final String format);
+
+    /**
+     * 取得提供者明確支援的格式(小寫的副檔名)。
+     *
+     * @return 傳回支援的格式，如果是空集合表示會嘗試任何格式
+     */
+    public Set<String> getSupportedFormats();
+
+    /**
+     * 判斷播放器是否以串流的方式播放，而不是將整個音訊載入到記憶體中。
+     *
+     * @return 傳回是否以串流的方式播放
+     */
+    public boolean isStreaming();
+
+    /**
+     * 取得播放器的延遲等級。
+     *
+     * @return 傳回延遲等級
+     */
+    public LatencyClass getLatencyClass();
+
+    /**
+     * 建立聲音播放器。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回聲音播放器
+     * @throws Exception 無法建立時拋出例外
+     */
+    public AudioPlayer createPlayer(final URL url) throws Exception;
+
+    // -----介面預設方法-----
+    /**
+     * 判斷是否支援某種格式。
+     *
+     * @param format 傳入格式，也就是小寫的副檔名
+     * @return 傳回是否支援
+     */
+    default boolean isSupported(final String format) {
+        return getPriority(format) >= 0;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>
+ * 聲音播放器提供者的註冊表。</p>
+ *
+ * <p>
+ * 內建的提供者為TraditionalPlayer、StreamingPlayer與FXPlayer，其他提供者會透過ServiceLoader被載入，或是使用register方法註冊。每種格式的提供者會依照優先順序排序並被快取在選擇表中。建立播放器失敗的提供者會暫時被排到其他提供者的後面，之後建立相同格式的播放器時就不需要先經過它的例外；連續失敗的次數愈多，暫時排在後面的時間愈長，最長一分鐘。時間過了之後提供者會回到依照優先順序的位置，成功建立播放器之後失敗的次數會被歸零，因此偶發的例外不會永久改變提供者的順序。</p>
+ *
+ * @author Magic Len
+ */
+public final class AudioPlayerProviders {
+
+    // -----類別常數-----
+    private static final List<AudioPlayerProvider> PROVIDERS = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<String, Selection> SELECTION_TABLE = new ConcurrentHashMap<>();
+    private static final long BASE_BACKOFF_NANOS = 1000000000L;
+    private static final long MAX_BACKOFF_NANOS = 60000000000L;
+
+    // -----類別類別-----
+    /**
+     * 某種格式的提供者選擇表，以及每個提供者失敗的紀錄。
+     */
+    private static final class Selection {
+
+        private final AudioPlayerProvider[] providers;
+        private final int[] failures;
+        private final long[] retryAt;
+
+        /**
+         * 建構子。
+         *
+         * @param providers 傳入依照優先順序排列的提供者
+         */
+        Selection(final AudioPlayerProvider[] providers) {
+            this.providers = providers;
+            this.failures = new int[providers.length];
+            this.retryAt = new long[providers.length];
+        }
+
+        /**
+         * 取得嘗試提供者的順序。還在暫停時間內的提供者會被排到後面，其他的維持優先順序。
+         *
+         * @param now 傳入目前的時間(奈秒)
+         * @return 傳回提供者的索引
+         */
+        synchronized int[] order(final long now) {
+            final int[] order = new int[providers.length];
+            int n = 0;
+            for (int i = 0; i < providers.length; ++i) {
+                if (failures[i] == 0 || now - retryAt[i] >= 0) {
+                    order[n++] = i;
+                }
+            }
+            for (int i = 0; i < providers.length; ++i) {
+                if (failures[i] > 0 && now - retryAt[i] < 0) {
+                    order[n++] = i;
+                }
+            }
+            return order;
+        }
+
+        /**
+         * 記錄提供者成功建立播放器。
+         *
+         * @param index 傳入提供者的索引
+         */
+        synchronized void succeeded(final int index) {
+            failures[index] = 0;
+        }
+
+        /**
+         * 記錄提供者無法建立播放器，連續失敗的次數愈多，暫停的時間愈長。
+         *
+         * @param index 傳入提供者的索引
+         * @param now 傳入目前的時間(奈秒)
+         */
+        synchronized void failed(final int index, final long now) {
+            final int n = ++failures[index];
+            retryAt[index] = now + Math.min(MAX_BACKOFF_NANOS, BASE_BACKOFF_NANOS << Math.min(n - 1, 6));
+        }
+    }
+
+    // -----初始化-----
+    static {
+        PROVIDERS.add(new TraditionalPlayerProvider());
+        PROVIDERS.add(new StreamingPlayerProvider());
+        PROVIDERS.add(new FXPlayerProvider());
+        final Iterator<AudioPlayerProvider> it = ServiceLoader.load(AudioPlayerProvider.class).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                PROVIDERS.add(it.next());
+            } catch (final ServiceConfigurationError ex) {
+                //忽略無法載入的提供者
+            }
+        }
+    }
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private AudioPlayerProviders() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 註冊聲音播放器的提供者。
+     *
+     * @param provider 傳入提供者
+     */
+    public static void register(final AudioPlayerProvider provider) {
+        if (provider == null) {
+            throw new RuntimeException("The provider can't be null!");
+        }
+        PROVIDERS.add(provider);
+        SELECTION_TABLE.clear();
+    }
+
+    /**
+     * 取消註冊聲音播放器的提供者。
+     *
+     * @param provider 傳入提供者
+     * @return 傳回提供者是否有被註冊過
+     */
+    public static boolean unregister(final AudioPlayerProvider provider) {
+        final boolean removed = PROVIDERS.remove(provider);
+        SELECTION_TABLE.clear();
+        return removed;
+    }
+
+    /**
+     * 取得所有已註冊的提供者。
+     *
+     * @return 傳回提供者
+     */
+    public static List<AudioPlayerProvider> getProviders() {
+        return Collections.unmodifiableList(new ArrayList<>(PROVIDERS));
+    }
+
+    /**
+     * 取得支援某種格式的提供者，依照使用的順序排列。
+     *
+     * @param format 傳入格式，也就是小寫的副檔名
+     * @return 傳回提供者
+     */
+    public static List<AudioPlayerProvider> getProviders(final String format) {
+        final Selection selection = select(format);
+        final int[] order = selection.order(System.nanoTime());
+        final AudioPlayerProvider[] providers = new AudioPlayerProvider[order.length];
+        for (int i = 0; i < order.length; ++i) {
+            providers[i] = selection.providers[order[i]];
+        }
+        return Collections.unmodifiableList(Arrays.asList(providers));
+    }
+
+    /**
+     * 清除提供者的選擇表，包含提供者失敗的紀錄。
+     */
+    public static void clearSelectionTable() {
+        SELECTION_TABLE.clear();
+    }
+
+    /**
+     * 從URL中取得格式，也就是小寫的副檔名。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回格式，無法得知時傳回空字串
+     */
+    public static String getFormat(final URL url) {
+        final String path = url.getPath();
+        if (path == null) {
+            return "";
+        }
+        final int slashIndex = path.lastIndexOf('/');
+        final int dotIndex = path.lastIndexOf('.');
+        if (dotIndex <= slashIndex + 1) {
+            return "";
+        }
+        return path.substring(dotIndex + 1).toLowerCase();
+    }
+
+    /**
+     * 建立聲音播放器。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回合適的聲音播放器
+     */
+    public static AudioPlayer createPlayer(final URL url) {
+        final PlayerEvents.Create createEvent = new PlayerEvents.Create();
+        createEvent.begin();
+        final String format = getFormat(url);
+        final Selection selection = select(format);
+        final AudioPlayerProvider[] providers = selection.providers;
+        if (providers.length == 0) {
+            createEvent.end(url, format, null, 0);
+            throw new RuntimeException("There is no audio player provider supporting this format: ".concat(format));
+        }
+        final int[] order = selection.order(System.nanoTime());
+        Exception lastException = null;
+        for (int i = 0; i < order.length; ++i) {
+            final int index = order[i];
+            final AudioPlayerProvider provider = providers[index];
+            final AudioPlayer player;
+            try {
+                player = provider.createPlayer(url);
+            } catch (final Exception ex) {
+                lastException = ex;
+                selection.failed(index, System.nanoTime());
+                continue;
+            }
+            selection.succeeded(index);
+            normalize(player, url);
+            createEvent.end(url, format, provider, i + 1);
+            return player;
+        }
+        createEvent.end(url, format, null, providers.length);
+        throw new RuntimeException(lastException.getMessage());
+    }
+
+    /**
+     * 如果有設定響度索引，就套用正規化增益到播放器上。無法分析的聲音會以原本的響度播放。
+     *
+     * @param player 傳入播放器
+     * @param url 傳入聲音URL
+     */
+    private static void normalize(final AudioPlayer player, final URL url) {
+        final LoudnessIndex index = LoadingConfig.getLoudnessIndex();
+        if (index == null) {
+            return;
+        }
+        try {
+            player.setNormalizationGain(index.getNormalizationGain(url));
+        } catch (final Exception ex) {
+            //無法分析或是播放器不支援正規化增益
+        }
+    }
+
+    /**
+     * 取得某種格式的提供者選擇表，如果尚未建立就建立它。
+     *
+     * @param format 傳入格式
+     * @return 傳回選擇表
+     */
+    private static Selection select(final String format) {
+        return SELECTION_TABLE.computeIfAbsent(format, f -> {
+            final ArrayList<AudioPlayerProvider> list = new ArrayList<>();
+            for (final AudioPlayerProvider provider : PROVIDERS) {
+                if (provider.isSupported(f)) {
+                    list.add(provider);
+                }
+            }
+            //List.sort是穩定排序，優先順序相同時維持註冊的順序
+            list.sort((a, b) -> Integer.compare(b.getPriority(f), a.getPriority(f)));
+            return new Selection(list.toArray(new AudioPlayerProvider[list.size()]));
+        });
+    }
+}
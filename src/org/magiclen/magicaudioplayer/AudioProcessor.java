@@ -0,0 +1,44 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * 音訊處理階段，用來處理解碼後的浮點數樣本(-1~1)，例如增益、聲道平衡或是效果。
+ *
+ * @author Magic Len
+ */
+public interface AudioProcessor {
+
+    // -----介面方法-----
+    /**
+     * 處理樣本。樣本以交錯(interleaved)的方式排列，處理結果直接寫回陣列中。
+     *
+     * @param samples 傳入樣本
+     * @param frames 傳入音框數量
+     * @param channels 傳入聲道數量
+     */
+    public void process(final float[] samples, final int frames, final int channels);
+
+    // -----介面預設方法-----
+    /**
+     * 重設處理階段的內部狀態，在重頭處理另一段音訊之前會被呼叫。
+     */
+    default void reset() {
+
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * 音訊排程器，使用固定數量的執行緒來服務所有播放器的餵資料工作，並使用一個事件執行緒來傳遞所有播放器的狀態事件。</p>
+ *
+ * <p>
+ * 不論有多少個播放器，執行緒的數量都是固定的。只有正在播放的播放器會被排程，暫停或停止的播放器不會佔用任何資源。</p>
+ *
+ * <p>
+ * 工作執行緒不能被阻塞，開啟或跳轉音訊這類可能需要解碼或網路傳輸的動作，要透過execute方法交給背景執行緒執行，完成之後再重新排程。</p>
+ *
+ * <p>
+ * 使用虛擬時鐘建立的排程器不會建立任何執行緒，工作、事件與背景工作只會在呼叫advance方法時，依照虛擬時間的順序在呼叫的執行緒中被執行，適合用來測試播放器的行為。</p>
+ *
+ * @author Magic Len
+ */
+public class AudioScheduler {
+
+    // -----類別介面-----
+    /**
+     * 被排程的工作。
+     */
+    public static interface Task {
+
+        /**
+         * 服務這個工作，會在排程器的執行緒中被反覆地呼叫，不應該等待。
+         *
+         * @return 傳回距離下一次需要被服務的時間(奈秒)，0表示儘快，負數表示工作已經結束，工作會被移除
+         */
+        public long service();
+    }
+
+    // -----類別類別-----
+    /**
+     * 排程器的工作執行緒。
+     */
+    private final class Worker implements Runnable {
+
+        private final ConcurrentLinkedQueue<Task> incoming = new ConcurrentLinkedQueue<>();
+        private final ArrayList<Task> tasks = new ArrayList<>();
+        private long[] dues = new long[16];
+        private final AtomicInteger taskCount = new AtomicInteger();
+        private volatile Thread thread;
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            final boolean busyWait = waitStrategy == LatencyConfig.WaitStrategy.BUSY_WAIT;
+            while (!shutdown) {
+                final long wait = serve(idleNanos);
+                if (tasks.isEmpty()) {
+                    if (incoming.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                } else if (busyWait) {
+                    Thread.onSpinWait();
+                } else if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+
+        /**
+         * 服務一輪所有到期的工作。
+         *
+         * @param maxWait 傳入最長的等待時間(奈秒)
+         * @return 傳回距離下一個工作到期的時間(奈秒)，不會超過maxWait
+         */
+        long serve(final long maxWait) {
+            long now = nanoTime();
+            Task task;
+            while ((task = incoming.poll()) != null) {
+                if (tasks.size() == dues.length) {
+                    dues = Arrays.copyOf(dues, dues.length * 2);
+                }
+                dues[tasks.size()] = now;
+                tasks.add(task);
+            }
+            long wait = maxWait;
+            for (int i = tasks.size() - 1; i >= 0; --i) {
+                long remaining = dues[i] - now;
+                if (remaining <= 0) {
+                    long delay;
+                    try {
+                        delay = tasks.get(i).service();
+                    } catch (final Throwable ex) {
+                        //丟出例外或錯誤的工作會被移除，工作執行緒和其他工作不受影響
+                        report(ex);
+                        delay = -1;
+                    }
+                    if (delay < 0) {
+                        final int last = tasks.size() - 1;
+                        tasks.set(i, tasks.get(last));
+                        dues[i] = dues[last];
+                        tasks.remove(last);
+                        taskCount.decrementAndGet();
+                        continue;
+                    }
+                    now = nanoTime();
+                    dues[i] = now + delay;
+                    remaining = delay;
+                }
+                wait = Math.min(wait, remaining);
+            }
+            return wait;
+        }
+
+        /**
+         * 加入工作。
+         *
+         * @param task 傳入工作
+         */
+        void add(final Task task) {
+            taskCount.incrementAndGet();
+            incoming.add(task);
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // -----類別常數-----
+    private static final ConcurrentHashMap<String, AudioScheduler> SHARED = new ConcurrentHashMap<>();
+    private static final int MAX_IDLE_PASSES = 16;
+    private static final long MIN_STEP_NANOS = 1000;
+
+    //-----物件常數-----
+    private final Worker[] workers;
+    private final Thread eventThread;
+    private final ExecutorService background;
+    private final LinkedBlockingQueue<Runnable> events = new LinkedBlockingQueue<>();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final LatencyConfig.WaitStrategy waitStrategy;
+    private final long idleNanos;
+    private final VirtualClock clock;
+
+    //-----物件變數-----
+    private volatile boolean shutdown;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param threads 傳入工作執行緒的數量
+     * @param priority 傳入工作執行緒的優先權
+     * @param waitStrategy 傳入沒有工作可以做時的等待策略
+     * @param idleNanos 傳入使用PARK策略時，每一輪服務之間最長的等待時間(奈秒)
+     */
+    public AudioScheduler(final int threads, final int priority, final LatencyConfig.WaitStrategy waitStrategy, final long idleNanos) {
+        if (threads < 1) {
+            throw new RuntimeException("Threads must be at least 1!");
+        }
+        if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) {
+            throw new RuntimeException("Priority must be at least 1 and at most 10!");
+        }
+        if (waitStrategy == null) {
+            throw new RuntimeException("WaitStrategy can't be null!");
+        }
+        this.waitStrategy = waitStrategy;
+        this.idleNanos = Math.max(10000, idleNanos);
+        clock = null;
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker();
+            final Thread thread = new Thread(workers[i], "MagicAudioPlayer-Scheduler-".concat(String.valueOf(i)));
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            workers[i].thread = thread;
+            thread.start();
+        }
+        eventThread = new Thread(this::dispatchEvents, "MagicAudioPlayer-Events");
+        eventThread.setDaemon(true);
+        eventThread.start();
+        final AtomicInteger backgroundCount = new AtomicInteger();
+        background = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "MagicAudioPlayer-Background-".concat(String.valueOf(backgroundCount.getAndIncrement())));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 建構子，使用虛擬時鐘，不會建立任何執行緒。
+     *
+     * @param clock 傳入虛擬時鐘
+     */
+    public AudioScheduler(final VirtualClock clock) {
+        if (clock == null) {
+            throw new RuntimeException("The clock can't be null!");
+        }
+        this.clock = clock;
+        waitStrategy = LatencyConfig.WaitStrategy.PARK;
+        idleNanos = 0;
+        workers = new Worker[]{new Worker()};
+        eventThread = null;
+        background = null;
+    }
+
+    // -----類別方法-----
+    /**
+     * 取得共用的排程器，使用最高的優先權以及PARK等待策略。
+     *
+     * @return 傳回共用的排程器
+     */
+    public static AudioScheduler getShared() {
+        return getShared(Thread.MAX_PRIORITY, LatencyConfig.WaitStrategy.PARK);
+    }
+
+    /**
+     * 取得共用的排程器。相同的優先權和等待策略會使用同一個排程器，工作執行緒的數量最多為2。
+     *
+     * @param priority 傳入工作執行緒的優先權
+     * @param waitStrategy 傳入等待策略
+     * @return 傳回共用的排程器
+     */
+    public static AudioScheduler getShared(final int priority, final LatencyConfig.WaitStrategy waitStrategy) {
+        final String key = String.valueOf(priority).concat(waitStrategy.name());
+        return SHARED.computeIfAbsent(key, k -> new AudioScheduler(Math.min(2, Runtime.getRuntime().availableProcessors()), priority, waitStrategy, 1000000));
+    }
+
+    /**
+     * 將工作或事件丟出的例外交給目前執行緒的UncaughtExceptionHandler記錄，執行緒本身會繼續執行。
+     *
+     * @param ex 傳入例外
+     */
+    private static void report(final Throwable ex) {
+        final Thread thread = Thread.currentThread();
+        try {
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+        } catch (final Throwable ex2) {
+            //記錄失敗時也不能讓執行緒結束
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得排程器目前的時間。使用虛擬時鐘時傳回虛擬時鐘的時間，否則傳回System.nanoTime()。
+     *
+     * @return 傳回時間(奈秒)
+     */
+    public long nanoTime() {
+        return clock == null ? System.nanoTime() : clock.nanoTime();
+    }
+
+    /**
+     * 取得虛擬時鐘。
+     *
+     * @return 傳回虛擬時鐘，沒有使用虛擬時鐘時傳回null
+     */
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    /**
+     * 推進虛擬時鐘，並依照虛擬時間的順序，在目前的執行緒中服務這段期間內到期的所有工作與事件。只能用在使用虛擬時鐘的排程器。
+     *
+     * @param nanos 傳入要推進的時間(奈秒)
+     */
+    public void advance(final long nanos) {
+        if (clock == null) {
+            throw new RuntimeException("Only a scheduler using a virtual clock can be advanced!");
+        }
+        if (nanos < 0) {
+            throw new RuntimeException("Nanos must be at least 0!");
+        }
+        final Worker worker = workers[0];
+        final long target = clock.nanoTime() + nanos;
+        int idlePasses = 0;
+        while (!shutdown) {
+            final long wait = worker.serve(Long.MAX_VALUE);
+            runEvents();
+            if (!worker.incoming.isEmpty()) {
+                //事件中加入了新的工作，在同一個時間服務它們
+                continue;
+            }
+            final long now = clock.nanoTime();
+            if (now >= target) {
+                break;
+            }
+            if (wait > 0) {
+                idlePasses = 0;
+                clock.set(now + Math.min(wait, target - now));
+            } else if (++idlePasses >= MAX_IDLE_PASSES) {
+                //工作一直要求立即被服務卻沒有進展時，讓時間前進一小步，避免永遠停在同一個時間
+                idlePasses = 0;
+                clock.set(now + Math.min(MIN_STEP_NANOS, target - now));
+            }
+        }
+    }
+
+    /**
+     * 在目前的執行緒中執行所有等待中的事件。
+     */
+    private void runEvents() {
+        Runnable event;
+        while ((event = events.poll()) != null) {
+            try {
+                event.run();
+            } catch (final Throwable ex) {
+                //監聽者的例外或錯誤不能影響其他事件
+                report(ex);
+            }
+        }
+    }
+
+    /**
+     * 事件執行緒的工作。
+     */
+    private void dispatchEvents() {
+        while (!shutdown) {
+            final Runnable event;
+            try {
+                event = events.take();
+            } catch (final InterruptedException ex) {
+                return;
+            }
+            try {
+                event.run();
+            } catch (final Throwable ex) {
+                //監聽者的例外或錯誤不能影響其他事件
+                report(ex);
+            }
+        }
+    }
+
+    /**
+     * 加入工作，工作會被分配到其中一個工作執行緒。
+     *
+     * @param task 傳入工作
+     */
+    public void add(final Task task) {
+        if (shutdown) {
+            throw new RuntimeException("The scheduler has been shut down!");
+        }
+        workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)].add(task);
+    }
+
+    /**
+     * 在一段時間之後，於事件執行緒中執行事件。時間是由工作執行緒計算的，因此準確度取決於等待策略。
+     *
+     * @param event 傳入事件
+     * @param delayNanos 傳入延遲的時間(奈秒)
+     */
+    public void schedule(final Runnable event, final long delayNanos) {
+        final long due = nanoTime() + delayNanos;
+        add(() -> {
+            final long remaining = due - nanoTime();
+            if (remaining > 0) {
+                return remaining;
+            }
+            dispatch(event);
+            return -1;
+        });
+    }
+
+    /**
+     * 在事件執行緒中執行事件，事件會依照加入的順序被執行。
+     *
+     * @param event 傳入事件
+     */
+    public void dispatch(final Runnable event) {
+        events.add(event);
+    }
+
+    /**
+     * 在背景執行緒中執行可能會阻塞的工作，例如開啟音訊或是跳轉到某個位置。使用虛擬時鐘時，工作會和事件一樣，在目前的虛擬時間被執行。
+     *
+     * @param job 傳入工作
+     */
+    public void execute(final Runnable job) {
+        if (shutdown) {
+            throw new RuntimeException("The scheduler has been shut down!");
+        }
+        if (background == null) {
+            events.add(job);
+        } else {
+            background.execute(() -> {
+                try {
+                    job.run();
+                } catch (final Throwable ex) {
+                    report(ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * 取得排程器使用的執行緒數量，包含事件執行緒。
+     *
+     * @return 傳回執行緒數量，不包含背景執行緒，使用虛擬時鐘時傳回0
+     */
+    public int getThreadCount() {
+        return clock == null ? workers.length + 1 : 0;
+    }
+
+    /**
+     * 取得目前被排程的工作數量。
+     *
+     * @return 傳回工作數量
+     */
+    public int getTaskCount() {
+        int count = 0;
+        for (final Worker worker : workers) {
+            count += worker.taskCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * 取得等待策略。
+     *
+     * @return 傳回等待策略
+     */
+    public LatencyConfig.WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * 關閉排程器，所有的工作都不會再被服務。共用的排程器不應該被關閉。
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (final Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        if (eventThread != null) {
+            eventThread.interrupt();
+        }
+        if (background != null) {
+            background.shutdown();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.Line;
+
+/**
+ * <p>
+ * 音訊的輸出端，是串流播放器寫入PCM資料的地方。</p>
+ *
+ * <p>
+ * 除了write方法之外，其他方法都不應該等待。寫入的資料量不應該超過available方法傳回的數值，否則write方法可能會等待。</p>
+ *
+ * @author Magic Len
+ */
+public interface AudioSink {
+
+    // -----介面方法-----
+    /**
+     * 開啟輸出端。
+     *
+     * @param format 傳入音訊格式
+     * @param bufferSize 傳入緩衝大小(位元組)
+     * @throws Exception 無法開啟時拋出例外
+     */
+    public void open(final AudioFormat format, final int bufferSize) throws Exception;
+
+    /**
+     * 取得實際的緩衝大小(位元組)。
+     *
+     * @return 傳回緩衝大小
+     */
+    public int getBufferSize();
+
+    /**
+     * 取得目前可以寫入而不需要等待的資料量(位元組)。
+     *
+     * @return 傳回資料量
+     */
+    public int available();
+
+    /**
+     * 寫入PCM資料。
+     *
+     * @param data 傳入PCM資料
+     * @param offset 傳入PCM資料的起始位置
+     * @param length 傳入PCM資料的長度，必須是音框大小的倍數
+     * @return 傳回實際寫入的資料量
+     */
+    public int write(final byte[] data, final int offset, final int length);
+
+    /**
+     * 開始消耗緩衝中的資料。
+     */
+    public void start();
+
+    /**
+     * 停止消耗緩衝中的資料，緩衝中的資料會被保留。
+     */
+    public void stop();
+
+    /**
+     * 捨棄緩衝中的資料。
+     */
+    public void flush();
+
+    /**
+     * 關閉輸出端。
+     */
+    public void close();
+
+    // -----介面預設方法-----
+    /**
+     * 取得背後的音訊線路，用來取得增益與聲道平衡的控制。
+     *
+     * @return 傳回音訊線路，沒有音訊線路時傳回null，播放器會改用軟體處理增益與聲道平衡
+     */
+    default Line getLine() {
+        return null;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * <p>
+ * 音訊監聽點，可以取得正在播放的音訊的每個聲道的峰值、RMS值以及頻譜。</p>
+ *
+ * <p>
+ * 播放的執行緒只會把資料複製到無鎖的環狀緩衝區中，空間不足時直接放棄這筆資料，不會等待；分析工作則是在共用的分析執行緒中進行，因此分析再慢也不會影響到音訊的輸出。為了限制大量播放器同時使用時的CPU用量，可以設定抽樣間隔，每幾個資料區塊才分析一次。</p>
+ *
+ * <p>
+ * 每次分析完成後，峰值、RMS值與頻譜會被包成一份快照，透過volatile參考發布給讀取的執行緒，因此讀取者一定會看到完整的分析結果。快照有兩份，分析執行緒會交替地寫入沒有被發布的那一份，已經發布的快照在下一次分析完成之前不會被修改，也不需要在每次分析時配置新的陣列。沒有讀到新的資料時，不會發布新的快照，最近一次的分析結果會被保留。</p>
+ *
+ * <p>
+ * 一個音訊監聽點只能被加入到一個播放器中。</p>
+ *
+ * @author Magic Len
+ */
+public class AudioTap {
+
+    // -----類別介面-----
+    /**
+     * 分析結果更新的監聽者。
+     */
+    public static interface Listener {
+
+        /**
+         * 當分析結果更新時，會在分析執行緒中被呼叫。
+         *
+         * @param tap 傳入音訊監聽點
+         */
+        public void analyzed(final AudioTap tap);
+    }
+
+    // -----類別常數-----
+    private static final Snapshot EMPTY = new Snapshot(new float[0], new float[0], new float[0]);
+
+    // -----類別類別-----
+    /**
+     * 一次分析結果的快照，被發布之後，直到下一次分析完成之前都不會被修改。
+     */
+    private static final class Snapshot {
+
+        private final float[] peaks, rms, spectrum;
+
+        private Snapshot(final float[] peaks, final float[] rms, final float[] spectrum) {
+            this.peaks = peaks;
+            this.rms = rms;
+            this.spectrum = spectrum;
+        }
+    }
+
+    //-----物件常數-----
+    private final int decimation, fftSize;
+
+    //-----物件變數-----
+    private volatile AudioFormat format;
+    private ByteRingBuffer ring;
+    private int blockCounter;
+    private volatile long droppedBlocks;
+    private byte[] scratch;
+    private float[] samples, fftSamples;
+    private int fftFilled;
+    private Fft fft;
+    private float[] spectrum;
+    private double[] sums;
+    private Snapshot[] buffers;
+    private int back;
+    private volatile Snapshot snapshot = EMPTY;
+    private volatile Listener listener;
+
+    // -----建構子-----
+    /**
+     * 建構子，只分析峰值和RMS值，且分析每個資料區塊。
+     */
+    public AudioTap() {
+        this(1, 0);
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param decimation 傳入抽樣間隔，每幾個資料區塊才分析一次，1表示每個資料區塊都會被分析
+     * @param fftSize 傳入FFT的大小，必須是2的次方，0表示不計算頻譜
+     */
+    public AudioTap(final int decimation, final int fftSize) {
+        if (decimation < 1) {
+            throw new RuntimeException("Decimation must be at least 1!");
+        }
+        if (fftSize != 0 && (fftSize < 16 || Integer.bitCount(fftSize) != 1)) {
+            throw new RuntimeException("The FFT size must be 0 or a power of 2 and at least 16!");
+        }
+        this.decimation = decimation;
+        this.fftSize = fftSize;
+    }
+
+    // -----物件方法-----
+    /**
+     * 連接到音訊格式，由播放器在加入這個音訊監聽點時呼叫。
+     *
+     * @param format 傳入播放中的音訊格式
+     */
+    synchronized void attach(final AudioFormat format) {
+        if (this.format != null) {
+            throw new RuntimeException("This tap has been added to another player!");
+        }
+        if (!PcmCodec.isSupported(format)) {
+            throw new RuntimeException("The audio format isn't supported by taps: ".concat(format.toString()));
+        }
+        final int channels = format.getChannels();
+        final int frameSize = format.getFrameSize();
+        final int chunkFrames = Math.max(fftSize, 4096);
+        ring = new ByteRingBuffer(chunkFrames * frameSize * 4);
+        scratch = new byte[chunkFrames * frameSize];
+        samples = new float[chunkFrames * channels];
+        if (fftSize > 0) {
+            fft = new Fft(fftSize);
+            fftSamples = new float[fftSize];
+            spectrum = new float[fftSize / 2];
+        }
+        sums = new double[channels];
+        buffers = new Snapshot[]{new Snapshot(new float[channels], new float[channels], new float[fftSize / 2]), new Snapshot(new float[channels], new float[channels], new float[fftSize / 2])};
+        back = 1;
+        snapshot = buffers[0];
+        this.format = format;
+        TapAnalyzer.register(this);
+    }
+
+    /**
+     * 中斷與播放器的連接，由播放器在移除這個音訊監聽點時呼叫。
+     */
+    synchronized void detach() {
+        TapAnalyzer.unregister(this);
+        format = null;
+    }
+
+    /**
+     * 提供播放中的資料，只能由播放器的執行緒呼叫，不會等待。
+     *
+     * @param data 傳入PCM資料
+     * @param offset 傳入PCM資料的起始位置
+     * @param length 傳入PCM資料的長度，必須是音框大小的倍數
+     */
+    void offer(final byte[] data, final int offset, final int length) {
+        if (++blockCounter < decimation) {
+            return;
+        }
+        blockCounter = 0;
+        if (!ring.offer(data, offset, length)) {
+            ++droppedBlocks;
+        }
+    }
+
+    /**
+     * 分析環狀緩衝區中的資料，只能由分析執行緒呼叫。
+     */
+    void analyze() {
+        final AudioFormat format = this.format;
+        if (format == null) {
+            return;
+        }
+        final int channels = format.getChannels();
+        final int frameSize = format.getFrameSize();
+        final Snapshot next = buffers[back];
+        final float[] newPeaks = next.peaks;
+        Arrays.fill(newPeaks, 0);
+        Arrays.fill(sums, 0);
+        boolean newSpectrum = false;
+        long totalFrames = 0;
+        while (true) {
+            final int read = ring.poll(scratch, 0, scratch.length);
+            if (read <= 0) {
+                break;
+            }
+            final int frames = read / frameSize;
+            PcmCodec.decode(scratch, 0, frames, format, samples);
+            for (int i = 0, s = 0; i < frames; ++i) {
+                float mono = 0;
+                for (int c = 0; c < channels; ++c, ++s) {
+                    final float v = samples[s];
+                    final float a = Math.abs(v);
+                    if (a > newPeaks[c]) {
+                        newPeaks[c] = a;
+                    }
+                    sums[c] += v * v;
+                    mono += v;
+                }
+                if (fft != null) {
+                    fftSamples[fftFilled++] = mono / channels;
+                    if (fftFilled == fftSize) {
+                        fft.spectrum(fftSamples, spectrum);
+                        fftFilled = 0;
+                        newSpectrum = true;
+                    }
+                }
+            }
+            totalFrames += frames;
+        }
+        if (totalFrames == 0) {
+            //沒有新的資料時保留最近一次的分析結果，讓顯示的音量不會在兩次寫入之間閃爍成靜音
+            return;
+        }
+        for (int c = 0; c < channels; ++c) {
+            next.rms[c] = (float) Math.sqrt(sums[c] / totalFrames);
+        }
+        System.arraycopy(newSpectrum ? spectrum : snapshot.spectrum, 0, next.spectrum, 0, next.spectrum.length);
+        snapshot = next;
+        back ^= 1;
+        final Listener l = listener;
+        if (l != null) {
+            l.analyzed(this);
+        }
+    }
+
+    /**
+     * 取得聲道數量。
+     *
+     * @return 傳回聲道數量，尚未加入到播放器時傳回0
+     */
+    public int getChannels() {
+        return snapshot.peaks.length;
+    }
+
+    /**
+     * 取得最近一次分析的峰值，範圍是0~1。
+     *
+     * @param channel 傳入聲道
+     * @return 傳回峰值
+     */
+    public float getPeak(final int channel) {
+        return snapshot.peaks[channel];
+    }
+
+    /**
+     * 取得最近一次分析的RMS值，範圍是0~1。
+     *
+     * @param channel 傳入聲道
+     * @return 傳回RMS值
+     */
+    public float getRMS(final int channel) {
+        return snapshot.rms[channel];
+    }
+
+    /**
+     * 取得最近一次計算的頻譜強度(dBFS)，所有聲道會被混成單聲道計算。
+     *
+     * @param dst 傳入用來存放頻譜強度的陣列，長度至少要是FFT大小的一半
+     * @return 傳回頻率區間的數量，也就是FFT大小的一半，不計算頻譜時傳回0
+     */
+    public int getSpectrum(final float[] dst) {
+        final float[] s = snapshot.spectrum;
+        System.arraycopy(s, 0, dst, 0, s.length);
+        return s.length;
+    }
+
+    /**
+     * 取得頻譜中某個頻率區間的中心頻率(Hz)。
+     *
+     * @param bin 傳入頻率區間的索引
+     * @return 傳回頻率，尚未加入到播放器或不計算頻譜時傳回0
+     */
+    public float getBinFrequency(final int bin) {
+        final AudioFormat f = format;
+        if (f == null || fftSize == 0) {
+            return 0;
+        }
+        return bin * f.getSampleRate() / fftSize;
+    }
+
+    /**
+     * 取得抽樣間隔。
+     *
+     * @return 傳回抽樣間隔
+     */
+    public int getDecimation() {
+        return decimation;
+    }
+
+    /**
+     * 取得FFT的大小。
+     *
+     * @return 傳回FFT的大小，0表示不計算頻譜
+     */
+    public int getFFTSize() {
+        return fftSize;
+    }
+
+    /**
+     * 取得因為分析跟不上而被放棄的資料區塊數量。
+     *
+     * @return 傳回資料區塊數量
+     */
+    public long getDroppedBlocks() {
+        return droppedBlocks;
+    }
+
+    /**
+     * 設定分析結果更新的監聽者。
+     *
+     * @param listener 傳入監聽者
+     */
+    public void setListener(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 取得分析結果更新的監聽者。
+     *
+     * @return 傳回監聽者
+     */
+    public Listener getListener() {
+        return listener;
+    }
+}
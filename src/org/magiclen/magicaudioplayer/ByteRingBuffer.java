@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 單一生產者、單一消費者的無鎖位元組環狀緩衝區。生產者在空間不足時不會等待，而是直接放棄寫入。
+ *
+ * @author Magic Len
+ */
+final class ByteRingBuffer {
+
+    //-----物件常數-----
+    private final byte[] data;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入最小容量。實際容量會是2的次方。
+     *
+     * @param minCapacity 傳入最小容量
+     */
+    ByteRingBuffer(final int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(16, minCapacity));
+        if (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        data = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    // -----物件方法-----
+    /**
+     * 寫入資料，只能由生產者的執行緒呼叫。
+     *
+     * @param src 傳入資料
+     * @param offset 傳入資料的起始位置
+     * @param length 傳入資料的長度
+     * @return 傳回是否寫入成功，空間不足時傳回false
+     */
+    boolean offer(final byte[] src, final int offset, final int length) {
+        final long h = head.get();
+        if (data.length - (h - tail.get()) < length) {
+            return false;
+        }
+        final int start = (int) (h & mask);
+        final int first = Math.min(length, data.length - start);
+        System.arraycopy(src, offset, data, start, first);
+        System.arraycopy(src, offset + first, data, 0, length - first);
+        head.lazySet(h + length);
+        return true;
+    }
+
+    /**
+     * 讀取資料，只能由消費者的執行緒呼叫。
+     *
+     * @param dst 傳入用來存放資料的陣列
+     * @param offset 傳入陣列的起始位置
+     * @param length 傳入最多要讀取的長度
+     * @return 傳回實際讀取的長度
+     */
+    int poll(final byte[] dst, final int offset, final int length) {
+        final long t = tail.get();
+        final int n = (int) Math.min(length, head.get() - t);
+        if (n <= 0) {
+            return 0;
+        }
+        final int start = (int) (t & mask);
+        final int first = Math.min(n, data.length - start);
+        System.arraycopy(data, start, dst, offset, first);
+        System.arraycopy(data, 0, dst, offset + first, n - first);
+        tail.lazySet(t + n);
+        return n;
+    }
+
+    /**
+     * 取得可以讀取的資料長度。
+     *
+     * @return 傳回資料長度
+     */
+    int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * 取得容量。
+     *
+     * @return 傳回容量
+     */
+    int capacity() {
+        return data.length;
+    }
+}
@@ -0,0 +1,737 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 串流音訊的區塊快取，適合需要頻繁移動播放位置的用途，例如音訊編輯器的拖曳播放(scrubbing)。</p>
+ *
+ * <p>
+ * 解碼後的PCM資料會被切成固定音框數量的區塊，並以區塊的索引存放，超過容量時會移除最久沒有被使用的區塊，因此使用的記憶體有上限。從快取開啟的音訊輸入串流在略過資料時不需要解碼，移動位置只要找到對應的區塊就好。讀取到新的區塊時，會依照DecodeAheadPolicy在背景中預先解碼播放頭附近的區塊，移動方向會依照播放頭的移動自動判斷。解碼器可以接續解碼的區塊會直接接續解碼；解碼器已經越過或是相隔太遠的區塊，例如播放頭後方的區塊，則由預先解碼專用的另一個解碼器重新開啟並略過資料後解碼，不會佔用讀取時使用的解碼器。讀取時才需要解碼的區塊優先於預先解碼，背景的工作在每個區塊之間都會確認是否有讀取正在等待。</p>
+ *
+ * <p>
+ * 讀取時使用的解碼器在往後的方向上會接續解碼，往前移動或是跳得太遠時才會重新開啟解碼器。</p>
+ *
+ * @author Magic Len
+ */
+public final class ChunkCache implements StreamingPlayer.Source {
+
+    // -----類別常數-----
+    /**
+     * 預設的區塊大小(音框)。
+     */
+    public static final int DEFAULT_CHUNK_FRAMES = 32768;
+    /**
+     * 預設的最大區塊數量。
+     */
+    public static final int DEFAULT_MAX_CHUNKS = 64;
+    /**
+     * 解碼器和要解碼的區塊之間最多相隔多少區塊時，會直接接續解碼並快取中間的區塊，而不是略過它們。
+     */
+    private static final int DECODE_THROUGH_CHUNKS = 2;
+    private static final byte[] EMPTY = new byte[0];
+
+    // -----類別類別-----
+    /**
+     * 從快取讀取資料的輸入串流。
+     */
+    private final class ChunkStream extends InputStream {
+
+        private final byte[] single = new byte[1];
+        private long position, chunkIndex = -1;
+        private byte[] chunk;
+
+        @Override
+        public int read() {
+            return read(single, 0, 1) == 1 ? single[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            final long index = position / chunkBytes;
+            if (index != chunkIndex) {
+                chunk = get(index);
+                chunkIndex = index;
+            }
+            final int offset = (int) (position % chunkBytes);
+            if (offset >= chunk.length) {
+                return -1;
+            }
+            final int n = Math.min(len, chunk.length - offset);
+            System.arraycopy(chunk, offset, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            long target = position + n;
+            final long length = frameLength;
+            if (length >= 0) {
+                target = Math.min(target, length * frameSize);
+            }
+            final long skipped = Math.max(0, target - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            if (chunk == null || position / chunkBytes != chunkIndex) {
+                return 0;
+            }
+            return Math.max(0, chunk.length - (int) (position % chunkBytes));
+        }
+    }
+
+    //-----物件常數-----
+    private final URL url;
+    private final AudioFormat format;
+    private final int frameSize, chunkFrames, chunkBytes, maxChunks;
+    private final LinkedHashMap<Long, byte[]> chunks;
+    private final Object decodeLock = new Object(), seekLock = new Object();
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+    private final AtomicInteger foreground = new AtomicInteger();
+    private final Runnable prefetchTask = this::prefetch;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), speculative = new LongAdder(), evictions = new LongAdder(), reopens = new LongAdder(), decodeNanos = new LongAdder(), failures = new LongAdder();
+
+    //-----物件變數-----
+    private AudioInputStream decoder, seekDecoder;
+    private long decoderChunk, seekChunk;
+    private volatile long frameLength, playhead;
+    private volatile int direction = 1;
+    private volatile boolean dirty, closed;
+    private volatile DecodeAheadPolicy policy;
+    private volatile Executor executor = ForkJoinPool.commonPool();
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入檔案，使用預設的區塊大小、最大區塊數量，並預先解碼播放頭之後的4個區塊。
+     *
+     * @param file 傳入聲音檔案
+     */
+    public ChunkCache(final File file) {
+        this(toURL(file));
+    }
+
+    /**
+     * 建構子，傳入URL，使用預設的區塊大小、最大區塊數量，並預先解碼播放頭之後的4個區塊。
+     *
+     * @param url 傳入聲音URL
+     */
+    public ChunkCache(final URL url) {
+        this(url, DEFAULT_CHUNK_FRAMES, DEFAULT_MAX_CHUNKS, DecodeAheadPolicy.forward(4));
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param url 傳入聲音URL
+     * @param chunkFrames 傳入區塊大小(音框)
+     * @param maxChunks 傳入最大區塊數量，至少要有2個
+     * @param policy 傳入預先解碼策略
+     */
+    public ChunkCache(final URL url, final int chunkFrames, final int maxChunks, final DecodeAheadPolicy policy) {
+        if (url == null) {
+            throw new RuntimeException("URL can't be null!");
+        }
+        if (chunkFrames < 1) {
+            throw new RuntimeException("ChunkFrames must be at least 1!");
+        }
+        if (maxChunks < 2) {
+            throw new RuntimeException("MaxChunks must be at least 2!");
+        }
+        if (policy == null) {
+            throw new RuntimeException("DecodeAheadPolicy can't be null!");
+        }
+        this.url = url;
+        this.chunkFrames = chunkFrames;
+        this.maxChunks = maxChunks;
+        this.policy = policy;
+        try {
+            decoder = AudioDecoding.open(url);
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+        format = decoder.getFormat();
+        frameSize = format.getFrameSize();
+        chunkBytes = chunkFrames * frameSize;
+        final long length = decoder.getFrameLength();
+        frameLength = length == AudioSystem.NOT_SPECIFIED ? -1 : length;
+        chunks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+                if (size() > ChunkCache.this.maxChunks) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // -----類別方法-----
+    /**
+     * 將檔案轉成URL。
+     *
+     * @param file 傳入聲音檔案
+     * @return 傳回聲音URL
+     */
+    private static URL toURL(final File file) {
+        try {
+            return file.getAbsoluteFile().toURI().toURL();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 開啟新的音訊輸入串流，串流會從開頭開始讀取。略過資料時不會解碼。
+     *
+     * @return 傳回音訊輸入串流
+     */
+    @Override
+    public AudioInputStream openStream() {
+        if (closed) {
+            throw new RuntimeException("The chunk cache has been closed!");
+        }
+        final long length = frameLength;
+        return new AudioInputStream(new ChunkStream(), format, length < 0 ? AudioSystem.NOT_SPECIFIED : length);
+    }
+
+    /**
+     * 取得區塊，沒有被快取的區塊會立刻被解碼。
+     *
+     * @param index 傳入區塊的索引
+     * @return 傳回區塊的資料，超過音訊的結尾時傳回空陣列
+     */
+    private byte[] get(final long index) {
+        final long count = getChunkCount();
+        if (count >= 0 && index >= count) {
+            return EMPTY;
+        }
+        byte[] chunk;
+        synchronized (chunks) {
+            chunk = chunks.get(index);
+        }
+        if (chunk != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            //讓背景的預先解碼在目前的區塊完成之後讓出解碼器
+            foreground.incrementAndGet();
+            try {
+                synchronized (decodeLock) {
+                    synchronized (chunks) {
+                        chunk = chunks.get(index);
+                    }
+                    if (chunk == null) {
+                        chunk = decode(index);
+                    }
+                }
+            } finally {
+                foreground.decrementAndGet();
+            }
+        }
+        moveTo(index);
+        return chunk;
+    }
+
+    /**
+     * 判斷區塊是否已經被快取，不會改變區塊被使用的順序。
+     *
+     * @param index 傳入區塊的索引
+     * @return 傳回是否已經被快取
+     */
+    private boolean contains(final long index) {
+        synchronized (chunks) {
+            return chunks.containsKey(index);
+        }
+    }
+
+    /**
+     * 解碼區塊並放入快取。必須在持有解碼器的鎖的情況下呼叫。
+     *
+     * @param index 傳入區塊的索引
+     * @return 傳回區塊的資料，超過音訊的結尾時傳回空陣列
+     */
+    private byte[] decode(final long index) {
+        if (closed) {
+            throw new RuntimeException("The chunk cache has been closed!");
+        }
+        final long start = System.nanoTime();
+        try {
+            if (decoder == null || decoderChunk > index) {
+                //解碼器不能往前移動，只能重新開啟
+                if (decoder != null) {
+                    decoder.close();
+                }
+                decoder = AudioDecoding.open(url);
+                decoderChunk = 0;
+                reopens.increment();
+            }
+            if (index - decoderChunk > DECODE_THROUGH_CHUNKS) {
+                final long bytes = (index - decoderChunk) * chunkBytes;
+                final long skipped = AudioDecoding.skipFully(decoder, bytes);
+                if (skipped < bytes) {
+                    frameLength = (decoderChunk * chunkBytes + skipped) / frameSize;
+                    decoderChunk = Long.MAX_VALUE;
+                    return EMPTY;
+                }
+                decoderChunk = index;
+            }
+            //接續解碼，中間的區塊也會被快取
+            byte[] chunk = EMPTY;
+            while (decoderChunk <= index) {
+                final byte[] buffer = new byte[chunkBytes];
+                final int n = AudioDecoding.readFully(decoder, buffer, 0, chunkBytes);
+                chunk = n == chunkBytes ? buffer : Arrays.copyOf(buffer, n);
+                synchronized (chunks) {
+                    chunks.put(decoderChunk, chunk);
+                }
+                if (n < chunkBytes) {
+                    //已經到了結尾，之後的區塊都是空的
+                    final boolean last = decoderChunk == index;
+                    frameLength = (decoderChunk * chunkBytes + n) / frameSize;
+                    decoderChunk = Long.MAX_VALUE;
+                    return last ? chunk : EMPTY;
+                }
+                ++decoderChunk;
+            }
+            return chunk;
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        } finally {
+            decodeNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 移動播放頭，並在背景中預先解碼播放頭附近的區塊。
+     *
+     * @param index 傳入播放頭所在的區塊的索引
+     */
+    private void moveTo(final long index) {
+        final long previous = playhead;
+        if (index != previous) {
+            direction = index > previous ? 1 : -1;
+            playhead = index;
+        }
+        dirty = true;
+        if (prefetching.compareAndSet(false, true)) {
+            executor.execute(prefetchTask);
+        }
+    }
+
+    /**
+     * 預先解碼的工作。播放頭在解碼期間移動時，會依照新的位置重新規劃。
+     */
+    private void prefetch() {
+        try {
+            while (dirty && !closed) {
+                dirty = false;
+                final long[] plan = policy.plan(playhead, direction, getChunkCount());
+                //不能超過快取的容量，否則預先解碼的區塊會互相移除
+                final int limit = Math.min(plan.length, maxChunks - 1);
+                final long[] far = new long[limit];
+                int farCount = 0;
+                for (int i = 0; i < limit && !dirty && !closed; ++i) {
+                    final long index = plan[i];
+                    if (contains(index)) {
+                        continue;
+                    }
+                    if (foreground.get() > 0) {
+                        //讀取時需要解碼的區塊優先，它讀取完畢之後會重新規劃
+                        return;
+                    }
+                    synchronized (decodeLock) {
+                        if (closed || contains(index)) {
+                            continue;
+                        }
+                        if (decoder != null && index >= decoderChunk && index - decoderChunk <= DECODE_THROUGH_CHUNKS) {
+                            decode(index);
+                            speculative.increment();
+                        } else {
+                            //讀取時使用的解碼器不會為了預先解碼而重新開啟或是略過資料
+                            far[farCount++] = index;
+                        }
+                    }
+                }
+                if (farCount > 0 && !dirty && !closed) {
+                    prefetchFar(Arrays.copyOf(far, farCount));
+                }
+            }
+        } catch (final Exception ex) {
+            //放棄預先解碼，區塊被讀取時會再解碼一次
+            failures.increment();
+        } finally {
+            prefetching.set(false);
+        }
+        if (dirty && !closed && prefetching.compareAndSet(false, true)) {
+            executor.execute(prefetchTask);
+        }
+    }
+
+    /**
+     * 使用預先解碼專用的解碼器，解碼讀取時使用的解碼器無法接續解碼的區塊。專用的解碼器需要時會重新開啟並略過資料，但不會持有讀取時使用的解碼器的鎖，因此不會阻塞讀取；每略過或解碼一個區塊之後，都會在有讀取正在等待解碼或是播放頭移動時停下來。
+     *
+     * @param indices 傳入區塊的索引
+     * @throws Exception 拋出例外
+     */
+    private void prefetchFar(final long[] indices) throws Exception {
+        Arrays.sort(indices);
+        synchronized (seekLock) {
+            try {
+                for (final long index : indices) {
+                    if (contains(index)) {
+                        continue;
+                    }
+                    if (seekDecoder == null || seekChunk > index) {
+                        if (seekDecoder != null) {
+                            seekDecoder.close();
+                            seekDecoder = null;
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        seekDecoder = AudioDecoding.open(url);
+                        seekChunk = 0;
+                        reopens.increment();
+                    }
+                    while (seekChunk <= index) {
+                        if (closed || dirty || foreground.get() > 0) {
+                            return;
+                        }
+                        final long start = System.nanoTime();
+                        try {
+                            if (seekChunk < index) {
+                                if (AudioDecoding.skipFully(seekDecoder, chunkBytes) < chunkBytes) {
+                                    //區塊超過了音訊的結尾
+                                    seekChunk = Long.MAX_VALUE;
+                                    return;
+                                }
+                                ++seekChunk;
+                                continue;
+                            }
+                            final byte[] buffer = new byte[chunkBytes];
+                            final int n = AudioDecoding.readFully(seekDecoder, buffer, 0, chunkBytes);
+                            synchronized (chunks) {
+                                chunks.put(index, n == chunkBytes ? buffer : Arrays.copyOf(buffer, n));
+                            }
+                            speculative.increment();
+                            if (n < chunkBytes) {
+                                frameLength = (index * chunkBytes + n) / frameSize;
+                                seekChunk = Long.MAX_VALUE;
+                                return;
+                            }
+                            ++seekChunk;
+                        } finally {
+                            decodeNanos.add(System.nanoTime() - start);
+                        }
+                    }
+                }
+            } catch (final Exception ex) {
+                if (seekDecoder != null) {
+                    seekDecoder.close();
+                    seekDecoder = null;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * 設定預先解碼策略。
+     *
+     * @param policy 傳入預先解碼策略
+     */
+    public void setPolicy(final DecodeAheadPolicy policy) {
+        if (policy == null) {
+            throw new RuntimeException("DecodeAheadPolicy can't be null!");
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * 取得預先解碼策略。
+     *
+     * @return 傳回預先解碼策略
+     */
+    public DecodeAheadPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 設定執行預先解碼的執行器。預設為ForkJoinPool.commonPool()。
+     *
+     * @param executor 傳入執行器
+     */
+    public void setExecutor(final Executor executor) {
+        if (executor == null) {
+            throw new RuntimeException("Executor can't be null!");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * 取得聲音URL。
+     *
+     * @return 傳回聲音URL
+     */
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * 取得解碼後的音訊格式。
+     *
+     * @return 傳回音訊格式
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 取得音訊的長度(音框)。
+     *
+     * @return 傳回音訊的長度，還沒解碼到結尾而無法得知時傳回-1
+     */
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * 取得區塊大小。
+     *
+     * @return 傳回區塊大小(音框)
+     */
+    public int getChunkFrames() {
+        return chunkFrames;
+    }
+
+    /**
+     * 取得音訊被切成的區塊數量。
+     *
+     * @return 傳回區塊數量，無法得知音訊的長度時傳回-1
+     */
+    public long getChunkCount() {
+        final long length = frameLength;
+        return length < 0 ? -1 : (length + chunkFrames - 1) / chunkFrames;
+    }
+
+    /**
+     * 取得最大區塊數量。
+     *
+     * @return 傳回最大區塊數量
+     */
+    public int getMaxChunks() {
+        return maxChunks;
+    }
+
+    /**
+     * 取得快取中的區塊數量。
+     *
+     * @return 傳回區塊數量
+     */
+    public int getCachedChunkCount() {
+        synchronized (chunks) {
+            return chunks.size();
+        }
+    }
+
+    /**
+     * 取得快取中的區塊使用的記憶體。
+     *
+     * @return 傳回記憶體(位元組)
+     */
+    public long getCachedBytes() {
+        long bytes = 0;
+        synchronized (chunks) {
+            for (final byte[] chunk : chunks.values()) {
+                bytes += chunk.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 取得快取最多會使用的記憶體。
+     *
+     * @return 傳回記憶體(位元組)
+     */
+    public long getMaxBytes() {
+        return (long) maxChunks * chunkBytes;
+    }
+
+    /**
+     * 取得讀取區塊時區塊已經被快取的次數。
+     *
+     * @return 傳回次數
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 取得讀取區塊時必須等待解碼的次數。
+     *
+     * @return 傳回次數
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 取得命中率。
+     *
+     * @return 傳回命中率，範圍0~1，還沒讀取過任何區塊時傳回0
+     */
+    public double getHitRate() {
+        final long h = hits.sum();
+        final long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * 取得預先解碼的區塊數量。
+     *
+     * @return 傳回區塊數量
+     */
+    public long getSpeculativeCount() {
+        return speculative.sum();
+    }
+
+    /**
+     * 取得因為超過容量而被移除的區塊數量。
+     *
+     * @return 傳回區塊數量
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * 取得重新開啟解碼器的次數。
+     *
+     * @return 傳回次數
+     */
+    public long getReopenCount() {
+        return reopens.sum();
+    }
+
+    /**
+     * 取得預先解碼失敗的次數。失敗時那一次的預先解碼會被放棄，區塊被讀取時會再解碼一次。
+     *
+     * @return 傳回次數
+     */
+    public long getPrefetchFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * 取得解碼所花的時間，包括預先解碼。
+     *
+     * @return 傳回時間(奈秒)
+     */
+    public long getDecodeNanos() {
+        return decodeNanos.sum();
+    }
+
+    /**
+     * 將所有統計資料歸零。
+     */
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        speculative.reset();
+        evictions.reset();
+        reopens.reset();
+        decodeNanos.reset();
+        failures.reset();
+    }
+
+    /**
+     * 判斷快取是否已經被關閉。
+     *
+     * @return 傳回是否已經被關閉
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 關閉快取，關閉解碼器並清除所有區塊。
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (decodeLock) {
+            if (decoder != null) {
+                try {
+                    decoder.close();
+                } catch (final Exception ex) {
+                    //已經要關閉了，不需要處理
+                }
+                decoder = null;
+            }
+        }
+        synchronized (seekLock) {
+            if (seekDecoder != null) {
+                try {
+                    seekDecoder.close();
+                } catch (final Exception ex) {
+                    //已經要關閉了，不需要處理
+                }
+                seekDecoder = null;
+            }
+        }
+        synchronized (chunks) {
+            chunks.clear();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * <p>
+ * 使用區塊快取的串流播放器，適合需要頻繁移動播放位置的用途，例如音訊編輯器的拖曳播放(scrubbing)。</p>
+ *
+ * <p>
+ * 和StreamingPlayer一樣是邊解碼邊播放，但是解碼後的資料會被存放在ChunkCache中，移動位置時只要找到對應的區塊，不需要從頭重新解碼；播放頭附近的區塊也會在背景中被預先解碼。使用的記憶體不會超過快取的容量，不需要像Clip一樣把整個聲音載入到記憶體中。快取由播放器管理，會在播放器被關閉時一起被關閉。</p>
+ *
+ * @author Magic Len
+ */
+public class ChunkedStreamingPlayer extends StreamingPlayer {
+
+    //-----物件常數-----
+    private final ChunkCache cache;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入檔案，使用預設的快取設定。
+     *
+     * @param file 傳入聲音檔案
+     */
+    public ChunkedStreamingPlayer(final File file) {
+        this(new ChunkCache(file), new LatencyConfig(), new LineSink());
+    }
+
+    /**
+     * 建構子，傳入URL，使用預設的快取設定。
+     *
+     * @param url 傳入聲音URL
+     */
+    public ChunkedStreamingPlayer(final URL url) {
+        this(new ChunkCache(url), new LatencyConfig(), new LineSink());
+    }
+
+    /**
+     * 建構子，傳入快取、延遲設定和輸出端。
+     *
+     * @param cache 傳入區塊快取，不能是已經被其他播放器使用的快取
+     * @param latencyConfig 傳入延遲設定
+     * @param sink 傳入輸出端，不能是已經開啟的輸出端
+     */
+    public ChunkedStreamingPlayer(final ChunkCache cache, final LatencyConfig latencyConfig, final AudioSink sink) {
+        super(getURL(cache), latencyConfig, sink, cache);
+        this.cache = cache;
+    }
+
+    // -----類別方法-----
+    /**
+     * 取得快取的聲音URL。
+     *
+     * @param cache 傳入區塊快取
+     * @return 傳回聲音URL
+     */
+    private static URL getURL(final ChunkCache cache) {
+        if (cache == null) {
+            throw new RuntimeException("ChunkCache can't be null!");
+        }
+        return cache.getURL();
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得區塊快取，可以用來取得命中率等統計資料。播放器被關閉之後，快取也會被關閉。
+     *
+     * @return 傳回區塊快取
+     */
+    public ChunkCache getChunkCache() {
+        return cache;
+    }
+}
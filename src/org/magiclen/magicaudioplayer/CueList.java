@@ -0,0 +1,160 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * 依照位置排序的提示點列表。</p>
+ *
+ * <p>
+ * 位置被存放在排序好的long陣列中，因此找出某個區塊中的提示點只需要一次二元搜尋。列表使用寫入時複製，讀取的執行緒(音訊執行緒)不需要鎖。</p>
+ *
+ * @author Magic Len
+ */
+final class CueList {
+
+    // -----類別類別-----
+    /**
+     * 列表某個時間點的內容，不會再被修改。
+     */
+    static final class Snapshot {
+
+        final long[] positions;
+        final Runnable[] actions;
+
+        Snapshot(final long[] positions, final Runnable[] actions) {
+            this.positions = positions;
+            this.actions = actions;
+        }
+
+        /**
+         * 找出第一個位置大於等於某個位置的提示點。
+         *
+         * @param position 傳入位置
+         * @return 傳回提示點的索引，沒有的話傳回提示點的數量
+         */
+        int ceiling(final long position) {
+            int low = 0, high = positions.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (positions[mid] < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * 取得提示點的數量。
+         *
+         * @return 傳回提示點的數量
+         */
+        int size() {
+            return positions.length;
+        }
+    }
+
+    // -----類別常數-----
+    private static final Snapshot EMPTY = new Snapshot(new long[0], new Runnable[0]);
+
+    //-----物件變數-----
+    private volatile Snapshot snapshot = EMPTY;
+
+    // -----物件方法-----
+    /**
+     * 取得列表目前的內容。
+     *
+     * @return 傳回列表目前的內容
+     */
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 判斷列表是否為空。
+     *
+     * @return 傳回列表是否為空
+     */
+    boolean isEmpty() {
+        return snapshot.positions.length == 0;
+    }
+
+    /**
+     * 加入提示點，相同位置的提示點會依照加入的順序被觸發。
+     *
+     * @param position 傳入位置
+     * @param action 傳入動作
+     */
+    synchronized void add(final long position, final Runnable action) {
+        if (position < 0) {
+            throw new RuntimeException("The position of a cue point must be at least 0!");
+        }
+        if (action == null) {
+            throw new RuntimeException("The action can't be null!");
+        }
+        final Snapshot s = snapshot;
+        final int index = s.ceiling(position + 1);
+        final int n = s.positions.length;
+        final long[] positions = new long[n + 1];
+        final Runnable[] actions = new Runnable[n + 1];
+        System.arraycopy(s.positions, 0, positions, 0, index);
+        System.arraycopy(s.actions, 0, actions, 0, index);
+        positions[index] = position;
+        actions[index] = action;
+        System.arraycopy(s.positions, index, positions, index + 1, n - index);
+        System.arraycopy(s.actions, index, actions, index + 1, n - index);
+        snapshot = new Snapshot(positions, actions);
+    }
+
+    /**
+     * 移除使用某個動作的所有提示點。
+     *
+     * @param action 傳入動作
+     * @return 傳回是否有提示點被移除
+     */
+    synchronized boolean remove(final Runnable action) {
+        final Snapshot s = snapshot;
+        final int n = s.positions.length;
+        final long[] positions = new long[n];
+        final Runnable[] actions = new Runnable[n];
+        int m = 0;
+        for (int i = 0; i < n; ++i) {
+            if (s.actions[i] != action) {
+                positions[m] = s.positions[i];
+                actions[m] = s.actions[i];
+                ++m;
+            }
+        }
+        if (m == n) {
+            return false;
+        }
+        snapshot = new Snapshot(Arrays.copyOf(positions, m), Arrays.copyOf(actions, m));
+        return true;
+    }
+
+    /**
+     * 移除所有提示點。
+     */
+    synchronized void clear() {
+        snapshot = EMPTY;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 提示點的準確度統計。誤差是提示點的動作實際被執行的時間，與提示點的位置實際被播放的時間之間的差距，正數表示太晚。
+ *
+ * @author Magic Len
+ */
+public final class CueStatistics {
+
+    //-----物件常數-----
+    private final LongAdder count = new LongAdder(), sumAbsError = new LongAdder();
+    private final AtomicLong maxAbsError = new AtomicLong(), maxLateness = new AtomicLong(Long.MIN_VALUE);
+
+    // -----建構子-----
+    /**
+     * 建構子，只能由播放器建立。
+     */
+    CueStatistics() {
+
+    }
+
+    // -----物件方法-----
+    /**
+     * 記錄一個提示點的誤差。
+     *
+     * @param errorMicros 傳入誤差(微秒)
+     */
+    void record(final long errorMicros) {
+        count.increment();
+        final long abs = Math.abs(errorMicros);
+        sumAbsError.add(abs);
+        maxAbsError.accumulateAndGet(abs, Math::max);
+        maxLateness.accumulateAndGet(errorMicros, Math::max);
+    }
+
+    /**
+     * 取得被觸發的提示點數量。
+     *
+     * @return 傳回提示點數量
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 取得誤差絕對值的平均(微秒)。
+     *
+     * @return 傳回誤差絕對值的平均，沒有任何提示點被觸發時傳回0
+     */
+    public double getMeanAbsErrorMicros() {
+        final long c = count.sum();
+        return c == 0 ? 0 : (double) sumAbsError.sum() / c;
+    }
+
+    /**
+     * 取得誤差絕對值的最大值(微秒)。
+     *
+     * @return 傳回誤差絕對值的最大值
+     */
+    public long getMaxAbsErrorMicros() {
+        return maxAbsError.get();
+    }
+
+    /**
+     * 取得最晚的誤差(微秒)。
+     *
+     * @return 傳回最晚的誤差，沒有任何提示點被觸發時傳回0
+     */
+    public long getMaxLatenessMicros() {
+        final long l = maxLateness.get();
+        return l == Long.MIN_VALUE ? 0 : l;
+    }
+
+    /**
+     * 重設統計。
+     */
+    public void reset() {
+        count.reset();
+        sumAbsError.reset();
+        maxAbsError.set(0);
+        maxLateness.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return "count=".concat(String.valueOf(getCount())).concat(", mean |error|=").concat(String.format("%.1f", getMeanAbsErrorMicros())).concat("us, max |error|=").concat(String.valueOf(getMaxAbsErrorMicros())).concat("us");
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.Arrays;
+
+/**
+ * ChunkCache的預先解碼策略，決定在播放頭附近要預先解碼哪些區塊。
+ *
+ * @author Magic Len
+ */
+public interface DecodeAheadPolicy {
+
+    // -----介面方法-----
+    /**
+     * 取得需要預先解碼的區塊，依照優先順序排列。已經被快取的區塊會被略過，超過快取容量的區塊也不會被解碼。
+     *
+     * @param chunk 傳入播放頭所在的區塊
+     * @param direction 傳入播放頭移動的方向，1表示往後，-1表示往前
+     * @param chunkCount 傳入區塊的數量，未知時為-1
+     * @return 傳回區塊的索引
+     */
+    public long[] plan(final long chunk, final int direction, final long chunkCount);
+
+    // -----類別方法-----
+    /**
+     * 不預先解碼任何區塊，區塊只會在被讀取時才解碼。
+     *
+     * @return 傳回策略
+     */
+    static DecodeAheadPolicy none() {
+        return (chunk, direction, chunkCount) -> new long[0];
+    }
+
+    /**
+     * 預先解碼播放頭之後的區塊，不管播放頭往哪個方向移動。解碼器只能往後解碼，因此這是成本最低的策略，也是ChunkCache預設的策略。
+     *
+     * @param chunks 傳入要預先解碼的區塊數量
+     * @return 傳回策略
+     */
+    static DecodeAheadPolicy forward(final int chunks) {
+        if (chunks < 0) {
+            throw new RuntimeException("Chunks must not be negative!");
+        }
+        return (chunk, direction, chunkCount) -> {
+            final long[] plan = new long[chunks];
+            int n = 0;
+            for (int d = 1; d <= chunks; ++d) {
+                final long c = chunk + d;
+                if (chunkCount < 0 || c < chunkCount) {
+                    plan[n++] = c;
+                }
+            }
+            return Arrays.copyOf(plan, n);
+        };
+    }
+
+    /**
+     * 預先解碼播放頭前後的區塊。從最接近播放頭的區塊開始，輪流解碼移動方向上的區塊以及反方向的區塊。解碼器已經越過的區塊，ChunkCache會使用預先解碼專用的解碼器重新開啟並略過資料後解碼，因此成本比往後解碼高，但不會阻塞讀取。
+     *
+     * @param ahead 傳入移動方向上要預先解碼的區塊數量
+     * @param behind 傳入反方向要預先解碼的區塊數量
+     * @return 傳回策略
+     */
+    static DecodeAheadPolicy around(final int ahead, final int behind) {
+        if (ahead < 0 || behind < 0) {
+            throw new RuntimeException("Ahead and behind must not be negative!");
+        }
+        return (chunk, direction, chunkCount) -> {
+            final long[] plan = new long[ahead + behind];
+            int n = 0;
+            for (int d = 1; d <= Math.max(ahead, behind); ++d) {
+                if (d <= ahead) {
+                    final long c = chunk + d * direction;
+                    if (c >= 0 && (chunkCount < 0 || c < chunkCount)) {
+                        plan[n++] = c;
+                    }
+                }
+                if (d <= behind) {
+                    final long c = chunk - d * direction;
+                    if (c >= 0 && (chunkCount < 0 || c < chunkCount)) {
+                        plan[n++] = c;
+                    }
+                }
+            }
+            return Arrays.copyOf(plan, n);
+        };
+    }
+}
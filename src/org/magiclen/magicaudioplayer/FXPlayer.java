@@ -18,11 +18,22 @@
 package org.magiclen.magicaudioplayer;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import javax.sound.sampled.AudioSystem;
+import javafx.event.EventHandler;
 import javafx.scene.media.Media;
+import javafx.scene.media.MediaMarkerEvent;
 import javafx.scene.media.MediaPlayer;
 import javafx.util.Duration;
+import javafx.util.Pair;
 
 /**
  * 新型(JavaFX)的聲音播放器，支援部份系統支援格式的音訊，需使用在JavaFX應用程式中。
@@ -35,9 +46,15 @@ public class FXPlayer implements AudioPlayer {
     private MediaPlayer clip;
     private int playCount = 1, playCountBuffer = 1;
     private int volume, balance;
-    private Status status = null;
-    private boolean autoClose = false, playing = false;
-    private StatusChangedListener statusListener;
+    private float linearGain, pan, normalizationGain;
+    private volatile Status status = null;
+    private boolean autoClose = false, looping = false, closed = false;
+    private volatile boolean playing = false;
+    private final StatusDispatcher dispatcher = new StatusDispatcher(this);
+    private PlayerRegistry.Registration registration;
+    private final HashMap<String, Runnable> cueActions = new HashMap<>();
+    private final CueStatistics cueStatistics = new CueStatistics();
+    private int cueID;
 
     // -----建構子-----
     /**
@@ -83,15 +100,17 @@ public class FXPlayer implements AudioPlayer {
 
     // -----物件方法-----
     /**
-     * 改變目前音訊播放器的狀態。
+     * 改變目前音訊播放器的狀態。MediaPlayer無法提供以音框為單位的位置，因此事件的音框位置為AudioSystem.NOT_SPECIFIED。
      *
      * @param newStatus 傳入新的音訊播放器狀態
+     * @param cause 傳入狀態改變的原因
      */
-    private void changeStatus(final Status newStatus) {
+    private void changeStatus(final Status newStatus, final StatusEvent.Cause cause) {
         final Status preStatus = status;
         status = newStatus;
-        if (statusListener != null) {
-            statusListener.statusChanged(preStatus, status);
+        if (dispatcher.isObserved()) {
+            final long position = closed ? AudioSystem.NOT_SPECIFIED : getAudioPosition();
+            dispatcher.fire(preStatus, newStatus, AudioSystem.NOT_SPECIFIED, position, playCountBuffer - 1, cause);
         }
     }
 
@@ -102,45 +121,116 @@ public class FXPlayer implements AudioPlayer {
      * @throws Exception 拋出例外
      */
     private void init(final URI uri) throws Exception {
+        final PlayerEvents.Open openEvent = new PlayerEvents.Open();
+        openEvent.begin();
         try {
             clip = new MediaPlayer(new Media(uri.toString()));
         } catch (final Exception ex) {
             throw new RuntimeException(ex.getMessage());
         }
-        final Runnable stopOrPause = () -> {
-            boolean stop = true;
-            if (clip.getCurrentTime().equals(clip.getTotalDuration())) {
-                clip.seek(clip.getStartTime());
-                if (playing && playCount == 0 || (playCount > 0 && playCountBuffer < playCount)) {
-                    ++playCountBuffer;
-                    clip.play();
-                    stop = false;
-                }
-            }
-            status = Status.STOP;
-            if (stop) {
-                playing = false;
-                playCountBuffer = 1;
-                if (autoClose) {
-                    clip.dispose();
-                }
-            }
-        };
-        clip.setOnPlaying(() -> {
-            changeStatus(Status.START);
-        });
-        clip.setOnReady(() -> {
-            changeStatus(Status.OPEN);
-        });
-        clip.setOnHalted(() -> {
-            changeStatus(Status.CLOSE);
-        });
+        clip.setOnPlaying(weak(this, FXPlayer::started));
+        clip.setOnReady(weak(this, p -> p.changeStatus(Status.OPEN, StatusEvent.Cause.USER)));
+        clip.setOnHalted(weak(this, p -> p.changeStatus(Status.CLOSE, StatusEvent.Cause.ERROR)));
+        final Runnable stopOrPause = weak(this, FXPlayer::stopOrPause);
         clip.setOnStopped(stopOrPause);
         clip.setOnPaused(stopOrPause);
         clip.setOnEndOfMedia(stopOrPause);
+        clip.setOnMarker(createMarkerHandler(this));
+        final MediaPlayer mediaPlayer = clip;
+        registration = PlayerRegistry.register(this, uri.toString(), 1);
+        registration.setResource(0, mediaPlayer::dispose);
 
         halfPower();
         balance();
+        //Media是非同步載入的，開啟時無法得知資料量
+        openEvent.end(this, uri, -1);
+    }
+
+    /**
+     * 建立MediaPlayer的事件處理者。事件處理者只會弱參考播放器，讓沒有被關閉的播放器也可以被回收。
+     *
+     * @param player 傳入播放器
+     * @param action 傳入事件發生時要對播放器執行的動作
+     * @return 傳回事件處理者
+     */
+    private static Runnable weak(final FXPlayer player, final Consumer<FXPlayer> action) {
+        final WeakReference<FXPlayer> reference = new WeakReference<>(player);
+        return () -> {
+            final FXPlayer p = reference.get();
+            if (p != null) {
+                action.accept(p);
+            }
+        };
+    }
+
+    /**
+     * 建立MediaPlayer的標記事件處理者。事件處理者只會弱參考播放器。
+     *
+     * @param player 傳入播放器
+     * @return 傳回事件處理者
+     */
+    private static EventHandler<MediaMarkerEvent> createMarkerHandler(final FXPlayer player) {
+        final WeakReference<FXPlayer> reference = new WeakReference<>(player);
+        return e -> {
+            final FXPlayer p = reference.get();
+            if (p != null) {
+                p.marker(e);
+            }
+        };
+    }
+
+    /**
+     * 處理MediaPlayer的標記事件，執行標記對應的提示點動作。
+     *
+     * @param e 傳入事件
+     */
+    private void marker(final MediaMarkerEvent e) {
+        final Pair<String, Duration> marker = e.getMarker();
+        final Runnable action;
+        synchronized (cueActions) {
+            action = cueActions.get(marker.getKey());
+        }
+        if (action != null) {
+            cueStatistics.record((long) ((clip.getCurrentTime().toMillis() - marker.getValue().toMillis()) * 1000));
+            action.run();
+        }
+    }
+
+    /**
+     * 處理MediaPlayer開始播放的事件。
+     */
+    private void started() {
+        final StatusEvent.Cause cause = looping ? StatusEvent.Cause.LOOP : StatusEvent.Cause.USER;
+        looping = false;
+        changeStatus(Status.START, cause);
+    }
+
+    /**
+     * 處理MediaPlayer停止、暫停或是播放到結尾的事件。
+     */
+    private void stopOrPause() {
+        boolean stop = true;
+        StatusEvent.Cause cause = StatusEvent.Cause.USER;
+        if (clip.getCurrentTime().equals(clip.getTotalDuration())) {
+            cause = StatusEvent.Cause.END_OF_MEDIA;
+            changeStatus(Status.STOP, cause);
+            clip.seek(clip.getStartTime());
+            if (playing && playCount == 0 || (playCount > 0 && playCountBuffer < playCount)) {
+                ++playCountBuffer;
+                looping = true;
+                clip.play();
+                stop = false;
+            }
+        } else {
+            changeStatus(Status.STOP, cause);
+        }
+        if (stop) {
+            playing = false;
+            playCountBuffer = 1;
+            if (autoClose) {
+                close(StatusEvent.Cause.AUTO_CLOSE);
+            }
+        }
     }
 
     /**
@@ -212,8 +302,16 @@ public class FXPlayer implements AudioPlayer {
             throw new RuntimeException("Volumn must be at least 0 and at most 100!");
         }
         this.volume = volume;
-        final float v = volume / 100.0f;
-        clip.setVolume(v);
+        this.linearGain = volume / 100.0f;
+        applyGain();
+    }
+
+    /**
+     * 將增益和正規化增益套用到MediaPlayer上。MediaPlayer的音量最大為1，因此超過的增益會被截斷。
+     */
+    private void applyGain() {
+        final float v = linearGain * GainTable.dbToLinear(normalizationGain);
+        clip.setVolume(Math.min(v, 1));
     }
 
     /**
@@ -226,6 +324,54 @@ public class FXPlayer implements AudioPlayer {
         return volume;
     }
 
+    /**
+     * 設定增益(dB)，比起setVolume可以更精細地調整音量。MediaPlayer的音量最大為1，因此超過0dB的增益會被截斷。
+     *
+     * @param db 傳入增益，Float.NEGATIVE_INFINITY表示靜音
+     */
+    @Override
+    public void setGain(final float db) {
+        if (Float.isNaN(db)) {
+            throw new RuntimeException("Gain can't be NaN!");
+        }
+        setLinearGain(GainTable.dbToLinear(db));
+    }
+
+    /**
+     * 取得增益(dB)。
+     *
+     * @return 傳回增益
+     */
+    @Override
+    public float getGain() {
+        return GainTable.linearToDB(linearGain);
+    }
+
+    /**
+     * 設定線性增益，1表示不改變音量。
+     *
+     * @param gain 傳入線性增益，必須大於等於0
+     */
+    @Override
+    public void setLinearGain(final float gain) {
+        if (!(gain >= 0) || Float.isInfinite(gain)) {
+            throw new RuntimeException("Gain must be a finite number and at least 0!");
+        }
+        this.linearGain = gain;
+        this.volume = Math.round(Math.min(gain, 1) * 100);
+        applyGain();
+    }
+
+    /**
+     * 取得線性增益。
+     *
+     * @return 傳回線性增益
+     */
+    @Override
+    public float getLinearGain() {
+        return linearGain;
+    }
+
     /**
      * 取得目前音訊播放器的狀態。
      *
@@ -243,12 +389,19 @@ public class FXPlayer implements AudioPlayer {
      */
     @Override
     public void setBalance(final int balance) {
-        if (volume < 0 || volume > 100) {
+        if (balance < -100 || balance > 100) {
             throw new RuntimeException("Balance must be at least -100 and at most 100!");
         }
         this.balance = balance;
+        this.pan = balance / 100.0f;
+        applyPan();
+    }
+
+    /**
+     * 將聲道平衡套用到MediaPlayer上。
+     */
+    private void applyPan() {
         try {
-            final float pan = balance / 100.0f;
             clip.setBalance(pan);
         } catch (final Exception ex) {
             //可能是單聲道音訊檔造成的例外
@@ -265,6 +418,55 @@ public class FXPlayer implements AudioPlayer {
         return balance;
     }
 
+    /**
+     * 設定聲道平衡，範圍-1~1，數值愈大愈靠近右邊，0為平衡狀態。比起setBalance可以更精細地調整。
+     *
+     * @param pan 傳入聲道平衡
+     */
+    @Override
+    public void setPan(final float pan) {
+        if (!(pan >= -1 && pan <= 1)) {
+            throw new RuntimeException("Pan must be at least -1 and at most 1!");
+        }
+        this.pan = pan;
+        this.balance = Math.round(pan * 100);
+        applyPan();
+    }
+
+    /**
+     * 取得聲道平衡。
+     *
+     * @return 傳回聲道平衡
+     */
+    @Override
+    public float getPan() {
+        return pan;
+    }
+
+    /**
+     * 設定響度正規化的增益，這個增益會與音量疊加。
+     *
+     * @param db 傳入增益(dB)
+     */
+    @Override
+    public void setNormalizationGain(final float db) {
+        if (Float.isNaN(db) || Float.isInfinite(db)) {
+            throw new RuntimeException("The normalization gain must be a finite number!");
+        }
+        this.normalizationGain = db;
+        applyGain();
+    }
+
+    /**
+     * 取得響度正規化的增益。
+     *
+     * @return 傳回增益(dB)
+     */
+    @Override
+    public float getNormalizationGain() {
+        return normalizationGain;
+    }
+
     /**
      * 取得音訊的長度(微秒)。
      *
@@ -293,16 +495,100 @@ public class FXPlayer implements AudioPlayer {
      */
     @Override
     public void setAudioPosition(final long position) {
+        PlayerEvents.seek(this, getAudioPosition(), position);
         clip.seek(Duration.millis(position / 1000f));
     }
 
+    /**
+     * 加入提示點，當音訊播放到這個位置時會執行動作。提示點是使用Media的標記實作的，動作會在JavaFX的執行緒中被執行。
+     *
+     * @param micros 傳入位置(微秒)
+     * @param action 傳入動作
+     */
+    @Override
+    public void addCuePointMicros(final long micros, final Runnable action) {
+        if (micros < 0) {
+            throw new RuntimeException("The position of a cue point must be at least 0!");
+        }
+        if (action == null) {
+            throw new RuntimeException("The action can't be null!");
+        }
+        final String key;
+        synchronized (cueActions) {
+            key = "MagicAudioPlayer-Cue-".concat(String.valueOf(cueID++));
+            cueActions.put(key, action);
+        }
+        clip.getMedia().getMarkers().put(key, Duration.millis(micros / 1000.0));
+    }
+
+    /**
+     * 移除使用某個動作的所有提示點。
+     *
+     * @param action 傳入動作
+     * @return 傳回是否有提示點被移除
+     */
+    @Override
+    public boolean removeCuePoint(final Runnable action) {
+        boolean removed = false;
+        synchronized (cueActions) {
+            final Iterator<Map.Entry<String, Runnable>> it = cueActions.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Runnable> entry = it.next();
+                if (entry.getValue() == action) {
+                    it.remove();
+                    clip.getMedia().getMarkers().remove(entry.getKey());
+                    removed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 移除所有提示點。音訊本身的標記不會被移除。
+     */
+    @Override
+    public void clearCuePoints() {
+        synchronized (cueActions) {
+            for (final String key : cueActions.keySet()) {
+                clip.getMedia().getMarkers().remove(key);
+            }
+            cueActions.clear();
+        }
+    }
+
+    /**
+     * 取得提示點的準確度統計。
+     *
+     * @return 傳回準確度統計
+     */
+    @Override
+    public CueStatistics getCueStatistics() {
+        return cueStatistics;
+    }
+
     /**
      * 關閉音訊。
      */
     @Override
     public void close() {
+        close(StatusEvent.Cause.USER);
+    }
+
+    /**
+     * 關閉音訊。MediaPlayer被釋放時不會有事件，因此由這裡改變狀態。
+     *
+     * @param cause 傳入關閉的原因
+     */
+    private void close(final StatusEvent.Cause cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
         playing = false;
         clip.dispose();
+        registration.close();
+        changeStatus(Status.CLOSE, cause);
     }
 
     /**
@@ -332,7 +618,7 @@ public class FXPlayer implements AudioPlayer {
      */
     @Override
     public void setStatusChangedListener(final StatusChangedListener listener) {
-        this.statusListener = listener;
+        dispatcher.setStatusChangedListener(listener);
     }
 
     /**
@@ -342,6 +628,40 @@ public class FXPlayer implements AudioPlayer {
      */
     @Override
     public StatusChangedListener getStatusChangedListener() {
-        return statusListener;
+        return dispatcher.getStatusChangedListener();
+    }
+
+    /**
+     * 等待直到條件成立。條件會在播放器的狀態改變時被重新檢查，等待的執行緒會被停放(park)，不會持有任何鎖。
+     *
+     * @param condition 傳入條件
+     * @param timeout 傳入最長的等待時間
+     * @param unit 傳入等待時間的單位
+     * @return 傳回條件是否成立，超過等待時間時傳回false
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    @Override
+    public boolean await(final BooleanSupplier condition, final long timeout, final TimeUnit unit) throws InterruptedException {
+        return dispatcher.await(condition, unit.toNanos(timeout));
+    }
+
+    /**
+     * 設定狀態改變事件的監聽者。
+     *
+     * @param listener 傳入監聽者
+     */
+    @Override
+    public void setStatusEventListener(final StatusEvent.Listener listener) {
+        dispatcher.setStatusEventListener(listener);
+    }
+
+    /**
+     * 取得狀態改變事件的監聽者。
+     *
+     * @return 傳回監聽者
+     */
+    @Override
+    public StatusEvent.Listener getStatusEventListener() {
+        return dispatcher.getStatusEventListener();
     }
 }
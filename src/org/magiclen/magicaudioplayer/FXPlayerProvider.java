@@ -0,0 +1,114 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * FXPlayer的提供者。只有在JavaFX的Media模組存在時才會被使用。
+ *
+ * @author Magic Len
+ */
+final class FXPlayerProvider implements AudioPlayerProvider {
+
+    // -----類別常數-----
+    private static final Set<String> FORMATS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("mp3", "m4a", "aac", "mp4", "m4v", "wav", "aif", "aiff", "fxm", "flv", "m3u8")));
+    private static final boolean AVAILABLE;
+
+    // -----初始化-----
+    static {
+        boolean available;
+        try {
+            Class.forName("javafx.scene.media.MediaPlayer", false, FXPlayerProvider.class.getClassLoader());
+            available = true;
+        } catch (final Throwable ex) {
+            available = false;
+        }
+        AVAILABLE = available;
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得提供者的名稱。
+     *
+     * @return 傳回提供者的名稱
+     */
+    @Override
+    public String getName() {
+        return "JavaFX";
+    }
+
+    /**
+     * 取得提供者對於某種格式的優先順序。JavaFX不存在時不支援任何格式。
+     *
+     * @param format 傳入格式
+     * @return 傳回優先順序
+     */
+    @Override
+    public int getPriority(final String format) {
+        if (!AVAILABLE) {
+            return -1;
+        }
+        return FORMATS.contains(format) ? 50 : 10;
+    }
+
+    /**
+     * 取得提供者明確支援的格式。
+     *
+     * @return 傳回支援的格式
+     */
+    @Override
+    public Set<String> getSupportedFormats() {
+        return AVAILABLE ? FORMATS : Collections.emptySet();
+    }
+
+    /**
+     * 判斷播放器是否以串流的方式播放。
+     *
+     * @return 傳回true，MediaPlayer會以串流的方式解碼
+     */
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    /**
+     * 取得播放器的延遲等級。
+     *
+     * @return 傳回延遲等級
+     */
+    @Override
+    public LatencyClass getLatencyClass() {
+        return LatencyClass.HIGH;
+    }
+
+    /**
+     * 建立聲音播放器。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回聲音播放器
+     */
+    @Override
+    public AudioPlayer createPlayer(final URL url) {
+        return new FXPlayer(url);
+    }
+}
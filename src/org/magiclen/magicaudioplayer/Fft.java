@@ -0,0 +1,109 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * 基數2的快速傅立葉轉換，並使用Hann窗函數。
+ *
+ * @author Magic Len
+ */
+final class Fft {
+
+    //-----物件常數-----
+    private final int size;
+    private final float[] window, cos, sin, re, im;
+    private final int[] reverse;
+    private final float windowSum;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入大小。
+     *
+     * @param size 傳入大小，必須是2的次方
+     */
+    Fft(final int size) {
+        if (size < 16 || Integer.bitCount(size) != 1) {
+            throw new RuntimeException("The FFT size must be a power of 2 and at least 16!");
+        }
+        this.size = size;
+        window = new float[size];
+        float sum = 0;
+        for (int i = 0; i < size; ++i) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (size - 1)));
+            sum += window[i];
+        }
+        windowSum = sum;
+        cos = new float[size / 2];
+        sin = new float[size / 2];
+        for (int i = 0; i < size / 2; ++i) {
+            cos[i] = (float) Math.cos(-2 * Math.PI * i / size);
+            sin[i] = (float) Math.sin(-2 * Math.PI * i / size);
+        }
+        reverse = new int[size];
+        final int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; ++i) {
+            reverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        re = new float[size];
+        im = new float[size];
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得大小。
+     *
+     * @return 傳回大小
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * 計算頻譜的強度(dBFS)。
+     *
+     * @param samples 傳入樣本，長度至少要是大小
+     * @param magnitudes 傳入用來存放頻譜強度的陣列，長度至少要是大小的一半
+     */
+    void spectrum(final float[] samples, final float[] magnitudes) {
+        for (int i = 0; i < size; ++i) {
+            re[reverse[i]] = samples[i] * window[i];
+            im[reverse[i]] = 0;
+        }
+        for (int len = 2; len <= size; len <<= 1) {
+            final int half = len >> 1;
+            final int step = size / len;
+            for (int i = 0; i < size; i += len) {
+                for (int j = 0; j < half; ++j) {
+                    final float wr = cos[j * step], wi = sin[j * step];
+                    final int a = i + j, b = a + half;
+                    final float tr = re[b] * wr - im[b] * wi;
+                    final float ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        final float scale = 2 / windowSum;
+        for (int i = 0; i < size / 2; ++i) {
+            final float magnitude = (float) Math.sqrt(re[i] * re[i] + im[i] * im[i]) * scale;
+            magnitudes[i] = (float) (20 * Math.log10(Math.max(magnitude, 1e-10f)));
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * 軟體的增益與聲道平衡處理階段。預設是不改變音量的線性增益1以及平衡的聲道。
+ *
+ * @author Magic Len
+ */
+public class GainProcessor implements AudioProcessor {
+
+    //-----物件變數-----
+    private volatile float gain = 1, pan = 0;
+    private volatile float leftGain = 1, rightGain = 1;
+    private float appliedLeftGain = 1, appliedRightGain = 1;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用線性增益1與平衡的聲道。
+     */
+    public GainProcessor() {
+
+    }
+
+    /**
+     * 建構子，傳入AudioPlayer的音量與聲道平衡值。
+     *
+     * @param volume 傳入音量，範圍是0~100
+     * @param balance 傳入聲道音量的平衡值，範圍是-100~100
+     */
+    public GainProcessor(final int volume, final int balance) {
+        setVolume(volume);
+        setBalance(balance);
+    }
+
+    // -----物件方法-----
+    /**
+     * 重新計算左右聲道的增益。
+     */
+    private void update() {
+        final float g = gain, p = pan;
+        leftGain = p > 0 ? g * (1 - p) : g;
+        rightGain = p < 0 ? g * (1 + p) : g;
+    }
+
+    /**
+     * 使用AudioPlayer的音量設定增益，範圍是0~100，會使用AudioPlayer.volumeToDB來換算。
+     *
+     * @param volume 傳入音量
+     */
+    public void setVolume(final int volume) {
+        if (volume < 0 || volume > 100) {
+            throw new RuntimeException("Volumn must be at least 0 and at most 100!");
+        }
+        setGain(AudioPlayer.volumeToDB((float) volume));
+    }
+
+    /**
+     * 使用AudioPlayer的聲道平衡值設定聲道平衡，範圍-100~100。
+     *
+     * @param balance 傳入聲道音量的平衡值
+     */
+    public void setBalance(final int balance) {
+        if (balance < -100 || balance > 100) {
+            throw new RuntimeException("Balance must be at least -100 and at most 100!");
+        }
+        setPan(balance / 100.0f);
+    }
+
+    /**
+     * 設定增益(dB)，使用查找表換算為線性增益。
+     *
+     * @param db 傳入增益，Float.NEGATIVE_INFINITY表示靜音
+     */
+    public void setGain(final float db) {
+        if (Float.isNaN(db)) {
+            throw new RuntimeException("Gain can't be NaN!");
+        }
+        setLinearGain(GainTable.dbToLinear(db));
+    }
+
+    /**
+     * 設定線性增益。
+     *
+     * @param gain 傳入線性增益，必須大於等於0
+     */
+    public void setLinearGain(final float gain) {
+        if (!(gain >= 0) || Float.isInfinite(gain)) {
+            throw new RuntimeException("Gain must be a finite number and at least 0!");
+        }
+        this.gain = gain;
+        update();
+    }
+
+    /**
+     * 取得線性增益。
+     *
+     * @return 傳回線性增益
+     */
+    public float getLinearGain() {
+        return gain;
+    }
+
+    /**
+     * 設定聲道平衡，範圍-1~1，數值愈大愈靠近右邊，0為平衡狀態。
+     *
+     * @param pan 傳入聲道平衡
+     */
+    public void setPan(final float pan) {
+        if (!(pan >= -1 && pan <= 1)) {
+            throw new RuntimeException("Pan must be at least -1 and at most 1!");
+        }
+        this.pan = pan;
+        update();
+    }
+
+    /**
+     * 取得聲道平衡。
+     *
+     * @return 傳回聲道平衡
+     */
+    public float getPan() {
+        return pan;
+    }
+
+    /**
+     * 處理樣本。聲道平衡只對雙聲道的音訊有效。增益改變時，會在這個資料區塊中線性地過渡到新的增益，避免產生爆音。
+     *
+     * @param samples 傳入樣本
+     * @param frames 傳入音框數量
+     * @param channels 傳入聲道數量
+     */
+    @Override
+    public void process(final float[] samples, final int frames, final int channels) {
+        final float l = leftGain, r = rightGain;
+        final float fromL = appliedLeftGain, fromR = appliedRightGain;
+        appliedLeftGain = l;
+        appliedRightGain = r;
+        if (frames == 0) {
+            return;
+        }
+        if (channels == 2) {
+            if (fromL == l && fromR == r) {
+                for (int i = 0, n = frames * 2; i < n; i += 2) {
+                    samples[i] *= l;
+                    samples[i + 1] *= r;
+                }
+            } else {
+                final float stepL = (l - fromL) / frames, stepR = (r - fromR) / frames;
+                for (int f = 0, i = 0; f < frames; ++f, i += 2) {
+                    samples[i] *= fromL + stepL * (f + 1);
+                    samples[i + 1] *= fromR + stepR * (f + 1);
+                }
+            }
+        } else {
+            final float g = Math.max(l, r), from = Math.max(fromL, fromR);
+            if (from == g) {
+                for (int i = 0, n = frames * channels; i < n; ++i) {
+                    samples[i] *= g;
+                }
+            } else {
+                final float step = (g - from) / frames;
+                for (int f = 0, i = 0; f < frames; ++f) {
+                    final float v = from + step * (f + 1);
+                    for (int c = 0; c < channels; ++c, ++i) {
+                        samples[i] *= v;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 重設處理階段，下一個資料區塊會直接使用目前的增益，不需要過渡。
+     */
+    @Override
+    public void reset() {
+        appliedLeftGain = leftGain;
+        appliedRightGain = rightGain;
+    }
+}
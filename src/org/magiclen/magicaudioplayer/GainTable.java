@@ -0,0 +1,135 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * 預先計算好的增益查找表，讓大量的增益更新不需要每次都計算對數或指數。
+ *
+ * @author Magic Len
+ */
+final class GainTable {
+
+    // -----類別常數-----
+    /**
+     * 查找表中最小的dB值，更小的值會被視為靜音。
+     */
+    static final float MIN_DB = -120;
+    /**
+     * 查找表中最大的dB值。
+     */
+    static final float MAX_DB = 24;
+    private static final float DB_STEP = 0.01f;
+    private static final float VOLUME_STEP = 0.01f;
+    private static final float[] DB_TO_LINEAR;
+    private static final float[] VOLUME_TO_DB;
+
+    // -----初始化-----
+    static {
+        final int dbSize = Math.round((MAX_DB - MIN_DB) / DB_STEP) + 1;
+        DB_TO_LINEAR = new float[dbSize];
+        for (int i = 0; i < dbSize; ++i) {
+            DB_TO_LINEAR[i] = (float) Math.pow(10, (MIN_DB + i * DB_STEP) / 20);
+        }
+        final int volumeSize = Math.round(100 / VOLUME_STEP) + 1;
+        VOLUME_TO_DB = new float[volumeSize];
+        VOLUME_TO_DB[0] = Float.NEGATIVE_INFINITY;
+        for (int i = 1; i < volumeSize; ++i) {
+            VOLUME_TO_DB[i] = (float) (Math.log10(i * VOLUME_STEP * 0.039) * 10);
+        }
+    }
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private GainTable() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 將dB換算為線性增益。
+     *
+     * @param db 傳入dB
+     * @return 傳回線性增益，小於MIN_DB時傳回0
+     */
+    static float dbToLinear(final float db) {
+        if (!(db >= MIN_DB)) {
+            return 0;
+        }
+        if (db >= MAX_DB) {
+            return DB_TO_LINEAR[DB_TO_LINEAR.length - 1];
+        }
+        final float position = (db - MIN_DB) / DB_STEP;
+        final int index = (int) position;
+        if (index >= DB_TO_LINEAR.length - 1) {
+            return DB_TO_LINEAR[DB_TO_LINEAR.length - 1];
+        }
+        final float fraction = position - index;
+        return DB_TO_LINEAR[index] + (DB_TO_LINEAR[index + 1] - DB_TO_LINEAR[index]) * fraction;
+    }
+
+    /**
+     * 將線性增益換算為dB。
+     *
+     * @param linear 傳入線性增益
+     * @return 傳回dB，線性增益為0時傳回Float.NEGATIVE_INFINITY
+     */
+    static float linearToDB(final float linear) {
+        if (linear <= 0) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        return (float) (20 * Math.log10(linear));
+    }
+
+    /**
+     * 將0~100的音量換算為dB，與AudioPlayer.volumeToDB使用相同的曲線。
+     *
+     * @param volume 傳入音量
+     * @return 傳回dB，音量為0時傳回Float.NEGATIVE_INFINITY
+     */
+    static float volumeToDB(final float volume) {
+        if (!(volume > 0)) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        if (volume >= 100) {
+            return VOLUME_TO_DB[VOLUME_TO_DB.length - 1];
+        }
+        final float position = volume / VOLUME_STEP;
+        final int index = (int) position;
+        if (index == 0) {
+            return (float) (Math.log10(volume * 0.039) * 10);
+        }
+        final float fraction = position - index;
+        return VOLUME_TO_DB[index] + (VOLUME_TO_DB[index + 1] - VOLUME_TO_DB[index]) * fraction;
+    }
+
+    /**
+     * 將dB換算為最接近的0~100的音量。
+     *
+     * @param db 傳入dB
+     * @return 傳回音量
+     */
+    static int dbToVolume(final float db) {
+        if (!(db > MIN_DB)) {
+            return 0;
+        }
+        final long volume = Math.round(Math.pow(10, db / 10) / 0.039);
+        return (int) Math.max(0, Math.min(100, volume));
+    }
+}
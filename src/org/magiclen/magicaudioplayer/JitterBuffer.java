@@ -0,0 +1,479 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * 自適應的抖動緩衝(jitter buffer)，用來播放從網路或應用程式推送過來的PCM資料。</p>
+ *
+ * <p>
+ * 資料以音框位置為索引存放在環狀緩衝中，因此亂序抵達的區塊會被放回正確的位置，已經錯過播放時間的區塊會被丟棄。目標延遲會依照抵達時間的抖動(RFC 3550的估計方式)以及發生過的欠載自動調整；緩衝深度在半秒鐘的視窗中一直都超過目標延遲時，會以交叉淡化的方式跳過部分音框來降低延遲。只看單一時間點的深度的話，提早抵達的區塊會讓深度看起來比實際可播放的資料還深，跳過音框之後，前面還在路上的區塊就會錯過播放時間。</p>
+ *
+ * <p>
+ * 遺失的區塊以及欠載會用最後一個真正的週期來掩蔽：週期會輪流反向與正向播放，讓波形保持連續，並且逐漸淡出，掩蔽太久之後會重新緩衝。資料恢復時會從掩蔽的聲音交叉淡化回真正的聲音。</p>
+ *
+ * <p>
+ * 生產者和消費者可以是不同的執行緒，所有方法都是同步的。</p>
+ *
+ * @author Magic Len
+ */
+final class JitterBuffer {
+
+    // -----類別常數-----
+    private static final float CONCEAL_DECAY = 0.7f;
+    private static final int MAX_CONCEAL_PERIODS = 10;
+    private static final int FADE_FRAMES = 64;
+
+    //-----物件常數-----
+    private final int channels, capacity, periodFrames, windowFrames;
+    private final double framesPerNano;
+    private final float[] ring, lastReal, concealment;
+    private final boolean[] valid;
+
+    //-----物件變數-----
+    private int minTarget, maxTarget, boost;
+    private boolean anchored, playing, hasReal, hasArrival;
+    private int concealRun = MAX_CONCEAL_PERIODS + 1;
+    private long readPosition, maxEnd, nextWritePosition;
+    private long windowMinDepth = Long.MAX_VALUE, shrink;
+    private int windowRead;
+    private long lastArrivalNanos, lastArrivalPosition, bufferingSinceNanos = -1;
+    private double jitterNanos;
+    private long receivedFrames, lateFrames, overflowFrames, concealedFrames, droppedFrames, underruns, rebuffers;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param channels 傳入聲道數量
+     * @param frameRate 傳入每秒的音框數量
+     * @param capacity 傳入最多可以緩衝的音框數量
+     * @param periodFrames 傳入每次讀取的音框數量
+     */
+    JitterBuffer(final int channels, final float frameRate, final int capacity, final int periodFrames) {
+        this.channels = channels;
+        this.capacity = capacity;
+        this.periodFrames = periodFrames;
+        this.framesPerNano = frameRate / 1e9;
+        this.windowFrames = Math.max(periodFrames, (int) (frameRate / 2));
+        ring = new float[capacity * channels];
+        valid = new boolean[capacity];
+        lastReal = new float[periodFrames * channels];
+        concealment = new float[periodFrames * channels];
+        minTarget = periodFrames;
+        maxTarget = capacity - periodFrames * 2;
+    }
+
+    // -----物件方法-----
+    /**
+     * 設定目標延遲的範圍。
+     *
+     * @param minFrames 傳入最小的目標延遲(音框)
+     * @param maxFrames 傳入最大的目標延遲(音框)
+     */
+    synchronized void setTargetRange(final int minFrames, final int maxFrames) {
+        if (minFrames < 0 || maxFrames < minFrames) {
+            throw new RuntimeException("The target range is incorrect!");
+        }
+        if (maxFrames > capacity - periodFrames * 2) {
+            throw new RuntimeException("The maximum target is larger than the capacity of the jitter buffer!");
+        }
+        this.minTarget = minFrames;
+        this.maxTarget = maxFrames;
+    }
+
+    /**
+     * 記錄一個區塊的抵達，用來估計抖動。
+     *
+     * @param position 傳入區塊第一個音框的位置，負數表示接在上一個區塊之後
+     * @param frames 傳入音框數量
+     * @param arrivalNanos 傳入抵達的時間(奈秒)
+     * @return 傳回區塊第一個音框的位置
+     */
+    synchronized long arrive(long position, final int frames, final long arrivalNanos) {
+        if (position < 0) {
+            position = nextWritePosition;
+        }
+        nextWritePosition = position + frames;
+        //以抵達時間的間隔和媒體時間的間隔的差估計抖動
+        if (hasArrival) {
+            final double d = (arrivalNanos - lastArrivalNanos) - (position - lastArrivalPosition) / framesPerNano;
+            jitterNanos += (Math.abs(d) - jitterNanos) / 16;
+        }
+        hasArrival = true;
+        if (!playing && bufferingSinceNanos < 0) {
+            bufferingSinceNanos = arrivalNanos;
+        }
+        lastArrivalNanos = arrivalNanos;
+        lastArrivalPosition = position;
+        return position;
+    }
+
+    /**
+     * 放入區塊的資料。
+     *
+     * @param samples 傳入樣本，聲道交錯排列
+     * @param frames 傳入音框數量
+     * @param position 傳入第一個音框的位置
+     */
+    synchronized void put(final float[] samples, final int frames, final long position) {
+        receivedFrames += frames;
+        if (!anchored || (!playing && position >= readPosition + capacity)) {
+            //還沒開始播放，或是重新緩衝時資料跳到了很遠的位置
+            Arrays.fill(valid, false);
+            readPosition = position;
+            maxEnd = position;
+            anchored = true;
+        } else if (!playing && position < readPosition && maxEnd - position <= capacity) {
+            //還沒開始播放時，比第一個區塊更早的區塊才抵達，往前移動開始的位置
+            readPosition = position;
+        }
+        int start = 0, end = frames;
+        if (position < readPosition) {
+            start = (int) Math.min(frames, readPosition - position);
+            lateFrames += start;
+        }
+        if (position + end > readPosition + capacity) {
+            final int over = (int) Math.min(end - start, position + end - readPosition - capacity);
+            end -= over;
+            overflowFrames += over;
+        }
+        for (int i = start; i < end; ++i) {
+            final int index = (int) ((position + i) % capacity);
+            System.arraycopy(samples, i * channels, ring, index * channels, channels);
+            valid[index] = true;
+        }
+        if (end > start) {
+            maxEnd = Math.max(maxEnd, position + end);
+        }
+    }
+
+    /**
+     * 讀取一個週期的資料，資料不足時會用掩蔽的聲音或是靜音補上。緩衝中的資料達到目標延遲，而且從開始緩衝之後也經過了目標延遲的時間，才會開始播放；只看資料量的話，提早抵達的區塊會讓播放太早開始，之後抵達得比較晚的區塊就會錯過播放時間。
+     *
+     * @param out 傳入用來存放樣本的陣列，長度至少要有一個週期
+     * @param nanos 傳入目前的時間(奈秒)
+     */
+    synchronized void read(final float[] out, final long nanos) {
+        final int n = periodFrames;
+        final int len = n * channels;
+        if (!playing) {
+            Arrays.fill(out, 0, len, 0);
+            if (!anchored) {
+                return;
+            }
+            final long first = firstValid();
+            final int target = getTargetFrames();
+            if (first < 0 || maxEnd - first < target || bufferingSinceNanos < 0 || nanos - bufferingSinceNanos < target / framesPerNano) {
+                return;
+            }
+            readPosition = first;
+            playing = true;
+            bufferingSinceNanos = -1;
+            resetWindow();
+            shrink = 0;
+        }
+        //記錄視窗中最淺的緩衝深度，整個視窗都比目標深的部分才是可以跳過的
+        windowMinDepth = Math.min(windowMinDepth, maxEnd - readPosition);
+        windowRead += n;
+        if (windowRead >= windowFrames) {
+            final long excess = windowMinDepth - getTargetFrames();
+            shrink = excess > n ? excess : 0;
+            resetWindow();
+        }
+        if (isValid(readPosition, n)) {
+            copy(readPosition, out, n);
+            //緩衝太深時跳過部分音框，並且在整個週期中交叉淡化到跳過之後的位置
+            int drop = 0;
+            if (shrink > 0) {
+                drop = (int) Math.min(shrink, n / 2);
+                if (isValid(readPosition + n, drop)) {
+                    copy(readPosition + drop, concealment, n);
+                    for (int i = 0; i < n; ++i) {
+                        final float w = (float) i / n;
+                        for (int c = 0, j = i * channels; c < channels; ++c, ++j) {
+                            out[j] += (concealment[j] - out[j]) * w;
+                        }
+                    }
+                    droppedFrames += drop;
+                    shrink -= drop;
+                } else {
+                    drop = 0;
+                }
+            }
+            //從掩蔽的聲音交叉淡化回真正的聲音
+            if (concealRun > 0) {
+                conceal(concealment, concealRun);
+                final int fade = Math.min(FADE_FRAMES, n);
+                for (int i = 0; i < fade; ++i) {
+                    final float w = (float) i / fade;
+                    for (int c = 0, j = i * channels; c < channels; ++c, ++j) {
+                        out[j] = concealment[j] + (out[j] - concealment[j]) * w;
+                    }
+                }
+                concealRun = 0;
+            }
+            clear(readPosition, n + drop);
+            readPosition += n + drop;
+            System.arraycopy(out, 0, lastReal, 0, len);
+            hasReal = true;
+            boost -= Math.min(boost, Math.max(1, n >> 8));
+            return;
+        }
+        conceal(out, concealRun++);
+        concealedFrames += n;
+        if (maxEnd >= readPosition + n) {
+            //後面的資料已經到了，這個週期的資料遺失了
+            clear(readPosition, n);
+            readPosition += n;
+        } else {
+            //資料來不及抵達，等待它而不前進，並提高目標延遲
+            ++underruns;
+            boost = Math.min(boost + n, maxTarget);
+        }
+        if (concealRun > MAX_CONCEAL_PERIODS) {
+            playing = false;
+            bufferingSinceNanos = nanos;
+            ++rebuffers;
+        }
+    }
+
+    /**
+     * 開始新的深度統計視窗。
+     */
+    private void resetWindow() {
+        windowMinDepth = Long.MAX_VALUE;
+        windowRead = 0;
+    }
+
+    /**
+     * 產生掩蔽的聲音。偶數次反向播放最後一個真正的週期，奇數次正向播放，並從上一次的增益線性淡出到這一次的增益。
+     *
+     * @param out 傳入用來存放樣本的陣列
+     * @param k 傳入連續掩蔽的次數
+     */
+    private void conceal(final float[] out, final int k) {
+        final int n = periodFrames;
+        if (!hasReal || k >= MAX_CONCEAL_PERIODS) {
+            Arrays.fill(out, 0, n * channels, 0);
+            return;
+        }
+        final float g0 = (float) Math.pow(CONCEAL_DECAY, k);
+        final float g1 = g0 * CONCEAL_DECAY;
+        final boolean reverse = (k & 1) == 0;
+        for (int i = 0; i < n; ++i) {
+            final float g = g0 + (g1 - g0) * i / n;
+            final int src = (reverse ? n - 1 - i : i) * channels;
+            for (int c = 0; c < channels; ++c) {
+                out[i * channels + c] = lastReal[src + c] * g;
+            }
+        }
+    }
+
+    /**
+     * 判斷一段範圍內的音框是否都已經抵達。
+     *
+     * @param position 傳入開始位置
+     * @param frames 傳入音框數量
+     * @return 傳回是否都已經抵達
+     */
+    private boolean isValid(final long position, final int frames) {
+        if (position + frames > maxEnd) {
+            return false;
+        }
+        for (int i = 0; i < frames; ++i) {
+            if (!valid[(int) ((position + i) % capacity)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 複製一段範圍內的樣本。
+     *
+     * @param position 傳入開始位置
+     * @param out 傳入用來存放樣本的陣列
+     * @param frames 傳入音框數量
+     */
+    private void copy(final long position, final float[] out, final int frames) {
+        final int start = (int) (position % capacity);
+        final int first = Math.min(frames, capacity - start);
+        System.arraycopy(ring, start * channels, out, 0, first * channels);
+        System.arraycopy(ring, 0, out, first * channels, (frames - first) * channels);
+    }
+
+    /**
+     * 將一段範圍內的音框標記為空的。
+     *
+     * @param position 傳入開始位置
+     * @param frames 傳入音框數量
+     */
+    private void clear(final long position, final int frames) {
+        for (int i = 0; i < frames; ++i) {
+            valid[(int) ((position + i) % capacity)] = false;
+        }
+    }
+
+    /**
+     * 找出播放位置之後第一個已經抵達的音框。
+     *
+     * @return 傳回位置，沒有任何資料時傳回-1
+     */
+    private long firstValid() {
+        for (long p = readPosition; p < maxEnd; ++p) {
+            if (valid[(int) (p % capacity)]) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 清除所有資料，回到還沒開始緩衝的狀態，統計資料會被保留。
+     */
+    synchronized void reset() {
+        Arrays.fill(valid, false);
+        anchored = false;
+        playing = false;
+        hasReal = false;
+        hasArrival = false;
+        bufferingSinceNanos = -1;
+        concealRun = MAX_CONCEAL_PERIODS + 1;
+        boost = 0;
+        shrink = 0;
+        resetWindow();
+        jitterNanos = 0;
+        nextWritePosition = 0;
+    }
+
+    /**
+     * 將所有統計資料歸零。
+     */
+    synchronized void resetStatistics() {
+        receivedFrames = 0;
+        lateFrames = 0;
+        overflowFrames = 0;
+        concealedFrames = 0;
+        droppedFrames = 0;
+        underruns = 0;
+        rebuffers = 0;
+    }
+
+    /**
+     * 取得目前的目標延遲。
+     *
+     * @return 傳回目標延遲(音框)
+     */
+    synchronized int getTargetFrames() {
+        final long target = periodFrames + (long) (4 * jitterNanos * framesPerNano) + boost;
+        return (int) Math.max(minTarget, Math.min(maxTarget, target));
+    }
+
+    /**
+     * 取得目前的緩衝深度，也就是已經抵達的最後一個音框和播放位置的距離。
+     *
+     * @return 傳回緩衝深度(音框)
+     */
+    synchronized int getDepthFrames() {
+        return anchored ? (int) Math.max(0, maxEnd - readPosition) : 0;
+    }
+
+    /**
+     * 取得估計的抖動。
+     *
+     * @return 傳回抖動(奈秒)
+     */
+    synchronized long getJitterNanos() {
+        return (long) jitterNanos;
+    }
+
+    /**
+     * 判斷是否正在播放，而不是在緩衝中。
+     *
+     * @return 傳回是否正在播放
+     */
+    synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * 取得收到的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    synchronized long getReceivedFrames() {
+        return receivedFrames;
+    }
+
+    /**
+     * 取得錯過播放時間而被丟棄的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    synchronized long getLateFrames() {
+        return lateFrames;
+    }
+
+    /**
+     * 取得超過緩衝容量而被丟棄的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    synchronized long getOverflowFrames() {
+        return overflowFrames;
+    }
+
+    /**
+     * 取得被掩蔽的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    synchronized long getConcealedFrames() {
+        return concealedFrames;
+    }
+
+    /**
+     * 取得為了降低延遲而被跳過的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * 取得欠載的次數。
+     *
+     * @return 傳回次數
+     */
+    synchronized long getUnderrunCount() {
+        return underruns;
+    }
+
+    /**
+     * 取得重新緩衝的次數。
+     *
+     * @return 傳回次數
+     */
+    synchronized long getRebufferCount() {
+        return rebuffers;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * <p>
+ * 串流播放的延遲設定。</p>
+ *
+ * <p>
+ * 緩衝音框數量決定了SourceDataLine的緩衝大小，也就是輸出延遲；週期音框數量是每次寫入SourceDataLine的資料量，應該要小於緩衝音框數量。緩衝愈小延遲愈低，但也愈容易發生緩衝區欠載。</p>
+ *
+ * @author Magic Len
+ */
+public class LatencyConfig {
+
+    // -----類別列舉-----
+    /**
+     * 等待SourceDataLine有可寫入空間的策略。PARK：讓執行緒暫停一小段時間；BUSY_WAIT：不停地檢查，延遲最低但會佔用一個CPU核心。
+     */
+    public static enum WaitStrategy {
+
+        PARK, BUSY_WAIT;
+    }
+
+    // -----物件變數-----
+    private int bufferFrames = 8192, periodFrames = 1024;
+    private int threadPriority = Thread.MAX_PRIORITY;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private AudioScheduler scheduler;
+
+    // -----類別方法-----
+    /**
+     * 建立適合互動用途的低延遲設定。
+     *
+     * @return 傳回低延遲設定
+     */
+    public static LatencyConfig lowLatency() {
+        final LatencyConfig config = new LatencyConfig();
+        config.setBufferFrames(1024);
+        config.setPeriodFrames(256);
+        return config;
+    }
+
+    // -----物件方法-----
+    /**
+     * 設定緩衝音框數量。
+     *
+     * @param bufferFrames 傳入緩衝音框數量
+     */
+    public void setBufferFrames(final int bufferFrames) {
+        if (bufferFrames < 32) {
+            throw new RuntimeException("BufferFrames must be at least 32!");
+        }
+        this.bufferFrames = bufferFrames;
+    }
+
+    /**
+     * 取得緩衝音框數量。
+     *
+     * @return 傳回緩衝音框數量
+     */
+    public int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    /**
+     * 設定週期音框數量。
+     *
+     * @param periodFrames 傳入週期音框數量
+     */
+    public void setPeriodFrames(final int periodFrames) {
+        if (periodFrames < 16) {
+            throw new RuntimeException("PeriodFrames must be at least 16!");
+        }
+        this.periodFrames = periodFrames;
+    }
+
+    /**
+     * 取得週期音框數量，不會超過緩衝音框數量的一半。
+     *
+     * @return 傳回週期音框數量
+     */
+    public int getPeriodFrames() {
+        return Math.min(periodFrames, bufferFrames / 2);
+    }
+
+    /**
+     * 設定排程器執行緒的優先權。相同優先權與等待策略的播放器會共用同一個排程器。
+     *
+     * @param threadPriority 傳入執行緒的優先權
+     */
+    public void setThreadPriority(final int threadPriority) {
+        if (threadPriority < Thread.MIN_PRIORITY || threadPriority > Thread.MAX_PRIORITY) {
+            throw new RuntimeException("ThreadPriority must be at least 1 and at most 10!");
+        }
+        this.threadPriority = threadPriority;
+    }
+
+    /**
+     * 取得排程器執行緒的優先權。
+     *
+     * @return 傳回執行緒的優先權
+     */
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * 設定等待策略。
+     *
+     * @param waitStrategy 傳入等待策略
+     */
+    public void setWaitStrategy(final WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new RuntimeException("WaitStrategy can't be null!");
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * 取得等待策略。
+     *
+     * @return 傳回等待策略
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * 設定要使用的排程器。設定之後，執行緒的優先權和等待策略由這個排程器決定。
+     *
+     * @param scheduler 傳入排程器，null表示使用共用的排程器
+     */
+    public void setScheduler(final AudioScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 取得要使用的排程器。
+     *
+     * @return 傳回排程器，如果沒有設定，傳回符合執行緒優先權和等待策略的共用排程器
+     */
+    public AudioScheduler getScheduler() {
+        if (scheduler != null) {
+            return scheduler;
+        }
+        return AudioScheduler.getShared(threadPriority, waitStrategy);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.Line;
+
+/**
+ * 音訊線路上的增益與聲道平衡控制。增益優先使用MASTER_GAIN，其次是VOLUME；聲道平衡優先使用PAN(單聲道)，其次是BALANCE(雙聲道)。
+ *
+ * @author Magic Len
+ */
+final class LineControls {
+
+    //-----物件常數-----
+    private final FloatControl gain, volume, pan;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入已經開啟的音訊線路。
+     *
+     * @param line 傳入音訊線路，null表示沒有任何控制
+     */
+    LineControls(final Line line) {
+        gain = getControl(line, FloatControl.Type.MASTER_GAIN);
+        volume = gain == null ? getControl(line, FloatControl.Type.VOLUME) : null;
+        final FloatControl panControl = getControl(line, FloatControl.Type.PAN);
+        pan = panControl != null ? panControl : getControl(line, FloatControl.Type.BALANCE);
+    }
+
+    // -----類別方法-----
+    /**
+     * 取得控制，如果不支援就傳回null。
+     *
+     * @param line 傳入音訊線路
+     * @param type 傳入控制的類型
+     * @return 傳回控制
+     */
+    private static FloatControl getControl(final Line line, final FloatControl.Type type) {
+        if (line == null) {
+            return null;
+        }
+        try {
+            return line.isControlSupported(type) ? (FloatControl) line.getControl(type) : null;
+        } catch (final Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 將數值限制在控制的範圍內。
+     *
+     * @param control 傳入控制
+     * @param value 傳入數值
+     * @return 傳回範圍內的數值
+     */
+    private static float clamp(final FloatControl control, final float value) {
+        return Math.max(Math.min(value, control.getMaximum()), control.getMinimum());
+    }
+
+    // -----物件方法-----
+    /**
+     * 判斷是否可以使用線路控制增益。
+     *
+     * @return 傳回是否可以使用線路控制增益
+     */
+    boolean hasGain() {
+        return gain != null || volume != null;
+    }
+
+    /**
+     * 判斷是否可以使用線路控制聲道平衡。
+     *
+     * @return 傳回是否可以使用線路控制聲道平衡
+     */
+    boolean hasPan() {
+        return pan != null;
+    }
+
+    /**
+     * 設定增益。
+     *
+     * @param db 傳入增益(dB)
+     */
+    void setGain(final float db) {
+        if (gain != null) {
+            gain.setValue(clamp(gain, db));
+        } else if (volume != null) {
+            volume.setValue(clamp(volume, GainTable.dbToLinear(db) * volume.getMaximum()));
+        }
+    }
+
+    /**
+     * 設定聲道平衡。
+     *
+     * @param value 傳入聲道平衡，範圍-1~1
+     */
+    void setPan(final float value) {
+        if (pan != null) {
+            pan.setValue(clamp(pan, value));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * 使用SourceDataLine輸出到音訊裝置的輸出端。
+ *
+ * @author Magic Len
+ */
+public class LineSink implements AudioSink {
+
+    //-----物件常數-----
+    private final Mixer.Info mixerInfo;
+
+    //-----物件變數-----
+    private SourceDataLine line;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用系統預設的混音器。
+     */
+    public LineSink() {
+        this(null);
+    }
+
+    /**
+     * 建構子，傳入要使用的混音器。
+     *
+     * @param mixerInfo 傳入混音器的資訊，null表示使用系統預設的混音器
+     */
+    public LineSink(final Mixer.Info mixerInfo) {
+        this.mixerInfo = mixerInfo;
+    }
+
+    // -----物件方法-----
+    @Override
+    public void open(final AudioFormat format, final int bufferSize) throws Exception {
+        final DataLine.Info dataLineInfo = new DataLine.Info(SourceDataLine.class, format, bufferSize);
+        line = (SourceDataLine) (mixerInfo == null ? AudioSystem.getLine(dataLineInfo) : AudioSystem.getMixer(mixerInfo).getLine(dataLineInfo));
+        line.open(format, bufferSize);
+    }
+
+    @Override
+    public int getBufferSize() {
+        return line.getBufferSize();
+    }
+
+    @Override
+    public int available() {
+        return line.available();
+    }
+
+    @Override
+    public int write(final byte[] data, final int offset, final int length) {
+        return line.write(data, offset, length);
+    }
+
+    @Override
+    public void start() {
+        line.start();
+    }
+
+    @Override
+    public void stop() {
+        line.stop();
+    }
+
+    @Override
+    public void flush() {
+        line.flush();
+    }
+
+    @Override
+    public void close() {
+        if (line != null) {
+            line.close();
+        }
+    }
+
+    @Override
+    public Line getLine() {
+        return line;
+    }
+}
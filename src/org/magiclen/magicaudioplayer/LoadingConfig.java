@@ -0,0 +1,117 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * <p>
+ * 載入與快取的全域設定，影響之後開啟的聲音如何被載入、快取、存放以及正規化。</p>
+ *
+ * <p>
+ * 所有設定預設都是null，也就是不使用對應的功能。設定可以在任何時候被改變，已經建立的播放器不會受到影響。選擇播放器提供者的規則則是由AudioPlayerProviders負責。</p>
+ *
+ * @author Magic Len
+ */
+public final class LoadingConfig {
+
+    // -----類別變數-----
+    private static volatile LoudnessIndex loudnessIndex;
+    private static volatile PcmDiskCache diskCache;
+    private static volatile ParallelLoader parallelLoader;
+    private static volatile StoragePolicy storagePolicy;
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private LoadingConfig() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 設定響度索引，之後建立的播放器會自動套用正規化增益。
+     *
+     * @param loudnessIndex 傳入響度索引，null表示不自動套用正規化增益
+     */
+    public static void setLoudnessIndex(final LoudnessIndex loudnessIndex) {
+        LoadingConfig.loudnessIndex = loudnessIndex;
+    }
+
+    /**
+     * 取得響度索引。
+     *
+     * @return 傳回響度索引，沒有設定時傳回null
+     */
+    public static LoudnessIndex getLoudnessIndex() {
+        return loudnessIndex;
+    }
+
+    /**
+     * 設定解碼後音訊的磁碟快取，之後開啟的音訊會優先使用快取中已經解碼的資料。
+     *
+     * @param diskCache 傳入磁碟快取，null表示不使用快取
+     */
+    public static void setDiskCache(final PcmDiskCache diskCache) {
+        LoadingConfig.diskCache = diskCache;
+    }
+
+    /**
+     * 取得解碼後音訊的磁碟快取。
+     *
+     * @return 傳回磁碟快取，沒有設定時傳回null
+     */
+    public static PcmDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * 設定平行載入器，之後TraditionalPlayer開啟本機的無壓縮音訊檔案時會使用它將檔案分成多個區塊同時載入。預設不使用平行載入器，所有檔案都透過AudioSystem載入。
+     *
+     * @param parallelLoader 傳入平行載入器，null表示一律使用音訊輸入串流載入
+     */
+    public static void setParallelLoader(final ParallelLoader parallelLoader) {
+        LoadingConfig.parallelLoader = parallelLoader;
+    }
+
+    /**
+     * 取得平行載入器。
+     *
+     * @return 傳回平行載入器，沒有設定時傳回null
+     */
+    public static ParallelLoader getParallelLoader() {
+        return parallelLoader;
+    }
+
+    /**
+     * 設定儲存策略，之後TraditionalPlayer和OffHeapSampleStore載入的聲音會被轉換成較小的格式再存放在記憶體中。
+     *
+     * @param storagePolicy 傳入儲存策略，null表示以原本的格式存放
+     */
+    public static void setStoragePolicy(final StoragePolicy storagePolicy) {
+        LoadingConfig.storagePolicy = storagePolicy;
+    }
+
+    /**
+     * 取得儲存策略。
+     *
+     * @return 傳回儲存策略，沒有設定時傳回null
+     */
+    public static StoragePolicy getStoragePolicy() {
+        return storagePolicy;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * <p>
+ * 依照ITU-R BS.1770 / EBU R128計算整合響度(LUFS)的音訊處理階段。</p>
+ *
+ * <p>
+ * 樣本會先經過K-weighting濾波器，再以400毫秒的區塊(每100毫秒一個)計算響度，最後使用-70LUFS的絕對門檻和-10LU的相對門檻求出整合響度。這個處理階段不會改變樣本，可以直接加在解碼的過程中以串流的方式分析。</p>
+ *
+ * @author Magic Len
+ */
+public class LoudnessAnalyzer implements AudioProcessor {
+
+    // -----類別常數-----
+    private static final double ABSOLUTE_GATE = -70, RELATIVE_GATE = -10;
+
+    //-----物件常數-----
+    private final int channels, stepFrames;
+    private final double[] weights;
+    private final double b0, b1, b2, a1, a2, hb0, hb1, hb2, ha1, ha2;
+    private final double[][] state;
+    private final double[] stepSums = new double[4];
+
+    //-----物件變數-----
+    private double[] channelSums;
+    private int stepFrameCount, stepCount;
+    private double[] blockEnergies = new double[64];
+    private int blockCount;
+    private float peak;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param sampleRate 傳入取樣率
+     * @param channels 傳入聲道數量
+     */
+    public LoudnessAnalyzer(final float sampleRate, final int channels) {
+        if (channels < 1) {
+            throw new RuntimeException("Channels must be at least 1!");
+        }
+        this.channels = channels;
+        stepFrames = Math.max(1, Math.round(sampleRate / 10));
+        weights = new double[channels];
+        Arrays.fill(weights, 1);
+        if (channels == 5) {
+            weights[3] = weights[4] = 1.41;
+        } else if (channels == 6) {
+            weights[3] = 0; //LFE
+            weights[4] = weights[5] = 1.41;
+        }
+        state = new double[channels][8];
+        channelSums = new double[channels];
+
+        //高頻的shelving濾波器
+        double f0 = 1681.974450955533;
+        final double g = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        final double vh = Math.pow(10, g / 20);
+        final double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        b0 = (vh + vb * k / q + k * k) / a0;
+        b1 = 2 * (k * k - vh) / a0;
+        b2 = (vh - vb * k / q + k * k) / a0;
+        a1 = 2 * (k * k - 1) / a0;
+        a2 = (1 - k / q + k * k) / a0;
+
+        //RLB高通濾波器
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRate);
+        a0 = 1 + k / q + k * k;
+        hb0 = 1;
+        hb1 = -2;
+        hb2 = 1;
+        ha1 = 2 * (k * k - 1) / a0;
+        ha2 = (1 - k / q + k * k) / a0;
+    }
+
+    // -----類別方法-----
+    /**
+     * 以串流的方式分析聲音的響度。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回分析完成的響度分析器
+     * @throws Exception 拋出例外
+     */
+    public static LoudnessAnalyzer analyze(final URL url) throws Exception {
+        try (final AudioInputStream source = AudioDecoding.open(url)) {
+            final AudioFormat format = source.getFormat();
+            final LoudnessAnalyzer analyzer = new LoudnessAnalyzer(format.getSampleRate(), format.getChannels());
+            final int blockFrames = 8192;
+            final byte[] buffer = new byte[blockFrames * format.getFrameSize()];
+            final float[] samples = new float[blockFrames * format.getChannels()];
+            while (true) {
+                final int read = AudioDecoding.readFully(source, buffer, 0, buffer.length);
+                final int frames = read / format.getFrameSize();
+                if (frames == 0) {
+                    break;
+                }
+                PcmCodec.decode(buffer, 0, frames, format, samples);
+                analyzer.process(samples, frames, format.getChannels());
+            }
+            return analyzer;
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 分析樣本，樣本不會被改變。
+     *
+     * @param samples 傳入樣本
+     * @param frames 傳入音框數量
+     * @param channels 傳入聲道數量，必須與建構時相同
+     */
+    @Override
+    public void process(final float[] samples, final int frames, final int channels) {
+        if (channels != this.channels) {
+            throw new RuntimeException("The number of channels is different from the analyzer!");
+        }
+        for (int i = 0, s = 0; i < frames; ++i) {
+            for (int c = 0; c < channels; ++c, ++s) {
+                final float v = samples[s];
+                final float a = Math.abs(v);
+                if (a > peak) {
+                    peak = a;
+                }
+                final double[] z = state[c];
+                //Direct Form I，z[0..3]是第一個濾波器，z[4..7]是第二個濾波器
+                final double y1 = b0 * v + b1 * z[0] + b2 * z[1] - a1 * z[2] - a2 * z[3];
+                z[1] = z[0];
+                z[0] = v;
+                z[3] = z[2];
+                z[2] = y1;
+                final double y2 = hb0 * y1 + hb1 * z[4] + hb2 * z[5] - ha1 * z[6] - ha2 * z[7];
+                z[5] = z[4];
+                z[4] = y1;
+                z[7] = z[6];
+                z[6] = y2;
+                channelSums[c] += y2 * y2;
+            }
+            if (++stepFrameCount == stepFrames) {
+                endStep();
+            }
+        }
+    }
+
+    /**
+     * 結束一個100毫秒的步進，當累積了4個步進後就產生一個400毫秒的區塊。
+     */
+    private void endStep() {
+        double sum = 0;
+        for (int c = 0; c < channels; ++c) {
+            sum += weights[c] * channelSums[c] / stepFrames;
+            channelSums[c] = 0;
+        }
+        stepFrameCount = 0;
+        stepSums[stepCount & 3] = sum;
+        if (++stepCount >= 4) {
+            final double energy = (stepSums[0] + stepSums[1] + stepSums[2] + stepSums[3]) / 4;
+            if (blockCount == blockEnergies.length) {
+                blockEnergies = Arrays.copyOf(blockEnergies, blockCount * 2);
+            }
+            blockEnergies[blockCount++] = energy;
+        }
+    }
+
+    /**
+     * 重設分析器。
+     */
+    @Override
+    public void reset() {
+        for (final double[] z : state) {
+            Arrays.fill(z, 0);
+        }
+        Arrays.fill(channelSums, 0);
+        stepFrameCount = 0;
+        stepCount = 0;
+        blockCount = 0;
+        peak = 0;
+    }
+
+    /**
+     * 將能量換算為響度。
+     *
+     * @param energy 傳入能量
+     * @return 傳回響度(LUFS)
+     */
+    private static double toLoudness(final double energy) {
+        return -0.691 + 10 * Math.log10(energy);
+    }
+
+    /**
+     * 取得目前為止的整合響度。
+     *
+     * @return 傳回整合響度(LUFS)，聲音太短或是太小聲時傳回Double.NEGATIVE_INFINITY
+     */
+    public double getIntegratedLoudness() {
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < blockCount; ++i) {
+            if (toLoudness(blockEnergies[i]) > ABSOLUTE_GATE) {
+                sum += blockEnergies[i];
+                ++count;
+            }
+        }
+        if (count == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        final double relativeGate = toLoudness(sum / count) + RELATIVE_GATE;
+        sum = 0;
+        count = 0;
+        for (int i = 0; i < blockCount; ++i) {
+            final double loudness = toLoudness(blockEnergies[i]);
+            if (loudness > ABSOLUTE_GATE && loudness > relativeGate) {
+                sum += blockEnergies[i];
+                ++count;
+            }
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : toLoudness(sum / count);
+    }
+
+    /**
+     * 取得目前為止的樣本峰值。
+     *
+     * @return 傳回樣本峰值，範圍是0~1
+     */
+    public float getPeak() {
+        return peak;
+    }
+}
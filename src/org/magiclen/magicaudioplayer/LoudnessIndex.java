@@ -0,0 +1,309 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * 持久化的響度索引，記錄每個聲音來源的整合響度和峰值，用來計算ReplayGain式的正規化增益。</p>
+ *
+ * <p>
+ * 本機檔案會同時記錄檔案大小和修改時間，檔案被改變後會重新分析。新的分析結果會被附加到索引檔案的最後面，使用compact方法可以整理索引檔案。</p>
+ *
+ * @author Magic Len
+ */
+public class LoudnessIndex {
+
+    // -----類別類別-----
+    /**
+     * 索引中的一筆資料。
+     */
+    private static final class Entry {
+
+        final long size, lastModified;
+        final double loudness;
+        final float peak;
+
+        Entry(final long size, final long lastModified, final double loudness, final float peak) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.loudness = loudness;
+            this.peak = peak;
+        }
+    }
+
+    //-----物件常數-----
+    private final File indexFile;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    //-----物件變數-----
+    private volatile double targetLoudness = -18;
+    private volatile boolean preventClipping = true;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入索引檔案。如果索引檔案存在，就會讀取它。
+     *
+     * @param indexFile 傳入索引檔案
+     */
+    public LoudnessIndex(final File indexFile) {
+        this.indexFile = indexFile;
+        if (indexFile.exists()) {
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] tokens = line.split("\t");
+                    if (tokens.length != 5) {
+                        continue;
+                    }
+                    try {
+                        entries.put(tokens[0], new Entry(Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), Double.parseDouble(tokens[3]), Float.parseFloat(tokens[4])));
+                    } catch (final NumberFormatException ex) {
+                        //忽略損壞的資料
+                    }
+                }
+            } catch (final Exception ex) {
+                throw new RuntimeException(ex.getMessage());
+            }
+        }
+    }
+
+    // -----類別方法-----
+    /**
+     * 取得URL所指的本機檔案。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回本機檔案，如果不是本機檔案傳回null
+     */
+    private static File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final Exception ex) {
+            return null;
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 設定目標響度。
+     *
+     * @param targetLoudness 傳入目標響度(LUFS)，預設是-18LUFS
+     */
+    public void setTargetLoudness(final double targetLoudness) {
+        if (targetLoudness > 0) {
+            throw new RuntimeException("The target loudness must be at most 0LUFS!");
+        }
+        this.targetLoudness = targetLoudness;
+    }
+
+    /**
+     * 取得目標響度。
+     *
+     * @return 傳回目標響度(LUFS)
+     */
+    public double getTargetLoudness() {
+        return targetLoudness;
+    }
+
+    /**
+     * 設定是否要限制正規化增益，使峰值不超過0dBFS。
+     *
+     * @param preventClipping 傳入是否要限制正規化增益
+     */
+    public void setPreventClipping(final boolean preventClipping) {
+        this.preventClipping = preventClipping;
+    }
+
+    /**
+     * 取得是否要限制正規化增益，使峰值不超過0dBFS。
+     *
+     * @return 傳回是否要限制正規化增益
+     */
+    public boolean isPreventClipping() {
+        return preventClipping;
+    }
+
+    /**
+     * 取得有效的索引資料。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回索引資料，不存在或已經過期時傳回null
+     */
+    private Entry getEntry(final URL url) {
+        final Entry entry = entries.get(url.toString());
+        if (entry == null) {
+            return null;
+        }
+        final File file = toFile(url);
+        if (file != null && (file.length() != entry.size || file.lastModified() != entry.lastModified)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 判斷聲音是否已經被分析過，且分析結果沒有過期。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回是否已經被分析過
+     */
+    public boolean contains(final URL url) {
+        return getEntry(url) != null;
+    }
+
+    /**
+     * 分析聲音的響度並記錄到索引中，不論是否已經被分析過。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回整合響度(LUFS)
+     * @throws Exception 拋出例外
+     */
+    public double analyze(final URL url) throws Exception {
+        return analyzeEntry(url).loudness;
+    }
+
+    /**
+     * 分析聲音的響度並記錄到索引中。傳回的資料不需要再從索引中查詢，因此不會受到其他執行緒同時更新索引或是檔案被修改的影響。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回索引資料
+     * @throws Exception 拋出例外
+     */
+    private Entry analyzeEntry(final URL url) throws Exception {
+        final File file = toFile(url);
+        final long size = file == null ? -1 : file.length();
+        final long lastModified = file == null ? -1 : file.lastModified();
+        final LoudnessAnalyzer analyzer = LoudnessAnalyzer.analyze(url);
+        final Entry entry = new Entry(size, lastModified, analyzer.getIntegratedLoudness(), analyzer.getPeak());
+        final String key = url.toString();
+        entries.put(key, entry);
+        append(key, entry);
+        return entry;
+    }
+
+    /**
+     * 取得聲音的整合響度，如果還沒被分析過就分析它。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回整合響度(LUFS)
+     * @throws Exception 拋出例外
+     */
+    public double getLoudness(final URL url) throws Exception {
+        final Entry entry = getEntry(url);
+        if (entry != null) {
+            return entry.loudness;
+        }
+        return analyze(url);
+    }
+
+    /**
+     * 取得聲音的正規化增益，如果還沒被分析過就分析它。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回正規化增益(dB)，無法計算時(例如無聲)傳回0
+     * @throws Exception 拋出例外
+     */
+    public float getNormalizationGain(final URL url) throws Exception {
+        Entry entry = getEntry(url);
+        if (entry == null) {
+            entry = analyzeEntry(url);
+        }
+        if (Double.isInfinite(entry.loudness) || Double.isNaN(entry.loudness)) {
+            return 0;
+        }
+        double gain = targetLoudness - entry.loudness;
+        if (preventClipping && entry.peak > 0) {
+            gain = Math.min(gain, -20 * Math.log10(entry.peak));
+        }
+        return (float) gain;
+    }
+
+    /**
+     * 將一筆資料附加到索引檔案中。
+     *
+     * @param key 傳入鍵值
+     * @param entry 傳入資料
+     * @throws Exception 拋出例外
+     */
+    private synchronized void append(final String key, final Entry entry) throws Exception {
+        try (final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), StandardCharsets.UTF_8))) {
+            writeEntry(writer, key, entry);
+        }
+    }
+
+    /**
+     * 寫入一筆資料。
+     *
+     * @param writer 傳入Writer
+     * @param key 傳入鍵值
+     * @param entry 傳入資料
+     * @throws Exception 拋出例外
+     */
+    private static void writeEntry(final BufferedWriter writer, final String key, final Entry entry) throws Exception {
+        writer.write(key);
+        writer.write('\t');
+        writer.write(String.valueOf(entry.size));
+        writer.write('\t');
+        writer.write(String.valueOf(entry.lastModified));
+        writer.write('\t');
+        writer.write(String.valueOf(entry.loudness));
+        writer.write('\t');
+        writer.write(String.valueOf(entry.peak));
+        writer.newLine();
+    }
+
+    /**
+     * 整理索引檔案，移除重複的資料。
+     *
+     * @throws Exception 拋出例外
+     */
+    public synchronized void compact() throws Exception {
+        final File tempFile = new File(indexFile.getAbsolutePath().concat(".tmp"));
+        try (final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            for (final Map.Entry<String, Entry> e : entries.entrySet()) {
+                writeEntry(writer, e.getKey(), e.getValue());
+            }
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 取得索引中的資料數量。
+     *
+     * @return 傳回資料數量
+     */
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ * 持久化的中繼資料索引，記錄大量音訊檔案的格式、長度和標籤，用來快速列出音樂庫。</p>
+ *
+ * <p>
+ * 中繼資料由MetadataReader只讀取標頭取得。索引會同時記錄檔案大小和修改時間，掃描目錄時只會重新讀取新增或被改變的檔案，並移除已經不存在的檔案。掃描會平行地進行，結束後索引檔案會被整個改寫。</p>
+ *
+ * @author Magic Len
+ */
+public class MetadataIndex {
+
+    // -----類別類別-----
+    /**
+     * 索引中的一筆資料。
+     */
+    private static final class Entry {
+
+        final long size, lastModified;
+        final AudioMetadata metadata;
+
+        Entry(final long size, final long lastModified, final AudioMetadata metadata) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * 掃描目錄的結果。
+     */
+    public static final class ScanResult {
+
+        //-----物件常數-----
+        private final int files, read, failed, removed;
+        private final long nanos;
+
+        // -----建構子-----
+        /**
+         * 建構子。
+         *
+         * @param files 傳入找到的檔案數量
+         * @param read 傳入重新讀取的檔案數量
+         * @param failed 傳入無法讀取的檔案數量
+         * @param removed 傳入從索引中移除的檔案數量
+         * @param nanos 傳入掃描所花的時間
+         */
+        private ScanResult(final int files, final int read, final int failed, final int removed, final long nanos) {
+            this.files = files;
+            this.read = read;
+            this.failed = failed;
+            this.removed = removed;
+            this.nanos = nanos;
+        }
+
+        // -----物件方法-----
+        /**
+         * 取得找到的檔案數量。
+         *
+         * @return 傳回檔案數量
+         */
+        public int getFileCount() {
+            return files;
+        }
+
+        /**
+         * 取得重新讀取的檔案數量，也就是新增或被改變的檔案。
+         *
+         * @return 傳回檔案數量
+         */
+        public int getReadCount() {
+            return read;
+        }
+
+        /**
+         * 取得無法讀取的檔案數量。
+         *
+         * @return 傳回檔案數量
+         */
+        public int getFailedCount() {
+            return failed;
+        }
+
+        /**
+         * 取得從索引中移除的檔案數量，也就是已經不存在的檔案。
+         *
+         * @return 傳回檔案數量
+         */
+        public int getRemovedCount() {
+            return removed;
+        }
+
+        /**
+         * 取得掃描所花的時間。
+         *
+         * @return 傳回時間(奈秒)
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("files=%d, read=%d, failed=%d, removed=%d, %.1fms", files, read, failed, removed, nanos / 1e6);
+        }
+    }
+
+    //-----物件常數-----
+    private final File indexFile;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入索引檔案。如果索引檔案存在，就會讀取它。
+     *
+     * @param indexFile 傳入索引檔案
+     */
+    public MetadataIndex(final File indexFile) {
+        this.indexFile = indexFile;
+        if (indexFile.exists()) {
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] tokens = line.split("\t", -1);
+                    if (tokens.length < 10) {
+                        continue;
+                    }
+                    try {
+                        final HashMap<String, String> tags = new HashMap<>();
+                        for (int i = 10; i < tokens.length; ++i) {
+                            final int equalIndex = tokens[i].indexOf('=');
+                            if (equalIndex > 0) {
+                                tags.put(tokens[i].substring(0, equalIndex), unescape(tokens[i].substring(equalIndex + 1)));
+                            }
+                        }
+                        final AudioMetadata metadata = new AudioMetadata(unescape(tokens[3]), unescape(tokens[4]), Float.parseFloat(tokens[5]), Integer.parseInt(tokens[6]), Integer.parseInt(tokens[7]), Integer.parseInt(tokens[8]), Long.parseLong(tokens[9]), tags);
+                        entries.put(unescape(tokens[0]), new Entry(Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), metadata));
+                    } catch (final NumberFormatException ex) {
+                        //忽略損壞的資料
+                    }
+                }
+            } catch (final Exception ex) {
+                throw new RuntimeException(ex.getMessage());
+            }
+        }
+    }
+
+    // -----類別方法-----
+    /**
+     * 跳脫文字中的反斜線、Tab和換行字元。
+     *
+     * @param text 傳入文字
+     * @return 傳回跳脫後的文字
+     */
+    private static String escape(final String text) {
+        final StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 還原跳脫過的文字。
+     *
+     * @param text 傳入跳脫後的文字
+     * @return 傳回文字
+     */
+    private static String unescape(final String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        final StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                final char n = text.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 取得檔案在索引中的鍵值。
+     *
+     * @param file 傳入檔案
+     * @return 傳回鍵值
+     */
+    private static String keyOf(final File file) {
+        return file.getAbsolutePath();
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得檔案的中繼資料。檔案還沒被索引或是已經被改變時，會重新讀取並記錄到索引中，但不會寫入索引檔案。
+     *
+     * @param file 傳入音訊檔案
+     * @return 傳回中繼資料
+     * @throws Exception 拋出例外
+     */
+    public AudioMetadata get(final File file) throws Exception {
+        final String key = keyOf(file);
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry.metadata;
+        }
+        final AudioMetadata metadata = MetadataReader.read(file);
+        entries.put(key, new Entry(size, lastModified, metadata));
+        return metadata;
+    }
+
+    /**
+     * 取得索引中的中繼資料，不會檢查檔案是否已經被改變。
+     *
+     * @param file 傳入音訊檔案
+     * @return 傳回中繼資料，不在索引中時傳回null
+     */
+    public AudioMetadata getCached(final File file) {
+        final Entry entry = entries.get(keyOf(file));
+        return entry == null ? null : entry.metadata;
+    }
+
+    /**
+     * 遞迴地掃描目錄，更新其中所有支援的音訊檔案的中繼資料，並寫入索引檔案。
+     *
+     * @param directory 傳入目錄
+     * @param parallelism 傳入同時讀取檔案的數量
+     * @return 傳回掃描的結果
+     * @throws Exception 拋出例外
+     */
+    public ScanResult scan(final File directory, final int parallelism) throws Exception {
+        if (parallelism < 1) {
+            throw new RuntimeException("Parallelism must be at least 1!");
+        }
+        if (!directory.isDirectory()) {
+            throw new RuntimeException("The directory must exist!");
+        }
+        final long start = System.nanoTime();
+        final List<File> files;
+        try (final Stream<Path> stream = Files.walk(directory.getAbsoluteFile().toPath())) {
+            files = stream.map(Path::toFile).filter(f -> f.isFile() && MetadataReader.isSupported(f)).collect(Collectors.toList());
+        }
+        final LongAdder read = new LongAdder(), failed = new LongAdder();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> files.parallelStream().forEach(file -> {
+                final String key = keyOf(file);
+                final long size = file.length();
+                final long lastModified = file.lastModified();
+                final Entry entry = entries.get(key);
+                if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                    return;
+                }
+                read.increment();
+                try {
+                    entries.put(key, new Entry(size, lastModified, MetadataReader.read(file)));
+                } catch (final Exception ex) {
+                    failed.increment();
+                    entries.remove(key);
+                }
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+        //移除已經不存在的檔案
+        final String prefix = keyOf(directory).concat(File.separator);
+        int removed = 0;
+        final Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            final String key = it.next();
+            if (key.startsWith(prefix) && !new File(key).isFile()) {
+                it.remove();
+                ++removed;
+            }
+        }
+        save();
+        return new ScanResult(files.size(), read.intValue(), failed.intValue(), removed, System.nanoTime() - start);
+    }
+
+    /**
+     * 將整個索引寫入索引檔案。
+     *
+     * @throws Exception 拋出例外
+     */
+    public synchronized void save() throws Exception {
+        final File tempFile = new File(indexFile.getAbsolutePath().concat(".tmp"));
+        try (final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            for (final Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+                final Entry entry = e.getValue();
+                final AudioMetadata metadata = entry.metadata;
+                writer.write(escape(e.getKey()));
+                writer.write('\t');
+                writer.write(String.valueOf(entry.size));
+                writer.write('\t');
+                writer.write(String.valueOf(entry.lastModified));
+                writer.write('\t');
+                writer.write(escape(metadata.getContainer()));
+                writer.write('\t');
+                writer.write(escape(metadata.getEncoding()));
+                writer.write('\t');
+                writer.write(String.valueOf(metadata.getSampleRate()));
+                writer.write('\t');
+                writer.write(String.valueOf(metadata.getChannels()));
+                writer.write('\t');
+                writer.write(String.valueOf(metadata.getSampleSizeInBits()));
+                writer.write('\t');
+                writer.write(String.valueOf(metadata.getBitrate()));
+                writer.write('\t');
+                writer.write(String.valueOf(metadata.getDurationMicros()));
+                for (final Map.Entry<String, String> tag : metadata.getTags().entrySet()) {
+                    writer.write('\t');
+                    writer.write(tag.getKey());
+                    writer.write('=');
+                    writer.write(escape(tag.getValue()));
+                }
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 取得索引中所有的檔案，依照路徑排列。
+     *
+     * @return 傳回檔案
+     */
+    public List<File> getFiles() {
+        final ArrayList<File> files = new ArrayList<>();
+        for (final String key : new TreeMap<>(entries).keySet()) {
+            files.add(new File(key));
+        }
+        return files;
+    }
+
+    /**
+     * 取得索引中的資料數量。
+     *
+     * @return 傳回資料數量
+     */
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,833 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 只讀取檔案標頭的中繼資料讀取器，不需要解碼或載入整個檔案就能得到音訊的格式、長度和標籤。</p>
+ *
+ * <p>
+ * 支援WAV(包括RIFF INFO和id3區塊)、AIFF/AIFC(包括NAME、AUTH、ANNO和ID3區塊)、AU、MP3(ID3v2、ID3v1，以及Xing、Info或VBRI標頭中的音框數量)和MP4/M4A(mvhd、音訊軌的取樣描述與iTunes標籤)。其他格式會交給Java Sound的AudioFileFormat處理。</p>
+ *
+ * @author Magic Len
+ */
+public final class MetadataReader {
+
+    // -----類別常數-----
+    private static final Set<String> EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("wav", "wave", "aif", "aiff", "aifc", "au", "snd", "mp3", "m4a", "m4b", "mp4")));
+    private static final int MAX_TAG_FRAME_SIZE = 1024 * 1024;
+    private static final int MAX_MOOV_SIZE = 16 * 1024 * 1024;
+    private static final int MPEG_SYNC_SEARCH = 64 * 1024;
+    private static final int[][] MPEG_BITRATES = {
+        //MPEG-1 Layer I、II、III
+        {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+        {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+        //MPEG-2/2.5 Layer I、II/III
+        {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+        {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[] MPEG_SAMPLE_RATES = {44100, 48000, 32000};
+    private static final Map<String, String> RIFF_INFO_TAGS = new HashMap<>(), AIFF_TAGS = new HashMap<>(), ID3_TAGS = new HashMap<>(), MP4_TAGS = new HashMap<>();
+
+    // -----初始化-----
+    static {
+        RIFF_INFO_TAGS.put("INAM", AudioMetadata.TITLE);
+        RIFF_INFO_TAGS.put("IART", AudioMetadata.ARTIST);
+        RIFF_INFO_TAGS.put("IPRD", AudioMetadata.ALBUM);
+        RIFF_INFO_TAGS.put("IGNR", AudioMetadata.GENRE);
+        RIFF_INFO_TAGS.put("ICRD", AudioMetadata.DATE);
+        RIFF_INFO_TAGS.put("ITRK", AudioMetadata.TRACK);
+        RIFF_INFO_TAGS.put("IPRT", AudioMetadata.TRACK);
+        RIFF_INFO_TAGS.put("ICMT", AudioMetadata.COMMENT);
+
+        AIFF_TAGS.put("NAME", AudioMetadata.TITLE);
+        AIFF_TAGS.put("AUTH", AudioMetadata.ARTIST);
+        AIFF_TAGS.put("ANNO", AudioMetadata.COMMENT);
+
+        ID3_TAGS.put("TIT2", AudioMetadata.TITLE);
+        ID3_TAGS.put("TT2", AudioMetadata.TITLE);
+        ID3_TAGS.put("TPE1", AudioMetadata.ARTIST);
+        ID3_TAGS.put("TP1", AudioMetadata.ARTIST);
+        ID3_TAGS.put("TALB", AudioMetadata.ALBUM);
+        ID3_TAGS.put("TAL", AudioMetadata.ALBUM);
+        ID3_TAGS.put("TCON", AudioMetadata.GENRE);
+        ID3_TAGS.put("TCO", AudioMetadata.GENRE);
+        ID3_TAGS.put("TDRC", AudioMetadata.DATE);
+        ID3_TAGS.put("TYER", AudioMetadata.DATE);
+        ID3_TAGS.put("TYE", AudioMetadata.DATE);
+        ID3_TAGS.put("TRCK", AudioMetadata.TRACK);
+        ID3_TAGS.put("TRK", AudioMetadata.TRACK);
+        ID3_TAGS.put("COMM", AudioMetadata.COMMENT);
+        ID3_TAGS.put("COM", AudioMetadata.COMMENT);
+
+        MP4_TAGS.put("©nam", AudioMetadata.TITLE);
+        MP4_TAGS.put("©ART", AudioMetadata.ARTIST);
+        MP4_TAGS.put("©alb", AudioMetadata.ALBUM);
+        MP4_TAGS.put("©gen", AudioMetadata.GENRE);
+        MP4_TAGS.put("©day", AudioMetadata.DATE);
+        MP4_TAGS.put("©cmt", AudioMetadata.COMMENT);
+    }
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private MetadataReader() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 依照副檔名判斷是否支援這個檔案。
+     *
+     * @param file 傳入檔案
+     * @return 傳回是否支援
+     */
+    public static boolean isSupported(final File file) {
+        final String name = file.getName();
+        final int dotIndex = name.lastIndexOf('.');
+        return dotIndex >= 0 && EXTENSIONS.contains(name.substring(dotIndex + 1).toLowerCase());
+    }
+
+    /**
+     * 讀取檔案的中繼資料。
+     *
+     * @param file 傳入音訊檔案
+     * @return 傳回中繼資料
+     * @throws Exception 拋出例外，檔案無法被辨識時也會拋出例外
+     */
+    public static AudioMetadata read(final File file) throws Exception {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            if (fileSize >= 12) {
+                final ByteBuffer header = PcmFileLayout.read(channel, 0, 12, ByteOrder.BIG_ENDIAN);
+                final String id = PcmFileLayout.readID(header, 0);
+                final String type = PcmFileLayout.readID(header, 8);
+                if ("RIFF".equals(id) && "WAVE".equals(type)) {
+                    return readWave(channel, fileSize);
+                } else if ("FORM".equals(id) && ("AIFF".equals(type) || "AIFC".equals(type))) {
+                    return readAiff(channel, fileSize, "AIFC".equals(type));
+                } else if (".snd".equals(id)) {
+                    return readAu(channel);
+                } else if ("ftyp".equals(PcmFileLayout.readID(header, 4))) {
+                    return readMp4(channel, fileSize);
+                }
+            }
+            final AudioMetadata mpeg = readMpeg(channel, fileSize);
+            if (mpeg != null) {
+                return mpeg;
+            }
+        }
+        return readAudioFileFormat(file);
+    }
+
+    /**
+     * 讀取WAV檔案。
+     *
+     * @param channel 傳入檔案通道
+     * @param fileSize 傳入檔案大小
+     * @return 傳回中繼資料
+     * @throws IOException 拋出例外
+     */
+    private static AudioMetadata readWave(final FileChannel channel, final long fileSize) throws IOException {
+        final HashMap<String, String> tags = new HashMap<>();
+        int tag = -1, channels = AudioSystem.NOT_SPECIFIED, blockAlign = 0, bits = AudioSystem.NOT_SPECIFIED;
+        long sampleRate = 0, byteRate = 0, factSamples = -1, dataSize = -1;
+        long position = 12;
+        while (position + 8 <= fileSize) {
+            final ByteBuffer chunk = PcmFileLayout.read(channel, position, 8, ByteOrder.LITTLE_ENDIAN);
+            final String id = PcmFileLayout.readID(chunk, 0);
+            final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            final long body = position + 8;
+            if ("fmt ".equals(id) && size >= 16) {
+                final ByteBuffer fmt = PcmFileLayout.read(channel, body, (int) Math.min(size, 26), ByteOrder.LITTLE_ENDIAN);
+                tag = fmt.getShort(0) & 0xFFFF;
+                channels = fmt.getShort(2) & 0xFFFF;
+                sampleRate = fmt.getInt(4) & 0xFFFFFFFFL;
+                byteRate = fmt.getInt(8) & 0xFFFFFFFFL;
+                blockAlign = fmt.getShort(12) & 0xFFFF;
+                bits = fmt.getShort(14) & 0xFFFF;
+                if (tag == 0xFFFE && size >= 26) {
+                    tag = fmt.getShort(24) & 0xFFFF;
+                }
+            } else if ("fact".equals(id) && size >= 4) {
+                factSamples = PcmFileLayout.read(channel, body, 4, ByteOrder.LITTLE_ENDIAN).getInt(0) & 0xFFFFFFFFL;
+            } else if ("data".equals(id)) {
+                dataSize = Math.min(size, fileSize - body);
+            } else if ("LIST".equals(id) && size >= 4 && size <= MAX_TAG_FRAME_SIZE) {
+                final ByteBuffer list = PcmFileLayout.read(channel, body, (int) Math.min(size, fileSize - body), ByteOrder.LITTLE_ENDIAN);
+                if ("INFO".equals(PcmFileLayout.readID(list, 0))) {
+                    readRiffInfo(list, tags);
+                }
+            } else if (("id3 ".equals(id) || "ID3 ".equals(id)) && size >= 10) {
+                readId3v2(channel, body, tags);
+            }
+            position = body + size + (size & 1);
+        }
+        if (tag < 0 || sampleRate <= 0) {
+            throw new IOException("The WAV file has no format chunk!");
+        }
+        final boolean pcm = tag == 1 || tag == 3 || tag == 6 || tag == 7;
+        long durationMicros = -1;
+        if (pcm && blockAlign > 0 && dataSize >= 0) {
+            durationMicros = dataSize / blockAlign * 1000000L / sampleRate;
+        } else if (factSamples >= 0) {
+            durationMicros = factSamples * 1000000L / sampleRate;
+        } else if (byteRate > 0 && dataSize >= 0) {
+            durationMicros = dataSize * 1000000L / byteRate;
+        }
+        final String encoding;
+        switch (tag) {
+            case 1:
+                encoding = (bits <= 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED).toString();
+                break;
+            case 3:
+                encoding = AudioFormat.Encoding.PCM_FLOAT.toString();
+                break;
+            case 6:
+                encoding = AudioFormat.Encoding.ALAW.toString();
+                break;
+            case 7:
+                encoding = AudioFormat.Encoding.ULAW.toString();
+                break;
+            default:
+                encoding = String.format("WAVE_FORMAT_0x%04X", tag);
+        }
+        return new AudioMetadata("wav", encoding, sampleRate, channels, pcm ? bits : AudioSystem.NOT_SPECIFIED, byteRate > 0 ? (int) Math.min(Integer.MAX_VALUE, byteRate * 8) : AudioSystem.NOT_SPECIFIED, durationMicros, tags);
+    }
+
+    /**
+     * 讀取RIFF INFO清單中的標籤。
+     *
+     * @param list 傳入LIST區塊的內容，從清單類型開始
+     * @param tags 傳入用來存放標籤的Map
+     */
+    private static void readRiffInfo(final ByteBuffer list, final Map<String, String> tags) {
+        int p = 4;
+        while (p + 8 <= list.limit()) {
+            final String id = PcmFileLayout.readID(list, p);
+            final int size = list.getInt(p + 4);
+            if (size < 0 || p + 8 + size > list.limit()) {
+                break;
+            }
+            final String name = RIFF_INFO_TAGS.get(id);
+            if (name != null) {
+                putTag(tags, name, decodeText(list, p + 8, size, StandardCharsets.UTF_8));
+            }
+            p += 8 + size + (size & 1);
+        }
+    }
+
+    /**
+     * 讀取AIFF或AIFC檔案。
+     *
+     * @param channel 傳入檔案通道
+     * @param fileSize 傳入檔案大小
+     * @param aifc 傳入是否為AIFC檔案
+     * @return 傳回中繼資料
+     * @throws IOException 拋出例外
+     */
+    private static AudioMetadata readAiff(final FileChannel channel, final long fileSize, final boolean aifc) throws IOException {
+        final HashMap<String, String> tags = new HashMap<>();
+        ByteBuffer comm = null;
+        long position = 12;
+        while (position + 8 <= fileSize) {
+            final ByteBuffer chunk = PcmFileLayout.read(channel, position, 8, ByteOrder.BIG_ENDIAN);
+            final String id = PcmFileLayout.readID(chunk, 0);
+            final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            final long body = position + 8;
+            if ("COMM".equals(id) && size >= 18) {
+                comm = PcmFileLayout.read(channel, body, aifc && size >= 22 ? 22 : 18, ByteOrder.BIG_ENDIAN);
+            } else if (AIFF_TAGS.containsKey(id) && size <= MAX_TAG_FRAME_SIZE) {
+                final ByteBuffer text = PcmFileLayout.read(channel, body, (int) Math.min(size, fileSize - body), ByteOrder.BIG_ENDIAN);
+                putTag(tags, AIFF_TAGS.get(id), decodeText(text, 0, text.limit(), StandardCharsets.ISO_8859_1));
+            } else if ("ID3 ".equals(id) && size >= 10) {
+                readId3v2(channel, body, tags);
+            }
+            position = body + size + (size & 1);
+        }
+        if (comm == null) {
+            throw new IOException("The AIFF file has no COMM chunk!");
+        }
+        final int channels = comm.getShort(0);
+        final long frames = comm.getInt(2) & 0xFFFFFFFFL;
+        final int bits = comm.getShort(6);
+        final double sampleRate = PcmFileLayout.readExtended(comm, 8);
+        final String compression = comm.limit() >= 22 ? PcmFileLayout.readID(comm, 18) : "NONE";
+        final boolean pcm = "NONE".equals(compression) || "twos".equals(compression) || "sowt".equals(compression);
+        final String encoding = pcm ? AudioFormat.Encoding.PCM_SIGNED.toString() : compression.trim();
+        final long durationMicros = sampleRate > 0 ? (long) (frames * 1000000L / sampleRate) : -1;
+        return new AudioMetadata(aifc ? "aifc" : "aiff", encoding, (float) sampleRate, channels, pcm ? bits : AudioSystem.NOT_SPECIFIED, pcm ? (int) Math.min(Integer.MAX_VALUE, (long) (sampleRate * channels * bits)) : AudioSystem.NOT_SPECIFIED, durationMicros, tags);
+    }
+
+    /**
+     * 讀取AU檔案。
+     *
+     * @param channel 傳入檔案通道
+     * @return 傳回中繼資料
+     * @throws IOException 拋出例外
+     */
+    private static AudioMetadata readAu(final FileChannel channel) throws IOException {
+        final PcmFileLayout layout = PcmFileLayout.parse(channel);
+        if (layout == null) {
+            throw new IOException("The AU file is not supported!");
+        }
+        final AudioFormat format = layout.getFormat();
+        final long frames = layout.getDataLength() / format.getFrameSize();
+        return new AudioMetadata("au", format.getEncoding().toString(), format.getSampleRate(), format.getChannels(), format.getSampleSizeInBits(), (int) (format.getSampleRate() * format.getFrameSize() * 8), (long) (frames * 1000000L / format.getSampleRate()), Collections.emptyMap());
+    }
+
+    /**
+     * 讀取MPEG音訊檔案，也就是MP3檔案。
+     *
+     * @param channel 傳入檔案通道
+     * @param fileSize 傳入檔案大小
+     * @return 傳回中繼資料，不是MPEG音訊時傳回null
+     * @throws IOException 拋出例外
+     */
+    private static AudioMetadata readMpeg(final FileChannel channel, final long fileSize) throws IOException {
+        final HashMap<String, String> tags = new HashMap<>();
+        long start = 0;
+        if (fileSize >= 10 && "ID3".equals(new String(PcmFileLayout.read(channel, 0, 3, ByteOrder.BIG_ENDIAN).array(), StandardCharsets.ISO_8859_1))) {
+            start = readId3v2(channel, 0, tags);
+        }
+        long end = fileSize;
+        if (fileSize - start >= 128) {
+            final ByteBuffer id3v1 = PcmFileLayout.read(channel, fileSize - 128, 128, ByteOrder.BIG_ENDIAN);
+            if (id3v1.get(0) == 'T' && id3v1.get(1) == 'A' && id3v1.get(2) == 'G') {
+                end -= 128;
+                readId3v1(id3v1, tags);
+            }
+        }
+        //尋找第一個音框，下一個音框的標頭也必須是正確的，避免誤判
+        final int searchLength = (int) Math.min(MPEG_SYNC_SEARCH, end - start);
+        if (searchLength < 4) {
+            return null;
+        }
+        final ByteBuffer search = PcmFileLayout.read(channel, start, searchLength, ByteOrder.BIG_ENDIAN);
+        for (int p = 0; p + 4 <= searchLength; ++p) {
+            final int header = search.getInt(p);
+            final int frameLength = mpegFrameLength(header);
+            if (frameLength <= 0) {
+                continue;
+            }
+            final long next = start + p + frameLength;
+            if (next + 4 <= end) {
+                final int nextHeader = PcmFileLayout.read(channel, next, 4, ByteOrder.BIG_ENDIAN).getInt(0);
+                if (mpegFrameLength(nextHeader) <= 0 || (nextHeader & 0xFFFE0C00) != (header & 0xFFFE0C00)) {
+                    continue;
+                }
+            }
+            return readMpegFrame(channel, start + p, header, end, tags);
+        }
+        return null;
+    }
+
+    /**
+     * 從第一個音框讀取MPEG音訊的格式和長度。
+     *
+     * @param channel 傳入檔案通道
+     * @param position 傳入第一個音框的位置
+     * @param header 傳入第一個音框的標頭
+     * @param end 傳入音訊資料的結尾
+     * @param tags 傳入標籤
+     * @return 傳回中繼資料
+     * @throws IOException 拋出例外
+     */
+    private static AudioMetadata readMpegFrame(final FileChannel channel, final long position, final int header, final long end, final Map<String, String> tags) throws IOException {
+        final int version = (header >>> 19) & 3; //0：MPEG-2.5；2：MPEG-2；3：MPEG-1
+        final int layer = 4 - ((header >>> 17) & 3);
+        final int sampleRate = MPEG_SAMPLE_RATES[(header >>> 10) & 3] >> (version == 3 ? 0 : version == 2 ? 1 : 2);
+        final boolean mono = ((header >>> 6) & 3) == 3;
+        final int bitrate = mpegBitrate(header) * 1000;
+        final int samplesPerFrame = layer == 1 ? 384 : layer == 2 || version == 3 ? 1152 : 576;
+        //VBR檔案的第一個音框是Xing、Info或VBRI標頭，記錄了音框數量
+        long frames = -1;
+        final int sideInfo = version == 3 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        if (position + 4 + 32 + 18 <= end) {
+            final ByteBuffer xing = PcmFileLayout.read(channel, position + 4 + sideInfo, 12, ByteOrder.BIG_ENDIAN);
+            final String id = PcmFileLayout.readID(xing, 0);
+            if (("Xing".equals(id) || "Info".equals(id)) && (xing.getInt(4) & 1) != 0) {
+                frames = xing.getInt(8) & 0xFFFFFFFFL;
+            } else {
+                final ByteBuffer vbri = PcmFileLayout.read(channel, position + 4 + 32, 18, ByteOrder.BIG_ENDIAN);
+                if ("VBRI".equals(PcmFileLayout.readID(vbri, 0))) {
+                    frames = vbri.getInt(14) & 0xFFFFFFFFL;
+                }
+            }
+        }
+        final long audioBytes = end - position;
+        final long durationMicros;
+        final int averageBitrate;
+        if (frames > 0) {
+            durationMicros = frames * samplesPerFrame * 1000000L / sampleRate;
+            averageBitrate = durationMicros > 0 ? (int) (audioBytes * 8 * 1000000L / durationMicros) : bitrate;
+        } else {
+            durationMicros = audioBytes * 8 * 1000000L / bitrate;
+            averageBitrate = bitrate;
+        }
+        final String encoding = String.format("MPEG-%s Layer %s", version == 3 ? "1" : version == 2 ? "2" : "2.5", layer == 1 ? "I" : layer == 2 ? "II" : "III");
+        return new AudioMetadata("mp3", encoding, sampleRate, mono ? 1 : 2, AudioSystem.NOT_SPECIFIED, averageBitrate, durationMicros, tags);
+    }
+
+    /**
+     * 取得MPEG音框標頭中的位元率。
+     *
+     * @param header 傳入音框標頭
+     * @return 傳回位元率(kbps)
+     */
+    private static int mpegBitrate(final int header) {
+        final int version = (header >>> 19) & 3;
+        final int layer = 4 - ((header >>> 17) & 3);
+        final int index = (header >>> 12) & 15;
+        if (version == 3) {
+            return MPEG_BITRATES[layer - 1][index];
+        }
+        return MPEG_BITRATES[layer == 1 ? 3 : 4][index];
+    }
+
+    /**
+     * 計算MPEG音框的長度。
+     *
+     * @param header 傳入音框標頭
+     * @return 傳回長度(位元組)，不是正確的標頭時傳回0
+     */
+    private static int mpegFrameLength(final int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return 0;
+        }
+        final int version = (header >>> 19) & 3;
+        final int layerBits = (header >>> 17) & 3;
+        final int bitrateIndex = (header >>> 12) & 15;
+        final int sampleRateIndex = (header >>> 10) & 3;
+        if (version == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return 0;
+        }
+        final int layer = 4 - layerBits;
+        final int bitrate = mpegBitrate(header) * 1000;
+        final int sampleRate = MPEG_SAMPLE_RATES[sampleRateIndex] >> (version == 3 ? 0 : version == 2 ? 1 : 2);
+        final int padding = (header >>> 9) & 1;
+        if (layer == 1) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        return (layer == 3 && version != 3 ? 72 : 144) * bitrate / sampleRate + padding;
+    }
+
+    /**
+     * 讀取ID3v2標籤。
+     *
+     * @param channel 傳入檔案通道
+     * @param position 傳入標籤的位置
+     * @param tags 傳入用來存放標籤的Map
+     * @return 傳回標籤結束的位置
+     * @throws IOException 拋出例外
+     */
+    private static long readId3v2(final FileChannel channel, final long position, final Map<String, String> tags) throws IOException {
+        final ByteBuffer header = PcmFileLayout.read(channel, position, 10, ByteOrder.BIG_ENDIAN);
+        if (header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') {
+            return position;
+        }
+        final int major = header.get(3);
+        final int flags = header.get(5) & 0xFF;
+        final long size = syncsafe(header.getInt(6));
+        final long end = position + 10 + size;
+        final long tagEnd = end + ((flags & 0x10) != 0 ? 10 : 0);
+        //不處理整個標籤都經過反同步的舊版標籤
+        if (major < 2 || major > 4 || (flags & 0x80) != 0 && major < 4) {
+            return tagEnd;
+        }
+        long p = position + 10;
+        if ((flags & 0x40) != 0 && major >= 3) {
+            //略過延伸標頭
+            final int extendedSize = PcmFileLayout.read(channel, p, 4, ByteOrder.BIG_ENDIAN).getInt(0);
+            p += major == 4 ? syncsafe(extendedSize) : extendedSize + 4;
+        }
+        final int headerSize = major == 2 ? 6 : 10;
+        while (p + headerSize <= end) {
+            final ByteBuffer frameHeader = PcmFileLayout.read(channel, p, headerSize, ByteOrder.BIG_ENDIAN);
+            if (frameHeader.get(0) == 0) {
+                //填充
+                break;
+            }
+            final String id;
+            final long frameSize;
+            int frameFlags = 0;
+            if (major == 2) {
+                id = new String(frameHeader.array(), 0, 3, StandardCharsets.ISO_8859_1);
+                frameSize = ((frameHeader.get(3) & 0xFF) << 16) | ((frameHeader.get(4) & 0xFF) << 8) | (frameHeader.get(5) & 0xFF);
+            } else {
+                id = PcmFileLayout.readID(frameHeader, 0);
+                frameSize = major == 4 ? syncsafe(frameHeader.getInt(4)) : frameHeader.getInt(4) & 0xFFFFFFFFL;
+                frameFlags = frameHeader.getShort(8) & 0xFFFF;
+            }
+            final long body = p + headerSize;
+            if (frameSize <= 0 || body + frameSize > end) {
+                break;
+            }
+            final String name = ID3_TAGS.get(id);
+            //略過壓縮、加密或反同步的框架
+            final boolean plain = major == 2 || (major == 3 ? (frameFlags & 0x00C0) == 0 : (frameFlags & 0x000E) == 0);
+            if (name != null && plain && frameSize <= MAX_TAG_FRAME_SIZE) {
+                final ByteBuffer frame = PcmFileLayout.read(channel, body, (int) frameSize, ByteOrder.BIG_ENDIAN);
+                final String value = id.startsWith("COM") ? readId3Comment(frame) : readId3Text(frame, 0);
+                if (value != null) {
+                    putTag(tags, name, value);
+                }
+            }
+            p = body + frameSize;
+        }
+        return tagEnd;
+    }
+
+    /**
+     * 讀取ID3v2的文字框架。
+     *
+     * @param frame 傳入框架內容
+     * @param offset 傳入編碼位元組的位置
+     * @return 傳回文字
+     */
+    private static String readId3Text(final ByteBuffer frame, final int offset) {
+        if (frame.limit() <= offset) {
+            return null;
+        }
+        return decodeText(frame, offset + 1, frame.limit() - offset - 1, id3Charset(frame.get(offset)));
+    }
+
+    /**
+     * 讀取ID3v2的註解框架，也就是編碼、語言、簡短描述和內容。
+     *
+     * @param frame 傳入框架內容
+     * @return 傳回內容
+     */
+    private static String readId3Comment(final ByteBuffer frame) {
+        if (frame.limit() < 4) {
+            return null;
+        }
+        final int encoding = frame.get(0);
+        final boolean wide = encoding == 1 || encoding == 2;
+        //略過以null結尾的簡短描述
+        int p = 4;
+        while (p < frame.limit()) {
+            if (wide) {
+                if (p + 1 < frame.limit() && frame.get(p) == 0 && frame.get(p + 1) == 0) {
+                    p += 2;
+                    break;
+                }
+                p += 2;
+            } else {
+                if (frame.get(p++) == 0) {
+                    break;
+                }
+            }
+        }
+        if (p >= frame.limit()) {
+            return null;
+        }
+        return decodeText(frame, p, frame.limit() - p, id3Charset(encoding));
+    }
+
+    /**
+     * 取得ID3v2文字編碼對應的字元集。
+     *
+     * @param encoding 傳入文字編碼
+     * @return 傳回字元集
+     */
+    private static Charset id3Charset(final int encoding) {
+        switch (encoding) {
+            case 1:
+                return StandardCharsets.UTF_16;
+            case 2:
+                return StandardCharsets.UTF_16BE;
+            case 3:
+                return StandardCharsets.UTF_8;
+            default:
+                return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    /**
+     * 讀取ID3v1標籤，只會補上ID3v2中沒有的標籤。
+     *
+     * @param tag 傳入標籤內容，從TAG開始
+     * @param tags 傳入用來存放標籤的Map
+     */
+    private static void readId3v1(final ByteBuffer tag, final Map<String, String> tags) {
+        final HashMap<String, String> v1 = new HashMap<>();
+        putTag(v1, AudioMetadata.TITLE, decodeText(tag, 3, 30, StandardCharsets.ISO_8859_1));
+        putTag(v1, AudioMetadata.ARTIST, decodeText(tag, 33, 30, StandardCharsets.ISO_8859_1));
+        putTag(v1, AudioMetadata.ALBUM, decodeText(tag, 63, 30, StandardCharsets.ISO_8859_1));
+        putTag(v1, AudioMetadata.DATE, decodeText(tag, 93, 4, StandardCharsets.ISO_8859_1));
+        if (tag.get(125) == 0 && tag.get(126) != 0) {
+            //ID3v1.1，註解的最後一個位元組為音軌編號
+            putTag(v1, AudioMetadata.COMMENT, decodeText(tag, 97, 28, StandardCharsets.ISO_8859_1));
+            putTag(v1, AudioMetadata.TRACK, String.valueOf(tag.get(126) & 0xFF));
+        } else {
+            putTag(v1, AudioMetadata.COMMENT, decodeText(tag, 97, 30, StandardCharsets.ISO_8859_1));
+        }
+        for (final Map.Entry<String, String> e : v1.entrySet()) {
+            tags.putIfAbsent(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * 讀取MP4檔案。只會讀取moov方塊，不會讀取媒體資料。
+     *
+     * @param channel 傳入檔案通道
+     * @param fileSize 傳入檔案大小
+     * @return 傳回中繼資料
+     * @throws IOException 拋出例外
+     */
+    private static AudioMetadata readMp4(final FileChannel channel, final long fileSize) throws IOException {
+        long position = 0;
+        while (position + 8 <= fileSize) {
+            final ByteBuffer box = PcmFileLayout.read(channel, position, 8, ByteOrder.BIG_ENDIAN);
+            long size = box.getInt(0) & 0xFFFFFFFFL;
+            final String type = PcmFileLayout.readID(box, 4);
+            int headerSize = 8;
+            if (size == 1) {
+                size = PcmFileLayout.read(channel, position + 8, 8, ByteOrder.BIG_ENDIAN).getLong(0);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (size < headerSize) {
+                break;
+            }
+            if ("moov".equals(type)) {
+                if (size - headerSize > MAX_MOOV_SIZE) {
+                    throw new IOException("The moov box is too large!");
+                }
+                final ByteBuffer moov = PcmFileLayout.read(channel, position + headerSize, (int) Math.min(size - headerSize, fileSize - position - headerSize), ByteOrder.BIG_ENDIAN);
+                return parseMoov(moov);
+            }
+            position += size;
+        }
+        throw new IOException("The MP4 file has no moov box!");
+    }
+
+    /**
+     * 解析moov方塊。
+     *
+     * @param moov 傳入moov方塊的內容
+     * @return 傳回中繼資料
+     */
+    private static AudioMetadata parseMoov(final ByteBuffer moov) {
+        final HashMap<String, String> tags = new HashMap<>();
+        long durationMicros = -1;
+        float sampleRate = AudioSystem.NOT_SPECIFIED;
+        int channels = AudioSystem.NOT_SPECIFIED;
+        String encoding = "unknown";
+        final ByteBuffer mvhd = findBox(moov, "mvhd");
+        if (mvhd != null && mvhd.limit() >= 20) {
+            final int version = mvhd.get(0);
+            final long timescale = (version == 1 ? mvhd.getInt(20) : mvhd.getInt(12)) & 0xFFFFFFFFL;
+            final long duration = version == 1 ? mvhd.getLong(24) : mvhd.getInt(16) & 0xFFFFFFFFL;
+            if (timescale > 0) {
+                durationMicros = (long) (duration * 1000000.0 / timescale);
+            }
+        }
+        //尋找第一個音訊軌
+        for (final ByteBuffer trak : findBoxes(moov, "trak")) {
+            final ByteBuffer mdia = findBox(trak, "mdia");
+            final ByteBuffer hdlr = mdia == null ? null : findBox(mdia, "hdlr");
+            if (hdlr == null || hdlr.limit() < 12 || !"soun".equals(PcmFileLayout.readID(hdlr, 8))) {
+                continue;
+            }
+            final ByteBuffer stsd = findBox(findBox(findBox(mdia, "minf"), "stbl"), "stsd");
+            if (stsd != null && stsd.limit() >= 8 + 8 + 28) {
+                //完整方塊標頭與項目數量之後是第一個取樣描述
+                encoding = PcmFileLayout.readID(stsd, 12).trim();
+                channels = stsd.getShort(16 + 16) & 0xFFFF;
+                sampleRate = (stsd.getInt(16 + 24) >>> 16) & 0xFFFF;
+            }
+            break;
+        }
+        final ByteBuffer meta = findBox(findBox(moov, "udta"), "meta");
+        if (meta != null && meta.limit() > 4) {
+            //meta是完整方塊，子方塊在版本和旗標之後
+            final ByteBuffer ilst = findBox(meta.duplicate().position(4).slice(), "ilst");
+            if (ilst != null) {
+                readIlst(ilst, tags);
+            }
+        }
+        return new AudioMetadata("mp4", encoding, sampleRate, channels, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, durationMicros, tags);
+    }
+
+    /**
+     * 讀取iTunes的標籤清單。
+     *
+     * @param ilst 傳入ilst方塊的內容
+     * @param tags 傳入用來存放標籤的Map
+     */
+    private static void readIlst(final ByteBuffer ilst, final Map<String, String> tags) {
+        int p = 0;
+        while (p + 8 <= ilst.limit()) {
+            final int size = ilst.getInt(p);
+            if (size < 8 || p + size > ilst.limit()) {
+                break;
+            }
+            final String type = new String(new byte[]{ilst.get(p + 4), ilst.get(p + 5), ilst.get(p + 6), ilst.get(p + 7)}, StandardCharsets.ISO_8859_1);
+            final ByteBuffer data = findBox(ilst.duplicate().position(p + 8).limit(p + size).slice(), "data");
+            if (data != null && data.limit() >= 8) {
+                if ("trkn".equals(type)) {
+                    if (data.limit() >= 12) {
+                        putTag(tags, AudioMetadata.TRACK, String.valueOf(data.getShort(10) & 0xFFFF));
+                    }
+                } else {
+                    final String name = MP4_TAGS.get(type);
+                    if (name != null) {
+                        putTag(tags, name, decodeText(data, 8, data.limit() - 8, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            p += size;
+        }
+    }
+
+    /**
+     * 在方塊的內容中尋找第一個指定類型的子方塊。
+     *
+     * @param parent 傳入方塊的內容，可以是null
+     * @param type 傳入子方塊的類型
+     * @return 傳回子方塊的內容，找不到時傳回null
+     */
+    private static ByteBuffer findBox(final ByteBuffer parent, final String type) {
+        if (parent == null) {
+            return null;
+        }
+        final ByteBuffer[] boxes = findBoxes(parent, type);
+        return boxes.length == 0 ? null : boxes[0];
+    }
+
+    /**
+     * 在方塊的內容中尋找所有指定類型的子方塊。
+     *
+     * @param parent 傳入方塊的內容
+     * @param type 傳入子方塊的類型
+     * @return 傳回子方塊的內容
+     */
+    private static ByteBuffer[] findBoxes(final ByteBuffer parent, final String type) {
+        ByteBuffer[] result = new ByteBuffer[0];
+        int p = 0;
+        while (p + 8 <= parent.limit()) {
+            final long size = parent.getInt(p) & 0xFFFFFFFFL;
+            if (size < 8 || p + size > parent.limit()) {
+                break;
+            }
+            if (type.equals(PcmFileLayout.readID(parent, p + 4))) {
+                result = Arrays.copyOf(result, result.length + 1);
+                result[result.length - 1] = parent.duplicate().position(p + 8).limit((int) (p + size)).slice();
+            }
+            p += size;
+        }
+        return result;
+    }
+
+    /**
+     * 使用Java Sound讀取其他格式的檔案。
+     *
+     * @param file 傳入音訊檔案
+     * @return 傳回中繼資料
+     * @throws Exception 拋出例外
+     */
+    private static AudioMetadata readAudioFileFormat(final File file) throws Exception {
+        final AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+        final AudioFormat format = fileFormat.getFormat();
+        long durationMicros = -1;
+        final Object duration = fileFormat.getProperty("duration");
+        if (duration instanceof Long) {
+            durationMicros = (Long) duration;
+        } else if (fileFormat.getFrameLength() != AudioSystem.NOT_SPECIFIED && format.getFrameRate() > 0) {
+            durationMicros = (long) (fileFormat.getFrameLength() * 1000000.0 / format.getFrameRate());
+        }
+        final HashMap<String, String> tags = new HashMap<>();
+        final Object[][] properties = {{"title", AudioMetadata.TITLE}, {"author", AudioMetadata.ARTIST}, {"album", AudioMetadata.ALBUM}, {"date", AudioMetadata.DATE}, {"comment", AudioMetadata.COMMENT}};
+        for (final Object[] property : properties) {
+            final Object value = fileFormat.getProperty((String) property[0]);
+            if (value != null) {
+                putTag(tags, (String) property[1], value.toString());
+            }
+        }
+        final Object bitrate = fileFormat.getProperty("bitrate");
+        return new AudioMetadata(fileFormat.getType().getExtension(), format.getEncoding().toString(), format.getSampleRate(), format.getChannels(), format.getSampleSizeInBits(), bitrate instanceof Integer ? (Integer) bitrate : AudioSystem.NOT_SPECIFIED, durationMicros, tags);
+    }
+
+    /**
+     * 將ID3v2使用的syncsafe整數轉成一般的整數。
+     *
+     * @param value 傳入syncsafe整數
+     * @return 傳回整數
+     */
+    private static long syncsafe(final int value) {
+        return ((value >>> 3) & 0x0FE00000) | ((value >>> 2) & 0x001FC000) | ((value >>> 1) & 0x00003F80) | (value & 0x7F);
+    }
+
+    /**
+     * 解碼文字，並去除結尾的null字元和空白。
+     *
+     * @param buffer 傳入資料
+     * @param offset 傳入位置
+     * @param length 傳入長度
+     * @param charset 傳入字元集
+     * @return 傳回文字
+     */
+    private static String decodeText(final ByteBuffer buffer, final int offset, final int length, final Charset charset) {
+        final byte[] bytes = new byte[Math.max(0, Math.min(length, buffer.limit() - offset))];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        String text = new String(bytes, charset);
+        final int nullIndex = text.indexOf('\0');
+        if (nullIndex >= 0) {
+            text = text.substring(0, nullIndex);
+        }
+        return text.trim();
+    }
+
+    /**
+     * 加入不是空字串的標籤。
+     *
+     * @param tags 傳入用來存放標籤的Map
+     * @param name 傳入標籤的名稱
+     * @param value 傳入標籤的值
+     */
+    private static void putTag(final Map<String, String> tags, final String name, final String value) {
+        if (value != null && !value.isEmpty()) {
+            tags.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * <p>
+ * 不輸出任何聲音的輸出端，寫入的資料會被直接丟棄。</p>
+ *
+ * <p>
+ * 即時模式下，緩衝中的資料會以音訊的取樣率被消耗，行為就像是真的音訊裝置；非即時模式下，緩衝永遠是空的，播放器會以最快的速度解碼。適合用在沒有音訊裝置的伺服器、測試以及效能評測。</p>
+ *
+ * @author Magic Len
+ */
+public class NullSink implements AudioSink {
+
+    //-----物件常數-----
+    private final boolean realtime;
+
+    //-----物件變數-----
+    private int frameSize, bufferSize;
+    private double framesPerNano;
+    private long queuedBytes, startTime, consumedFrames, underruns;
+    private boolean running, starved;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用即時模式。
+     */
+    public NullSink() {
+        this(true);
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param realtime 傳入是否使用即時模式
+     */
+    public NullSink(final boolean realtime) {
+        this.realtime = realtime;
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得目前的時間，用來計算緩衝中的資料被消耗的量。
+     *
+     * @return 傳回時間(奈秒)
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 依照經過的時間消耗緩衝中的資料。
+     */
+    private void consume() {
+        if (!running || queuedBytes == 0) {
+            return;
+        }
+        final long now = nanoTime();
+        //從開始消耗的時間點計算總量，避免每次換算時間的誤差累積
+        final long frames = (long) ((now - startTime) * framesPerNano) - consumedFrames;
+        if (frames > 0) {
+            final long consumed = frames * frameSize;
+            if (consumed > queuedBytes) {
+                //資料在被寫入之前就已經被消耗完，也就是發生了緩衝區欠載
+                queuedBytes = 0;
+                starved = true;
+            } else {
+                queuedBytes -= consumed;
+                consumedFrames += frames;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void open(final AudioFormat format, final int bufferSize) {
+        this.frameSize = format.getFrameSize();
+        this.bufferSize = bufferSize - bufferSize % frameSize;
+        this.framesPerNano = format.getFrameRate() / 1e9;
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public synchronized int available() {
+        consume();
+        return (int) (bufferSize - queuedBytes);
+    }
+
+    @Override
+    public synchronized int write(final byte[] data, final int offset, final int length) {
+        if (!realtime) {
+            return length;
+        }
+        consume();
+        if (queuedBytes == 0 && running) {
+            if (starved) {
+                starved = false;
+                ++underruns;
+            }
+            startTime = nanoTime();
+            consumedFrames = 0;
+        }
+        final int n = (int) Math.min(length, bufferSize - queuedBytes);
+        queuedBytes += n;
+        return n;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            startTime = nanoTime();
+            consumedFrames = 0;
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        consume();
+        running = false;
+        starved = false;
+    }
+
+    @Override
+    public synchronized void flush() {
+        queuedBytes = 0;
+        starved = false;
+        startTime = nanoTime();
+        consumedFrames = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        queuedBytes = 0;
+    }
+
+    /**
+     * 取得即時模式下發生緩衝區欠載的次數，也就是播放器來不及寫入資料的次數。
+     *
+     * @return 傳回緩衝區欠載的次數
+     */
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * 判斷是否為即時模式。
+     *
+     * @return 傳回是否為即時模式
+     */
+    public boolean isRealtime() {
+        return realtime;
+    }
+}
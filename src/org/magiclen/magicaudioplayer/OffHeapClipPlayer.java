@@ -0,0 +1,128 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * <p>
+ * 將整個聲音存放在堆積外記憶體的播放器，用法和Clip相同，但是不使用Clip。</p>
+ *
+ * <p>
+ * 聲音在建立播放器時就會被解碼並存入OffHeapSampleStore，播放、重複播放和移動位置都只是讀取記憶體，不需要再解碼，也不會在堆積中保留整個聲音的資料。關閉播放器時，聲音佔用的空間會立即被釋放；沒有被關閉的播放器被回收時，空間也會被釋放。</p>
+ *
+ * @author Magic Len
+ */
+public class OffHeapClipPlayer extends StreamingPlayer {
+
+    //-----物件常數-----
+    private final OffHeapSampleStore.Block block;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入檔案，使用共用的儲存區。
+     *
+     * @param file 傳入聲音檔案
+     */
+    public OffHeapClipPlayer(final File file) {
+        this(toURL(file), new LatencyConfig(), new LineSink(), OffHeapSampleStore.getShared());
+    }
+
+    /**
+     * 建構子，傳入URL，使用共用的儲存區。
+     *
+     * @param url 傳入聲音URL
+     */
+    public OffHeapClipPlayer(final URL url) {
+        this(url, new LatencyConfig(), new LineSink(), OffHeapSampleStore.getShared());
+    }
+
+    /**
+     * 建構子，傳入URL、延遲設定、輸出端和儲存區。
+     *
+     * @param url 傳入聲音URL
+     * @param latencyConfig 傳入延遲設定
+     * @param sink 傳入輸出端，不能是已經開啟的輸出端
+     * @param store 傳入儲存區
+     */
+    public OffHeapClipPlayer(final URL url, final LatencyConfig latencyConfig, final AudioSink sink, final OffHeapSampleStore store) {
+        this(url, latencyConfig, sink, load(url, store));
+    }
+
+    /**
+     * 建構子，傳入URL、延遲設定、輸出端和已經載入的區塊。
+     *
+     * @param url 傳入聲音URL
+     * @param latencyConfig 傳入延遲設定
+     * @param sink 傳入輸出端
+     * @param block 傳入區塊
+     */
+    private OffHeapClipPlayer(final URL url, final LatencyConfig latencyConfig, final AudioSink sink, final OffHeapSampleStore.Block block) {
+        super(url, latencyConfig, sink, block);
+        this.block = block;
+    }
+
+    // -----類別方法-----
+    /**
+     * 將檔案轉成URL。
+     *
+     * @param file 傳入聲音檔案
+     * @return 傳回聲音URL
+     */
+    private static URL toURL(final File file) {
+        try {
+            return file.getAbsoluteFile().toURI().toURL();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    /**
+     * 將聲音載入到儲存區。
+     *
+     * @param url 傳入聲音URL
+     * @param store 傳入儲存區
+     * @return 傳回區塊
+     */
+    private static OffHeapSampleStore.Block load(final URL url, final OffHeapSampleStore store) {
+        if (url == null) {
+            throw new RuntimeException("URL can't be null!");
+        }
+        if (store == null) {
+            throw new RuntimeException("OffHeapSampleStore can't be null!");
+        }
+        try {
+            return store.load(url);
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得聲音在儲存區中的區塊。播放器被關閉之後，區塊就會被釋放。
+     *
+     * @return 傳回區塊
+     */
+    public OffHeapSampleStore.Block getBlock() {
+        return block;
+    }
+}
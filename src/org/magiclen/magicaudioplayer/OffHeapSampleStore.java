@@ -0,0 +1,461 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 堆積外的音訊資料儲存區，用來存放整個被載入到記憶體中的聲音。</p>
+ *
+ * <p>
+ * 資料被存放在直接緩衝(direct ByteBuffer)組成的區域(arena)中，每個區域使用free-list分配空間，因此大量的聲音不會佔用老年代，也不會增加GC標記和複製的工作。區塊被釋放之後，空間會立即回到free-list中被重複使用；超過區域大小的聲音會使用獨立的區域，釋放後就會被丟棄。空的區域可以使用trim方法丟棄，直接緩衝的記憶體會由JVM的Cleaner歸還給作業系統。</p>
+ *
+ * @author Magic Len
+ */
+public class OffHeapSampleStore {
+
+    // -----類別常數-----
+    /**
+     * 預設的區域大小(位元組)。
+     */
+    public static final int DEFAULT_ARENA_SIZE = 16 * 1024 * 1024;
+    private static final int ALIGNMENT = 64;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final OffHeapSampleStore SHARED = new OffHeapSampleStore();
+
+    // -----類別類別-----
+    /**
+     * 一塊直接緩衝，以free-list分配空間。
+     */
+    private static final class Arena {
+
+        private final ByteBuffer memory;
+        private final boolean dedicated;
+        private final TreeMap<Integer, Integer> free = new TreeMap<>();
+        private int used;
+
+        Arena(final int size, final boolean dedicated) {
+            memory = ByteBuffer.allocateDirect(size);
+            this.dedicated = dedicated;
+            free.put(0, size);
+        }
+
+        /**
+         * 使用第一個足夠大的空閒空間分配空間。
+         *
+         * @param size 傳入已經對齊的大小
+         * @return 傳回位置，空間不足時傳回-1
+         */
+        int allocate(final int size) {
+            for (final Map.Entry<Integer, Integer> e : free.entrySet()) {
+                final int length = e.getValue();
+                if (length >= size) {
+                    final int offset = e.getKey();
+                    free.remove(offset);
+                    if (length > size) {
+                        free.put(offset + size, length - size);
+                    }
+                    used += size;
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 釋放空間，並和相鄰的空閒空間合併。
+         *
+         * @param offset 傳入位置
+         * @param size 傳入已經對齊的大小
+         */
+        void release(final int offset, final int size) {
+            used -= size;
+            int start = offset, length = size;
+            final Map.Entry<Integer, Integer> before = free.floorEntry(offset);
+            if (before != null && before.getKey() + before.getValue() == offset) {
+                start = before.getKey();
+                length += before.getValue();
+                free.remove(start);
+            }
+            final Integer afterLength = free.remove(offset + size);
+            if (afterLength != null) {
+                length += afterLength;
+            }
+            free.put(start, length);
+        }
+    }
+
+    /**
+     * 儲存區中的一個聲音。使用完畢之後必須呼叫close方法來釋放空間。
+     */
+    public static final class Block implements StreamingPlayer.Source {
+
+        //-----物件常數-----
+        private final OffHeapSampleStore store;
+        private final Arena arena;
+        private final int offset, size, length;
+        private final AudioFormat format;
+
+        //-----物件變數-----
+        private volatile boolean freed;
+
+        // -----建構子-----
+        /**
+         * 建構子。
+         *
+         * @param store 傳入儲存區
+         * @param arena 傳入區域
+         * @param offset 傳入在區域中的位置
+         * @param size 傳入佔用的大小
+         * @param length 傳入資料長度
+         * @param format 傳入音訊格式
+         */
+        private Block(final OffHeapSampleStore store, final Arena arena, final int offset, final int size, final int length, final AudioFormat format) {
+            this.store = store;
+            this.arena = arena;
+            this.offset = offset;
+            this.size = size;
+            this.length = length;
+            this.format = format;
+        }
+
+        // -----物件方法-----
+        /**
+         * 取得可以寫入資料的緩衝。
+         *
+         * @return 傳回緩衝
+         */
+        private ByteBuffer writableBuffer() {
+            final ByteBuffer buffer = arena.memory.duplicate();
+            buffer.position(offset).limit(offset + length);
+            return buffer.slice();
+        }
+
+        /**
+         * 取得唯讀的緩衝，內容為整個聲音的PCM資料。
+         *
+         * @return 傳回緩衝
+         */
+        public ByteBuffer getBuffer() {
+            if (freed) {
+                throw new RuntimeException("The block has been freed!");
+            }
+            return writableBuffer().asReadOnlyBuffer();
+        }
+
+        /**
+         * 開啟讀取這個聲音的音訊輸入串流。移動位置不需要解碼，可以立即完成。
+         *
+         * @return 傳回音訊輸入串流
+         */
+        @Override
+        public AudioInputStream openStream() {
+            return new AudioInputStream(new ByteBufferInputStream(getBuffer()), format, getFrameLength());
+        }
+
+        /**
+         * 取得音訊格式。
+         *
+         * @return 傳回音訊格式
+         */
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * 取得資料長度。
+         *
+         * @return 傳回資料長度(位元組)
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * 取得音框數量。
+         *
+         * @return 傳回音框數量
+         */
+        public long getFrameLength() {
+            return length / format.getFrameSize();
+        }
+
+        /**
+         * 判斷區塊是否已經被釋放。
+         *
+         * @return 傳回區塊是否已經被釋放
+         */
+        public boolean isFreed() {
+            return freed;
+        }
+
+        /**
+         * 釋放區塊，空間會立即回到儲存區中。重複呼叫不會有任何作用。
+         */
+        @Override
+        public void close() {
+            store.free(this);
+        }
+    }
+
+    //-----物件常數-----
+    private final int arenaSize;
+    private final ArrayList<Arena> arenas = new ArrayList<>();
+
+    //-----物件變數-----
+    private long usedBytes, reservedBytes, peakUsedBytes;
+    private int blockCount;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用預設的區域大小。
+     */
+    public OffHeapSampleStore() {
+        this(DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param arenaSize 傳入區域大小(位元組)，超過這個大小的聲音會使用獨立的區域
+     */
+    public OffHeapSampleStore(final int arenaSize) {
+        if (arenaSize < ALIGNMENT) {
+            throw new RuntimeException("ArenaSize must be at least ".concat(String.valueOf(ALIGNMENT)).concat("!"));
+        }
+        this.arenaSize = arenaSize - arenaSize % ALIGNMENT;
+    }
+
+    // -----類別方法-----
+    /**
+     * 取得共用的儲存區。
+     *
+     * @return 傳回共用的儲存區
+     */
+    public static OffHeapSampleStore getShared() {
+        return SHARED;
+    }
+
+    // -----物件方法-----
+    /**
+     * 將整個聲音解碼成PCM格式並存入儲存區。有設定磁碟快取時會使用快取；有設定儲存策略時，聲音會先被轉換成較小的格式。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回區塊
+     * @throws Exception 拋出例外
+     */
+    public Block load(final URL url) throws Exception {
+        try (final AudioInputStream stream = AudioDecoding.open(url)) {
+            final AudioFormat format = stream.getFormat();
+            final long frameLength = stream.getFrameLength();
+            final StoragePolicy storagePolicy = LoadingConfig.getStoragePolicy();
+            if (frameLength == AudioSystem.NOT_SPECIFIED || storagePolicy != null) {
+                //長度未知或是需要轉換格式的串流只能先讀到堆積中
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[COPY_BUFFER_SIZE - COPY_BUFFER_SIZE % format.getFrameSize()];
+                int c;
+                while ((c = AudioDecoding.readFully(stream, buffer, 0, buffer.length)) > 0) {
+                    baos.write(buffer, 0, c);
+                }
+                final byte[] data = baos.toByteArray();
+                PcmBlock pcm = new PcmBlock(format, data, data.length - data.length % format.getFrameSize(), 0);
+                if (storagePolicy != null) {
+                    pcm = storagePolicy.apply(url.toString(), pcm);
+                }
+                final Block block = allocate(pcm.getFormat(), pcm.getLength());
+                block.writableBuffer().put(pcm.getData(), 0, pcm.getLength());
+                return block;
+            }
+            final long bytes = frameLength * format.getFrameSize();
+            if (bytes > Integer.MAX_VALUE - ALIGNMENT) {
+                throw new RuntimeException("The audio is too long to be stored!");
+            }
+            final Block block = allocate(format, (int) bytes);
+            try {
+                final ByteBuffer target = block.writableBuffer();
+                final byte[] buffer = new byte[COPY_BUFFER_SIZE - COPY_BUFFER_SIZE % format.getFrameSize()];
+                while (target.hasRemaining()) {
+                    final int c = AudioDecoding.readFully(stream, buffer, 0, Math.min(buffer.length, target.remaining()));
+                    if (c == 0) {
+                        break;
+                    }
+                    target.put(buffer, 0, c);
+                }
+            } catch (final Exception ex) {
+                block.close();
+                throw ex;
+            }
+            return block;
+        }
+    }
+
+    /**
+     * 將整個聲音解碼成PCM格式並存入儲存區。
+     *
+     * @param file 傳入聲音檔案
+     * @return 傳回區塊
+     * @throws Exception 拋出例外
+     */
+    public Block load(final File file) throws Exception {
+        return load(file.getAbsoluteFile().toURI().toURL());
+    }
+
+    /**
+     * 分配區塊。
+     *
+     * @param format 傳入音訊格式
+     * @param length 傳入資料長度
+     * @return 傳回區塊
+     */
+    synchronized Block allocate(final AudioFormat format, final int length) {
+        final int size = Math.max(ALIGNMENT, (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+        Arena arena = null;
+        int offset = -1;
+        if (size <= arenaSize) {
+            for (final Arena a : arenas) {
+                if (!a.dedicated && (offset = a.allocate(size)) >= 0) {
+                    arena = a;
+                    break;
+                }
+            }
+        }
+        if (arena == null) {
+            arena = new Arena(Math.max(size, arenaSize), size > arenaSize);
+            arenas.add(arena);
+            reservedBytes += arena.memory.capacity();
+            offset = arena.allocate(size);
+        }
+        usedBytes += size;
+        peakUsedBytes = Math.max(peakUsedBytes, usedBytes);
+        ++blockCount;
+        return new Block(this, arena, offset, size, length, format);
+    }
+
+    /**
+     * 釋放區塊。
+     *
+     * @param block 傳入區塊
+     */
+    private synchronized void free(final Block block) {
+        if (block.freed) {
+            return;
+        }
+        block.freed = true;
+        block.arena.release(block.offset, block.size);
+        usedBytes -= block.size;
+        --blockCount;
+        if (block.arena.dedicated) {
+            arenas.remove(block.arena);
+            reservedBytes -= block.arena.memory.capacity();
+        }
+    }
+
+    /**
+     * 丟棄所有空的區域。
+     *
+     * @return 傳回被丟棄的位元組數量
+     */
+    public synchronized long trim() {
+        long trimmed = 0;
+        final Iterator<Arena> it = arenas.iterator();
+        while (it.hasNext()) {
+            final Arena arena = it.next();
+            if (arena.used == 0) {
+                it.remove();
+                trimmed += arena.memory.capacity();
+            }
+        }
+        reservedBytes -= trimmed;
+        return trimmed;
+    }
+
+    /**
+     * 取得區域大小。
+     *
+     * @return 傳回區域大小(位元組)
+     */
+    public int getArenaSize() {
+        return arenaSize;
+    }
+
+    /**
+     * 取得區塊使用中的空間，包含對齊所需的空間。
+     *
+     * @return 傳回空間(位元組)
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 取得所有區域佔用的堆積外記憶體。
+     *
+     * @return 傳回記憶體(位元組)
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * 取得使用中空間的最大值。
+     *
+     * @return 傳回空間(位元組)
+     */
+    public synchronized long getPeakUsedBytes() {
+        return peakUsedBytes;
+    }
+
+    /**
+     * 取得還沒被釋放的區塊數量。
+     *
+     * @return 傳回區塊數量
+     */
+    public synchronized int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * 取得區域的數量。
+     *
+     * @return 傳回區域的數量
+     */
+    public synchronized int getArenaCount() {
+        return arenas.size();
+    }
+
+    /**
+     * 取得儲存區的使用狀況。
+     *
+     * @return 傳回使用狀況
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("blocks=%d, used=%dB, reserved=%dB, peak=%dB, arenas=%d", blockCount, usedBytes, reservedBytes, peakUsedBytes, arenas.size());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 離線轉檔器，使用與播放器相同的解碼、格式轉換以及音訊處理階段，以最快的速度將聲音處理並輸出成檔案，不需要即時播放。</p>
+ *
+ * <p>
+ * 多個工作會在ForkJoinPool中平行處理。每個工作一次只處理固定數量的音框，因此每個工作的記憶體用量是固定的，不會隨著檔案大小增加。</p>
+ *
+ * @author Magic Len
+ */
+public class OfflineRenderer {
+
+    //-----物件常數-----
+    private final int parallelism, blockFrames;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用與CPU核心數量相同的平行度，每次處理8192個音框。
+     */
+    public OfflineRenderer() {
+        this(Runtime.getRuntime().availableProcessors(), 8192);
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param parallelism 傳入平行度，也就是同時處理的工作數量
+     * @param blockFrames 傳入每個工作每次處理的音框數量
+     */
+    public OfflineRenderer(final int parallelism, final int blockFrames) {
+        if (parallelism < 1) {
+            throw new RuntimeException("Parallelism must be at least 1!");
+        }
+        if (blockFrames < 256) {
+            throw new RuntimeException("BlockFrames must be at least 256!");
+        }
+        this.parallelism = parallelism;
+        this.blockFrames = blockFrames;
+    }
+
+    // -----物件方法-----
+    /**
+     * 平行處理多個工作。單一工作失敗不會影響其他工作，失敗的原因會記錄在報告中。
+     *
+     * @param jobs 傳入工作
+     * @return 傳回報告
+     */
+    public RenderReport render(final List<RenderJob> jobs) {
+        final AtomicLong processedBytes = new AtomicLong(), outputBytes = new AtomicLong();
+        final Map<RenderJob, Exception> failures = new ConcurrentHashMap<>();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final long startTime = System.nanoTime();
+        try {
+            final ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(jobs.size());
+            for (final RenderJob job : jobs) {
+                tasks.add(pool.submit(() -> {
+                    try {
+                        processedBytes.addAndGet(render(job));
+                        outputBytes.addAndGet(job.getTarget().length());
+                    } catch (final Exception ex) {
+                        failures.put(job, ex);
+                    }
+                }));
+            }
+            for (final ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return new RenderReport(jobs.size(), processedBytes.get(), outputBytes.get(), System.nanoTime() - startTime, failures);
+    }
+
+    /**
+     * 在目前的執行緒中處理一個工作。
+     *
+     * @param job 傳入工作
+     * @return 傳回解碼後被處理的PCM資料量(位元組)
+     * @throws Exception 拋出例外
+     */
+    public long render(final RenderJob job) throws Exception {
+        final ArrayList<AudioProcessor> processors = new ArrayList<>();
+        processors.add(job.getGainProcessor());
+        processors.addAll(job.getProcessors());
+
+        long processedBytes = 0;
+        final float normalizationPeak = job.getNormalizationPeak();
+        if (!Float.isNaN(normalizationPeak)) {
+            //第一次解碼，只取得處理後的峰值
+            final GainProcessor normalization = new GainProcessor();
+            try (final AudioInputStream source = AudioDecoding.open(job.getSource())) {
+                final ProcessingInputStream measuring = new ProcessingInputStream(source, source.getFormat(), processors, blockFrames);
+                final byte[] discard = new byte[blockFrames * source.getFormat().getFrameSize()];
+                while (measuring.read(discard, 0, discard.length) > 0) {
+                    //只需要峰值，不需要輸出的資料
+                }
+                processedBytes += measuring.getProcessedBytes();
+                final float peak = measuring.getPeak();
+                if (peak > 0) {
+                    normalization.setLinearGain((float) (Math.pow(10, normalizationPeak / 20) / peak));
+                }
+            }
+            processors.add(normalization);
+        }
+
+        try (final AudioInputStream source = AudioDecoding.open(job.getSource())) {
+            final AudioFormat sourceFormat = source.getFormat();
+            final AudioFormat targetFormat = getTargetFormat(sourceFormat, job);
+            final ProcessingInputStream processing = new ProcessingInputStream(source, targetFormat, processors, blockFrames);
+            final AudioInputStream output = new AudioInputStream(processing, targetFormat, source.getFrameLength());
+            AudioSystem.write(output, job.getFileType(), job.getTarget());
+            processedBytes += processing.getProcessedBytes();
+        }
+        return processedBytes;
+    }
+
+    /**
+     * 取得工作的輸出格式。
+     *
+     * @param sourceFormat 傳入來源的PCM格式
+     * @param job 傳入工作
+     * @return 傳回輸出格式
+     */
+    private static AudioFormat getTargetFormat(final AudioFormat sourceFormat, final RenderJob job) {
+        final int bits = job.getSampleSizeInBits();
+        final int channels = sourceFormat.getChannels();
+        final boolean wave = AudioFileFormat.Type.WAVE.equals(job.getFileType());
+        //WAV的8位元樣本是無號數，且使用little-endian；AIFF與AU使用big-endian
+        final AudioFormat.Encoding encoding = wave && bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        return new AudioFormat(encoding, sourceFormat.getSampleRate(), bits, channels, channels * bits / 8, sourceFormat.getSampleRate(), !wave);
+    }
+}
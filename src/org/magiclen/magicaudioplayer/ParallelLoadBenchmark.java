@@ -0,0 +1,137 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+
+/**
+ * <p>
+ * 平行載入器的效能評測。</p>
+ *
+ * <p>
+ * 分別使用音訊輸入串流(也就是clip.open(audioInputStream)所做的事)與平行載入器載入同一個WAV檔案和u-law的AU檔案，比較所花的時間，並確認兩者載入的資料相同。如果有可以使用的Clip，也會比較實際開啟Clip的時間。在命令列可以傳入兩個參數：第一個參數為音訊的長度(秒)，預設為300；第二個參數為重複的次數，預設為5。</p>
+ *
+ * @author Magic Len
+ */
+public class ParallelLoadBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        //建立440Hz正弦波
+        final AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        final int frames = 44100 * seconds;
+        final byte[] data = new byte[frames * 4];
+        for (int i = 0; i < frames; ++i) {
+            final short sample = (short) (Math.sin(2 * Math.PI * 440 * i / 44100) * 8000);
+            for (int c = 0; c < 2; ++c) {
+                data[i * 4 + c * 2] = (byte) sample;
+                data[i * 4 + c * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+        final File wave = File.createTempFile("MagicAudioPlayer-", ".wav");
+        wave.deleteOnExit();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, frames), AudioFileFormat.Type.WAVE, wave);
+        final File au = File.createTempFile("MagicAudioPlayer-", ".au");
+        au.deleteOnExit();
+        final AudioFormat ulaw = new AudioFormat(AudioFormat.Encoding.ULAW, 44100, 8, 2, 2, 44100, true);
+        AudioSystem.write(AudioSystem.getAudioInputStream(ulaw, new AudioInputStream(new ByteArrayInputStream(data), format, frames)), AudioFileFormat.Type.AU, au);
+
+        final ParallelLoader loader = new ParallelLoader();
+        System.out.println("Audio: ".concat(String.valueOf(seconds)).concat("s"));
+        System.out.println("Parallelism: ".concat(String.valueOf(loader.getPool().getParallelism())));
+        System.out.println("Processors: ".concat(String.valueOf(Runtime.getRuntime().availableProcessors())));
+        run("WAV", wave, loader, rounds);
+        run("AU (u-law)", au, loader, rounds);
+    }
+
+    /**
+     * 評測一個檔案。
+     *
+     * @param name 傳入名稱
+     * @param file 傳入音訊檔案
+     * @param loader 傳入平行載入器
+     * @param rounds 傳入重複的次數
+     * @throws Exception 拋出例外
+     */
+    private static void run(final String name, final File file, final ParallelLoader loader, final int rounds) throws Exception {
+        //先各載入一次，讓檔案進入作業系統的快取
+        final byte[] expected = loadStream(file);
+        final PcmBlock block = loader.load(file);
+        if (block == null) {
+            System.out.println(name.concat(": not supported"));
+            return;
+        }
+        if (!Arrays.equals(expected, Arrays.copyOf(block.getData(), block.getLength()))) {
+            System.out.println(name.concat(": the data is different!"));
+            return;
+        }
+
+        long streamTime = Long.MAX_VALUE, parallelTime = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; ++i) {
+            long start = System.nanoTime();
+            loadStream(file);
+            streamTime = Math.min(streamTime, System.nanoTime() - start);
+            start = System.nanoTime();
+            loader.load(file);
+            parallelTime = Math.min(parallelTime, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%s (%.1fMB): stream %.1fms, parallel %.1fms, speedup %.2fx", name, block.getLength() / 1048576.0, streamTime / 1e6, parallelTime / 1e6, (double) streamTime / parallelTime));
+
+        try {
+            final Clip clip = AudioSystem.getClip();
+            long start = System.nanoTime();
+            try (final AudioInputStream stream = AudioDecoding.open(file.toURI().toURL())) {
+                clip.open(stream);
+            }
+            final long clipStreamTime = System.nanoTime() - start;
+            clip.close();
+            start = System.nanoTime();
+            final PcmBlock b = loader.load(file);
+            clip.open(b.getFormat(), b.getData(), 0, b.getLength());
+            final long clipParallelTime = System.nanoTime() - start;
+            clip.close();
+            System.out.println(String.format("%s clip.open: stream %.1fms, parallel %.1fms", name, clipStreamTime / 1e6, clipParallelTime / 1e6));
+        } catch (final Exception ex) {
+            System.out.println(name.concat(" clip.open: no clip available"));
+        }
+    }
+
+    /**
+     * 使用音訊輸入串流載入整個音訊檔案。
+     *
+     * @param file 傳入音訊檔案
+     * @return 傳回PCM格式的音訊資料
+     * @throws Exception 拋出例外
+     */
+    private static byte[] loadStream(final File file) throws Exception {
+        try (final AudioInputStream stream = AudioDecoding.open(file.toURI().toURL())) {
+            final byte[] data = new byte[(int) (stream.getFrameLength() * stream.getFormat().getFrameSize())];
+            final int length = AudioDecoding.readFully(stream, data, 0, data.length);
+            return length == data.length ? data : Arrays.copyOf(data, length);
+        }
+    }
+}
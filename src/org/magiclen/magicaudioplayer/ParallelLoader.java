@@ -0,0 +1,279 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * <p>
+ * 平行載入器，將整個音訊檔案載入到記憶體中。</p>
+ *
+ * <p>
+ * 音訊資料會依照音框被切成多個區塊，由ForkJoinPool同時讀取(並解碼)到事先配置好的緩衝空間中，區塊之間不需要共用音訊輸入串流。支援的檔案請參考PcmFileLayout，u-law與A-law資料會被解碼成16位元的PCM格式，其他PCM資料維持原本的格式。TraditionalPlayer在開啟本機檔案時會使用LoadingConfig設定的平行載入器。</p>
+ *
+ * @author Magic Len
+ */
+public final class ParallelLoader {
+
+    // -----類別常數-----
+    /**
+     * 預設的區塊大小(位元組)。
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final short[] ULAW = new short[256], ALAW = new short[256];
+
+    // -----初始化-----
+    static {
+        for (int i = 0; i < 256; ++i) {
+            final int u = ~i & 0xFF;
+            final int t = (((u & 0x0F) << 3) + 0x84) << ((u & 0x70) >> 4);
+            ULAW[i] = (short) ((u & 0x80) != 0 ? 0x84 - t : t - 0x84);
+
+            final int a = i ^ 0x55;
+            final int segment = (a & 0x70) >> 4;
+            int s = (a & 0x0F) << 4;
+            switch (segment) {
+                case 0:
+                    s += 8;
+                    break;
+                case 1:
+                    s += 0x108;
+                    break;
+                default:
+                    s = (s + 0x108) << (segment - 1);
+                    break;
+            }
+            ALAW[i] = (short) ((a & 0x80) != 0 ? s : -s);
+        }
+    }
+
+    //-----物件常數-----
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用共用的ForkJoinPool以及預設的區塊大小。
+     */
+    public ParallelLoader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param pool 傳入用來載入區塊的ForkJoinPool
+     * @param chunkSize 傳入區塊大小(位元組)，檔案中的資料不超過這個大小時會直接在呼叫的執行緒中載入
+     */
+    public ParallelLoader(final ForkJoinPool pool, final int chunkSize) {
+        if (pool == null) {
+            throw new RuntimeException("The pool can't be null!");
+        }
+        if (chunkSize <= 0) {
+            throw new RuntimeException("ChunkSize must be bigger than 0!");
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    // -----物件方法-----
+    /**
+     * 判斷檔案是否能被平行載入。
+     *
+     * @param file 傳入音訊檔案
+     * @return 傳回檔案是否能被平行載入
+     */
+    public boolean isSupported(final File file) {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return isSupported(PcmFileLayout.parse(channel));
+        } catch (final IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * 判斷資料配置是否能被平行載入。
+     *
+     * @param layout 傳入資料配置
+     * @return 傳回是否能被平行載入
+     */
+    private static boolean isSupported(final PcmFileLayout layout) {
+        return layout != null && getOutputLength(layout) <= MAX_ARRAY_SIZE;
+    }
+
+    /**
+     * 取得載入後的資料長度。
+     *
+     * @param layout 傳入資料配置
+     * @return 傳回資料長度(位元組)
+     */
+    private static long getOutputLength(final PcmFileLayout layout) {
+        return AudioDecoding.isPCM(layout.getFormat()) ? layout.getDataLength() : layout.getDataLength() * 2;
+    }
+
+    /**
+     * 載入整個音訊檔案。
+     *
+     * @param file 傳入音訊檔案
+     * @return 傳回PCM格式的音訊資料，不支援的檔案傳回null
+     * @throws IOException 拋出例外
+     */
+    public PcmBlock load(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final PcmFileLayout layout = PcmFileLayout.parse(channel);
+            if (!isSupported(layout)) {
+                return null;
+            }
+            final AudioFormat sourceFormat = layout.getFormat();
+            final boolean pcm = AudioDecoding.isPCM(sourceFormat);
+            final AudioFormat format;
+            if (pcm) {
+                format = sourceFormat;
+            } else {
+                final int channels = sourceFormat.getChannels();
+                format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sourceFormat.getSampleRate(), 16, channels, channels * 2, sourceFormat.getSampleRate(), false);
+            }
+            final byte[] data = new byte[(int) getOutputLength(layout)];
+            final short[] table = pcm ? null : AudioFormat.Encoding.ULAW.equals(sourceFormat.getEncoding()) ? ULAW : ALAW;
+            final ChunkTask task = new ChunkTask(channel, layout, table, data, 0, layout.getDataLength());
+            try {
+                if (layout.getDataLength() <= chunkSize) {
+                    task.compute();
+                } else {
+                    pool.invoke(task);
+                }
+            } catch (final UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            return new PcmBlock(format, data, data.length, 0);
+        }
+    }
+
+    /**
+     * 取得用來載入區塊的ForkJoinPool。
+     *
+     * @return 傳回ForkJoinPool
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * 取得區塊大小。
+     *
+     * @return 傳回區塊大小(位元組)
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // -----類別類別-----
+    /**
+     * 載入一段音訊資料的工作，資料太長時會被對半分割。
+     */
+    private final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        //-----物件常數-----
+        private final FileChannel channel;
+        private final PcmFileLayout layout;
+        private final short[] table;
+        private final byte[] data;
+        private final long from, to;
+
+        // -----建構子-----
+        /**
+         * 建構子。
+         *
+         * @param channel 傳入檔案通道
+         * @param layout 傳入資料配置
+         * @param table 傳入解碼表，null表示不需要解碼
+         * @param data 傳入輸出的緩衝空間
+         * @param from 傳入來源資料的起始位置(位元組)
+         * @param to 傳入來源資料的結束位置(位元組)
+         */
+        ChunkTask(final FileChannel channel, final PcmFileLayout layout, final short[] table, final byte[] data, final long from, final long to) {
+            this.channel = channel;
+            this.layout = layout;
+            this.table = table;
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        // -----物件方法-----
+        /**
+         * 載入資料，太長時分割成兩個工作同時執行。
+         */
+        @Override
+        protected void compute() {
+            final long length = to - from;
+            if (length > chunkSize) {
+                final int frameSize = layout.getFormat().getFrameSize();
+                final long middle = from + length / 2 / frameSize * frameSize;
+                invokeAll(new ChunkTask(channel, layout, table, data, from, middle), new ChunkTask(channel, layout, table, data, middle, to));
+                return;
+            }
+            try {
+                if (table == null) {
+                    read(ByteBuffer.wrap(data, (int) from, (int) length), layout.getDataOffset() + from);
+                } else {
+                    final byte[] source = new byte[(int) length];
+                    read(ByteBuffer.wrap(source), layout.getDataOffset() + from);
+                    int p = (int) from * 2;
+                    for (final byte b : source) {
+                        final short sample = table[b & 0xFF];
+                        data[p++] = (byte) sample;
+                        data[p++] = (byte) (sample >> 8);
+                    }
+                }
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        /**
+         * 從檔案的某個位置讀滿緩衝空間。
+         *
+         * @param buffer 傳入緩衝空間
+         * @param position 傳入位置
+         * @throws IOException 拋出例外
+         */
+        private void read(final ByteBuffer buffer, final long position) throws IOException {
+            long p = position;
+            while (buffer.hasRemaining()) {
+                final int c = channel.read(buffer, p);
+                if (c < 0) {
+                    throw new EOFException();
+                }
+                p += c;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * 一段已解碼的PCM資料。資料屬於接收者，發布者不會再修改它。
+ *
+ * @author Magic Len
+ */
+public final class PcmBlock {
+
+    //-----物件常數-----
+    private final AudioFormat format;
+    private final byte[] data;
+    private final int length;
+    private final long framePosition;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param format 傳入音訊格式
+     * @param data 傳入PCM資料
+     * @param length 傳入PCM資料的長度(位元組)
+     * @param framePosition 傳入這段資料在音訊中的位置(音框)
+     */
+    PcmBlock(final AudioFormat format, final byte[] data, final int length, final long framePosition) {
+        this.format = format;
+        this.data = data;
+        this.length = length;
+        this.framePosition = framePosition;
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得音訊格式。
+     *
+     * @return 傳回音訊格式
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 取得PCM資料，有效的資料從索引0開始，長度為getLength方法傳回的數值。
+     *
+     * @return 傳回PCM資料
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * 取得PCM資料的長度(位元組)。
+     *
+     * @return 傳回PCM資料的長度
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * 取得音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    public int getFrames() {
+        return length / format.getFrameSize();
+    }
+
+    /**
+     * 取得這段資料在音訊中的位置(音框)。
+     *
+     * @return 傳回位置
+     */
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    /**
+     * 將PCM資料轉成範圍在-1~1之間的取樣，聲道交錯排列。
+     *
+     * @param samples 傳入用來儲存取樣的陣列，長度必須至少為音框數量乘上聲道數量，null表示建立新的陣列
+     * @return 傳回取樣
+     */
+    public float[] getSamples(final float[] samples) {
+        if (!PcmCodec.isSupported(format)) {
+            throw new RuntimeException("The format of this block is not supported!");
+        }
+        final int frames = getFrames();
+        final float[] s = samples != null ? samples : new float[frames * format.getChannels()];
+        PcmCodec.decode(data, 0, frames, format, s);
+        return s;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * PCM資料與浮點數樣本(-1~1)的轉換工具。支援8、16、24、32位元的整數PCM以及32、64位元的浮點數PCM，樣本以交錯(interleaved)的方式排列。
+ *
+ * @author Magic Len
+ */
+final class PcmCodec {
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private PcmCodec() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 判斷是否支援這個音訊格式。
+     *
+     * @param format 傳入音訊格式
+     * @return 傳回是否支援
+     */
+    static boolean isSupported(final AudioFormat format) {
+        final AudioFormat.Encoding encoding = format.getEncoding();
+        final int bits = format.getSampleSizeInBits();
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+            return bits == 32 || bits == 64;
+        }
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+            return bits == 8 || bits == 16 || bits == 24 || bits == 32;
+        }
+        return false;
+    }
+
+    /**
+     * 將PCM資料解碼成浮點數樣本。
+     *
+     * @param src 傳入PCM資料
+     * @param offset 傳入PCM資料的起始位置
+     * @param frames 傳入音框數量
+     * @param format 傳入音訊格式
+     * @param dst 傳入用來存放浮點數樣本的陣列，長度至少要是音框數量乘上聲道數量
+     */
+    static void decode(final byte[] src, final int offset, final int frames, final AudioFormat format, final float[] dst) {
+        final int bytesPerSample = format.getSampleSizeInBits() / 8;
+        final int samples = frames * format.getChannels();
+        final boolean bigEndian = format.isBigEndian();
+        final AudioFormat.Encoding encoding = format.getEncoding();
+        int p = offset;
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+            for (int i = 0; i < samples; ++i, p += bytesPerSample) {
+                final long bits = readBits(src, p, bytesPerSample, bigEndian);
+                dst[i] = bytesPerSample == 4 ? Float.intBitsToFloat((int) bits) : (float) Double.longBitsToDouble(bits);
+            }
+            return;
+        }
+        final boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+        final int shift = 64 - bytesPerSample * 8;
+        final double scale = 1.0 / (1L << (bytesPerSample * 8 - 1));
+        for (int i = 0; i < samples; ++i, p += bytesPerSample) {
+            long bits = readBits(src, p, bytesPerSample, bigEndian);
+            if (unsigned) {
+                bits -= 1L << (bytesPerSample * 8 - 1);
+            } else {
+                bits = (bits << shift) >> shift;
+            }
+            dst[i] = (float) (bits * scale);
+        }
+    }
+
+    /**
+     * 將浮點數樣本編碼成PCM資料，超出-1~1的樣本會被截斷。
+     *
+     * @param src 傳入浮點數樣本
+     * @param frames 傳入音框數量
+     * @param format 傳入音訊格式
+     * @param dst 傳入用來存放PCM資料的陣列
+     * @param offset 傳入PCM資料的起始位置
+     */
+    static void encode(final float[] src, final int frames, final AudioFormat format, final byte[] dst, final int offset) {
+        final int bytesPerSample = format.getSampleSizeInBits() / 8;
+        final int samples = frames * format.getChannels();
+        final boolean bigEndian = format.isBigEndian();
+        final AudioFormat.Encoding encoding = format.getEncoding();
+        int p = offset;
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) {
+            for (int i = 0; i < samples; ++i, p += bytesPerSample) {
+                final long bits = bytesPerSample == 4 ? Float.floatToRawIntBits(src[i]) : Double.doubleToRawLongBits(src[i]);
+                writeBits(dst, p, bytesPerSample, bigEndian, bits);
+            }
+            return;
+        }
+        final boolean unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+        final long max = (1L << (bytesPerSample * 8 - 1)) - 1;
+        final long min = -max - 1;
+        for (int i = 0; i < samples; ++i, p += bytesPerSample) {
+            long value = Math.round(src[i] * (double) (max + 1));
+            if (value > max) {
+                value = max;
+            } else if (value < min) {
+                value = min;
+            }
+            if (unsigned) {
+                value += max + 1;
+            }
+            writeBits(dst, p, bytesPerSample, bigEndian, value);
+        }
+    }
+
+    /**
+     * 讀取一個樣本的位元。
+     *
+     * @param src 傳入PCM資料
+     * @param p 傳入位置
+     * @param bytes 傳入樣本的位元組數量
+     * @param bigEndian 傳入是否為big-endian
+     * @return 傳回沒有經過符號延伸的位元
+     */
+    private static long readBits(final byte[] src, final int p, final int bytes, final boolean bigEndian) {
+        long bits = 0;
+        if (bigEndian) {
+            for (int i = 0; i < bytes; ++i) {
+                bits = (bits << 8) | (src[p + i] & 0xFF);
+            }
+        } else {
+            for (int i = bytes - 1; i >= 0; --i) {
+                bits = (bits << 8) | (src[p + i] & 0xFF);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * 寫入一個樣本的位元。
+     *
+     * @param dst 傳入PCM資料
+     * @param p 傳入位置
+     * @param bytes 傳入樣本的位元組數量
+     * @param bigEndian 傳入是否為big-endian
+     * @param bits 傳入樣本的位元
+     */
+    private static void writeBits(final byte[] dst, final int p, final int bytes, final boolean bigEndian, final long bits) {
+        if (bigEndian) {
+            for (int i = 0; i < bytes; ++i) {
+                dst[p + i] = (byte) (bits >>> ((bytes - 1 - i) * 8));
+            }
+        } else {
+            for (int i = 0; i < bytes; ++i) {
+                dst[p + i] = (byte) (bits >>> (i * 8));
+            }
+        }
+    }
+}
@@ -0,0 +1,583 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 解碼後音訊的磁碟快取。</p>
+ *
+ * <p>
+ * 壓縮格式的音訊在第一次被開啟時會被解碼成PCM並存入快取目錄，之後開啟相同的音訊時會直接將快取檔案映射到記憶體中，不需要再解碼，程式重新啟動之後也仍然有效。快取的鍵是聲音URL、大小和修改時間的SHA-256雜湊值，因此來源被修改之後會重新解碼。快取的總大小超過上限時，最久沒有被使用的檔案會被刪除。</p>
+ *
+ * <p>
+ * 快取檔案的格式為：4個位元組的"MAPC"、版本(int)、標頭長度(int)、標頭，接著是PCM資料。標頭依序為編碼(0為PCM_SIGNED，1為PCM_UNSIGNED，2為PCM_FLOAT)、取樣率、取樣位元數、聲道數量、音框大小、音框率以及是否為大端序。</p>
+ *
+ * @author Magic Len
+ */
+public class PcmDiskCache {
+
+    // -----類別常數-----
+    private static final byte[] MAGIC = "MAPC".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".pcm";
+    private static final AudioFormat.Encoding[] ENCODINGS = {AudioFormat.Encoding.PCM_SIGNED, AudioFormat.Encoding.PCM_UNSIGNED, AudioFormat.Encoding.PCM_FLOAT};
+
+    //-----物件常數-----
+    private final File directory;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private final ConcurrentHashMap<String, Object> claims = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> remoteKeys = new ConcurrentHashMap<>();
+
+    //-----物件變數-----
+    private volatile boolean cacheUncompressed = false;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param directory 傳入快取目錄，不存在時會被建立
+     * @param maxSize 傳入快取的大小上限(位元組)
+     */
+    public PcmDiskCache(final File directory, final long maxSize) {
+        if (maxSize < 0) {
+            throw new RuntimeException("MaxSize must be at least 0!");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RuntimeException("Cannot create the cache directory!");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        for (final File file : listCacheFiles()) {
+            size.addAndGet(file.length());
+        }
+        evict(null);
+    }
+
+    // -----類別方法-----
+    /**
+     * 將位元組陣列轉成十六進位字串。
+     *
+     * @param bytes 傳入位元組陣列
+     * @return 傳回十六進位字串
+     */
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    // -----物件方法-----
+    /**
+     * 設定是否也要快取未壓縮的PCM來源。未壓縮的來源不需要解碼，預設不快取。
+     *
+     * @param cacheUncompressed 傳入是否快取未壓縮的PCM來源
+     */
+    public void setCacheUncompressed(final boolean cacheUncompressed) {
+        this.cacheUncompressed = cacheUncompressed;
+    }
+
+    /**
+     * 判斷是否也要快取未壓縮的PCM來源。
+     *
+     * @return 傳回是否快取未壓縮的PCM來源
+     */
+    public boolean isCacheUncompressed() {
+        return cacheUncompressed;
+    }
+
+    /**
+     * 計算聲音來源的快取鍵。本機檔案使用檔案的大小與修改時間；其他來源使用標頭中的長度、修改時間與ETag，HTTP來源只會發出HEAD請求，而且同一個URL在這個快取的生命週期中只會查詢一次。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回快取鍵
+     * @throws Exception 拋出例外
+     */
+    private String key(final URL url) throws Exception {
+        if ("file".equals(url.getProtocol())) {
+            final File file = new File(url.toURI());
+            return key(url, file.length(), file.lastModified(), null);
+        }
+        final String urlString = url.toString();
+        final String cached = remoteKeys.get(urlString);
+        if (cached != null) {
+            return cached;
+        }
+        final URLConnection connection = url.openConnection();
+        final String key;
+        if (connection instanceof HttpURLConnection) {
+            final HttpURLConnection http = (HttpURLConnection) connection;
+            try {
+                http.setRequestMethod("HEAD");
+                key = key(url, http.getContentLengthLong(), http.getLastModified(), http.getHeaderField("ETag"));
+            } finally {
+                http.disconnect();
+            }
+        } else {
+            try {
+                key = key(url, connection.getContentLengthLong(), connection.getLastModified(), null);
+            } finally {
+                try {
+                    connection.getInputStream().close();
+                } catch (final Exception ex) {
+                    //只是為了釋放連線，不需要處理
+                }
+            }
+        }
+        remoteKeys.put(urlString, key);
+        return key;
+    }
+
+    /**
+     * 計算快取鍵。
+     *
+     * @param url 傳入聲音URL
+     * @param length 傳入聲音來源的大小
+     * @param lastModified 傳入聲音來源的修改時間
+     * @param etag 傳入聲音來源的ETag，可以是null
+     * @return 傳回快取鍵
+     * @throws Exception 拋出例外
+     */
+    private static String key(final URL url, final long length, final long lastModified, final String etag) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        String material = url.toString().concat("\n").concat(String.valueOf(length)).concat("\n").concat(String.valueOf(lastModified));
+        if (etag != null) {
+            material = material.concat("\n").concat(etag);
+        }
+        digest.update(material.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * 取得快取檔案。
+     *
+     * @param key 傳入快取鍵
+     * @return 傳回快取檔案
+     */
+    private File getCacheFile(final String key) {
+        return new File(directory, key.concat(SUFFIX));
+    }
+
+    /**
+     * 開啟PCM格式的音訊輸入串流。有快取時會映射快取檔案；沒有快取時會解碼並存入快取，再映射快取檔案。解碼後超過快取大小上限的來源不會被快取，而是直接傳回解碼的串流。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回PCM格式的音訊輸入串流
+     * @throws Exception 拋出例外
+     */
+    public AudioInputStream open(final URL url) throws Exception {
+        final PlayerEvents.DiskCache cacheEvent = new PlayerEvents.DiskCache();
+        cacheEvent.begin();
+        final String key = key(url);
+        final File cacheFile = getCacheFile(key);
+        AudioInputStream stream = mapCached(url, cacheFile, cacheEvent);
+        if (stream != null) {
+            return stream;
+        }
+        final Object claim = claims.computeIfAbsent(key, k -> new Object());
+        synchronized (claim) {
+            try {
+                //等待期間其他執行緒可能已經存入快取
+                stream = mapCached(url, cacheFile, cacheEvent);
+                if (stream != null) {
+                    return stream;
+                }
+                final AudioInputStream sourceStream = AudioSystem.getAudioInputStream(url);
+                if (!cacheUncompressed && AudioDecoding.isPCM(sourceStream.getFormat())) {
+                    cacheEvent.end(url, false, 0);
+                    return sourceStream;
+                }
+                misses.increment();
+                final boolean stored;
+                try (final AudioInputStream pcmStream = AudioDecoding.toPCM(sourceStream)) {
+                    stored = store(pcmStream, cacheFile);
+                }
+                if (!stored) {
+                    cacheEvent.end(url, false, 0);
+                    return AudioDecoding.toPCM(AudioSystem.getAudioInputStream(url));
+                }
+                //先映射新的快取檔案，再淘汰其他檔案，新的檔案不會被淘汰
+                stream = map(cacheFile);
+                evict(cacheFile);
+                cacheEvent.end(url, false, cacheFile.length());
+                return stream;
+            } finally {
+                claims.remove(key, claim);
+            }
+        }
+    }
+
+    /**
+     * 映射已經存在的快取檔案。
+     *
+     * @param url 傳入聲音URL
+     * @param cacheFile 傳入快取檔案
+     * @param cacheEvent 傳入快取事件
+     * @return 傳回音訊輸入串流，沒有快取或快取檔案損壞時傳回null
+     */
+    private AudioInputStream mapCached(final URL url, final File cacheFile, final PlayerEvents.DiskCache cacheEvent) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            final AudioInputStream stream = map(cacheFile);
+            hits.increment();
+            cacheFile.setLastModified(System.currentTimeMillis());
+            cacheEvent.end(url, true, cacheFile.length());
+            return stream;
+        } catch (final Exception ex) {
+            //快取檔案損壞，重新解碼
+            remove(cacheFile);
+            return null;
+        }
+    }
+
+    /**
+     * 判斷聲音來源是否已經被快取。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回是否已經被快取
+     */
+    public boolean contains(final URL url) {
+        try {
+            return getCacheFile(key(url)).isFile();
+        } catch (final Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * 預先將聲音來源解碼並存入快取，多個來源會被平行地處理。已經被快取的來源和不需要快取的未壓縮來源會被略過，無法解碼的來源會被忽略。
+     *
+     * @param urls 傳入聲音URL
+     * @param parallelism 傳入同時處理的來源數量
+     * @return 傳回有被快取的來源數量，包含原本就已經被快取的來源
+     */
+    public int warmUp(final Collection<URL> urls, final int parallelism) {
+        if (parallelism < 1) {
+            throw new RuntimeException("Parallelism must be at least 1!");
+        }
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> (int) urls.parallelStream().filter(this::prefill).count()).get();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 預先將聲音來源解碼並存入快取。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回來源是否有被快取
+     */
+    private boolean prefill(final URL url) {
+        try {
+            final String key = key(url);
+            final File cacheFile = getCacheFile(key);
+            if (cacheFile.isFile()) {
+                return true;
+            }
+            final Object claim = claims.computeIfAbsent(key, k -> new Object());
+            synchronized (claim) {
+                try {
+                    if (cacheFile.isFile()) {
+                        return true;
+                    }
+                    try (final AudioInputStream sourceStream = AudioSystem.getAudioInputStream(url)) {
+                        if (!cacheUncompressed && AudioDecoding.isPCM(sourceStream.getFormat())) {
+                            return false;
+                        }
+                        misses.increment();
+                        try (final AudioInputStream pcmStream = AudioDecoding.toPCM(sourceStream)) {
+                            if (!store(pcmStream, cacheFile)) {
+                                return false;
+                            }
+                        }
+                    }
+                    evict(cacheFile);
+                    return true;
+                } finally {
+                    claims.remove(key, claim);
+                }
+            }
+        } catch (final Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * 將PCM格式的音訊輸入串流寫入快取檔案。資料會先被寫入暫存檔，完成後才會被移動到快取檔案，因此其他執行緒或程序不會讀到寫到一半的檔案。超過快取大小上限的資料不會被存入快取。
+     *
+     * @param pcmStream 傳入PCM格式的音訊輸入串流
+     * @param cacheFile 傳入快取檔案
+     * @return 傳回是否有存入快取
+     * @throws Exception 拋出例外
+     */
+    private boolean store(final AudioInputStream pcmStream, final File cacheFile) throws Exception {
+        final AudioFormat format = pcmStream.getFormat();
+        final long frameLength = pcmStream.getFrameLength();
+        if (frameLength != AudioSystem.NOT_SPECIFIED && frameLength * format.getFrameSize() > maxSize) {
+            return false;
+        }
+        final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (final DataOutputStream header = new DataOutputStream(headerBytes)) {
+            header.writeInt(Arrays.asList(ENCODINGS).indexOf(format.getEncoding()));
+            header.writeFloat(format.getSampleRate());
+            header.writeInt(format.getSampleSizeInBits());
+            header.writeInt(format.getChannels());
+            header.writeInt(format.getFrameSize());
+            header.writeFloat(format.getFrameRate());
+            header.writeBoolean(format.isBigEndian());
+        }
+        final File tempFile = File.createTempFile("pcm", ".tmp", directory);
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(headerBytes.size());
+                headerBytes.writeTo(out);
+                if (!copy(pcmStream, out, maxSize - out.size())) {
+                    return false;
+                }
+            }
+            synchronized (this) {
+                //取代既有的檔案時，只計算大小的差值
+                final long previous = cacheFile.length();
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                size.addAndGet(cacheFile.length() - previous);
+            }
+            return true;
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * 複製串流中的所有資料。
+     *
+     * @param in 傳入輸入串流
+     * @param out 傳入輸出串流
+     * @param limit 傳入最多可以複製的位元組數量
+     * @return 傳回是否完整複製，超過數量上限時傳回false
+     * @throws Exception 拋出例外
+     */
+    private static boolean copy(final InputStream in, final OutputStream out, final long limit) throws Exception {
+        final byte[] buffer = new byte[65536];
+        long copied = 0;
+        int c;
+        while ((c = in.read(buffer)) > 0) {
+            copied += c;
+            if (copied > limit) {
+                return false;
+            }
+            out.write(buffer, 0, c);
+        }
+        return true;
+    }
+
+    /**
+     * 將快取檔案映射到記憶體中，並建立音訊輸入串流。超過2GB的快取檔案會改用一般的檔案讀取。
+     *
+     * @param cacheFile 傳入快取檔案
+     * @return 傳回音訊輸入串流
+     * @throws Exception 拋出例外
+     */
+    private AudioInputStream map(final File cacheFile) throws Exception {
+        final ByteBuffer prefix = ByteBuffer.allocate(12);
+        final ByteBuffer buffer;
+        final long fileLength;
+        try (final FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            fileLength = channel.size();
+            buffer = fileLength <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength) : null;
+            channel.read(prefix, 0);
+        }
+        prefix.flip();
+        final byte[] magic = new byte[4];
+        prefix.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || prefix.getInt() != VERSION) {
+            throw new RuntimeException("This is not a cache file!");
+        }
+        final int headerLength = prefix.getInt();
+        final int dataOffset = 12 + headerLength;
+        final byte[] headerBytes = new byte[headerLength];
+        final InputStream data;
+        if (buffer != null) {
+            buffer.position(12);
+            buffer.get(headerBytes);
+            data = new ByteBufferInputStream(buffer.slice());
+        } else {
+            final FileInputStream fis = new FileInputStream(cacheFile);
+            fis.getChannel().position(12);
+            new DataInputStream(fis).readFully(headerBytes);
+            data = new BufferedInputStream(fis, 65536);
+        }
+        final AudioFormat format;
+        try (final DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes))) {
+            final AudioFormat.Encoding encoding = ENCODINGS[header.readInt()];
+            final float sampleRate = header.readFloat();
+            final int sampleSizeInBits = header.readInt();
+            final int channels = header.readInt();
+            final int frameSize = header.readInt();
+            final float frameRate = header.readFloat();
+            final boolean bigEndian = header.readBoolean();
+            format = new AudioFormat(encoding, sampleRate, sampleSizeInBits, channels, frameSize, frameRate, bigEndian);
+        }
+        return new AudioInputStream(data, format, (fileLength - dataOffset) / format.getFrameSize());
+    }
+
+    /**
+     * 刪除快取檔案。
+     *
+     * @param file 傳入快取檔案
+     */
+    private void remove(final File file) {
+        final long length = file.length();
+        if (file.delete()) {
+            size.addAndGet(-length);
+        }
+    }
+
+    /**
+     * 列出所有快取檔案。
+     *
+     * @return 傳回快取檔案
+     */
+    private File[] listCacheFiles() {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * 快取的總大小超過上限時，刪除最久沒有被使用的快取檔案。
+     *
+     * @param pinned 傳入不可以被刪除的快取檔案，可以為null
+     */
+    private synchronized void evict(final File pinned) {
+        if (size.get() <= maxSize) {
+            return;
+        }
+        final File[] files = listCacheFiles();
+        final long[] lastModified = new long[files.length];
+        final ArrayList<Integer> order = new ArrayList<>(files.length);
+        for (int i = 0; i < files.length; ++i) {
+            lastModified[i] = files[i].lastModified();
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(lastModified[a], lastModified[b]));
+        for (final int i : order) {
+            if (size.get() <= maxSize) {
+                break;
+            }
+            if (!files[i].equals(pinned)) {
+                remove(files[i]);
+            }
+        }
+    }
+
+    /**
+     * 刪除所有快取檔案。
+     */
+    public synchronized void clear() {
+        for (final File file : listCacheFiles()) {
+            remove(file);
+        }
+    }
+
+    /**
+     * 取得快取目錄。
+     *
+     * @return 傳回快取目錄
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 取得快取的總大小(位元組)。
+     *
+     * @return 傳回快取的總大小
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * 取得快取的大小上限(位元組)。
+     *
+     * @return 傳回快取的大小上限
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 取得快取命中的次數。
+     *
+     * @return 傳回快取命中的次數
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 取得快取沒有命中而需要解碼的次數。
+     *
+     * @return 傳回快取沒有命中的次數
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
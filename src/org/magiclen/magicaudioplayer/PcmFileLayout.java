@@ -0,0 +1,352 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * <p>
+ * 無壓縮音訊檔案的資料配置，也就是音訊格式以及音訊資料在檔案中的位置與長度。</p>
+ *
+ * <p>
+ * 支援WAV、AIFF/AIFC與AU檔案中的PCM、u-law與A-law資料。這些資料的每個音框都可以被獨立解碼，因此能夠將檔案切成多個區塊同時載入。</p>
+ *
+ * @author Magic Len
+ */
+final class PcmFileLayout {
+
+    //-----物件常數-----
+    private final AudioFormat format;
+    private final long dataOffset;
+    private final long dataLength;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param format 傳入檔案中資料的音訊格式
+     * @param dataOffset 傳入音訊資料在檔案中的位置(位元組)
+     * @param dataLength 傳入音訊資料的長度(位元組)
+     */
+    private PcmFileLayout(final AudioFormat format, final long dataOffset, final long dataLength) {
+        this.format = format;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength - dataLength % format.getFrameSize();
+    }
+
+    // -----類別方法-----
+    /**
+     * 解析檔案的標頭。
+     *
+     * @param channel 傳入檔案通道
+     * @return 傳回資料配置，不支援的檔案傳回null
+     * @throws IOException 拋出例外
+     */
+    static PcmFileLayout parse(final FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < 12) {
+            return null;
+        }
+        final ByteBuffer header = read(channel, 0, 12, ByteOrder.BIG_ENDIAN);
+        final String id = readID(header, 0);
+        if ("RIFF".equals(id) && "WAVE".equals(readID(header, 8))) {
+            return parseWave(channel, fileSize);
+        } else if ("FORM".equals(id)) {
+            final String type = readID(header, 8);
+            if ("AIFF".equals(type) || "AIFC".equals(type)) {
+                return parseAiff(channel, fileSize, "AIFC".equals(type));
+            }
+        } else if (".snd".equals(id)) {
+            return parseAu(channel, fileSize);
+        }
+        return null;
+    }
+
+    /**
+     * 解析WAV檔案的區塊。
+     *
+     * @param channel 傳入檔案通道
+     * @param fileSize 傳入檔案大小
+     * @return 傳回資料配置，不支援的檔案傳回null
+     * @throws IOException 拋出例外
+     */
+    private static PcmFileLayout parseWave(final FileChannel channel, final long fileSize) throws IOException {
+        AudioFormat format = null;
+        long position = 12;
+        while (position + 8 <= fileSize) {
+            final ByteBuffer chunk = read(channel, position, 8, ByteOrder.LITTLE_ENDIAN);
+            final String id = readID(chunk, 0);
+            final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if ("fmt ".equals(id)) {
+                if (size < 16) {
+                    return null;
+                }
+                final ByteBuffer fmt = read(channel, position + 8, (int) Math.min(size, 26), ByteOrder.LITTLE_ENDIAN);
+                int tag = fmt.getShort(0) & 0xFFFF;
+                final int channels = fmt.getShort(2) & 0xFFFF;
+                final float sampleRate = fmt.getInt(4) & 0xFFFFFFFFL;
+                final int blockAlign = fmt.getShort(12) & 0xFFFF;
+                final int bits = fmt.getShort(14) & 0xFFFF;
+                if (tag == 0xFFFE && size >= 26) {
+                    //WAVE_FORMAT_EXTENSIBLE，實際的格式在子格式GUID的前兩個位元組
+                    tag = fmt.getShort(24) & 0xFFFF;
+                }
+                format = createFormat(tag, sampleRate, bits, channels, blockAlign);
+                if (format == null) {
+                    return null;
+                }
+            } else if ("data".equals(id)) {
+                if (format == null) {
+                    return null;
+                }
+                final long offset = position + 8;
+                return new PcmFileLayout(format, offset, Math.min(size, fileSize - offset));
+            }
+            position += 8 + size + (size & 1);
+        }
+        return null;
+    }
+
+    /**
+     * 依照WAV的格式標籤建立音訊格式。
+     *
+     * @param tag 傳入格式標籤
+     * @param sampleRate 傳入取樣率
+     * @param bits 傳入取樣位元數
+     * @param channels 傳入聲道數量
+     * @param frameSize 傳入音框大小
+     * @return 傳回音訊格式，不支援的格式傳回null
+     */
+    private static AudioFormat createFormat(final int tag, final float sampleRate, final int bits, final int channels, final int frameSize) {
+        if (channels <= 0 || frameSize <= 0 || sampleRate <= 0) {
+            return null;
+        }
+        switch (tag) {
+            case 1:
+                if (bits <= 0 || bits > 32 || frameSize != channels * ((bits + 7) / 8)) {
+                    return null;
+                }
+                return new AudioFormat(bits <= 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED, sampleRate, bits, channels, frameSize, sampleRate, false);
+            case 3:
+                if (bits != 32 && bits != 64 || frameSize != channels * bits / 8) {
+                    return null;
+                }
+                return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, bits, channels, frameSize, sampleRate, false);
+            case 6:
+                return frameSize == channels ? new AudioFormat(AudioFormat.Encoding.ALAW, sampleRate, 8, channels, frameSize, sampleRate, false) : null;
+            case 7:
+                return frameSize == channels ? new AudioFormat(AudioFormat.Encoding.ULAW, sampleRate, 8, channels, frameSize, sampleRate, false) : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 解析AIFF或AIFC檔案的區塊。
+     *
+     * @param channel 傳入檔案通道
+     * @param fileSize 傳入檔案大小
+     * @param aifc 傳入是否為AIFC檔案
+     * @return 傳回資料配置，不支援的檔案傳回null
+     * @throws IOException 拋出例外
+     */
+    private static PcmFileLayout parseAiff(final FileChannel channel, final long fileSize, final boolean aifc) throws IOException {
+        AudioFormat format = null;
+        long position = 12;
+        while (position + 8 <= fileSize) {
+            final ByteBuffer chunk = read(channel, position, 8, ByteOrder.BIG_ENDIAN);
+            final String id = readID(chunk, 0);
+            final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if ("COMM".equals(id)) {
+                if (size < 18 || aifc && size < 22) {
+                    return null;
+                }
+                final ByteBuffer comm = read(channel, position + 8, aifc ? 22 : 18, ByteOrder.BIG_ENDIAN);
+                final int channels = comm.getShort(0);
+                final int bits = comm.getShort(6);
+                final float sampleRate = (float) readExtended(comm, 8);
+                final String compression = aifc ? readID(comm, 18) : "NONE";
+                if (channels <= 0 || sampleRate <= 0) {
+                    return null;
+                }
+                switch (compression) {
+                    case "NONE":
+                    case "twos":
+                    case "sowt":
+                        if (bits <= 0 || bits > 32) {
+                            return null;
+                        }
+                        format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, bits, channels, channels * ((bits + 7) / 8), sampleRate, !"sowt".equals(compression));
+                        break;
+                    case "fl32":
+                    case "FL32":
+                        format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, 32, channels, channels * 4, sampleRate, true);
+                        break;
+                    case "ulaw":
+                    case "ULAW":
+                        format = new AudioFormat(AudioFormat.Encoding.ULAW, sampleRate, 8, channels, channels, sampleRate, true);
+                        break;
+                    case "alaw":
+                    case "ALAW":
+                        format = new AudioFormat(AudioFormat.Encoding.ALAW, sampleRate, 8, channels, channels, sampleRate, true);
+                        break;
+                    default:
+                        return null;
+                }
+            } else if ("SSND".equals(id)) {
+                if (format == null || size < 8) {
+                    return null;
+                }
+                final long offset = position + 16 + (read(channel, position + 8, 4, ByteOrder.BIG_ENDIAN).getInt(0) & 0xFFFFFFFFL);
+                return new PcmFileLayout(format, offset, Math.max(0, Math.min(position + 8 + size, fileSize) - offset));
+            }
+            position += 8 + size + (size & 1);
+        }
+        return null;
+    }
+
+    /**
+     * 解析AU檔案的標頭。
+     *
+     * @param channel 傳入檔案通道
+     * @param fileSize 傳入檔案大小
+     * @return 傳回資料配置，不支援的檔案傳回null
+     * @throws IOException 拋出例外
+     */
+    private static PcmFileLayout parseAu(final FileChannel channel, final long fileSize) throws IOException {
+        if (fileSize < 24) {
+            return null;
+        }
+        final ByteBuffer header = read(channel, 4, 20, ByteOrder.BIG_ENDIAN);
+        final long offset = header.getInt(0) & 0xFFFFFFFFL;
+        final long size = header.getInt(4) & 0xFFFFFFFFL;
+        final int encoding = header.getInt(8);
+        final float sampleRate = header.getInt(12) & 0xFFFFFFFFL;
+        final int channels = header.getInt(16);
+        if (offset < 24 || offset > fileSize || channels <= 0 || sampleRate <= 0) {
+            return null;
+        }
+        final AudioFormat format;
+        switch (encoding) {
+            case 1:
+                format = new AudioFormat(AudioFormat.Encoding.ULAW, sampleRate, 8, channels, channels, sampleRate, true);
+                break;
+            case 2:
+            case 3:
+            case 4:
+            case 5:
+                final int bytes = encoding - 1;
+                format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, sampleRate, bytes * 8, channels, channels * bytes, sampleRate, true);
+                break;
+            case 6:
+                format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, 32, channels, channels * 4, sampleRate, true);
+                break;
+            case 27:
+                format = new AudioFormat(AudioFormat.Encoding.ALAW, sampleRate, 8, channels, channels, sampleRate, true);
+                break;
+            default:
+                return null;
+        }
+        //資料長度為0xFFFFFFFF時表示未知，使用到檔案結尾為止的所有資料
+        final long remaining = fileSize - offset;
+        return new PcmFileLayout(format, offset, size == 0xFFFFFFFFL ? remaining : Math.min(size, remaining));
+    }
+
+    /**
+     * 從檔案的某個位置讀取固定長度的資料。
+     *
+     * @param channel 傳入檔案通道
+     * @param position 傳入位置
+     * @param length 傳入長度
+     * @param order 傳入位元組順序
+     * @return 傳回資料
+     * @throws IOException 拋出例外
+     */
+    static ByteBuffer read(final FileChannel channel, final long position, final int length, final ByteOrder order) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * 讀取四個字元的區塊識別碼。
+     *
+     * @param buffer 傳入資料
+     * @param index 傳入位置
+     * @return 傳回識別碼
+     */
+    static String readID(final ByteBuffer buffer, final int index) {
+        final byte[] id = new byte[4];
+        for (int i = 0; i < 4; ++i) {
+            id[i] = buffer.get(index + i);
+        }
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 讀取AIFF使用的80位元延伸精度浮點數。
+     *
+     * @param buffer 傳入資料
+     * @param index 傳入位置
+     * @return 傳回數值
+     */
+    static double readExtended(final ByteBuffer buffer, final int index) {
+        final int exponent = buffer.getShort(index) & 0x7FFF;
+        final long mantissa = buffer.getLong(index + 2);
+        final double value = Math.scalb((double) (mantissa >>> 11), exponent - 16383 - 52);
+        return (buffer.get(index) & 0x80) != 0 ? -value : value;
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得檔案中資料的音訊格式。
+     *
+     * @return 傳回音訊格式
+     */
+    AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 取得音訊資料在檔案中的位置。
+     *
+     * @return 傳回位置(位元組)
+     */
+    long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * 取得音訊資料的長度，已經對齊音框。
+     *
+     * @return 傳回長度(位元組)
+     */
+    long getDataLength() {
+        return dataLength;
+    }
+}
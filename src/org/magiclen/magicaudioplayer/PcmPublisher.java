@@ -0,0 +1,243 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * <p>
+ * 發布已解碼的PCM資料的發布者。</p>
+ *
+ * <p>
+ * 每個訂閱者都有自己的音訊輸入串流，資料只有在訂閱者請求時才會被解碼，因此不會超出訂閱者的需求，也不受播放速度的限制，沒有音訊裝置時可以用比即時更快的速度處理音訊。解碼會在執行器中進行，每次最多連續發布64個區塊，讓其他工作也有機會被執行。</p>
+ *
+ * @author Magic Len
+ */
+public class PcmPublisher implements Flow.Publisher<PcmBlock> {
+
+    // -----類別常數-----
+    private static final int BATCH = 64;
+
+    // -----類別類別-----
+    /**
+     * 一個訂閱者的訂閱。
+     */
+    private final class PcmSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super PcmBlock> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private AudioInputStream stream;
+        private boolean done;
+        private long position;
+
+        PcmSubscription(final Flow.Subscriber<? super PcmBlock> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("The number of requested items must be positive!");
+            } else {
+                demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * 讓執行器處理目前的需求。
+         */
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        /**
+         * 結束訂閱，關閉音訊輸入串流。
+         */
+        private void terminate() {
+            done = true;
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (final Exception ex) {
+                    //不需要處理關閉串流時的例外
+                }
+                stream = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (done) {
+                return;
+            }
+            int missed = 1;
+            int emitted = 0;
+            while (true) {
+                while (true) {
+                    if (cancelled) {
+                        terminate();
+                        return;
+                    }
+                    final Throwable e = error;
+                    if (e != null) {
+                        terminate();
+                        subscriber.onError(e);
+                        return;
+                    }
+                    if (demand.get() == 0) {
+                        break;
+                    }
+                    if (emitted == BATCH) {
+                        //還有需求，讓出執行器之後再繼續
+                        executor.execute(this);
+                        return;
+                    }
+                    final PcmBlock block;
+                    try {
+                        block = next();
+                    } catch (final Exception ex) {
+                        terminate();
+                        subscriber.onError(ex);
+                        return;
+                    }
+                    if (block == null) {
+                        terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                    ++emitted;
+                    subscriber.onNext(block);
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 解碼下一個區塊。
+         *
+         * @return 傳回區塊，音訊結束時傳回null
+         * @throws Exception 拋出例外
+         */
+        private PcmBlock next() throws Exception {
+            if (stream == null) {
+                stream = AudioDecoding.open(url);
+            }
+            final AudioFormat format = stream.getFormat();
+            final byte[] data = new byte[blockFrames * format.getFrameSize()];
+            final int length = AudioDecoding.readFully(stream, data, 0, data.length);
+            if (length == 0) {
+                return null;
+            }
+            final PcmBlock block = new PcmBlock(format, data, length, position);
+            position += block.getFrames();
+            return block;
+        }
+    }
+
+    //-----物件常數-----
+    private final URL url;
+    private final int blockFrames;
+    private final Executor executor;
+
+    // -----建構子-----
+    /**
+     * 建構子，每個區塊有4096個音框，使用共用的ForkJoinPool來解碼。
+     *
+     * @param url 傳入聲音URL
+     */
+    public PcmPublisher(final URL url) {
+        this(url, 4096, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param url 傳入聲音URL
+     * @param blockFrames 傳入每個區塊的音框數量
+     * @param executor 傳入用來解碼以及呼叫訂閱者的執行器
+     */
+    public PcmPublisher(final URL url, final int blockFrames, final Executor executor) {
+        if (url == null) {
+            throw new RuntimeException("The URL can't be null!");
+        }
+        if (blockFrames < 1) {
+            throw new RuntimeException("BlockFrames must be at least 1!");
+        }
+        if (executor == null) {
+            throw new RuntimeException("The executor can't be null!");
+        }
+        this.url = url;
+        this.blockFrames = blockFrames;
+        this.executor = executor;
+    }
+
+    // -----物件方法-----
+    /**
+     * 加入訂閱者。每個訂閱者都會從音訊的開頭開始收到資料。
+     *
+     * @param subscriber 傳入訂閱者
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super PcmBlock> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException();
+        }
+        subscriber.onSubscribe(new PcmSubscription(subscriber));
+    }
+
+    /**
+     * 取得聲音URL。
+     *
+     * @return 傳回聲音URL
+     */
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * 取得每個區塊的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    public int getBlockFrames() {
+        return blockFrames;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * <p>
+ * 播放器的Java Flight Recorder事件。</p>
+ *
+ * <p>
+ * 事件會和GC暫停等JVM事件一起被記錄，用來找出播放時出現雜音或延遲的原因。沒有在記錄時，事件物件不會逃離方法，JIT可以將它們消除，成本可以忽略。播放器ID為System.identityHashCode的值，用來關聯同一個播放器的事件。</p>
+ *
+ * @author Magic Len
+ */
+final class PlayerEvents {
+
+    // -----類別類別-----
+    /**
+     * 開啟播放器，持續時間包含解碼或載入音訊的時間。
+     */
+    @Name("org.magiclen.magicaudioplayer.Open")
+    @Label("Audio Player Open")
+    @Description("Opening an audio player, including decoding or loading the audio")
+    @Category("MagicAudioPlayer")
+    @StackTrace(false)
+    static final class Open extends Event {
+
+        @Label("Player")
+        String player;
+        @Label("Player ID")
+        int playerID;
+        @Label("URL")
+        String url;
+        @Label("Bytes")
+        @Description("Bytes of PCM audio loaded at open time, -1 if unknown")
+        @DataAmount
+        long bytes;
+
+        /**
+         * 如果事件需要被記錄，設定欄位並記錄事件。
+         *
+         * @param player 傳入播放器
+         * @param url 傳入聲音URL
+         * @param bytes 傳入載入的PCM資料量，未知時為-1
+         */
+        void end(final AudioPlayer player, final Object url, final long bytes) {
+            if (shouldCommit()) {
+                this.player = player.getClass().getSimpleName();
+                this.playerID = System.identityHashCode(player);
+                this.url = String.valueOf(url);
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * 使用AudioPlayer.createPlayer建立播放器，持續時間包含所有嘗試過的提供者。
+     */
+    @Name("org.magiclen.magicaudioplayer.Create")
+    @Label("Audio Player Create")
+    @Description("Creating an audio player through the provider registry")
+    @Category("MagicAudioPlayer")
+    @StackTrace(false)
+    static final class Create extends Event {
+
+        @Label("URL")
+        String url;
+        @Label("Format")
+        String format;
+        @Label("Provider")
+        String provider;
+        @Label("Attempts")
+        @Description("Number of providers tried")
+        int attempts;
+
+        /**
+         * 如果事件需要被記錄，設定欄位並記錄事件。
+         *
+         * @param url 傳入聲音URL
+         * @param format 傳入格式
+         * @param provider 傳入成功的提供者，失敗時為null
+         * @param attempts 傳入嘗試過的提供者數量
+         */
+        void end(final Object url, final String format, final AudioPlayerProvider provider, final int attempts) {
+            if (shouldCommit()) {
+                this.url = String.valueOf(url);
+                this.format = format;
+                this.provider = provider == null ? null : provider.getName();
+                this.attempts = attempts;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * 播放器的狀態改變，也就是開啟、播放、停止與關閉。
+     */
+    @Name("org.magiclen.magicaudioplayer.StatusChange")
+    @Label("Audio Player Status Change")
+    @Category("MagicAudioPlayer")
+    @StackTrace(false)
+    static final class StatusChange extends Event {
+
+        @Label("Player")
+        String player;
+        @Label("Player ID")
+        int playerID;
+        @Label("Before")
+        String before;
+        @Label("Current")
+        String current;
+        @Label("Cause")
+        String cause;
+        @Label("Position")
+        @Timespan(Timespan.MICROSECONDS)
+        long position;
+    }
+
+    /**
+     * 改變播放器的位置。
+     */
+    @Name("org.magiclen.magicaudioplayer.Seek")
+    @Label("Audio Player Seek")
+    @Category("MagicAudioPlayer")
+    @StackTrace(false)
+    static final class Seek extends Event {
+
+        @Label("Player")
+        String player;
+        @Label("Player ID")
+        int playerID;
+        @Label("From")
+        @Timespan(Timespan.MICROSECONDS)
+        long from;
+        @Label("To")
+        @Timespan(Timespan.MICROSECONDS)
+        long to;
+    }
+
+    /**
+     * 輸出端的緩衝在播放中被消耗完，也就是播放器來不及寫入資料。
+     */
+    @Name("org.magiclen.magicaudioplayer.Underrun")
+    @Label("Audio Buffer Underrun")
+    @Description("The output buffer ran empty while playing")
+    @Category("MagicAudioPlayer")
+    @StackTrace(false)
+    static final class Underrun extends Event {
+
+        @Label("Player")
+        String player;
+        @Label("Player ID")
+        int playerID;
+        @Label("Position")
+        @Timespan(Timespan.MICROSECONDS)
+        long position;
+        @Label("Buffer Size")
+        @DataAmount
+        int bufferSize;
+    }
+
+    /**
+     * 呼叫狀態監聽者，持續時間為監聽者執行的時間。
+     */
+    @Name("org.magiclen.magicaudioplayer.ListenerDispatch")
+    @Label("Audio Listener Dispatch")
+    @Description("Time spent in status listeners")
+    @Category("MagicAudioPlayer")
+    @StackTrace(false)
+    static final class ListenerDispatch extends Event {
+
+        @Label("Player")
+        String player;
+        @Label("Player ID")
+        int playerID;
+        @Label("Status")
+        String status;
+
+        /**
+         * 如果事件需要被記錄，設定欄位並記錄事件。
+         *
+         * @param player 傳入播放器
+         * @param status 傳入改變後的狀態
+         */
+        void end(final AudioPlayer player, final AudioPlayer.Status status) {
+            if (shouldCommit()) {
+                this.player = player.getClass().getSimpleName();
+                this.playerID = System.identityHashCode(player);
+                this.status = String.valueOf(status);
+                commit();
+            }
+        }
+    }
+
+    /**
+     * 從磁碟快取開啟音訊，沒有命中時持續時間包含解碼並存入快取的時間。
+     */
+    @Name("org.magiclen.magicaudioplayer.DiskCache")
+    @Label("Audio Disk Cache")
+    @Category("MagicAudioPlayer")
+    @StackTrace(false)
+    static final class DiskCache extends Event {
+
+        @Label("URL")
+        String url;
+        @Label("Hit")
+        boolean hit;
+        @Label("Bytes")
+        @Description("Size of the cache file")
+        @DataAmount
+        long bytes;
+
+        /**
+         * 如果事件需要被記錄，設定欄位並記錄事件。
+         *
+         * @param url 傳入聲音URL
+         * @param hit 傳入是否命中
+         * @param bytes 傳入快取檔案的大小
+         */
+        void end(final Object url, final boolean hit, final long bytes) {
+            if (shouldCommit()) {
+                this.url = String.valueOf(url);
+                this.hit = hit;
+                this.bytes = bytes;
+                commit();
+            }
+        }
+    }
+
+    // -----類別常數-----
+    private static final EventType STATUS_CHANGE_TYPE = EventType.getEventType(StatusChange.class);
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private PlayerEvents() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 判斷是否正在記錄狀態改變事件。
+     *
+     * @return 傳回是否正在記錄狀態改變事件
+     */
+    static boolean isStatusChangeEnabled() {
+        return STATUS_CHANGE_TYPE.isEnabled();
+    }
+
+    /**
+     * 記錄狀態改變事件。
+     *
+     * @param player 傳入播放器
+     * @param before 傳入改變前的狀態
+     * @param current 傳入改變後的狀態
+     * @param cause 傳入原因
+     * @param positionMicros 傳入位置(微秒)
+     */
+    static void statusChange(final AudioPlayer player, final AudioPlayer.Status before, final AudioPlayer.Status current, final StatusEvent.Cause cause, final long positionMicros) {
+        final StatusChange event = new StatusChange();
+        if (event.shouldCommit()) {
+            event.player = player.getClass().getSimpleName();
+            event.playerID = System.identityHashCode(player);
+            event.before = String.valueOf(before);
+            event.current = String.valueOf(current);
+            event.cause = String.valueOf(cause);
+            event.position = positionMicros;
+            event.commit();
+        }
+    }
+
+    /**
+     * 記錄改變位置的事件。
+     *
+     * @param player 傳入播放器
+     * @param from 傳入原本的位置(微秒)
+     * @param to 傳入新的位置(微秒)
+     */
+    static void seek(final AudioPlayer player, final long from, final long to) {
+        final Seek event = new Seek();
+        if (event.shouldCommit()) {
+            event.player = player.getClass().getSimpleName();
+            event.playerID = System.identityHashCode(player);
+            event.from = from;
+            event.to = to;
+            event.commit();
+        }
+    }
+
+    /**
+     * 記錄緩衝區欠載事件。
+     *
+     * @param player 傳入播放器
+     * @param positionMicros 傳入位置(微秒)
+     * @param bufferSize 傳入輸出端的緩衝大小
+     */
+    static void underrun(final AudioPlayer player, final long positionMicros, final int bufferSize) {
+        final Underrun event = new Underrun();
+        if (event.shouldCommit()) {
+            event.player = player.getClass().getSimpleName();
+            event.playerID = System.identityHashCode(player);
+            event.position = positionMicros;
+            event.bufferSize = bufferSize;
+            event.commit();
+        }
+    }
+}
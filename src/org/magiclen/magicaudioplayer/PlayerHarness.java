@@ -0,0 +1,534 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 不需要音訊裝置與圖形介面的播放器行為測試。</p>
+ *
+ * <p>
+ * StreamingPlayer會輸出到VirtualSink，並由使用虛擬時鐘的排程器驅動，因此可以在很短的時間內快轉好幾個小時的播放，並確認事件的順序、重複次數與位置完全符合預期。等待播放器的情境則使用即時模式的NullSink，在真實的時間中執行。任何一個情境失敗時，程式的結束代碼為1。</p>
+ *
+ * @author Magic Len
+ */
+public class PlayerHarness {
+
+    // -----類別常數-----
+    private static final long SECOND = 1000000000L;
+
+    // -----類別變數-----
+    private static URL url;
+    private static int failures;
+
+    // -----類別類別-----
+    /**
+     * 一個測試情境的環境，包含虛擬時鐘、排程器以及播放器。
+     */
+    private static final class Scenario {
+
+        private final VirtualClock clock = new VirtualClock();
+        private final AudioScheduler scheduler = new AudioScheduler(clock);
+        private final VirtualSink sink = new VirtualSink(clock);
+        private final StreamingPlayer player;
+        private final List<String> events = new ArrayList<>();
+
+        Scenario() {
+            final LatencyConfig latencyConfig = new LatencyConfig();
+            latencyConfig.setScheduler(scheduler);
+            player = new StreamingPlayer(url, latencyConfig, sink);
+            player.setStatusEventListener(e -> events.add(e.getCurrent() + "/" + e.getCause() + "/" + e.getLoopIndex()));
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        //建立一秒鐘的440Hz正弦波
+        final AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        final byte[] data = new byte[44100 * 4];
+        for (int i = 0; i < 44100; ++i) {
+            final short sample = (short) (Math.sin(2 * Math.PI * 440 * i / 44100) * 8000);
+            for (int c = 0; c < 2; ++c) {
+                data[i * 4 + c * 2] = (byte) sample;
+                data[i * 4 + c * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+        final File file = File.createTempFile("MagicAudioPlayer-", ".wav");
+        file.deleteOnExit();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, 44100), AudioFileFormat.Type.WAVE, file);
+        url = file.toURI().toURL();
+
+        playCount();
+        autoClose();
+        stopRewinds();
+        stopResetsPlayCount();
+        pauseKeepsPosition();
+        pauseKeepsCues();
+        pauseAcrossLoopKeepsCues();
+        longPlayback();
+        pushJitter();
+        manyWaiters();
+        interruptStopsPlayback();
+        slowReopenDoesNotBlock();
+        audioTapSnapshots();
+        chunkCacheBackward();
+
+        System.out.println(failures == 0 ? "All scenarios passed." : String.valueOf(failures).concat(" check(s) failed."));
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * 播放三次之後停止，並且不會自動關閉。
+     */
+    private static void playCount() {
+        final Scenario s = new Scenario();
+        s.player.setPlayCount(3);
+        s.player.play();
+        s.scheduler.advance(10 * SECOND);
+        check("play count: events", Arrays.asList("START/USER/0", "STOP/END_OF_MEDIA/2"), s.events);
+        check("play count: playing", false, s.player.isPlaying());
+        check("play count: position", 0L, s.player.getAudioPosition());
+        check("play count: underruns", 0L, s.sink.getUnderruns());
+        s.player.close();
+    }
+
+    /**
+     * 播放完畢之後自動關閉。
+     */
+    private static void autoClose() {
+        final Scenario s = new Scenario();
+        final long[] stopTime = new long[1];
+        s.player.setStatusEventListener(e -> {
+            s.events.add(e.getCurrent() + "/" + e.getCause() + "/" + e.getLoopIndex());
+            if (e.getCurrent() == AudioPlayer.Status.STOP) {
+                stopTime[0] = e.getNanoTime();
+            }
+        });
+        s.player.setAutoClose(true);
+        s.player.play();
+        s.scheduler.advance(5 * SECOND);
+        check("auto close: events", Arrays.asList("START/USER/0", "STOP/END_OF_MEDIA/0", "CLOSE/AUTO_CLOSE/0"), s.events);
+        check("auto close: stopped after one second", true, Math.abs(stopTime[0] - SECOND) < SECOND / 1000);
+        check("auto close: scheduled tasks", 0, s.scheduler.getTaskCount());
+    }
+
+    /**
+     * 停止之後，位置會回到開頭。
+     */
+    private static void stopRewinds() {
+        final Scenario s = new Scenario();
+        s.player.play();
+        s.scheduler.advance(SECOND / 2);
+        check("stop: position while playing", true, Math.abs(s.player.getAudioPosition() - 500000) <= 1000);
+        s.player.stop();
+        s.scheduler.advance(SECOND);
+        check("stop: events", Arrays.asList("START/USER/0", "STOP/USER/0"), s.events);
+        check("stop: position", 0L, s.player.getAudioPosition());
+        s.player.close();
+    }
+
+    /**
+     * 在第二次播放中停止之後，再次播放時仍然會完整地播放指定的次數。
+     */
+    private static void stopResetsPlayCount() {
+        final Scenario s = new Scenario();
+        final int[] loops = new int[1];
+        final List<Integer> iterations = new ArrayList<>();
+        s.player.setPlayCount(3);
+        s.player.addCuePoint(0, () -> ++loops[0]);
+        s.player.play();
+        s.scheduler.advance(SECOND * 3 / 2);
+        s.player.stop();
+        s.scheduler.advance(SECOND);
+        check("stop play count: stopped in the second iteration", 2, loops[0]);
+        loops[0] = 0;
+        s.events.clear();
+        s.player.setStatusEventListener(e -> iterations.add(e.getLoopIndex()));
+        s.player.play();
+        s.scheduler.advance(10 * SECOND);
+        check("stop play count: full iterations", 3, loops[0]);
+        check("stop play count: iterations of events", Arrays.asList(0, 2), iterations);
+        check("stop play count: stopped", false, s.player.isPlaying());
+        s.player.close();
+    }
+
+    /**
+     * 暫停之後，位置會被保留，繼續播放時從暫停的位置開始。
+     */
+    private static void pauseKeepsPosition() {
+        final Scenario s = new Scenario();
+        s.player.play();
+        s.scheduler.advance(SECOND / 4);
+        s.player.pause();
+        final long position = s.player.getAudioPosition();
+        s.scheduler.advance(SECOND);
+        check("pause: position kept", position, s.player.getAudioPosition());
+        s.player.play();
+        s.scheduler.advance(SECOND / 4);
+        check("pause: position resumed", true, Math.abs(s.player.getAudioPosition() - 500000) <= 1000);
+        s.player.close();
+    }
+
+    /**
+     * 暫停時已經被寫入到輸出端、但還沒被播放的提示點，在繼續播放之後仍然會被觸發。
+     */
+    private static void pauseKeepsCues() {
+        final Scenario s = new Scenario();
+        final int[] fired = new int[1];
+        s.player.addCuePoint(2000, () -> ++fired[0]);
+        s.player.play();
+        s.scheduler.advance(SECOND / 100);
+        s.player.pause();
+        s.scheduler.advance(SECOND / 10);
+        check("pause cues: not fired while paused", 0, fired[0]);
+        s.player.play();
+        s.scheduler.advance(2 * SECOND);
+        check("pause cues: fired once", 1, fired[0]);
+        check("pause cues: cue error", true, s.player.getCueStatistics().getMaxAbsErrorMicros() <= 1000);
+        s.player.close();
+    }
+
+    /**
+     * 暫停時輸出端中同時有上一次播放的結尾和下一次播放的開頭，兩邊的提示點都會在繼續播放之後被觸發。
+     */
+    private static void pauseAcrossLoopKeepsCues() {
+        final Scenario s = new Scenario();
+        final int[] head = new int[1], tail = new int[1];
+        s.player.setPlayCount(2);
+        s.player.addCuePoint(100, () -> ++head[0]);
+        s.player.addCuePoint(44000, () -> ++tail[0]);
+        s.player.play();
+        s.scheduler.advance(SECOND * 995 / 1000);
+        s.player.pause();
+        s.scheduler.advance(SECOND);
+        check("pause across loop: tail pending", 0, tail[0]);
+        check("pause across loop: head pending", 1, head[0]);
+        s.player.play();
+        s.scheduler.advance(3 * SECOND);
+        check("pause across loop: head fired", 2, head[0]);
+        check("pause across loop: tail fired", 2, tail[0]);
+        s.player.close();
+    }
+
+    /**
+     * 無限次重複播放兩個小時，每次重複都會經過開頭的提示點。推進的時間少了1奈秒，因此第7200秒開頭的提示點不會被計算。
+     */
+    private static void longPlayback() {
+        final Scenario s = new Scenario();
+        final int[] loops = new int[1];
+        s.player.setPlayCount(0);
+        s.player.addCuePoint(0, () -> ++loops[0]);
+        final long start = System.nanoTime();
+        s.player.play();
+        s.scheduler.advance(7200 * SECOND - 1);
+        final long elapsed = System.nanoTime() - start;
+        check("long playback: loops", 7200, loops[0]);
+        check("long playback: underruns", 0L, s.sink.getUnderruns());
+        check("long playback: cue error", 0L, s.player.getCueStatistics().getMaxAbsErrorMicros());
+        System.out.println("      2 hours of playback took ".concat(String.valueOf(elapsed / 1000000)).concat("ms"));
+        s.player.close();
+    }
+
+    /**
+     * 以20毫秒的區塊推送10秒鐘的聲音到PushPlayer，每個區塊會延遲0~40毫秒抵達，因此有些區塊會亂序抵達，並且遺失約3%的區塊。目標延遲至少60毫秒時，不會有區塊錯過播放時間，被掩蔽的只有遺失的區塊以及串流結束之後的11個週期(最多10次的掩蔽以及之後的重新緩衝)。
+     */
+    private static void pushJitter() {
+        final VirtualClock clock = new VirtualClock();
+        final AudioScheduler scheduler = new AudioScheduler(clock);
+        final VirtualSink sink = new VirtualSink(clock);
+        final LatencyConfig latencyConfig = new LatencyConfig();
+        latencyConfig.setScheduler(scheduler);
+        latencyConfig.setPeriodFrames(240);
+        latencyConfig.setBufferFrames(960);
+        final AudioFormat format = new AudioFormat(48000, 16, 1, true, false);
+        final PushPlayer player = new PushPlayer(format, latencyConfig, sink);
+        player.setTargetLatency(60000, 400000);
+        player.start();
+        final int packets = 500, packetFrames = 960;
+        final long interval = 20000000L;
+        final Random random = new Random(3);
+        int lost = 0, reordered = 0;
+        long previousArrival = -1;
+        for (int i = 0; i < packets; ++i) {
+            final long arrival = i * interval + (long) (random.nextDouble() * 2 * interval);
+            if (arrival < previousArrival) {
+                ++reordered;
+            }
+            previousArrival = arrival;
+            if (i > 0 && i < packets - 1 && random.nextInt(100) < 3) {
+                ++lost;
+                continue;
+            }
+            final byte[] data = new byte[packetFrames * 2];
+            for (int j = 0; j < packetFrames; ++j) {
+                final short sample = (short) (Math.sin(2 * Math.PI * 440 * (i * packetFrames + j) / 48000) * 8000);
+                data[j * 2] = (byte) sample;
+                data[j * 2 + 1] = (byte) (sample >> 8);
+            }
+            final long position = (long) i * packetFrames;
+            scheduler.schedule(() -> player.write(ByteBuffer.wrap(data), position), arrival);
+        }
+        scheduler.advance(packets * interval + 2 * interval);
+        check("push jitter: reordered blocks", true, reordered > 0);
+        check("push jitter: lost blocks", true, lost > 0);
+        check("push jitter: received", (long) (packets - lost) * packetFrames, player.getReceivedFrames());
+        check("push jitter: late", 0L, player.getLateFrames());
+        check("push jitter: no rebuffer before the end", 0L, player.getRebufferCount());
+        scheduler.advance(SECOND);
+        check("push jitter: concealed", (long) lost * packetFrames + 11 * 240, player.getConcealedFrames());
+        check("push jitter: rebuffer at the end", 1L, player.getRebufferCount());
+        player.stop();
+        player.write(ByteBuffer.wrap(new byte[packetFrames * 2]));
+        check("push jitter: writes ignored while stopped", (long) (packets - lost) * packetFrames, player.getReceivedFrames());
+        player.close();
+    }
+
+    /**
+     * 建立執行等待工作的執行緒池。有虛擬執行緒(Java 21以上)時每個工作使用一個虛擬執行緒，否則使用平台執行緒。
+     *
+     * @return 傳回執行緒池
+     */
+    private static ExecutorService newWaiterExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final Exception ex) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * 10000個執行緒各自等待100個播放器中的一個播放完畢。
+     */
+    private static void manyWaiters() throws Exception {
+        final int playerCount = 100, waiterCount = 10000;
+        final StreamingPlayer[] players = new StreamingPlayer[playerCount];
+        for (int i = 0; i < playerCount; ++i) {
+            players[i] = new StreamingPlayer(url, new LatencyConfig(), new NullSink(true));
+        }
+        final ExecutorService executor = newWaiterExecutor();
+        final List<Future<Boolean>> futures = new ArrayList<>(waiterCount);
+        final long start = System.nanoTime();
+        for (int i = 0; i < waiterCount; ++i) {
+            final StreamingPlayer player = players[i % playerCount];
+            futures.add(executor.submit(() -> player.awaitStatus(AudioPlayer.Status.STOP, 30, TimeUnit.SECONDS)));
+        }
+        for (final StreamingPlayer player : players) {
+            player.play();
+        }
+        int completed = 0;
+        for (final Future<Boolean> future : futures) {
+            if (future.get()) {
+                ++completed;
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        check("many waiters: completed", waiterCount, completed);
+        check("many waiters: woken soon after the end", true, elapsed < 10 * SECOND);
+        System.out.println("      10000 waiters finished in ".concat(String.valueOf(elapsed / 1000000)).concat("ms"));
+        for (final StreamingPlayer player : players) {
+            player.close();
+        }
+    }
+
+    /**
+     * 中斷正在等待播放結束的執行緒時，播放會被停止；等待逾時則不會影響播放。
+     */
+    private static void interruptStopsPlayback() throws Exception {
+        final StreamingPlayer player = new StreamingPlayer(url, new LatencyConfig(), new NullSink(true));
+        player.setPlayCount(0);
+        check("await timeout: returns false", false, player.playAndAwait(100, TimeUnit.MILLISECONDS));
+        check("await timeout: still playing", true, player.isPlaying());
+        player.pause();
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                player.playAndAwait();
+            } catch (final Throwable ex) {
+                thrown.set(ex);
+            }
+        });
+        thread.start();
+        check("await interrupt: playing", true, player.awaitStatus(AudioPlayer.Status.START, 5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        thread.interrupt();
+        thread.join(5000);
+        check("await interrupt: thread finished", false, thread.isAlive());
+        check("await interrupt: InterruptedException", true, thrown.get() instanceof InterruptedException);
+        check("await interrupt: stopped", false, player.isPlaying());
+        check("await interrupt: rewound", 0L, player.getAudioPosition());
+        player.close();
+    }
+
+    /**
+     * 一個播放器每次重新開啟音訊都需要300毫秒時，同一個工作執行緒上的其他播放器仍然不會欠載。
+     */
+    private static void slowReopenDoesNotBlock() throws Exception {
+        final AudioScheduler scheduler = new AudioScheduler(1, Thread.MAX_PRIORITY, LatencyConfig.WaitStrategy.PARK, 1000000);
+        final LatencyConfig latencyConfig = new LatencyConfig();
+        latencyConfig.setScheduler(scheduler);
+        final int[] opens = new int[1];
+        final StreamingPlayer slow = new StreamingPlayer(url, latencyConfig, new NullSink(true), new StreamingPlayer.Source() {
+            @Override
+            public AudioInputStream openStream() throws Exception {
+                if (opens[0]++ > 0) {
+                    Thread.sleep(300);
+                }
+                return AudioSystem.getAudioInputStream(url);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        final NullSink sink = new NullSink(true);
+        final StreamingPlayer other = new StreamingPlayer(url, latencyConfig, sink);
+        slow.setPlayCount(0);
+        other.setPlayCount(0);
+        other.play();
+        slow.play();
+        Thread.sleep(500);
+        for (int i = 0; i < 5; ++i) {
+            slow.setAudioPosition(500000);
+            Thread.sleep(100);
+        }
+        Thread.sleep(1500);
+        check("slow reopen: reopened", true, opens[0] > 2);
+        check("slow reopen: other player underruns", 0L, sink.getUnderruns());
+        check("slow reopen: still playing", true, slow.isPlaying() && other.isPlaying());
+        slow.close();
+        other.close();
+        scheduler.shutdown();
+    }
+
+    /**
+     * 在虛擬時鐘上播放正弦波，由測試直接執行音訊監聽點的分析。有新資料時會發布完整的分析結果；沒有新資料時，最近一次的結果會被保留，不會變成靜音。
+     */
+    private static void audioTapSnapshots() {
+        final Scenario s = new Scenario();
+        final AudioTap tap = new AudioTap(1, 1024);
+        final int[] analyzed = new int[1];
+        tap.setListener(t -> ++analyzed[0]);
+        s.player.setPlayCount(0);
+        s.player.addAudioTap(tap);
+        //改由測試執行分析，讓結果不受分析執行緒的時間影響
+        TapAnalyzer.unregister(tap);
+        s.player.play();
+        final float[] spectrum = new float[512];
+        final List<String> wrong = new ArrayList<>();
+        float firstPeak = 0;
+        for (int i = 0; i < 20; ++i) {
+            s.scheduler.advance(SECOND / 10);
+            tap.analyze();
+            final float peak = tap.getPeak(0), rms = tap.getRMS(1);
+            if (i == 0) {
+                firstPeak = peak;
+            }
+            tap.getSpectrum(spectrum);
+            int max = 0;
+            for (int b = 1; b < spectrum.length; ++b) {
+                if (spectrum[b] > spectrum[max]) {
+                    max = b;
+                }
+            }
+            if (peak == 0 || Math.abs(peak - firstPeak) > 0.001f || Math.abs(rms * Math.sqrt(2) - peak) > 0.005 || Math.abs(tap.getBinFrequency(max) - 440) > 44100f / 1024) {
+                wrong.add(i + ": " + peak + "/" + rms + "/" + tap.getBinFrequency(max));
+            }
+            //沒有新資料時不會發布新的結果
+            tap.analyze();
+            if (tap.getPeak(0) != peak || tap.getRMS(1) != rms) {
+                wrong.add(i + ": cleared without new data");
+            }
+        }
+        check("audio tap: channels", 2, tap.getChannels());
+        check("audio tap: analyzed only with new data", 20, analyzed[0]);
+        check("audio tap: complete levels and spectrum", Collections.emptyList(), wrong);
+        s.player.close();
+    }
+
+    /**
+     * 使用前後都預先解碼的策略時，播放頭後方的區塊也會被預先解碼，往回拖曳時不需要等待解碼。預先解碼失敗時會被計算。預先解碼在讀取的執行緒中同步執行，讓結果不受執行緒的時間影響。
+     */
+    private static void chunkCacheBackward() throws Exception {
+        final File copy = File.createTempFile("MagicAudioPlayer-", ".wav");
+        copy.deleteOnExit();
+        Files.copy(new File(url.toURI()).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        final byte[] data = new byte[4];
+        try (final ChunkCache cache = new ChunkCache(copy.toURI().toURL(), 2048, 16, DecodeAheadPolicy.around(2, 2))) {
+            cache.setExecutor(Runnable::run);
+            try (final AudioInputStream stream = cache.openStream()) {
+                stream.skip(10 * 2048 * 4L);
+                stream.read(data);
+            }
+            cache.resetStatistics();
+            for (int chunk = 8; chunk <= 12; ++chunk) {
+                try (final AudioInputStream stream = cache.openStream()) {
+                    stream.skip(chunk * 2048 * 4L);
+                    stream.read(data);
+                }
+            }
+            check("chunk cache backward: chunks around the playhead hit", 0L, cache.getMissCount());
+            check("chunk cache backward: no failures", 0L, cache.getPrefetchFailureCount());
+        }
+        try (final ChunkCache cache = new ChunkCache(copy.toURI().toURL(), 2048, 16, DecodeAheadPolicy.around(2, 2))) {
+            cache.setExecutor(Runnable::run);
+            //檔案被刪除之後，解碼器已經越過的區塊無法再被解碼
+            check("chunk cache failure: file deleted", true, copy.delete());
+            try (final AudioInputStream stream = cache.openStream()) {
+                stream.skip(10 * 2048 * 4L);
+                stream.read(data);
+            }
+            check("chunk cache failure: counted", 1L, cache.getPrefetchFailureCount());
+        }
+    }
+
+    /**
+     * 確認結果是否符合預期，並輸出結果。
+     *
+     * @param name 傳入檢查的名稱
+     * @param expected 傳入預期的結果
+     * @param actual 傳入實際的結果
+     */
+    private static void check(final String name, final Object expected, final Object actual) {
+        if (expected.equals(actual)) {
+            System.out.println("PASS  ".concat(name));
+        } else {
+            ++failures;
+            System.out.println("FAIL  ".concat(name).concat(": expected ").concat(String.valueOf(expected)).concat(" but was ").concat(String.valueOf(actual)));
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.lang.ref.Cleaner;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 存活中播放器的註冊表。</p>
+ *
+ * <p>
+ * 內建的播放器在建立時會被註冊，並在close時被移除。如果播放器沒有被關閉就變得無法存取，Cleaner會釋放它所使用的音訊線路和串流，並將它記錄為洩漏，同時通知洩漏的監聽者。</p>
+ *
+ * @author Magic Len
+ */
+public final class PlayerRegistry {
+
+    // -----類別介面-----
+    /**
+     * 播放器洩漏的監聽者。
+     */
+    public static interface LeakListener {
+
+        /**
+         * 當沒有被關閉的播放器被回收時，會在Cleaner的執行緒中被呼叫。
+         *
+         * @param playerType 傳入播放器的類別名稱
+         * @param source 傳入播放器的聲音來源
+         * @param ageMillis 傳入播放器從建立到被回收經過的時間(毫秒)
+         */
+        public void leaked(final String playerType, final String source, final long ageMillis);
+    }
+
+    // -----類別類別-----
+    /**
+     * 一個播放器的註冊資料，也是Cleaner的清理動作。它不能參考到播放器本身。
+     */
+    static final class Registration implements Runnable {
+
+        private final String type, source;
+        private final long createdTime = System.currentTimeMillis();
+        private final AutoCloseable[] resources;
+        private volatile boolean closed;
+        private Cleaner.Cleanable cleanable;
+
+        /**
+         * 建構子。
+         *
+         * @param type 傳入播放器的類別名稱
+         * @param source 傳入聲音來源
+         * @param resourceCount 傳入資源的數量
+         */
+        private Registration(final String type, final String source, final int resourceCount) {
+            this.type = type;
+            this.source = source;
+            this.resources = new AutoCloseable[resourceCount];
+        }
+
+        /**
+         * 設定播放器沒被關閉就被回收時要釋放的資源。
+         *
+         * @param index 傳入資源的索引
+         * @param resource 傳入資源
+         */
+        void setResource(final int index, final AutoCloseable resource) {
+            synchronized (resources) {
+                resources[index] = resource;
+            }
+        }
+
+        /**
+         * 播放器已經被關閉，將它從註冊表中移除。
+         */
+        void close() {
+            closed = true;
+            cleanable.clean();
+        }
+
+        /**
+         * 清理動作，只會被執行一次。
+         */
+        @Override
+        public void run() {
+            LIVE_COUNTS.computeIfPresent(type, (k, v) -> {
+                v.decrementAndGet();
+                return v;
+            });
+            if (closed) {
+                CLOSED.increment();
+                return;
+            }
+            LEAKED.increment();
+            synchronized (resources) {
+                for (final AutoCloseable resource : resources) {
+                    if (resource != null) {
+                        try {
+                            resource.close();
+                        } catch (final Exception ex) {
+                            //盡可能地釋放其他資源
+                        }
+                    }
+                }
+            }
+            final LeakListener listener = leakListener;
+            if (listener != null) {
+                listener.leaked(type, source, System.currentTimeMillis() - createdTime);
+            }
+        }
+    }
+
+    // -----類別常數-----
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final ConcurrentHashMap<String, AtomicLong> LIVE_COUNTS = new ConcurrentHashMap<>();
+    private static final LongAdder CREATED = new LongAdder(), CLOSED = new LongAdder(), LEAKED = new LongAdder();
+
+    // -----類別變數-----
+    private static volatile LeakListener leakListener;
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private PlayerRegistry() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 註冊播放器。
+     *
+     * @param player 傳入播放器
+     * @param source 傳入聲音來源
+     * @param resourceCount 傳入播放器沒被關閉就被回收時要釋放的資源數量
+     * @return 傳回註冊資料
+     */
+    static Registration register(final Object player, final String source, final int resourceCount) {
+        final String type = player.getClass().getName();
+        final Registration registration = new Registration(type, source, resourceCount);
+        LIVE_COUNTS.computeIfAbsent(type, k -> new AtomicLong()).incrementAndGet();
+        CREATED.increment();
+        registration.cleanable = CLEANER.register(player, registration);
+        return registration;
+    }
+
+    /**
+     * 取得存活中(還沒被關閉也還沒被回收)的播放器數量。
+     *
+     * @return 傳回播放器數量
+     */
+    public static long getLiveCount() {
+        long count = 0;
+        for (final AtomicLong c : LIVE_COUNTS.values()) {
+            count += c.get();
+        }
+        return count;
+    }
+
+    /**
+     * 取得每種播放器存活中的數量。
+     *
+     * @return 傳回播放器的類別名稱與數量
+     */
+    public static Map<String, Long> getLiveCounts() {
+        final HashMap<String, Long> counts = new HashMap<>();
+        for (final Map.Entry<String, AtomicLong> e : LIVE_COUNTS.entrySet()) {
+            counts.put(e.getKey(), e.getValue().get());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * 取得建立過的播放器數量。
+     *
+     * @return 傳回播放器數量
+     */
+    public static long getCreatedCount() {
+        return CREATED.sum();
+    }
+
+    /**
+     * 取得被正常關閉的播放器數量。
+     *
+     * @return 傳回播放器數量
+     */
+    public static long getClosedCount() {
+        return CLOSED.sum();
+    }
+
+    /**
+     * 取得沒有被關閉就被回收的播放器數量。
+     *
+     * @return 傳回播放器數量
+     */
+    public static long getLeakedCount() {
+        return LEAKED.sum();
+    }
+
+    /**
+     * 設定播放器洩漏的監聽者。
+     *
+     * @param listener 傳入監聽者
+     */
+    public static void setLeakListener(final LeakListener listener) {
+        leakListener = listener;
+    }
+
+    /**
+     * 取得播放器洩漏的監聽者。
+     *
+     * @return 傳回監聽者
+     */
+    public static LeakListener getLeakListener() {
+        return leakListener;
+    }
+}
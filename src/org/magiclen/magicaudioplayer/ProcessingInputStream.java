@@ -0,0 +1,167 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * 會將PCM音訊輸入串流解碼成浮點數樣本、經過音訊處理階段，再編碼成目標格式的輸入串流。一次只處理固定數量的音框，因此記憶體用量是固定的。
+ *
+ * @author Magic Len
+ */
+final class ProcessingInputStream extends InputStream {
+
+    //-----物件常數-----
+    private final AudioInputStream source;
+    private final AudioFormat sourceFormat, targetFormat;
+    private final AudioProcessor[] processors;
+    private final int channels, blockFrames;
+    private final byte[] sourceBuffer, targetBuffer;
+    private final float[] samples;
+
+    //-----物件變數-----
+    private int targetOffset, targetLength;
+    private float peak;
+    private long processedBytes;
+    private boolean ended;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param source 傳入PCM格式的音訊輸入串流
+     * @param targetFormat 傳入目標格式，取樣率和聲道數量必須與來源相同
+     * @param processors 傳入音訊處理階段
+     * @param blockFrames 傳入每次處理的音框數量
+     */
+    ProcessingInputStream(final AudioInputStream source, final AudioFormat targetFormat, final List<AudioProcessor> processors, final int blockFrames) {
+        this.source = source;
+        this.sourceFormat = source.getFormat();
+        this.targetFormat = targetFormat;
+        if (!PcmCodec.isSupported(sourceFormat) || !PcmCodec.isSupported(targetFormat)) {
+            throw new RuntimeException("Only PCM formats can be processed!");
+        }
+        if (sourceFormat.getChannels() != targetFormat.getChannels() || sourceFormat.getSampleRate() != targetFormat.getSampleRate()) {
+            throw new RuntimeException("The target format must have the same channels and sample rate as the source format!");
+        }
+        this.processors = processors.toArray(new AudioProcessor[processors.size()]);
+        for (final AudioProcessor processor : this.processors) {
+            processor.reset();
+        }
+        this.channels = sourceFormat.getChannels();
+        this.blockFrames = blockFrames;
+        sourceBuffer = new byte[blockFrames * sourceFormat.getFrameSize()];
+        targetBuffer = new byte[blockFrames * targetFormat.getFrameSize()];
+        samples = new float[blockFrames * channels];
+    }
+
+    // -----物件方法-----
+    /**
+     * 處理下一個資料區塊。
+     *
+     * @return 傳回是否還有資料
+     * @throws IOException 拋出例外
+     */
+    private boolean fill() throws IOException {
+        if (ended) {
+            return false;
+        }
+        final int read;
+        try {
+            read = AudioDecoding.readFully(source, sourceBuffer, 0, sourceBuffer.length);
+        } catch (final IOException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new IOException(ex);
+        }
+        final int frames = read / sourceFormat.getFrameSize();
+        processedBytes += frames * sourceFormat.getFrameSize();
+        if (frames < blockFrames) {
+            ended = true;
+        }
+        if (frames == 0) {
+            return false;
+        }
+        PcmCodec.decode(sourceBuffer, 0, frames, sourceFormat, samples);
+        for (final AudioProcessor processor : processors) {
+            processor.process(samples, frames, channels);
+        }
+        final int n = frames * channels;
+        for (int i = 0; i < n; ++i) {
+            final float a = Math.abs(samples[i]);
+            if (a > peak) {
+                peak = a;
+            }
+        }
+        PcmCodec.encode(samples, frames, targetFormat, targetBuffer, 0);
+        targetOffset = 0;
+        targetLength = frames * targetFormat.getFrameSize();
+        return true;
+    }
+
+    /**
+     * 取得目前為止處理過的樣本的峰值。
+     *
+     * @return 傳回峰值
+     */
+    float getPeak() {
+        return peak;
+    }
+
+    /**
+     * 取得目前為止處理過的來源資料量。
+     *
+     * @return 傳回資料量(位元組)
+     */
+    long getProcessedBytes() {
+        return processedBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (targetLength == 0 && !fill()) {
+            return -1;
+        }
+        --targetLength;
+        return targetBuffer[targetOffset++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (targetLength == 0 && !fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, targetLength);
+        System.arraycopy(targetBuffer, targetOffset, b, off, n);
+        targetOffset += n;
+        targetLength -= n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
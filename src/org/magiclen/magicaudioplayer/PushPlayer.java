@@ -0,0 +1,436 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.nio.ByteBuffer;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * <p>
+ * 推送(push)模式的播放器，用來播放從網路或應用程式即時推送過來的PCM資料，例如對講機或網路電話，不需要先寫入暫存檔案。</p>
+ *
+ * <p>
+ * 推送的資料會先進入自適應的抖動緩衝，緩衝的深度達到目標延遲之後才開始播放。目標延遲會依照資料抵達時間的抖動以及發生過的欠載在設定的範圍內自動調整，緩衝太深時會跳過部分音框來降低延遲。亂序抵達的區塊會被放回正確的位置，錯過播放時間的區塊會被丟棄，遺失的區塊以及欠載會用最後播放的聲音來掩蔽。</p>
+ *
+ * <p>
+ * 播放器不會建立自己的執行緒，而是由AudioScheduler餵資料給輸出端。write方法可以在任何執行緒中呼叫。</p>
+ *
+ * @author Magic Len
+ */
+public class PushPlayer implements AutoCloseable {
+
+    // -----類別常數-----
+    /**
+     * 預設的最小目標延遲(微秒)。
+     */
+    public static final long DEFAULT_MIN_LATENCY_MICROS = 20000;
+    /**
+     * 預設的最大目標延遲(微秒)。
+     */
+    public static final long DEFAULT_MAX_LATENCY_MICROS = 400000;
+    /**
+     * 可以設定的最大目標延遲(微秒)。
+     */
+    public static final long MAX_LATENCY_MICROS = 1000000;
+
+    //-----物件常數-----
+    private final Object lock = new Object(), writeLock = new Object();
+    private final AudioScheduler.Task task = this::service;
+    private final AudioSink sink;
+    private final AudioScheduler scheduler;
+    private final AudioFormat format, outputFormat;
+    private final JitterBuffer jitterBuffer;
+    private final int channels, frameSize, periodFrames;
+    private final float[] samples, input;
+    private final byte[] buffer, inputBuffer;
+    private final PlayerRegistry.Registration registration;
+
+    //-----物件變數-----
+    private volatile float linearGain = 1;
+    private long minLatencyMicros = DEFAULT_MIN_LATENCY_MICROS, maxLatencyMicros = DEFAULT_MAX_LATENCY_MICROS;
+    private boolean scheduled, running, closed;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用低延遲設定輸出到音訊裝置。
+     *
+     * @param format 傳入推送的PCM資料的格式
+     */
+    public PushPlayer(final AudioFormat format) {
+        this(format, LatencyConfig.lowLatency(), new LineSink());
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param format 傳入推送的PCM資料的格式
+     * @param latencyConfig 傳入延遲設定
+     * @param sink 傳入輸出端，不能是已經開啟的輸出端
+     */
+    public PushPlayer(final AudioFormat format, final LatencyConfig latencyConfig, final AudioSink sink) {
+        if (format == null) {
+            throw new RuntimeException("AudioFormat can't be null!");
+        }
+        if (latencyConfig == null) {
+            throw new RuntimeException("LatencyConfig can't be null!");
+        }
+        if (sink == null) {
+            throw new RuntimeException("AudioSink can't be null!");
+        }
+        if (!PcmCodec.isSupported(format)) {
+            throw new RuntimeException("The format of this audio is not supported!");
+        }
+        this.format = format;
+        this.sink = sink;
+        this.scheduler = latencyConfig.getScheduler();
+        channels = format.getChannels();
+        frameSize = format.getFrameSize();
+        periodFrames = latencyConfig.getPeriodFrames();
+        outputFormat = new AudioFormat(format.getSampleRate(), 16, channels, true, false);
+        //最大目標延遲加上兩個週期的餘裕
+        final int capacity = (int) Math.ceil(MAX_LATENCY_MICROS * format.getFrameRate() / 1000000) + periodFrames * 2;
+        jitterBuffer = new JitterBuffer(channels, format.getFrameRate(), capacity, periodFrames);
+        samples = new float[periodFrames * channels];
+        buffer = new byte[periodFrames * outputFormat.getFrameSize()];
+        input = new float[periodFrames * channels];
+        inputBuffer = new byte[periodFrames * frameSize];
+        applyLatency();
+        try {
+            sink.open(outputFormat, latencyConfig.getBufferFrames() * outputFormat.getFrameSize());
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+        registration = PlayerRegistry.register(this, format.toString(), 1);
+        registration.setResource(0, sink::close);
+    }
+
+    // -----物件方法-----
+    /**
+     * 推送一個PCM區塊，區塊接在上一個區塊之後。資料會從緩衝區的position讀取到limit，讀取後position會等於limit。停止播放時推送的區塊會被捨棄。
+     *
+     * @param data 傳入PCM資料，長度必須是音框大小的倍數
+     */
+    public void write(final ByteBuffer data) {
+        write(data, -1);
+    }
+
+    /**
+     * 推送一個PCM區塊，並指定它在串流中的位置，例如由RTP的時間戳記換算而來。位置用來把亂序抵達的區塊放回正確的地方，並判斷區塊是否已經錯過播放時間或是有區塊遺失。資料會從緩衝區的position讀取到limit，讀取後position會等於limit。停止播放時推送的區塊會被捨棄。
+     *
+     * @param data 傳入PCM資料，長度必須是音框大小的倍數
+     * @param framePosition 傳入區塊第一個音框的位置(音框)，負數表示接在上一個區塊之後
+     */
+    public void write(final ByteBuffer data, final long framePosition) {
+        if (data == null) {
+            throw new RuntimeException("Data can't be null!");
+        }
+        if (data.remaining() % frameSize != 0) {
+            throw new RuntimeException("The length of data must be a multiple of the frame size!");
+        }
+        synchronized (writeLock) {
+            if (closed) {
+                throw new RuntimeException("The player has been closed!");
+            }
+            if (!running) {
+                data.position(data.limit());
+                return;
+            }
+            long position = jitterBuffer.arrive(framePosition, data.remaining() / frameSize, scheduler.nanoTime());
+            while (data.hasRemaining()) {
+                final int frames = Math.min(periodFrames, data.remaining() / frameSize);
+                data.get(inputBuffer, 0, frames * frameSize);
+                PcmCodec.decode(inputBuffer, 0, frames, format, input);
+                jitterBuffer.put(input, frames, position);
+                position += frames;
+            }
+        }
+    }
+
+    /**
+     * 開始播放。在緩衝的深度達到目標延遲之前會輸出靜音。
+     */
+    public void start() {
+        synchronized (writeLock) {
+            synchronized (lock) {
+                if (closed) {
+                    throw new RuntimeException("The player has been closed!");
+                }
+                if (running) {
+                    return;
+                }
+                running = true;
+                sink.start();
+                if (!scheduled) {
+                    scheduled = true;
+                    scheduler.add(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止播放，並捨棄所有已經緩衝的資料。統計資料會被保留。停止之後推送的區塊也會被捨棄，直到再次開始播放。
+     */
+    public void stop() {
+        synchronized (writeLock) {
+            synchronized (lock) {
+                if (!running) {
+                    return;
+                }
+                running = false;
+                sink.stop();
+                sink.flush();
+                jitterBuffer.reset();
+            }
+        }
+    }
+
+    /**
+     * 判斷是否已經開始播放。
+     *
+     * @return 傳回是否已經開始播放
+     */
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * 排程器的工作，從抖動緩衝讀取資料並寫入到輸出端，直到輸出端的緩衝滿了為止。
+     *
+     * @return 傳回距離下一次需要被服務的時間(奈秒)，停止或關閉之後傳回-1
+     */
+    private long service() {
+        synchronized (lock) {
+            int budget = sink.getBufferSize();
+            while (budget > 0) {
+                if (!running || closed) {
+                    scheduled = false;
+                    return -1;
+                }
+                final int available = sink.available();
+                if (available < buffer.length) {
+                    //等到輸出端空出半個週期的空間再回來
+                    return (long) ((buffer.length - available) / outputFormat.getFrameSize() * 1e9 / outputFormat.getFrameRate() / 2);
+                }
+                jitterBuffer.read(samples, scheduler.nanoTime());
+                final float g = linearGain;
+                for (int i = 0; i < samples.length; ++i) {
+                    samples[i] = Math.max(-1, Math.min(1, samples[i] * g));
+                }
+                PcmCodec.encode(samples, periodFrames, outputFormat, buffer, 0);
+                sink.write(buffer, 0, buffer.length);
+                budget -= buffer.length;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * 將目標延遲的範圍套用到抖動緩衝。
+     */
+    private void applyLatency() {
+        final float rate = format.getFrameRate();
+        jitterBuffer.setTargetRange((int) (minLatencyMicros * rate / 1000000), (int) (maxLatencyMicros * rate / 1000000));
+    }
+
+    /**
+     * 設定目標延遲的範圍。目標延遲會依照資料抵達時間的抖動在範圍內自動調整。
+     *
+     * @param minMicros 傳入最小的目標延遲(微秒)
+     * @param maxMicros 傳入最大的目標延遲(微秒)，不能超過MAX_LATENCY_MICROS
+     */
+    public void setTargetLatency(final long minMicros, final long maxMicros) {
+        if (minMicros < 0 || maxMicros < minMicros) {
+            throw new RuntimeException("MaxMicros must be at least minMicros, and minMicros must not be negative!");
+        }
+        if (maxMicros > MAX_LATENCY_MICROS) {
+            throw new RuntimeException("MaxMicros must be at most " + MAX_LATENCY_MICROS + "!");
+        }
+        synchronized (writeLock) {
+            this.minLatencyMicros = minMicros;
+            this.maxLatencyMicros = maxMicros;
+            applyLatency();
+        }
+    }
+
+    /**
+     * 取得目前的目標延遲。
+     *
+     * @return 傳回目標延遲(微秒)
+     */
+    public long getTargetLatencyMicros() {
+        return AudioDecoding.framesToMicros(jitterBuffer.getTargetFrames(), format);
+    }
+
+    /**
+     * 取得抖動緩衝目前的深度。
+     *
+     * @return 傳回深度(音框)
+     */
+    public int getBufferDepthFrames() {
+        return jitterBuffer.getDepthFrames();
+    }
+
+    /**
+     * 取得抖動緩衝目前的深度。
+     *
+     * @return 傳回深度(微秒)
+     */
+    public long getBufferDepthMicros() {
+        return AudioDecoding.framesToMicros(jitterBuffer.getDepthFrames(), format);
+    }
+
+    /**
+     * 取得估計的資料抵達時間的抖動。
+     *
+     * @return 傳回抖動(微秒)
+     */
+    public long getJitterMicros() {
+        return jitterBuffer.getJitterNanos() / 1000;
+    }
+
+    /**
+     * 判斷是否正在緩衝中，也就是還沒開始或是重新開始累積資料，這時會輸出靜音。
+     *
+     * @return 傳回是否正在緩衝中
+     */
+    public boolean isBuffering() {
+        return !jitterBuffer.isPlaying();
+    }
+
+    /**
+     * 取得收到的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    public long getReceivedFrames() {
+        return jitterBuffer.getReceivedFrames();
+    }
+
+    /**
+     * 取得錯過播放時間而被丟棄的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    public long getLateFrames() {
+        return jitterBuffer.getLateFrames();
+    }
+
+    /**
+     * 取得超過抖動緩衝的容量而被丟棄的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    public long getOverflowFrames() {
+        return jitterBuffer.getOverflowFrames();
+    }
+
+    /**
+     * 取得因為區塊遺失或欠載而被掩蔽的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    public long getConcealedFrames() {
+        return jitterBuffer.getConcealedFrames();
+    }
+
+    /**
+     * 取得為了降低延遲而被跳過的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    public long getDroppedFrames() {
+        return jitterBuffer.getDroppedFrames();
+    }
+
+    /**
+     * 取得欠載的次數，也就是播放時資料還沒抵達的週期數量。
+     *
+     * @return 傳回次數
+     */
+    public long getUnderrunCount() {
+        return jitterBuffer.getUnderrunCount();
+    }
+
+    /**
+     * 取得掩蔽太久而重新緩衝的次數。
+     *
+     * @return 傳回次數
+     */
+    public long getRebufferCount() {
+        return jitterBuffer.getRebufferCount();
+    }
+
+    /**
+     * 將所有統計資料歸零。
+     */
+    public void resetStatistics() {
+        jitterBuffer.resetStatistics();
+    }
+
+    /**
+     * 設定線性增益，1表示不改變音量。
+     *
+     * @param gain 傳入線性增益，必須大於等於0
+     */
+    public void setLinearGain(final float gain) {
+        if (!(gain >= 0) || Float.isInfinite(gain)) {
+            throw new RuntimeException("Gain must be a finite number and at least 0!");
+        }
+        this.linearGain = gain;
+    }
+
+    /**
+     * 取得線性增益。
+     *
+     * @return 傳回線性增益
+     */
+    public float getLinearGain() {
+        return linearGain;
+    }
+
+    /**
+     * 取得推送的PCM資料的格式。
+     *
+     * @return 傳回音訊格式
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 關閉播放器，已經緩衝的資料會被捨棄。
+     */
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                running = false;
+            }
+        }
+        jitterBuffer.reset();
+        sink.close();
+        registration.close();
+    }
+}
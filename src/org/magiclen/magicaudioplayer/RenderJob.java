@@ -0,0 +1,183 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.sound.sampled.AudioFileFormat;
+
+/**
+ * 離線轉檔的工作，描述一個來源聲音要如何被處理並輸出成檔案。
+ *
+ * @author Magic Len
+ */
+public class RenderJob {
+
+    //-----物件常數-----
+    private final URL source;
+    private final File target;
+    private final GainProcessor gainProcessor = new GainProcessor();
+    private final ArrayList<AudioProcessor> processors = new ArrayList<>();
+
+    //-----物件變數-----
+    private AudioFileFormat.Type fileType = AudioFileFormat.Type.WAVE;
+    private int sampleSizeInBits = 16;
+    private float normalizationPeak = Float.NaN;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入來源檔案和輸出檔案。
+     *
+     * @param source 傳入來源聲音檔案
+     * @param target 傳入輸出檔案
+     */
+    public RenderJob(final File source, final File target) {
+        try {
+            this.source = source.getAbsoluteFile().toURI().toURL();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+        this.target = target;
+    }
+
+    /**
+     * 建構子，傳入來源URL和輸出檔案。
+     *
+     * @param source 傳入來源聲音URL
+     * @param target 傳入輸出檔案
+     */
+    public RenderJob(final URL source, final File target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得來源聲音URL。
+     *
+     * @return 傳回來源聲音URL
+     */
+    public URL getSource() {
+        return source;
+    }
+
+    /**
+     * 取得輸出檔案。
+     *
+     * @return 傳回輸出檔案
+     */
+    public File getTarget() {
+        return target;
+    }
+
+    /**
+     * 取得增益與聲道平衡的處理階段，它會是第一個處理階段。
+     *
+     * @return 傳回增益與聲道平衡的處理階段
+     */
+    public GainProcessor getGainProcessor() {
+        return gainProcessor;
+    }
+
+    /**
+     * 加入音訊處理階段，處理階段會依照加入的順序被執行。處理階段的物件不應該同時被多個工作使用。
+     *
+     * @param processor 傳入音訊處理階段
+     */
+    public void addProcessor(final AudioProcessor processor) {
+        if (processor == null) {
+            throw new RuntimeException("The processor can't be null!");
+        }
+        processors.add(processor);
+    }
+
+    /**
+     * 取得加入的音訊處理階段。
+     *
+     * @return 傳回音訊處理階段
+     */
+    public List<AudioProcessor> getProcessors() {
+        return Collections.unmodifiableList(processors);
+    }
+
+    /**
+     * 設定輸出檔案的類型。
+     *
+     * @param fileType 傳入檔案類型，例如AudioFileFormat.Type.WAVE
+     */
+    public void setFileType(final AudioFileFormat.Type fileType) {
+        if (fileType == null) {
+            throw new RuntimeException("The file type can't be null!");
+        }
+        this.fileType = fileType;
+    }
+
+    /**
+     * 取得輸出檔案的類型。
+     *
+     * @return 傳回檔案類型
+     */
+    public AudioFileFormat.Type getFileType() {
+        return fileType;
+    }
+
+    /**
+     * 設定輸出的樣本位元數。
+     *
+     * @param sampleSizeInBits 傳入樣本位元數，可以是8、16、24或32
+     */
+    public void setSampleSizeInBits(final int sampleSizeInBits) {
+        if (sampleSizeInBits != 8 && sampleSizeInBits != 16 && sampleSizeInBits != 24 && sampleSizeInBits != 32) {
+            throw new RuntimeException("SampleSizeInBits must be 8, 16, 24 or 32!");
+        }
+        this.sampleSizeInBits = sampleSizeInBits;
+    }
+
+    /**
+     * 取得輸出的樣本位元數。
+     *
+     * @return 傳回樣本位元數
+     */
+    public int getSampleSizeInBits() {
+        return sampleSizeInBits;
+    }
+
+    /**
+     * 設定峰值正規化，處理後的峰值會被調整為指定的dBFS。啟用時來源會被解碼兩次。
+     *
+     * @param peakDB 傳入峰值(dBFS)，必須小於等於0，Float.NaN表示不正規化
+     */
+    public void setNormalizationPeak(final float peakDB) {
+        if (peakDB > 0) {
+            throw new RuntimeException("The normalization peak must be at most 0dBFS!");
+        }
+        this.normalizationPeak = peakDB;
+    }
+
+    /**
+     * 取得峰值正規化的目標。
+     *
+     * @return 傳回峰值(dBFS)，Float.NaN表示不正規化
+     */
+    public float getNormalizationPeak() {
+        return normalizationPeak;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 離線轉檔的結果報告。
+ *
+ * @author Magic Len
+ */
+public class RenderReport {
+
+    //-----物件常數-----
+    private final int jobs;
+    private final long processedBytes, outputBytes, elapsedNanos;
+    private final Map<RenderJob, Exception> failures;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param jobs 傳入工作數量
+     * @param processedBytes 傳入解碼後被處理的PCM資料量(位元組)
+     * @param outputBytes 傳入輸出檔案的總大小(位元組)
+     * @param elapsedNanos 傳入經過的時間(奈秒)
+     * @param failures 傳入失敗的工作與例外
+     */
+    RenderReport(final int jobs, final long processedBytes, final long outputBytes, final long elapsedNanos, final Map<RenderJob, Exception> failures) {
+        this.jobs = jobs;
+        this.processedBytes = processedBytes;
+        this.outputBytes = outputBytes;
+        this.elapsedNanos = elapsedNanos;
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得工作數量。
+     *
+     * @return 傳回工作數量
+     */
+    public int getJobCount() {
+        return jobs;
+    }
+
+    /**
+     * 取得成功的工作數量。
+     *
+     * @return 傳回成功的工作數量
+     */
+    public int getSucceededCount() {
+        return jobs - failures.size();
+    }
+
+    /**
+     * 取得失敗的工作與它們的例外。
+     *
+     * @return 傳回失敗的工作與例外
+     */
+    public Map<RenderJob, Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * 取得解碼後被處理的PCM資料量(位元組)。
+     *
+     * @return 傳回資料量
+     */
+    public long getProcessedBytes() {
+        return processedBytes;
+    }
+
+    /**
+     * 取得輸出檔案的總大小(位元組)。
+     *
+     * @return 傳回總大小
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * 取得經過的時間(奈秒)。
+     *
+     * @return 傳回經過的時間
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 取得每秒處理的檔案數量。
+     *
+     * @return 傳回每秒處理的檔案數量
+     */
+    public double getFilesPerSecond() {
+        return elapsedNanos == 0 ? 0 : getSucceededCount() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * 取得每秒處理的PCM資料量(MB)。
+     *
+     * @return 傳回每秒處理的資料量
+     */
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : processedBytes / 1048576.0 * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d files, %.2f files/s, %.2f MB/s", getSucceededCount(), jobs, getFilesPerSecond(), getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 排程器的效能評測。</p>
+ *
+ * <p>
+ * 同時播放大量輸出到NullSink的StreamingPlayer，並輸出執行緒數量與CPU使用時間。在命令列可以傳入兩個參數：第一個參數為播放器的數量，預設為1000；第二個參數為播放的時間(秒)，預設為5。</p>
+ *
+ * @author Magic Len
+ */
+public class SchedulerBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        //建立十秒鐘的440Hz正弦波
+        final AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        final byte[] data = new byte[441000 * 4];
+        for (int i = 0; i < 441000; ++i) {
+            final short sample = (short) (Math.sin(2 * Math.PI * 440 * i / 44100) * 8000);
+            for (int c = 0; c < 2; ++c) {
+                data[i * 4 + c * 2] = (byte) sample;
+                data[i * 4 + c * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+        final File file = File.createTempFile("MagicAudioPlayer-", ".wav");
+        file.deleteOnExit();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, 441000), AudioFileFormat.Type.WAVE, file);
+        final URL url = file.toURI().toURL();
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final int baseThreads = threadBean.getThreadCount();
+        final LatencyConfig latencyConfig = new LatencyConfig();
+        final AudioScheduler scheduler = latencyConfig.getScheduler();
+        System.out.println("Players: ".concat(String.valueOf(count)));
+
+        final StreamingPlayer[] players = new StreamingPlayer[count];
+        for (int i = 0; i < count; ++i) {
+            players[i] = new StreamingPlayer(url, latencyConfig, new NullSink());
+            players[i].setPlayCount(0);
+        }
+        final long cpuStart = threadBean.getCurrentThreadCpuTime();
+        final long processCpuStart = getProcessCpuTime();
+        final long start = System.nanoTime();
+        for (final StreamingPlayer player : players) {
+            player.play();
+        }
+        Thread.sleep(seconds * 1000L);
+        final long elapsed = System.nanoTime() - start;
+        final long processCpu = getProcessCpuTime() - processCpuStart;
+        final long callerCpu = threadBean.getCurrentThreadCpuTime() - cpuStart;
+
+        long underruns = 0;
+        for (final StreamingPlayer player : players) {
+            underruns += ((NullSink) player.getAudioSink()).getUnderruns();
+        }
+        System.out.println("Scheduled tasks: ".concat(String.valueOf(scheduler.getTaskCount())));
+        System.out.println("Scheduler threads: ".concat(String.valueOf(scheduler.getThreadCount())));
+        System.out.println("Extra JVM threads: ".concat(String.valueOf(threadBean.getThreadCount() - baseThreads)));
+        System.out.println("Process CPU: ".concat(String.valueOf((processCpu - callerCpu) / 1000000)).concat("ms in ").concat(String.valueOf(elapsed / 1000000)).concat("ms (").concat(String.format("%.1f", (processCpu - callerCpu) * 100.0 / elapsed)).concat("% of one core)"));
+        System.out.println("Processors: ".concat(String.valueOf(Runtime.getRuntime().availableProcessors())));
+        System.out.println("Underruns: ".concat(String.valueOf(underruns)));
+
+        for (final StreamingPlayer player : players) {
+            player.close();
+        }
+        Thread.sleep(100);
+        System.out.println("Scheduled tasks after close: ".concat(String.valueOf(scheduler.getTaskCount())));
+    }
+
+    /**
+     * 取得整個程序使用的CPU時間(奈秒)，不支援時傳回0。
+     *
+     * @return 傳回CPU時間
+     */
+    private static long getProcessCpuTime() {
+        final java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * 音效庫，依照清單檔案宣告的內容建立並管理大量的播放器。</p>
+ *
+ * <p>
+ * 清單檔案使用UTF-8編碼，每一行為一個聲音，欄位之間使用Tab分隔：第一個欄位為ID，第二個欄位為檔案路徑，相對路徑是相對於清單檔案所在的目錄，其餘欄位為選擇性的「名稱=值」設定，包括volume(0~100，預設為50)、balance(-100~100，預設為0)、playCount(0為無限次，預設為1)與preload(預設為true)。空白行與#開頭的行會被忽略。</p>
+ *
+ * <pre>
+ * # ID	檔案	設定
+ * click	sfx/click.wav	volume=80
+ * bgm	music/title.mp3	playCount=0	preload=false
+ * </pre>
+ *
+ * <p>
+ * 使用preload方法可以平行地預先建立播放器，並限制同時讀取檔案的數量。聲音是以HashMap查詢的，已經載入的聲音在播放時不會存取檔案系統；沒有被預先載入的聲音會在第一次被使用時建立播放器。</p>
+ *
+ * @author Magic Len
+ */
+public class SoundBank {
+
+    // -----類別類別-----
+    /**
+     * 音效庫中的一個聲音。
+     */
+    public static final class Sound {
+
+        //-----物件常數-----
+        private final String id;
+        private final File file;
+        private final int volume, balance, playCount;
+        private final boolean preload;
+
+        //-----物件變數-----
+        private volatile AudioPlayer player;
+        private volatile long loadNanos = -1;
+        private volatile Exception loadError;
+
+        // -----建構子-----
+        /**
+         * 建構子。
+         *
+         * @param id 傳入ID
+         * @param file 傳入檔案
+         * @param volume 傳入預設的音量
+         * @param balance 傳入預設的聲道平衡
+         * @param playCount 傳入預設的播放次數
+         * @param preload 傳入是否預先載入
+         */
+        private Sound(final String id, final File file, final int volume, final int balance, final int playCount, final boolean preload) {
+            this.id = id;
+            this.file = file;
+            this.volume = volume;
+            this.balance = balance;
+            this.playCount = playCount;
+            this.preload = preload;
+        }
+
+        // -----物件方法-----
+        /**
+         * 建立播放器並套用預設值，已經建立的話就直接傳回。
+         *
+         * @return 傳回播放器
+         */
+        private synchronized AudioPlayer load() {
+            AudioPlayer p = player;
+            if (p == null) {
+                final long start = System.nanoTime();
+                try {
+                    p = AudioPlayer.createPlayer(file);
+                } catch (final RuntimeException ex) {
+                    loadError = ex;
+                    throw ex;
+                }
+                p.setVolume(volume);
+                p.setBalance(balance);
+                p.setPlayCount(playCount);
+                loadNanos = System.nanoTime() - start;
+                loadError = null;
+                player = p;
+            }
+            return p;
+        }
+
+        /**
+         * 取得ID。
+         *
+         * @return 傳回ID
+         */
+        public String getID() {
+            return id;
+        }
+
+        /**
+         * 取得檔案。
+         *
+         * @return 傳回檔案
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * 取得預設的音量。
+         *
+         * @return 傳回音量
+         */
+        public int getVolume() {
+            return volume;
+        }
+
+        /**
+         * 取得預設的聲道平衡。
+         *
+         * @return 傳回聲道平衡
+         */
+        public int getBalance() {
+            return balance;
+        }
+
+        /**
+         * 取得預設的播放次數。
+         *
+         * @return 傳回播放次數
+         */
+        public int getPlayCount() {
+            return playCount;
+        }
+
+        /**
+         * 判斷是否會被預先載入。
+         *
+         * @return 傳回是否會被預先載入
+         */
+        public boolean isPreload() {
+            return preload;
+        }
+
+        /**
+         * 判斷播放器是否已經被建立。
+         *
+         * @return 傳回播放器是否已經被建立
+         */
+        public boolean isLoaded() {
+            return player != null;
+        }
+
+        /**
+         * 取得建立播放器所花的時間。
+         *
+         * @return 傳回時間(奈秒)，還沒被建立時傳回-1
+         */
+        public long getLoadNanos() {
+            return loadNanos;
+        }
+
+        /**
+         * 取得最後一次建立播放器失敗的原因。
+         *
+         * @return 傳回例外，沒有失敗時傳回null
+         */
+        public Exception getLoadError() {
+            return loadError;
+        }
+    }
+
+    //-----物件常數-----
+    private final HashMap<String, Sound> sounds;
+    private final List<Sound> soundList;
+
+    // -----建構子-----
+    /**
+     * 建構子，讀取清單檔案。播放器不會在這時被建立。
+     *
+     * @param manifest 傳入清單檔案
+     */
+    public SoundBank(final File manifest) {
+        final File directory = manifest.getAbsoluteFile().getParentFile();
+        final HashMap<String, Sound> map = new HashMap<>();
+        final ArrayList<Sound> list = new ArrayList<>();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final Sound sound = parse(line, lineNumber, directory);
+                if (map.put(sound.id, sound) != null) {
+                    throw new RuntimeException("The ID at line ".concat(String.valueOf(lineNumber)).concat(" of the manifest must be unique!"));
+                }
+                list.add(sound);
+            }
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+        sounds = map;
+        soundList = Collections.unmodifiableList(list);
+    }
+
+    // -----類別方法-----
+    /**
+     * 解析清單檔案中的一行。
+     *
+     * @param line 傳入內容
+     * @param lineNumber 傳入行號
+     * @param directory 傳入清單檔案所在的目錄
+     * @return 傳回聲音
+     */
+    private static Sound parse(final String line, final int lineNumber, final File directory) {
+        final String[] tokens = line.split("\t");
+        if (tokens.length < 2 || tokens[0].isEmpty() || tokens[1].isEmpty()) {
+            throw new RuntimeException("Line ".concat(String.valueOf(lineNumber)).concat(" of the manifest must have an ID and a file!"));
+        }
+        File file = new File(tokens[1]);
+        if (!file.isAbsolute()) {
+            file = new File(directory, tokens[1]);
+        }
+        int volume = 50, balance = 0, playCount = 1;
+        boolean preload = true;
+        for (int i = 2; i < tokens.length; ++i) {
+            final String token = tokens[i].trim();
+            if (token.isEmpty()) {
+                continue;
+            }
+            final int equalIndex = token.indexOf('=');
+            final String name = equalIndex < 0 ? token : token.substring(0, equalIndex).trim();
+            final String value = equalIndex < 0 ? "" : token.substring(equalIndex + 1).trim();
+            try {
+                switch (name) {
+                    case "volume":
+                        volume = Integer.parseInt(value);
+                        if (volume < 0 || volume > 100) {
+                            throw new NumberFormatException();
+                        }
+                        break;
+                    case "balance":
+                        balance = Integer.parseInt(value);
+                        if (balance < -100 || balance > 100) {
+                            throw new NumberFormatException();
+                        }
+                        break;
+                    case "playCount":
+                        playCount = Integer.parseInt(value);
+                        if (playCount < 0) {
+                            throw new NumberFormatException();
+                        }
+                        break;
+                    case "preload":
+                        if (!"true".equals(value) && !"false".equals(value)) {
+                            throw new NumberFormatException();
+                        }
+                        preload = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new RuntimeException("Line ".concat(String.valueOf(lineNumber)).concat(" of the manifest has an unknown setting: ").concat(name));
+                }
+            } catch (final NumberFormatException ex) {
+                throw new RuntimeException("Line ".concat(String.valueOf(lineNumber)).concat(" of the manifest has an invalid value: ").concat(token));
+            }
+        }
+        return new Sound(tokens[0], file, volume, balance, playCount, preload);
+    }
+
+    // -----物件方法-----
+    /**
+     * 平行地預先建立所有要預先載入的聲音的播放器。無法建立的聲音會被略過，失敗的原因可以從Sound.getLoadError方法得知。
+     *
+     * @param parallelism 傳入同時讀取檔案的數量
+     * @return 傳回成功載入的聲音數量，包含原本就已經載入的聲音
+     */
+    public int preload(final int parallelism) {
+        if (parallelism < 1) {
+            throw new RuntimeException("Parallelism must be at least 1!");
+        }
+        final ArrayList<Sound> targets = new ArrayList<>();
+        for (final Sound sound : soundList) {
+            if (sound.preload) {
+                targets.add(sound);
+            }
+        }
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> (int) targets.parallelStream().filter(sound -> {
+                try {
+                    sound.load();
+                    return true;
+                } catch (final RuntimeException ex) {
+                    return false;
+                }
+            }).count()).get();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 取得聲音。
+     *
+     * @param id 傳入ID
+     * @return 傳回聲音
+     */
+    public Sound getSound(final String id) {
+        final Sound sound = sounds.get(id);
+        if (sound == null) {
+            throw new RuntimeException("There is no sound with this ID: ".concat(String.valueOf(id)));
+        }
+        return sound;
+    }
+
+    /**
+     * 取得聲音的播放器，還沒被建立時會建立它。
+     *
+     * @param id 傳入ID
+     * @return 傳回播放器
+     */
+    public AudioPlayer get(final String id) {
+        final Sound sound = getSound(id);
+        final AudioPlayer player = sound.player;
+        return player != null ? player : sound.load();
+    }
+
+    /**
+     * 播放聲音。
+     *
+     * @param id 傳入ID
+     * @return 傳回播放器
+     */
+    public AudioPlayer play(final String id) {
+        final AudioPlayer player = get(id);
+        player.play();
+        return player;
+    }
+
+    /**
+     * 判斷音效庫中是否有這個聲音。
+     *
+     * @param id 傳入ID
+     * @return 傳回是否有這個聲音
+     */
+    public boolean contains(final String id) {
+        return sounds.containsKey(id);
+    }
+
+    /**
+     * 取得所有聲音，依照清單檔案中的順序排列。
+     *
+     * @return 傳回聲音
+     */
+    public Collection<Sound> getSounds() {
+        return soundList;
+    }
+
+    /**
+     * 取得聲音的數量。
+     *
+     * @return 傳回聲音的數量
+     */
+    public int size() {
+        return soundList.size();
+    }
+
+    /**
+     * 關閉所有已經建立的播放器。之後再使用聲音時會重新建立播放器。
+     */
+    public void close() {
+        for (final Sound sound : soundList) {
+            synchronized (sound) {
+                final AudioPlayer player = sound.player;
+                if (player != null) {
+                    sound.player = null;
+                    player.close();
+                }
+            }
+        }
+    }
+}
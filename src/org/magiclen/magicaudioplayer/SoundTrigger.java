@@ -0,0 +1,307 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 播放器的觸發器，用來處理短時間內大量的播放請求，例如由遙測資料驅動的警示音。</p>
+ *
+ * <p>
+ * 在合併時間窗內重複的觸發會被合併成一次；每個觸發器也可以用令牌桶(token bucket)限制每秒觸發的次數。被接受的觸發不會在呼叫者的執行緒中操作播放器，而是交給排程器的事件執行緒處理，而且同一時間最多只會有一個等待處理的觸發，因此大量的觸發只會花費幾個原子操作，不會對線路做任何操作。觸發時如果聲音正在播放，可以選擇重新從頭播放或是忽略這次觸發。</p>
+ *
+ * @author Magic Len
+ */
+public final class SoundTrigger {
+
+    // -----類別列舉-----
+    /**
+     * 聲音正在播放時的處理方式。RESTART：從頭開始播放；IGNORE：忽略這次觸發。
+     */
+    public static enum Mode {
+
+        RESTART, IGNORE;
+    }
+
+    // -----類別常數-----
+    /**
+     * 預設的合併時間窗(奈秒)。
+     */
+    public static final long DEFAULT_COALESCE_WINDOW_NANOS = 10000000L;
+
+    //-----物件常數-----
+    private final AudioPlayer player;
+    private final AudioScheduler scheduler;
+    private final Runnable fire = this::fire;
+    private final AtomicLong lastAccepted = new AtomicLong(Long.MIN_VALUE / 2);
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE / 2);
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final LongAdder triggers = new LongAdder(), played = new LongAdder(), coalesced = new LongAdder(), rateLimited = new LongAdder(), ignored = new LongAdder();
+
+    //-----物件變數-----
+    private volatile Mode mode = Mode.RESTART;
+    private volatile long coalesceWindowNanos = DEFAULT_COALESCE_WINDOW_NANOS;
+    private volatile long intervalNanos, toleranceNanos;
+
+    // -----建構子-----
+    /**
+     * 建構子，使用共用的排程器。
+     *
+     * @param player 傳入播放器
+     */
+    public SoundTrigger(final AudioPlayer player) {
+        this(player, AudioScheduler.getShared());
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param player 傳入播放器
+     * @param scheduler 傳入排程器，播放器會在它的事件執行緒中被操作
+     */
+    public SoundTrigger(final AudioPlayer player, final AudioScheduler scheduler) {
+        if (player == null) {
+            throw new RuntimeException("AudioPlayer can't be null!");
+        }
+        if (scheduler == null) {
+            throw new RuntimeException("AudioScheduler can't be null!");
+        }
+        this.player = player;
+        this.scheduler = scheduler;
+    }
+
+    // -----物件方法-----
+    /**
+     * 觸發播放。這個方法不會等待播放器，可以在任何執行緒中呼叫。
+     *
+     * @return 傳回觸發是否被接受，被合併或是超過速率限制時傳回false
+     */
+    public boolean trigger() {
+        triggers.increment();
+        final long now = scheduler.nanoTime();
+        //合併時間窗內重複的觸發，不需要任何寫入
+        if (now - lastAccepted.get() < coalesceWindowNanos) {
+            coalesced.increment();
+            return false;
+        }
+        //先取得等待處理的位置，已經有等待處理的觸發時直接合併，不會消耗令牌
+        if (!pending.compareAndSet(false, true)) {
+            coalesced.increment();
+            return false;
+        }
+        //同一時間只有取得位置的執行緒會走到這裡，因此時間窗的檢查和令牌的消耗不會和其他觸發交錯
+        if (now - lastAccepted.get() < coalesceWindowNanos) {
+            pending.set(false);
+            coalesced.increment();
+            return false;
+        }
+        //令牌桶，使用理論抵達時間來表示剩下的令牌數量
+        final long interval = intervalNanos;
+        if (interval > 0) {
+            final long tolerance = toleranceNanos;
+            while (true) {
+                final long tat = theoreticalArrival.get();
+                if (tat - now > tolerance) {
+                    pending.set(false);
+                    rateLimited.increment();
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(tat, Math.max(tat, now) + interval)) {
+                    break;
+                }
+            }
+        }
+        lastAccepted.set(now);
+        scheduler.dispatch(fire);
+        return true;
+    }
+
+    /**
+     * 在排程器的事件執行緒中操作播放器。
+     */
+    private void fire() {
+        pending.set(false);
+        try {
+            if (player.isPlaying()) {
+                if (mode == Mode.IGNORE) {
+                    ignored.increment();
+                    return;
+                }
+                player.setAudioPosition(0);
+            }
+            player.play();
+            played.increment();
+        } catch (final RuntimeException ex) {
+            //播放器可能已經被關閉
+            ignored.increment();
+        }
+    }
+
+    /**
+     * 取得播放器。
+     *
+     * @return 傳回播放器
+     */
+    public AudioPlayer getPlayer() {
+        return player;
+    }
+
+    /**
+     * 設定聲音正在播放時的處理方式。預設為RESTART。
+     *
+     * @param mode 傳入處理方式
+     */
+    public void setMode(final Mode mode) {
+        if (mode == null) {
+            throw new RuntimeException("Mode can't be null!");
+        }
+        this.mode = mode;
+    }
+
+    /**
+     * 取得聲音正在播放時的處理方式。
+     *
+     * @return 傳回處理方式
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 設定合併時間窗。被接受的觸發之後，在時間窗內的觸發都會被合併。
+     *
+     * @param nanos 傳入時間窗(奈秒)，0表示只合併還沒被處理的觸發
+     */
+    public void setCoalesceWindow(final long nanos) {
+        if (nanos < 0) {
+            throw new RuntimeException("The coalesce window must not be negative!");
+        }
+        this.coalesceWindowNanos = nanos;
+    }
+
+    /**
+     * 取得合併時間窗。
+     *
+     * @return 傳回時間窗(奈秒)
+     */
+    public long getCoalesceWindow() {
+        return coalesceWindowNanos;
+    }
+
+    /**
+     * 設定速率限制。
+     *
+     * @param triggersPerSecond 傳入每秒最多接受的觸發次數，0表示不限制
+     * @param burst 傳入可以連續接受的觸發次數，也就是令牌桶的容量
+     */
+    public void setRateLimit(final double triggersPerSecond, final int burst) {
+        if (triggersPerSecond < 0) {
+            throw new RuntimeException("TriggersPerSecond must not be negative!");
+        }
+        if (burst < 1) {
+            throw new RuntimeException("Burst must be at least 1!");
+        }
+        if (triggersPerSecond == 0) {
+            intervalNanos = 0;
+            toleranceNanos = 0;
+        } else {
+            final long interval = Math.max(1, (long) (1000000000L / triggersPerSecond));
+            toleranceNanos = interval * (burst - 1);
+            intervalNanos = interval;
+        }
+        theoreticalArrival.set(Long.MIN_VALUE / 2);
+    }
+
+    /**
+     * 取得每秒最多接受的觸發次數。
+     *
+     * @return 傳回觸發次數，0表示不限制
+     */
+    public double getRateLimit() {
+        final long interval = intervalNanos;
+        return interval == 0 ? 0 : 1000000000.0 / interval;
+    }
+
+    /**
+     * 取得呼叫trigger方法的次數。
+     *
+     * @return 傳回次數
+     */
+    public long getTriggerCount() {
+        return triggers.sum();
+    }
+
+    /**
+     * 取得實際操作播放器的次數。
+     *
+     * @return 傳回次數
+     */
+    public long getPlayedCount() {
+        return played.sum();
+    }
+
+    /**
+     * 取得被合併的觸發次數。
+     *
+     * @return 傳回次數
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 取得因為超過速率限制而被丟棄的觸發次數。
+     *
+     * @return 傳回次數
+     */
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * 取得因為聲音正在播放或是播放器無法使用而被忽略的觸發次數。
+     *
+     * @return 傳回次數
+     */
+    public long getIgnoredCount() {
+        return ignored.sum();
+    }
+
+    /**
+     * 取得被丟棄的觸發次數，包括超過速率限制和被忽略的觸發。
+     *
+     * @return 傳回次數
+     */
+    public long getDroppedCount() {
+        return getRateLimitedCount() + getIgnoredCount();
+    }
+
+    /**
+     * 將所有計數歸零。
+     */
+    public void resetCounters() {
+        triggers.reset();
+        played.reset();
+        coalesced.reset();
+        rateLimited.reset();
+        ignored.reset();
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * <p>
+ * 片段(Sprite)播放器，適合用來播放被打包在同一個聲音檔案中的許多短音效。</p>
+ *
+ * <p>
+ * 聲音檔案只會被解碼一次，之後可以定義許多具名的片段，每次播放片段都會建立一個輕量的聲部(Voice)，所有聲部共用同一份解碼後的資料，並由AudioScheduler混音到同一個輸出端中。同時播放的聲部超過上限時，最早開始播放的聲部會被停止。</p>
+ *
+ * @author Magic Len
+ */
+public class SpritePlayer implements AutoCloseable {
+
+    // -----類別類別-----
+    /**
+     * 具名的片段。
+     */
+    private static final class Segment {
+
+        private final long startFrame, endFrame;
+
+        Segment(final long startFrame, final long endFrame) {
+            this.startFrame = startFrame;
+            this.endFrame = endFrame;
+        }
+    }
+
+    /**
+     * 正在播放的片段。
+     */
+    public static final class Voice {
+
+        private final String name;
+        private final int end;
+        private int position;
+        private volatile float linearGain = 1;
+        private volatile boolean playing = true;
+
+        Voice(final String name, final int start, final int end) {
+            this.name = name;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * 取得片段名稱。
+         *
+         * @return 傳回片段名稱
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 判斷是否正在播放中。
+         *
+         * @return 傳回是否正在播放中
+         */
+        public boolean isPlaying() {
+            return playing;
+        }
+
+        /**
+         * 停止播放，停止後無法再繼續播放。
+         */
+        public void stop() {
+            playing = false;
+        }
+
+        /**
+         * 設定線性增益，1表示不改變音量。
+         *
+         * @param gain 傳入線性增益，必須大於等於0
+         */
+        public void setLinearGain(final float gain) {
+            if (!(gain >= 0) || Float.isInfinite(gain)) {
+                throw new RuntimeException("Gain must be a finite number and at least 0!");
+            }
+            this.linearGain = gain;
+        }
+
+        /**
+         * 取得線性增益。
+         *
+         * @return 傳回線性增益
+         */
+        public float getLinearGain() {
+            return linearGain;
+        }
+    }
+
+    //-----物件常數-----
+    private final Object lock = new Object();
+    private final ConcurrentHashMap<String, Segment> segments = new ConcurrentHashMap<>();
+    private final ArrayList<Voice> voices = new ArrayList<>();
+    private final AudioScheduler.Task task = this::service;
+    private final AudioSink sink;
+    private final AudioScheduler scheduler;
+    private final AudioFormat format, outputFormat;
+    private final float[] samples, mix;
+    private final int channels, frames, periodFrames;
+    private final byte[] buffer;
+    private final PlayerRegistry.Registration registration;
+
+    //-----物件變數-----
+    private int maxVoices = 32;
+    private volatile float linearGain = 1;
+    private boolean scheduled, running, closed;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入檔案，使用低延遲設定輸出到音訊裝置。
+     *
+     * @param file 傳入聲音檔案
+     */
+    public SpritePlayer(final File file) {
+        this(toURL(file));
+    }
+
+    /**
+     * 建構子，傳入URL，使用低延遲設定輸出到音訊裝置。
+     *
+     * @param url 傳入聲音URL
+     */
+    public SpritePlayer(final URL url) {
+        this(url, LatencyConfig.lowLatency(), new LineSink());
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param url 傳入聲音URL
+     * @param latencyConfig 傳入延遲設定
+     * @param sink 傳入輸出端，不能是已經開啟的輸出端
+     */
+    public SpritePlayer(final URL url, final LatencyConfig latencyConfig, final AudioSink sink) {
+        if (latencyConfig == null) {
+            throw new RuntimeException("LatencyConfig can't be null!");
+        }
+        if (sink == null) {
+            throw new RuntimeException("AudioSink can't be null!");
+        }
+        this.sink = sink;
+        this.scheduler = latencyConfig.getScheduler();
+        try (final AudioInputStream audioInputStream = AudioDecoding.open(url)) {
+            format = audioInputStream.getFormat();
+            if (!PcmCodec.isSupported(format)) {
+                throw new RuntimeException("The format of this audio is not supported!");
+            }
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final byte[] b = new byte[65536];
+            int c;
+            while ((c = AudioDecoding.readFully(audioInputStream, b, 0, b.length)) > 0) {
+                baos.write(b, 0, c);
+            }
+            final byte[] data = baos.toByteArray();
+            channels = format.getChannels();
+            frames = data.length / format.getFrameSize();
+            samples = new float[frames * channels];
+            PcmCodec.decode(data, 0, frames, format, samples);
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+        outputFormat = new AudioFormat(format.getSampleRate(), 16, channels, true, false);
+        periodFrames = latencyConfig.getPeriodFrames();
+        mix = new float[periodFrames * channels];
+        buffer = new byte[periodFrames * outputFormat.getFrameSize()];
+        try {
+            sink.open(outputFormat, latencyConfig.getBufferFrames() * outputFormat.getFrameSize());
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+        registration = PlayerRegistry.register(this, url.toString(), 1);
+        registration.setResource(0, sink::close);
+    }
+
+    // -----類別方法-----
+    /**
+     * 將檔案轉成URL。
+     *
+     * @param file 傳入檔案
+     * @return 傳回URL
+     */
+    private static URL toURL(final File file) {
+        try {
+            return file.getAbsoluteFile().toURI().toURL();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 定義片段，相同名稱的片段會被取代。
+     *
+     * @param name 傳入片段名稱
+     * @param startFrame 傳入片段的開始位置(音框)
+     * @param endFrame 傳入片段的結束位置(音框)，不包含這個音框
+     */
+    public void defineSegment(final String name, final long startFrame, final long endFrame) {
+        if (name == null) {
+            throw new RuntimeException("The name can't be null!");
+        }
+        if (startFrame < 0 || endFrame > frames || startFrame >= endFrame) {
+            throw new RuntimeException("The segment must be within the audio and not empty!");
+        }
+        segments.put(name, new Segment(startFrame, endFrame));
+    }
+
+    /**
+     * 使用微秒定義片段，相同名稱的片段會被取代。
+     *
+     * @param name 傳入片段名稱
+     * @param startMicros 傳入片段的開始位置(微秒)
+     * @param endMicros 傳入片段的結束位置(微秒)
+     */
+    public void defineSegmentMicros(final String name, final long startMicros, final long endMicros) {
+        defineSegment(name, AudioDecoding.microsToFrames(startMicros, format), Math.min(frames, AudioDecoding.microsToFrames(endMicros, format)));
+    }
+
+    /**
+     * 移除片段，正在播放的聲部不受影響。
+     *
+     * @param name 傳入片段名稱
+     * @return 傳回片段是否存在
+     */
+    public boolean removeSegment(final String name) {
+        return segments.remove(name) != null;
+    }
+
+    /**
+     * 取得所有片段的名稱。
+     *
+     * @return 傳回片段的名稱
+     */
+    public Set<String> getSegmentNames() {
+        return Collections.unmodifiableSet(segments.keySet());
+    }
+
+    /**
+     * 播放片段。
+     *
+     * @param name 傳入片段名稱
+     * @return 傳回聲部，可以用來停止播放或調整音量
+     */
+    public Voice play(final String name) {
+        final Segment segment = segments.get(name);
+        if (segment == null) {
+            throw new RuntimeException("There is no segment named ".concat(String.valueOf(name)).concat("!"));
+        }
+        final Voice voice = new Voice(name, (int) segment.startFrame, (int) segment.endFrame);
+        synchronized (lock) {
+            if (closed) {
+                throw new RuntimeException("The player has been closed!");
+            }
+            while (voices.size() >= maxVoices) {
+                voices.remove(0).playing = false;
+            }
+            voices.add(voice);
+            if (!running) {
+                running = true;
+                sink.start();
+            }
+            if (!scheduled) {
+                scheduled = true;
+                scheduler.add(task);
+            }
+        }
+        return voice;
+    }
+
+    /**
+     * 停止所有正在播放的聲部。
+     */
+    public void stopAll() {
+        synchronized (lock) {
+            for (final Voice voice : voices) {
+                voice.playing = false;
+            }
+        }
+    }
+
+    /**
+     * 排程器的工作，將所有聲部混音並寫入到輸出端。沒有任何聲部時會停止被排程。
+     *
+     * @return 傳回距離下一次需要被服務的時間(奈秒)，沒有任何聲部時傳回-1
+     */
+    private long service() {
+        synchronized (lock) {
+            while (true) {
+                if (closed) {
+                    scheduled = false;
+                    return -1;
+                }
+                final int available = sink.available();
+                if (available < buffer.length) {
+                    return (long) ((buffer.length - available) / outputFormat.getFrameSize() * 1e9 / outputFormat.getFrameRate() / 2);
+                }
+                if (voices.isEmpty()) {
+                    if (available < sink.getBufferSize()) {
+                        //等待剩下的資料被播放完畢
+                        return (long) ((sink.getBufferSize() - available) / outputFormat.getFrameSize() * 1e9 / outputFormat.getFrameRate());
+                    }
+                    running = false;
+                    sink.stop();
+                    scheduled = false;
+                    return -1;
+                }
+                mix();
+                sink.write(buffer, 0, buffer.length);
+            }
+        }
+    }
+
+    /**
+     * 將所有聲部混音成一個週期的資料。必須在持有鎖的情況下呼叫。
+     */
+    private void mix() {
+        Arrays.fill(mix, 0);
+        for (int v = voices.size() - 1; v >= 0; --v) {
+            final Voice voice = voices.get(v);
+            if (voice.playing) {
+                final int n = Math.min(periodFrames, voice.end - voice.position);
+                final float g = voice.linearGain;
+                for (int i = 0, j = voice.position * channels, len = n * channels; i < len; ++i, ++j) {
+                    mix[i] += samples[j] * g;
+                }
+                voice.position += n;
+                if (voice.position >= voice.end) {
+                    voice.playing = false;
+                }
+            }
+            if (!voice.playing) {
+                voices.remove(v);
+            }
+        }
+        final float g = linearGain;
+        for (int i = 0; i < mix.length; ++i) {
+            mix[i] = Math.max(-1, Math.min(1, mix[i] * g));
+        }
+        PcmCodec.encode(mix, periodFrames, outputFormat, buffer, 0);
+    }
+
+    /**
+     * 取得正在播放的聲部數量。
+     *
+     * @return 傳回聲部數量
+     */
+    public int getVoiceCount() {
+        synchronized (lock) {
+            return voices.size();
+        }
+    }
+
+    /**
+     * 設定同時播放的聲部數量上限。
+     *
+     * @param maxVoices 傳入聲部數量上限
+     */
+    public void setMaxVoices(final int maxVoices) {
+        if (maxVoices < 1) {
+            throw new RuntimeException("MaxVoices must be at least 1!");
+        }
+        synchronized (lock) {
+            this.maxVoices = maxVoices;
+        }
+    }
+
+    /**
+     * 取得同時播放的聲部數量上限。
+     *
+     * @return 傳回聲部數量上限
+     */
+    public int getMaxVoices() {
+        return maxVoices;
+    }
+
+    /**
+     * 設定整體的線性增益，1表示不改變音量。
+     *
+     * @param gain 傳入線性增益，必須大於等於0
+     */
+    public void setLinearGain(final float gain) {
+        if (!(gain >= 0) || Float.isInfinite(gain)) {
+            throw new RuntimeException("Gain must be a finite number and at least 0!");
+        }
+        this.linearGain = gain;
+    }
+
+    /**
+     * 取得整體的線性增益。
+     *
+     * @return 傳回線性增益
+     */
+    public float getLinearGain() {
+        return linearGain;
+    }
+
+    /**
+     * 取得解碼後的音訊格式。
+     *
+     * @return 傳回音訊格式
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 取得音訊的長度(音框)。
+     *
+     * @return 傳回音訊的長度
+     */
+    public long getFrameLength() {
+        return frames;
+    }
+
+    /**
+     * 關閉播放器，所有聲部都會被停止。
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (final Voice voice : voices) {
+                voice.playing = false;
+            }
+            voices.clear();
+        }
+        sink.close();
+        registration.close();
+    }
+}
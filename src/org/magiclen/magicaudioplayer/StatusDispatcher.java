@@ -0,0 +1,281 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * <p>
+ * 播放器狀態改變的分派者，負責呼叫StatusChangedListener以及StatusEvent.Listener。</p>
+ *
+ * <p>
+ * 同步分派時只使用一個事件物件。非同步分派時使用固定數量的事件物件輪流使用，只有在監聽者處理得太慢，所有事件物件都還在等待被分派時才會建立新的事件物件。</p>
+ *
+ * <p>
+ * 分派者也負責喚醒等待狀態改變的執行緒。等待的執行緒會被停放(park)，不會持有任何鎖，狀態改變時才會被喚醒並重新檢查條件。</p>
+ *
+ * @author Magic Len
+ */
+final class StatusDispatcher {
+
+    // -----類別常數-----
+    private static final int SLOTS = 8;
+
+    // -----類別類別-----
+    /**
+     * 等待被非同步分派的事件。
+     */
+    private final class Slot implements Runnable {
+
+        private final StatusEvent event = new StatusEvent();
+        private volatile boolean pending;
+
+        @Override
+        public void run() {
+            try {
+                deliver(event);
+            } finally {
+                pending = false;
+            }
+        }
+    }
+
+    //-----物件常數-----
+    private final AudioPlayer player;
+    private final StatusEvent event = new StatusEvent();
+    private final Slot[] slots = new Slot[SLOTS];
+    private final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+
+    //-----物件變數-----
+    private volatile AudioPlayer.StatusChangedListener statusChangedListener;
+    private volatile StatusEvent.Listener statusEventListener;
+    private int nextSlot;
+    private boolean delivering;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param player 傳入播放器
+     */
+    StatusDispatcher(final AudioPlayer player) {
+        this.player = player;
+        for (int i = 0; i < SLOTS; ++i) {
+            slots[i] = new Slot();
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 呼叫監聽者。
+     *
+     * @param e 傳入事件
+     */
+    private void deliver(final StatusEvent e) {
+        final PlayerEvents.ListenerDispatch dispatchEvent = new PlayerEvents.ListenerDispatch();
+        dispatchEvent.begin();
+        final AudioPlayer.StatusChangedListener l1 = statusChangedListener;
+        if (l1 != null) {
+            l1.statusChanged(e.getBefore(), e.getCurrent());
+        }
+        final StatusEvent.Listener l2 = statusEventListener;
+        if (l2 != null) {
+            l2.statusChanged(e);
+        }
+        dispatchEvent.end(player, e.getCurrent());
+    }
+
+    /**
+     * 判斷是否有任何監聽者。
+     *
+     * @return 傳回是否有任何監聽者
+     */
+    boolean hasListeners() {
+        return statusChangedListener != null || statusEventListener != null;
+    }
+
+    /**
+     * 判斷狀態改變是否需要被分派，也就是有任何監聽者，或是正在記錄狀態改變的JFR事件。
+     *
+     * @return 傳回狀態改變是否需要被分派
+     */
+    boolean isObserved() {
+        return hasListeners() || !waiters.isEmpty() || PlayerEvents.isStatusChangeEnabled();
+    }
+
+    /**
+     * 喚醒所有等待狀態改變的執行緒。
+     */
+    private void signal() {
+        if (!waiters.isEmpty()) {
+            for (final Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * 等待直到條件成立。條件會在每次狀態改變時被重新檢查，因此條件只能依賴會伴隨狀態改變的值。
+     *
+     * @param condition 傳入條件
+     * @param nanos 傳入最長的等待時間(奈秒)，Long.MAX_VALUE表示不限制
+     * @return 傳回條件是否成立，超過等待時間時傳回false
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    boolean await(final BooleanSupplier condition, final long nanos) throws InterruptedException {
+        if (condition == null) {
+            throw new RuntimeException("Condition can't be null!");
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (condition.getAsBoolean()) {
+            return true;
+        }
+        final Thread thread = Thread.currentThread();
+        final boolean timed = nanos != Long.MAX_VALUE;
+        final long deadline = timed ? System.nanoTime() + nanos : 0;
+        //先登記再檢查條件，狀態在兩者之間改變時也會被喚醒
+        waiters.add(thread);
+        try {
+            while (true) {
+                if (condition.getAsBoolean()) {
+                    return true;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (timed) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } finally {
+            waiters.remove(thread);
+        }
+    }
+
+    /**
+     * 在目前的執行緒中分派狀態改變。監聽者是在鎖的外面被呼叫的，處理得很慢的監聽者不會擋住其他執行緒分派事件或喚醒等待的執行緒。
+     *
+     * @param before 傳入改變前的狀態
+     * @param current 傳入改變後的狀態
+     * @param framePosition 傳入位置(音框)
+     * @param positionMicros 傳入位置(微秒)
+     * @param loopIndex 傳入重複播放的索引
+     * @param cause 傳入原因
+     */
+    void fire(final AudioPlayer.Status before, final AudioPlayer.Status current, final long framePosition, final long positionMicros, final int loopIndex, final StatusEvent.Cause cause) {
+        signal();
+        PlayerEvents.statusChange(player, before, current, cause, positionMicros);
+        if (!hasListeners()) {
+            return;
+        }
+        final StatusEvent e;
+        synchronized (this) {
+            //共用的事件物件還在被使用時(監聽者在事件中改變播放器狀態，或是其他執行緒正在分派)，不能覆寫它
+            e = delivering ? new StatusEvent() : event;
+            delivering = true;
+            e.set(player, before, current, framePosition, positionMicros, loopIndex, cause, System.nanoTime());
+        }
+        try {
+            deliver(e);
+        } finally {
+            if (e == event) {
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 在排程器的事件執行緒中分派狀態改變。
+     *
+     * @param scheduler 傳入排程器
+     * @param before 傳入改變前的狀態
+     * @param current 傳入改變後的狀態
+     * @param framePosition 傳入位置(音框)
+     * @param positionMicros 傳入位置(微秒)
+     * @param loopIndex 傳入重複播放的索引
+     * @param cause 傳入原因
+     */
+    void post(final AudioScheduler scheduler, final AudioPlayer.Status before, final AudioPlayer.Status current, final long framePosition, final long positionMicros, final int loopIndex, final StatusEvent.Cause cause) {
+        signal();
+        PlayerEvents.statusChange(player, before, current, cause, positionMicros);
+        if (!hasListeners()) {
+            return;
+        }
+        final Slot slot;
+        synchronized (this) {
+            if (slots[nextSlot].pending) {
+                slot = new Slot();
+            } else {
+                slot = slots[nextSlot];
+                nextSlot = (nextSlot + 1) % SLOTS;
+            }
+            slot.event.set(player, before, current, framePosition, positionMicros, loopIndex, cause, scheduler.nanoTime());
+            slot.pending = true;
+        }
+        scheduler.dispatch(slot);
+    }
+
+    /**
+     * 設定狀態改變後的監聽事件。
+     *
+     * @param listener 傳入狀態改變的監聽事件
+     */
+    void setStatusChangedListener(final AudioPlayer.StatusChangedListener listener) {
+        this.statusChangedListener = listener;
+    }
+
+    /**
+     * 取得狀態改變後的監聽事件。
+     *
+     * @return 傳回狀態改變後的監聽事件
+     */
+    AudioPlayer.StatusChangedListener getStatusChangedListener() {
+        return statusChangedListener;
+    }
+
+    /**
+     * 設定狀態改變事件的監聽者。
+     *
+     * @param listener 傳入監聽者
+     */
+    void setStatusEventListener(final StatusEvent.Listener listener) {
+        this.statusEventListener = listener;
+    }
+
+    /**
+     * 取得狀態改變事件的監聽者。
+     *
+     * @return 傳回監聽者
+     */
+    StatusEvent.Listener getStatusEventListener() {
+        return statusEventListener;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 播放器狀態改變的事件，除了改變前後的狀態之外，還包含了改變當下的位置、重複播放的次數、時間以及原因。</p>
+ *
+ * <p>
+ * 為了避免每次狀態改變都要建立新的物件，事件物件會被重複使用，因此事件只在監聽者被呼叫的期間有效，監聽者不應該保留事件物件。需要保留時請自行複製需要的數值。</p>
+ *
+ * @author Magic Len
+ */
+public final class StatusEvent {
+
+    // -----類別列舉-----
+    /**
+     * 狀態改變的原因。USER：呼叫了播放器的方法；END_OF_MEDIA：播放到結尾；LOOP：播放到結尾之後重新開始播放；AUTO_CLOSE：播放結束後自動關閉；ERROR：發生錯誤。
+     */
+    public static enum Cause {
+
+        USER, END_OF_MEDIA, LOOP, AUTO_CLOSE, ERROR;
+    }
+
+    // -----類別介面-----
+    /**
+     * 狀態改變事件的監聽者。
+     */
+    public static interface Listener {
+
+        /**
+         * 當播放器狀態改變時。
+         *
+         * @param event 傳入事件，只在這個方法執行的期間有效
+         */
+        public void statusChanged(final StatusEvent event);
+    }
+
+    //-----物件變數-----
+    private AudioPlayer player;
+    private AudioPlayer.Status before, current;
+    private long framePosition, positionMicros, nanoTime;
+    private int loopIndex;
+    private Cause cause;
+
+    // -----建構子-----
+    /**
+     * 建構子，只能由播放器建立。
+     */
+    StatusEvent() {
+
+    }
+
+    // -----物件方法-----
+    /**
+     * 設定事件的內容。
+     *
+     * @param player 傳入播放器
+     * @param before 傳入改變前的狀態
+     * @param current 傳入改變後的狀態
+     * @param framePosition 傳入位置(音框)
+     * @param positionMicros 傳入位置(微秒)
+     * @param loopIndex 傳入重複播放的索引
+     * @param cause 傳入原因
+     * @param nanoTime 傳入狀態改變的時間(奈秒)
+     */
+    void set(final AudioPlayer player, final AudioPlayer.Status before, final AudioPlayer.Status current, final long framePosition, final long positionMicros, final int loopIndex, final Cause cause, final long nanoTime) {
+        this.player = player;
+        this.before = before;
+        this.current = current;
+        this.framePosition = framePosition;
+        this.positionMicros = positionMicros;
+        this.loopIndex = loopIndex;
+        this.cause = cause;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * 取得發生事件的播放器。
+     *
+     * @return 傳回播放器
+     */
+    public AudioPlayer getPlayer() {
+        return player;
+    }
+
+    /**
+     * 取得改變前的狀態。
+     *
+     * @return 傳回改變前的狀態
+     */
+    public AudioPlayer.Status getBefore() {
+        return before;
+    }
+
+    /**
+     * 取得改變後，也就是目前的狀態。
+     *
+     * @return 傳回改變後的狀態
+     */
+    public AudioPlayer.Status getCurrent() {
+        return current;
+    }
+
+    /**
+     * 取得狀態改變當下的位置(音框)。
+     *
+     * @return 傳回位置，播放器無法提供時傳回AudioSystem.NOT_SPECIFIED
+     */
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    /**
+     * 取得狀態改變當下的位置(微秒)。
+     *
+     * @return 傳回位置，播放器無法提供時傳回AudioSystem.NOT_SPECIFIED
+     */
+    public long getPositionMicros() {
+        return positionMicros;
+    }
+
+    /**
+     * 取得重複播放的索引，第一次播放為0。
+     *
+     * @return 傳回重複播放的索引
+     */
+    public int getLoopIndex() {
+        return loopIndex;
+    }
+
+    /**
+     * 取得狀態改變當下的System.nanoTime()。使用虛擬時鐘的排程器所分派的事件，傳回的是虛擬時鐘的時間。
+     *
+     * @return 傳回時間(奈秒)
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * 取得狀態改變的原因。
+     *
+     * @return 傳回原因
+     */
+    public Cause getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(before).concat(" -> ").concat(String.valueOf(current)).concat(" (").concat(cause.name()).concat(", loop ").concat(String.valueOf(loopIndex)).concat(", ").concat(positionMicros == AudioSystem.NOT_SPECIFIED ? "?" : String.valueOf(positionMicros)).concat("us)");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * 發布播放器狀態改變的發布者。</p>
+ *
+ * <p>
+ * 建立之後會成為播放器的狀態改變監聽者，原本的監聽者仍然會被呼叫。每個訂閱者都有自己的緩衝，緩衝滿了的訂閱者會錯過新的狀態改變，播放器不會因為訂閱者處理得太慢而被阻塞。播放器關閉之後，所有訂閱者都會收到onComplete。</p>
+ *
+ * <p>
+ * 播放器只有一個StatusChangedListener的位置，發布者會佔用它。建立發布者之後，如果再呼叫播放器的setStatusChangedListener方法，發布者就會和播放器斷開，訂閱者不會再收到任何狀態改變。需要另外的監聽者時，請在建立發布者之前設定，發布者會繼續呼叫它；或是改用setStatusEventListener，它和StatusChangedListener可以同時使用。關閉發布者時，如果播放器的監聽者仍然是發布者，會被還原成原本的監聽者。</p>
+ *
+ * @author Magic Len
+ */
+public class StatusPublisher implements Flow.Publisher<StatusPublisher.Transition>, AutoCloseable {
+
+    // -----類別類別-----
+    /**
+     * 一次狀態改變。
+     */
+    public static final class Transition {
+
+        private final AudioPlayer.Status before, current;
+
+        Transition(final AudioPlayer.Status before, final AudioPlayer.Status current) {
+            this.before = before;
+            this.current = current;
+        }
+
+        /**
+         * 取得改變前的狀態。
+         *
+         * @return 傳回改變前的狀態
+         */
+        public AudioPlayer.Status getBefore() {
+            return before;
+        }
+
+        /**
+         * 取得改變後的狀態。
+         *
+         * @return 傳回改變後的狀態
+         */
+        public AudioPlayer.Status getCurrent() {
+            return current;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(before).concat(" -> ").concat(String.valueOf(current));
+        }
+    }
+
+    //-----物件常數-----
+    private final AudioPlayer player;
+    private final AudioPlayer.StatusChangedListener previousListener, listener;
+    private final SubmissionPublisher<Transition> publisher;
+    private final LongAdder dropped = new LongAdder();
+
+    // -----建構子-----
+    /**
+     * 建構子，使用共用的ForkJoinPool來呼叫訂閱者，每個訂閱者的緩衝大小為Flow.defaultBufferSize()。
+     *
+     * @param player 傳入播放器
+     */
+    public StatusPublisher(final AudioPlayer player) {
+        this(player, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * 建構子。
+     *
+     * @param player 傳入播放器
+     * @param executor 傳入用來呼叫訂閱者的執行器
+     * @param bufferCapacity 傳入每個訂閱者的緩衝大小
+     */
+    public StatusPublisher(final AudioPlayer player, final Executor executor, final int bufferCapacity) {
+        if (player == null) {
+            throw new RuntimeException("The player can't be null!");
+        }
+        this.player = player;
+        publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        previousListener = player.getStatusChangedListener();
+        listener = (before, current) -> {
+            if (previousListener != null) {
+                previousListener.statusChanged(before, current);
+            }
+            publish(before, current);
+        };
+        player.setStatusChangedListener(listener);
+    }
+
+    // -----物件方法-----
+    /**
+     * 發布狀態改變。
+     *
+     * @param before 傳入改變前的狀態
+     * @param current 傳入改變後的狀態
+     */
+    private void publish(final AudioPlayer.Status before, final AudioPlayer.Status current) {
+        if (publisher.isClosed()) {
+            return;
+        }
+        publisher.offer(new Transition(before, current), (subscriber, item) -> {
+            //狀態改變可能同時來自事件執行緒與使用者的執行緒
+            dropped.increment();
+            return false;
+        });
+        if (current == AudioPlayer.Status.CLOSE) {
+            publisher.close();
+        }
+    }
+
+    /**
+     * 加入訂閱者。
+     *
+     * @param subscriber 傳入訂閱者
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super Transition> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    /**
+     * 取得因為訂閱者的緩衝已滿而沒有被傳遞的狀態改變數量。
+     *
+     * @return 傳回數量
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 取得訂閱者的數量。
+     *
+     * @return 傳回訂閱者的數量
+     */
+    public int getSubscriberCount() {
+        return publisher.getNumberOfSubscribers();
+    }
+
+    /**
+     * 關閉發布者，所有訂閱者都會收到onComplete，播放器的監聽者會被還原。
+     */
+    @Override
+    public void close() {
+        if (player.getStatusChangedListener() == listener) {
+            player.setStatusChangedListener(previousListener);
+        }
+        publisher.close();
+    }
+}
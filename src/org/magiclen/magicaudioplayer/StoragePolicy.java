@@ -0,0 +1,461 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 音訊的儲存策略，在載入時將整個被存放在記憶體中的PCM資料轉換成較小的格式。</p>
+ *
+ * <p>
+ * 取樣率比目標高的音訊會被重新取樣(使用加上Blackman窗的sinc低通濾波器，避免頻疊)，取樣位元數比目標多的音訊會被量化成目標的位元數，並加上TPDF抖動(dither)來避免量化失真；所有聲道的內容完全相同的音訊可以被折疊成單聲道。策略只會減少資料量，不會提高取樣率或取樣位元數。每個被轉換的聲音都會留下報告，記錄原本和轉換後的大小。</p>
+ *
+ * <p>
+ * 使用LoadingConfig.setStoragePolicy方法設定之後，TraditionalPlayer和OffHeapSampleStore載入的聲音都會被轉換。</p>
+ *
+ * @author Magic Len
+ */
+public final class StoragePolicy {
+
+    // -----類別常數-----
+    private static final int HALF_TAPS = 16;
+    private static final int CHUNK_FRAMES = 4096;
+    private static final int KERNEL_RESOLUTION = 512;
+
+    // -----類別類別-----
+    /**
+     * 一個聲音的轉換報告。
+     */
+    public static final class Report {
+
+        //-----物件常數-----
+        private final String name;
+        private final AudioFormat originalFormat, storedFormat;
+        private final long originalBytes, storedBytes;
+
+        // -----建構子-----
+        /**
+         * 建構子。
+         *
+         * @param name 傳入聲音的名稱
+         * @param originalFormat 傳入原本的格式
+         * @param storedFormat 傳入轉換後的格式
+         * @param originalBytes 傳入原本的大小
+         * @param storedBytes 傳入轉換後的大小
+         */
+        private Report(final String name, final AudioFormat originalFormat, final AudioFormat storedFormat, final long originalBytes, final long storedBytes) {
+            this.name = name;
+            this.originalFormat = originalFormat;
+            this.storedFormat = storedFormat;
+            this.originalBytes = originalBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        // -----物件方法-----
+        /**
+         * 取得聲音的名稱。
+         *
+         * @return 傳回名稱
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 取得原本的格式。
+         *
+         * @return 傳回音訊格式
+         */
+        public AudioFormat getOriginalFormat() {
+            return originalFormat;
+        }
+
+        /**
+         * 取得轉換後的格式。
+         *
+         * @return 傳回音訊格式
+         */
+        public AudioFormat getStoredFormat() {
+            return storedFormat;
+        }
+
+        /**
+         * 取得原本的大小。
+         *
+         * @return 傳回大小(位元組)
+         */
+        public long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        /**
+         * 取得轉換後的大小。
+         *
+         * @return 傳回大小(位元組)
+         */
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+
+        /**
+         * 取得節省的大小。
+         *
+         * @return 傳回大小(位元組)
+         */
+        public long getSavedBytes() {
+            return originalBytes - storedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s -> %s, %d -> %d bytes", name, originalFormat, storedFormat, originalBytes, storedBytes);
+        }
+    }
+
+    //-----物件常數-----
+    private final float sampleRate;
+    private final int sampleSizeInBits;
+    private final ConcurrentLinkedQueue<Report> reports = new ConcurrentLinkedQueue<>();
+    private final LongAdder originalBytes = new LongAdder(), storedBytes = new LongAdder();
+
+    //-----物件變數-----
+    private volatile boolean foldIdenticalChannels = true, dither = true;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入輸出裝置的格式，例如LineSink的線路格式。
+     *
+     * @param deviceFormat 傳入輸出裝置的格式，只會使用取樣率和取樣位元數
+     */
+    public StoragePolicy(final AudioFormat deviceFormat) {
+        this(deviceFormat.getSampleRate(), deviceFormat.getSampleSizeInBits());
+    }
+
+    /**
+     * 建構子，傳入目標的取樣率和取樣位元數。
+     *
+     * @param sampleRate 傳入目標的取樣率，AudioSystem.NOT_SPECIFIED表示不改變取樣率
+     * @param sampleSizeInBits 傳入目標的取樣位元數，必須是8、16或24，AudioSystem.NOT_SPECIFIED表示不改變取樣位元數
+     */
+    public StoragePolicy(final float sampleRate, final int sampleSizeInBits) {
+        if (sampleRate != AudioSystem.NOT_SPECIFIED && sampleRate <= 0) {
+            throw new RuntimeException("SampleRate must be bigger than 0!");
+        }
+        if (sampleSizeInBits != AudioSystem.NOT_SPECIFIED && sampleSizeInBits != 8 && sampleSizeInBits != 16 && sampleSizeInBits != 24) {
+            throw new RuntimeException("SampleSizeInBits must be 8, 16 or 24!");
+        }
+        this.sampleRate = sampleRate;
+        this.sampleSizeInBits = sampleSizeInBits;
+    }
+
+    // -----類別方法-----
+    /**
+     * 建立轉換成16位元、44.1kHz的儲存策略。
+     *
+     * @return 傳回儲存策略
+     */
+    public static StoragePolicy cd() {
+        return new StoragePolicy(44100, 16);
+    }
+
+    /**
+     * 判斷每個音框中所有聲道的資料是否完全相同。
+     *
+     * @param data 傳入PCM資料
+     * @param length 傳入PCM資料的長度
+     * @param format 傳入音訊格式
+     * @return 傳回所有聲道的資料是否完全相同
+     */
+    private static boolean isChannelsIdentical(final byte[] data, final int length, final AudioFormat format) {
+        final int channels = format.getChannels();
+        if (channels < 2) {
+            return false;
+        }
+        final int frameSize = format.getFrameSize();
+        final int bytesPerSample = frameSize / channels;
+        for (int p = 0; p + frameSize <= length; p += frameSize) {
+            for (int c = 1; c < channels; ++c) {
+                final int q = p + c * bytesPerSample;
+                for (int i = 0; i < bytesPerSample; ++i) {
+                    if (data[p + i] != data[q + i]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 計算Blackman窗的sinc函數。
+     *
+     * @param x 傳入和中心的距離(輸入音框)
+     * @param cutoff 傳入截止頻率(相對於輸入取樣率)
+     * @param halfWidth 傳入窗的半寬(輸入音框)
+     * @return 傳回權重
+     */
+    private static double windowedSinc(final double x, final double cutoff, final double halfWidth) {
+        if (x <= -halfWidth || x >= halfWidth) {
+            return 0;
+        }
+        final double w = 0.42 + 0.5 * Math.cos(Math.PI * x / halfWidth) + 0.08 * Math.cos(2 * Math.PI * x / halfWidth);
+        if (x == 0) {
+            return 2 * cutoff * w;
+        }
+        final double a = 2 * Math.PI * cutoff * x;
+        return Math.sin(a) / (Math.PI * x) * w;
+    }
+
+    // -----物件方法-----
+    /**
+     * 設定是否將所有聲道的內容完全相同的音訊折疊成單聲道。預設為true。
+     *
+     * @param foldIdenticalChannels 傳入是否折疊成單聲道
+     */
+    public void setFoldIdenticalChannels(final boolean foldIdenticalChannels) {
+        this.foldIdenticalChannels = foldIdenticalChannels;
+    }
+
+    /**
+     * 判斷是否將所有聲道的內容完全相同的音訊折疊成單聲道。
+     *
+     * @return 傳回是否折疊成單聲道
+     */
+    public boolean isFoldIdenticalChannels() {
+        return foldIdenticalChannels;
+    }
+
+    /**
+     * 設定減少取樣位元數時是否加上TPDF抖動。預設為true。
+     *
+     * @param dither 傳入是否加上抖動
+     */
+    public void setDither(final boolean dither) {
+        this.dither = dither;
+    }
+
+    /**
+     * 判斷減少取樣位元數時是否加上TPDF抖動。
+     *
+     * @return 傳回是否加上抖動
+     */
+    public boolean isDither() {
+        return dither;
+    }
+
+    /**
+     * 取得目標的取樣率。
+     *
+     * @return 傳回取樣率，AudioSystem.NOT_SPECIFIED表示不改變取樣率
+     */
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 取得目標的取樣位元數。
+     *
+     * @return 傳回取樣位元數，AudioSystem.NOT_SPECIFIED表示不改變取樣位元數
+     */
+    public int getSampleSizeInBits() {
+        return sampleSizeInBits;
+    }
+
+    /**
+     * 計算音訊會被轉換成的格式。
+     *
+     * @param format 傳入原本的格式
+     * @param mono 傳入是否折疊成單聲道
+     * @return 傳回轉換後的格式，不需要轉換時傳回原本的格式
+     */
+    private AudioFormat targetFormat(final AudioFormat format, final boolean mono) {
+        final float rate = sampleRate != AudioSystem.NOT_SPECIFIED && format.getSampleRate() > sampleRate ? sampleRate : format.getSampleRate();
+        final boolean isFloat = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        final int bits;
+        if (sampleSizeInBits == AudioSystem.NOT_SPECIFIED) {
+            bits = isFloat ? 24 : format.getSampleSizeInBits();
+        } else {
+            bits = isFloat ? sampleSizeInBits : Math.min(sampleSizeInBits, format.getSampleSizeInBits());
+        }
+        final int channels = mono ? 1 : format.getChannels();
+        if (rate == format.getSampleRate() && bits == format.getSampleSizeInBits() && channels == format.getChannels() && !isFloat) {
+            return format;
+        }
+        return new AudioFormat(bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED, rate, bits, channels, channels * bits / 8, rate, false);
+    }
+
+    /**
+     * 轉換整個聲音的PCM資料，並留下報告。不支援的格式不會被轉換。
+     *
+     * @param name 傳入聲音的名稱，用於報告
+     * @param block 傳入PCM資料
+     * @return 傳回轉換後的PCM資料，不需要轉換時傳回原本的PCM資料
+     */
+    public PcmBlock apply(final String name, final PcmBlock block) {
+        final AudioFormat format = block.getFormat();
+        PcmBlock result = block;
+        if (PcmCodec.isSupported(format)) {
+            final boolean mono = foldIdenticalChannels && isChannelsIdentical(block.getData(), block.getLength(), format);
+            final AudioFormat target = targetFormat(format, mono);
+            if (target != format) {
+                result = convert(block, target, mono);
+            }
+        }
+        reports.add(new Report(name, format, result.getFormat(), block.getLength(), result.getLength()));
+        originalBytes.add(block.getLength());
+        storedBytes.add(result.getLength());
+        return result;
+    }
+
+    /**
+     * 轉換PCM資料。
+     *
+     * @param block 傳入PCM資料
+     * @param target 傳入轉換後的格式
+     * @param mono 傳入是否只使用第一個聲道
+     * @return 傳回轉換後的PCM資料
+     */
+    private PcmBlock convert(final PcmBlock block, final AudioFormat target, final boolean mono) {
+        final AudioFormat format = block.getFormat();
+        final byte[] data = block.getData();
+        final int inChannels = format.getChannels(), outChannels = target.getChannels();
+        final int inFrameSize = format.getFrameSize(), outFrameSize = target.getFrameSize();
+        final long inFrames = block.getFrames();
+        final double step = (double) format.getSampleRate() / target.getSampleRate();
+        final long outFrames = step == 1 ? inFrames : (long) Math.floor(inFrames / step);
+        if (outFrames * outFrameSize > Integer.MAX_VALUE) {
+            throw new RuntimeException("The converted audio is too long to be stored!");
+        }
+        final byte[] out = new byte[(int) (outFrames * outFrameSize)];
+        //降低取樣率時，截止頻率要低於新的奈奎斯特頻率
+        final double cutoff = 0.5 / step * 0.95;
+        final double halfWidth = HALF_TAPS * step;
+        final int margin = step == 1 ? 0 : (int) Math.ceil(halfWidth);
+        final boolean reduceBits = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding()) || target.getSampleSizeInBits() < format.getSampleSizeInBits();
+        final double lsb = 1.0 / (1L << (target.getSampleSizeInBits() - 1));
+        final boolean addDither = dither && reduceBits;
+        long seed = 0x9E3779B97F4A7C15L ^ block.getLength();
+        final float[] input = new float[((int) Math.ceil(CHUNK_FRAMES * step) + 2 * margin + 2) * inChannels];
+        final float[] output = new float[CHUNK_FRAMES * outChannels];
+        final double[] weights = new double[2 * margin + 2];
+        //預先計算濾波器，每個輸入音框細分成KERNEL_RESOLUTION個位置，使用時再以線性插值求出權重
+        final double[] kernel = new double[step == 1 ? 0 : (int) Math.ceil(halfWidth * KERNEL_RESOLUTION) + 2];
+        for (int i = 0; i < kernel.length; ++i) {
+            kernel[i] = windowedSinc((double) i / KERNEL_RESOLUTION, cutoff, halfWidth);
+        }
+        for (long o = 0; o < outFrames; o += CHUNK_FRAMES) {
+            final int n = (int) Math.min(CHUNK_FRAMES, outFrames - o);
+            //解碼這一段輸出需要的輸入音框
+            final long first = Math.max(0, (long) Math.floor(o * step) - margin);
+            final long last = Math.min(inFrames, (long) Math.floor((o + n - 1) * step) + margin + 1);
+            final int count = (int) (last - first);
+            PcmCodec.decode(data, (int) (first * inFrameSize), count, format, input);
+            for (int i = 0; i < n; ++i) {
+                final double t = (o + i) * step;
+                if (step == 1) {
+                    final int base = (int) ((long) t - first) * inChannels;
+                    for (int c = 0; c < outChannels; ++c) {
+                        output[i * outChannels + c] = input[base + c];
+                    }
+                    continue;
+                }
+                final long from = Math.max(first, (long) Math.ceil(t - halfWidth));
+                final long to = Math.min(last - 1, (long) Math.floor(t + halfWidth));
+                double sum = 0;
+                for (long k = from; k <= to; ++k) {
+                    final double x = Math.abs(k - t) * KERNEL_RESOLUTION;
+                    final int index = (int) x;
+                    final double w = kernel[index] + (kernel[index + 1] - kernel[index]) * (x - index);
+                    weights[(int) (k - from)] = w;
+                    sum += w;
+                }
+                for (int c = 0; c < outChannels; ++c) {
+                    double v = 0;
+                    for (long k = from; k <= to; ++k) {
+                        v += weights[(int) (k - from)] * input[(int) (k - first) * inChannels + c];
+                    }
+                    output[i * outChannels + c] = (float) (sum != 0 ? v / sum : 0);
+                }
+            }
+            if (addDither) {
+                //TPDF抖動：兩個均勻分布相加，範圍為正負1個LSB
+                final int samples = n * outChannels;
+                for (int i = 0; i < samples; ++i) {
+                    seed = seed * 6364136223846793005L + 1442695040888963407L;
+                    final double r1 = (seed >>> 11) * 0x1.0p-53;
+                    seed = seed * 6364136223846793005L + 1442695040888963407L;
+                    final double r2 = (seed >>> 11) * 0x1.0p-53;
+                    output[i] = (float) (output[i] + (r1 - r2) * lsb);
+                }
+            }
+            PcmCodec.encode(output, n, target, out, (int) (o * outFrameSize));
+        }
+        return new PcmBlock(target, out, out.length, 0);
+    }
+
+    /**
+     * 取得所有聲音的轉換報告，依照轉換的順序排列。
+     *
+     * @return 傳回報告
+     */
+    public List<Report> getReports() {
+        return new ArrayList<>(reports);
+    }
+
+    /**
+     * 清除所有轉換報告和累計的大小。
+     */
+    public void clearReports() {
+        reports.clear();
+        originalBytes.reset();
+        storedBytes.reset();
+    }
+
+    /**
+     * 取得所有聲音原本的大小。
+     *
+     * @return 傳回大小(位元組)
+     */
+    public long getTotalOriginalBytes() {
+        return originalBytes.sum();
+    }
+
+    /**
+     * 取得所有聲音轉換後的大小。
+     *
+     * @return 傳回大小(位元組)
+     */
+    public long getTotalStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * 取得所有聲音節省的大小。
+     *
+     * @return 傳回大小(位元組)
+     */
+    public long getTotalSavedBytes() {
+        return getTotalOriginalBytes() - getTotalStoredBytes();
+    }
+}
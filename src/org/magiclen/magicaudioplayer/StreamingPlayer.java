@@ -0,0 +1,1047 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * <p>
+ * 串流的聲音播放器，使用SourceDataLine邊解碼邊播放，不需要將整個音訊載入到記憶體中。</p>
+ *
+ * <p>
+ * 可以使用LatencyConfig來調整緩衝大小、每次寫入的資料量、排程器執行緒的優先權以及等待策略，達到互動用途所需的低延遲。</p>
+ *
+ * <p>
+ * 播放器不會建立自己的執行緒，正在播放的播放器會由AudioScheduler的固定數量執行緒來餵資料，狀態改變的事件也會在排程器的事件執行緒中依序被傳遞。重複播放或改變位置時需要重新開啟並跳轉音訊輸入串流，這會在排程器的背景執行緒中進行，不會阻塞其他播放器。也可以傳入其他的AudioSink，將音訊輸出到SourceDataLine以外的地方。</p>
+ *
+ * @author Magic Len
+ */
+public class StreamingPlayer implements AudioPlayer {
+
+    // -----類別介面-----
+    /**
+     * 音訊來源，用來取代從URL解碼的音訊輸入串流。來源的生命週期由播放器管理，會在播放器被關閉時一起被關閉。
+     */
+    interface Source extends AutoCloseable {
+
+        /**
+         * 開啟新的音訊輸入串流，串流會從開頭開始讀取。
+         *
+         * @return 傳回音訊輸入串流
+         * @throws Exception 拋出例外
+         */
+        AudioInputStream openStream() throws Exception;
+
+        /**
+         * 關閉來源並釋放資源。
+         */
+        @Override
+        void close();
+    }
+
+    //-----物件變數-----
+    private final LatencyConfig latencyConfig;
+    private final AudioSink sink;
+    private final Source source;
+    private final AudioScheduler.Task task = this::service;
+    private final Object lock = new Object();
+    private AudioScheduler scheduler;
+    private URL url;
+    private AudioInputStream audioInputStream;
+    private AudioFormat audioFormat;
+    private int frameSize, periodBytes;
+    private long frameLength;
+    private byte[] buffer;
+    private int pendingOffset, pendingLength;
+    private LineControls lineControls;
+    private GainProcessor softwareGain;
+    private boolean softwareGainEnabled, softwarePanEnabled;
+    private boolean scheduled, draining, primed;
+    private int openGeneration;
+    private float[] samples;
+    private volatile AudioTap[] taps = new AudioTap[0];
+    private final CueList cues = new CueList();
+    private final CueStatistics cueStatistics = new CueStatistics();
+    private volatile int cueGeneration;
+    private volatile long cueFrame;
+    private volatile int cueIteration = 1;
+    private long loopEndFrame = -1;
+    private volatile long writtenFrames;
+    private int playCount = 1, playCountBuffer = 1;
+    private int volume, balance;
+    private float gain, pan, normalizationGain;
+    private volatile Status status = null;
+    private volatile boolean autoClose = false, playing = false, closed = false;
+    private final StatusDispatcher dispatcher = new StatusDispatcher(this);
+    private PlayerRegistry.Registration registration;
+
+    // -----建構子-----
+    /**
+     * 建構子，傳入檔案。
+     *
+     * @param file 傳入聲音檔案
+     */
+    public StreamingPlayer(final File file) {
+        this(file, new LatencyConfig());
+    }
+
+    /**
+     * 建構子，傳入檔案和延遲設定。
+     *
+     * @param file 傳入聲音檔案
+     * @param latencyConfig 傳入延遲設定
+     */
+    public StreamingPlayer(final File file, final LatencyConfig latencyConfig) {
+        this.latencyConfig = latencyConfig;
+        this.sink = new LineSink();
+        this.source = null;
+        try {
+            final URL url = file.getAbsoluteFile().toURI().toURL();
+            init(url);
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    /**
+     * 建構子，傳入URL。
+     *
+     * @param url 傳入聲音URL
+     */
+    public StreamingPlayer(final URL url) {
+        this(url, new LatencyConfig());
+    }
+
+    /**
+     * 建構子，傳入URL和延遲設定。
+     *
+     * @param url 傳入聲音URL
+     * @param latencyConfig 傳入延遲設定
+     */
+    public StreamingPlayer(final URL url, final LatencyConfig latencyConfig) {
+        this(url, latencyConfig, new LineSink());
+    }
+
+    /**
+     * 建構子，傳入URL、延遲設定和輸出端。
+     *
+     * @param url 傳入聲音URL
+     * @param latencyConfig 傳入延遲設定
+     * @param sink 傳入輸出端，不能是已經開啟的輸出端
+     */
+    public StreamingPlayer(final URL url, final LatencyConfig latencyConfig, final AudioSink sink) {
+        this(url, latencyConfig, sink, null);
+    }
+
+    /**
+     * 建構子，傳入URL、延遲設定、輸出端和音訊來源。
+     *
+     * @param url 傳入聲音URL，只用來識別聲音
+     * @param latencyConfig 傳入延遲設定
+     * @param sink 傳入輸出端，不能是已經開啟的輸出端
+     * @param source 傳入音訊來源，如果為null，則從URL解碼音訊。初始化失敗時來源會被關閉
+     */
+    StreamingPlayer(final URL url, final LatencyConfig latencyConfig, final AudioSink sink, final Source source) {
+        this.latencyConfig = latencyConfig;
+        this.sink = sink;
+        this.source = source;
+        try {
+            init(url);
+        } catch (final Exception ex) {
+            if (source != null) {
+                source.close();
+            }
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    /**
+     * 建構子，傳入URL String
+     *
+     * @param str 傳入聲音URL String
+     */
+    public StreamingPlayer(final String str) {
+        this.latencyConfig = new LatencyConfig();
+        this.sink = new LineSink();
+        this.source = null;
+        try {
+            final URL url = URI.create(str).toURL();
+            init(url);
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    // -----物件方法-----
+    /**
+     * 初始化。
+     *
+     * @param url 傳入聲音URL
+     * @throws Exception 拋出例外
+     */
+    private void init(final URL url) throws Exception {
+        if (latencyConfig == null) {
+            throw new RuntimeException("LatencyConfig can't be null!");
+        }
+        if (sink == null) {
+            throw new RuntimeException("AudioSink can't be null!");
+        }
+        final PlayerEvents.Open openEvent = new PlayerEvents.Open();
+        openEvent.begin();
+        this.url = url;
+        scheduler = latencyConfig.getScheduler();
+        //讀取音樂輸入串流
+        try {
+            audioInputStream = openStream();
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+        //進行播放設定
+        audioFormat = audioInputStream.getFormat();
+        frameSize = audioFormat.getFrameSize();
+        frameLength = audioInputStream.getFrameLength();
+        periodBytes = latencyConfig.getPeriodFrames() * frameSize;
+        buffer = new byte[periodBytes];
+        final int bufferSize = latencyConfig.getBufferFrames() * frameSize;
+        try {
+            sink.open(audioFormat, bufferSize);
+        } catch (final Exception ex) {
+            audioInputStream.close();
+            throw ex;
+        }
+        registration = PlayerRegistry.register(this, url.toString(), source != null ? 3 : 2);
+        registration.setResource(0, sink::close);
+        registration.setResource(1, audioInputStream);
+        if (source != null) {
+            registration.setResource(2, source);
+        }
+        lineControls = new LineControls(sink.getLine());
+        if (PcmCodec.isSupported(audioFormat)) {
+            //線路沒有提供增益或聲道平衡的控制時，使用軟體處理
+            softwareGainEnabled = !lineControls.hasGain();
+            softwarePanEnabled = !lineControls.hasPan() && audioFormat.getChannels() == 2;
+            if (softwareGainEnabled || softwarePanEnabled) {
+                softwareGain = new GainProcessor();
+                samples = new float[latencyConfig.getPeriodFrames() * audioFormat.getChannels()];
+            }
+        }
+        changeStatus(Status.OPEN, StatusEvent.Cause.USER);
+        halfPower();
+        balance();
+        openEvent.end(this, url, frameLength == AudioSystem.NOT_SPECIFIED ? -1 : frameLength * frameSize);
+    }
+
+    /**
+     * 改變目前音訊播放器的狀態。監聽事件會在排程器的事件執行緒中被呼叫。
+     *
+     * @param newStatus 傳入新的音訊播放器狀態
+     * @param cause 傳入狀態改變的原因
+     */
+    private void changeStatus(final Status newStatus, final StatusEvent.Cause cause) {
+        final Status preStatus = status;
+        status = newStatus;
+        if (dispatcher.isObserved()) {
+            final long frame = closed ? writtenFrames : Math.max(0, writtenFrames - getQueuedFrames());
+            dispatcher.post(scheduler, preStatus, newStatus, frame, AudioDecoding.framesToMicros(frame, audioFormat), playCountBuffer - 1, cause);
+        }
+    }
+
+    /**
+     * 讓排程器開始服務這個播放器。必須在持有鎖的情況下呼叫。
+     */
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            scheduler.add(task);
+        }
+    }
+
+    /**
+     * 排程器的工作，從音訊輸入串流讀取資料並寫入到輸出端，直到輸出端的緩衝滿了為止。不會等待。
+     *
+     * @return 傳回距離下一次需要被服務的時間(奈秒)，暫停、停止或關閉之後傳回-1
+     */
+    private long service() {
+        synchronized (lock) {
+            if (!playing || closed || audioInputStream == null) {
+                //音訊輸入串流重新開啟完成之後會再被排程
+                scheduled = false;
+                return -1;
+            }
+            try {
+                final int bufferSize = sink.getBufferSize();
+                int budget = bufferSize; //每次最多寫入一個緩衝的資料量，讓非即時的輸出端不會佔住執行緒
+                while (budget > 0) {
+                    if (pendingLength == 0) {
+                        if (draining) {
+                            //等待輸出端中的資料被播放完畢
+                            final int available = sink.available();
+                            if (available < bufferSize) {
+                                return bytesToNanos(bufferSize - available);
+                            }
+                            draining = false;
+                            endOfMedia();
+                            if (!playing) {
+                                scheduled = false;
+                                return -1;
+                            }
+                            continue;
+                        }
+                        pendingOffset = 0;
+                        pendingLength = AudioDecoding.readFully(audioInputStream, buffer, 0, periodBytes);
+                        if (pendingLength == 0) {
+                            if (playCount == 0 || playCountBuffer < playCount) {
+                                //還要重複播放，直接接上下一次的開頭，不需要等待緩衝被播放完畢
+                                ++playCountBuffer;
+                                loopEndFrame = writtenFrames;
+                                reopen(0);
+                                scheduled = false;
+                                return -1;
+                            }
+                            draining = true;
+                            continue;
+                        }
+                        if (softwareGain != null) {
+                            final int frames = pendingLength / frameSize;
+                            PcmCodec.decode(buffer, 0, frames, audioFormat, samples);
+                            softwareGain.process(samples, frames, audioFormat.getChannels());
+                            PcmCodec.encode(samples, frames, audioFormat, buffer, 0);
+                        }
+                    }
+                    final int available = sink.available();
+                    if (primed && available >= bufferSize) {
+                        //已經寫入過的資料在補充之前就被播放完了
+                        PlayerEvents.underrun(this, AudioDecoding.framesToMicros(writtenFrames, audioFormat), bufferSize);
+                    }
+                    final int length = Math.min(pendingLength, available - available % frameSize);
+                    if (length == 0) {
+                        //等到輸出端空出半個週期的空間再回來
+                        return bytesToNanos(Math.min(pendingLength, periodBytes / 2) - available);
+                    }
+                    final int written = sink.write(buffer, pendingOffset, length);
+                    primed = true;
+                    for (final AudioTap tap : taps) {
+                        tap.offer(buffer, pendingOffset, written);
+                    }
+                    if (!cues.isEmpty()) {
+                        fireCues(writtenFrames, written / frameSize, (bufferSize - available) / frameSize, playCountBuffer);
+                    }
+                    pendingOffset += written;
+                    pendingLength -= written;
+                    writtenFrames += written / frameSize;
+                    budget -= written;
+                }
+                return 0;
+            } catch (final Exception ex) {
+                scheduled = false;
+                close(StatusEvent.Cause.ERROR);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 觸發剛寫入到輸出端的區塊中的提示點。提示點的動作會依照它在區塊中的位置以及輸出端中還沒被播放的資料量，在它實際被播放的時間被執行。必須在持有鎖的情況下呼叫。
+     *
+     * @param startFrame 傳入區塊的開始位置(音框)
+     * @param frames 傳入區塊的音框數量
+     * @param queuedFrames 傳入寫入區塊之前，輸出端中還沒被播放的音框數量
+     * @param iteration 傳入區塊屬於第幾次播放
+     */
+    private void fireCues(final long startFrame, final long frames, final long queuedFrames, final int iteration) {
+        final CueList.Snapshot snapshot = cues.snapshot();
+        final long endFrame = startFrame + frames;
+        final long now = scheduler.nanoTime();
+        final int generation = cueGeneration;
+        for (int i = snapshot.ceiling(startFrame); i < snapshot.size() && snapshot.positions[i] < endFrame; ++i) {
+            final long delay = Math.max(0, (long) ((queuedFrames + snapshot.positions[i] - startFrame) * 1e9 / audioFormat.getFrameRate()));
+            final long due = now + delay;
+            final long position = snapshot.positions[i];
+            final Runnable action = snapshot.actions[i];
+            scheduler.schedule(() -> {
+                //暫停、停止、改變位置或關閉之後，還沒被播放的提示點會被取消，暫停的話會在繼續播放時重新排程
+                if (cueGeneration == generation) {
+                    cueFrame = position + 1;
+                    cueIteration = iteration;
+                    cueStatistics.record((scheduler.nanoTime() - due) / 1000);
+                    action.run();
+                }
+            }, delay);
+        }
+    }
+
+    /**
+     * 繼續播放時，重新排程輸出端中還沒被播放的資料裡的提示點。暫停時這些提示點會被取消，而它們的資料不會再經過fireCues方法。必須在持有鎖的情況下呼叫。
+     */
+    private void rearmCues() {
+        final long queued = getQueuedFrames();
+        final long playhead = writtenFrames - queued;
+        if (playhead >= 0 || loopEndFrame < 0) {
+            final long from = cueIteration == playCountBuffer ? cueFrame : 0;
+            if (from < writtenFrames) {
+                fireCues(from, writtenFrames - from, from - playhead, playCountBuffer);
+            }
+        } else {
+            //輸出端中還有上一次播放的結尾
+            final long tailStart = loopEndFrame + playhead;
+            final long from = cueIteration == playCountBuffer - 1 ? Math.max(cueFrame, tailStart) : tailStart;
+            if (from < loopEndFrame) {
+                fireCues(from, loopEndFrame - from, from - tailStart, playCountBuffer - 1);
+            }
+            fireCues(0, writtenFrames, -playhead, playCountBuffer);
+        }
+    }
+
+    /**
+     * 計算播放某個資料量所需的時間。
+     *
+     * @param bytes 傳入資料量(位元組)
+     * @return 傳回時間(奈秒)
+     */
+    private long bytesToNanos(final int bytes) {
+        return Math.max(0, (long) (bytes / frameSize * 1e9 / audioFormat.getFrameRate()));
+    }
+
+    /**
+     * 音訊播放完畢時的處理。必須在持有鎖的情況下呼叫。
+     *
+     * @throws Exception 拋出例外
+     */
+    private void endOfMedia() throws Exception {
+        playing = false;
+        sink.stop();
+        changeStatus(Status.STOP, StatusEvent.Cause.END_OF_MEDIA);
+        playCountBuffer = 1;
+        reposition(0);
+        if (autoClose) {
+            close(StatusEvent.Cause.AUTO_CLOSE);
+        }
+    }
+
+    /**
+     * 捨棄輸出端中的資料，重新開啟音訊輸入串流，並移動到指定的位置。必須在持有鎖的情況下呼叫。
+     *
+     * @param frame 傳入位置(音框)
+     * @throws Exception 拋出例外
+     */
+    private void reposition(final long frame) throws Exception {
+        ++cueGeneration;
+        sink.flush();
+        draining = false;
+        primed = false;
+        reopen(frame);
+        cueFrame = writtenFrames;
+        cueIteration = playCountBuffer;
+        loopEndFrame = -1;
+    }
+
+    /**
+     * 開啟音訊輸入串流。有音訊來源時從來源開啟，否則從URL解碼。
+     *
+     * @return 傳回音訊輸入串流
+     * @throws Exception 拋出例外
+     */
+    private AudioInputStream openStream() throws Exception {
+        return source != null ? source.openStream() : AudioDecoding.open(url);
+    }
+
+    /**
+     * 重新開啟音訊輸入串流，並移動到指定的位置，輸出端中的資料會被保留。開啟與跳轉可能需要解碼或網路傳輸，因此會在排程器的背景執行緒中進行，完成之前播放器不會被服務。必須在持有鎖的情況下呼叫。
+     *
+     * @param frame 傳入位置(音框)
+     */
+    private void reopen(final long frame) {
+        pendingOffset = 0;
+        pendingLength = 0;
+        final AudioInputStream oldStream = audioInputStream;
+        audioInputStream = null;
+        writtenFrames = frame;
+        final int generation = ++openGeneration;
+        scheduler.execute(() -> {
+            closeStream(oldStream);
+            AudioInputStream stream = null;
+            try {
+                stream = openStream();
+                final long skipped = AudioDecoding.skipFully(stream, frame * frameSize);
+                opened(generation, stream, skipped / frameSize);
+            } catch (final Exception ex) {
+                closeStream(stream);
+                synchronized (lock) {
+                    if (generation != openGeneration) {
+                        return;
+                    }
+                }
+                close(StatusEvent.Cause.ERROR);
+            }
+        });
+    }
+
+    /**
+     * 在背景執行緒中重新開啟音訊輸入串流之後，交回給播放器。如果在開啟期間又改變了位置或是被關閉，串流會被捨棄。
+     *
+     * @param generation 傳入開啟時的序號
+     * @param stream 傳入音訊輸入串流
+     * @param frame 傳入串流目前的位置(音框)，超過結尾時會小於要求的位置
+     */
+    private void opened(final int generation, final AudioInputStream stream, final long frame) {
+        synchronized (lock) {
+            if (!closed && generation == openGeneration) {
+                audioInputStream = stream;
+                registration.setResource(1, stream);
+                writtenFrames = frame;
+                if (playing) {
+                    schedule();
+                }
+                return;
+            }
+        }
+        closeStream(stream);
+    }
+
+    /**
+     * 關閉音訊輸入串流，忽略例外。
+     *
+     * @param stream 傳入音訊輸入串流，可以是null
+     */
+    private static void closeStream(final AudioInputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (final Exception ex) {
+                //不需要處理關閉串流時的例外
+            }
+        }
+    }
+
+    /**
+     * 取得輸出端中還沒被播放的音框數量。
+     *
+     * @return 傳回音框數量
+     */
+    private long getQueuedFrames() {
+        return (sink.getBufferSize() - sink.available()) / frameSize;
+    }
+
+    /**
+     * 開始播放音訊，可以回復暫停時的狀態。
+     */
+    @Override
+    public void play() {
+        synchronized (lock) {
+            if (playing || closed) {
+                return;
+            }
+            playing = true;
+            primed = false;
+            sink.start();
+            if (!cues.isEmpty()) {
+                rearmCues();
+            }
+            changeStatus(Status.START, StatusEvent.Cause.USER);
+            schedule();
+        }
+    }
+
+    /**
+     * 判斷是否正在播放中。
+     *
+     * @return 傳回是否正在播放中
+     */
+    @Override
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * 暫停播放音訊。
+     */
+    @Override
+    public void pause() {
+        synchronized (lock) {
+            if (playing) {
+                playing = false;
+                ++cueGeneration;
+                sink.stop();
+                changeStatus(Status.STOP, StatusEvent.Cause.USER);
+            }
+        }
+    }
+
+    /**
+     * 停止播放音訊，下次播放將會重頭開始。
+     */
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            if (playing) {
+                playing = false;
+                sink.stop();
+                playCountBuffer = 1;
+                setAudioPosition(0);
+                changeStatus(Status.STOP, StatusEvent.Cause.USER);
+            } else {
+                playCountBuffer = 1;
+                setAudioPosition(0);
+            }
+        }
+    }
+
+    /**
+     * 設定播放次數，0為無限次播放。
+     *
+     * @param playCount 傳入播放次數
+     */
+    @Override
+    public void setPlayCount(final int playCount) {
+        if (playCount < 0) {
+            throw new RuntimeException("PlayCount must be at least 0!");
+        }
+        this.playCount = playCount;
+    }
+
+    /**
+     * 設定音量，範圍是0~100，數值愈大愈大聲。
+     *
+     * @param volume 傳入音量
+     */
+    @Override
+    public void setVolume(final int volume) {
+        if (volume < 0 || volume > 100) {
+            throw new RuntimeException("Volumn must be at least 0 and at most 100!");
+        }
+        this.volume = volume;
+        this.gain = AudioPlayer.volumeToDB((float) volume);
+        applyGain();
+    }
+
+    /**
+     * 將增益和正規化增益套用到SourceDataLine或是軟體增益上。
+     */
+    private void applyGain() {
+        if (softwareGainEnabled) {
+            softwareGain.setLinearGain(GainTable.dbToLinear(gain + normalizationGain));
+        } else {
+            lineControls.setGain(gain + normalizationGain);
+        }
+    }
+
+    /**
+     * 將聲道平衡套用到SourceDataLine或是軟體增益上。
+     */
+    private void applyPan() {
+        if (softwarePanEnabled) {
+            softwareGain.setPan(pan);
+        } else {
+            lineControls.setPan(pan);
+        }
+    }
+
+    /**
+     * 取得音量。
+     *
+     * @return 傳回音量
+     */
+    @Override
+    public int getVolume() {
+        return volume;
+    }
+
+    /**
+     * 設定增益(dB)，比起setVolume可以更精細地調整音量。
+     *
+     * @param db 傳入增益，Float.NEGATIVE_INFINITY表示靜音
+     */
+    @Override
+    public void setGain(final float db) {
+        if (Float.isNaN(db)) {
+            throw new RuntimeException("Gain can't be NaN!");
+        }
+        this.gain = db;
+        this.volume = GainTable.dbToVolume(db);
+        applyGain();
+    }
+
+    /**
+     * 取得增益(dB)。
+     *
+     * @return 傳回增益
+     */
+    @Override
+    public float getGain() {
+        return gain;
+    }
+
+    /**
+     * 取得目前音訊播放器的狀態。
+     *
+     * @return 傳回狀態
+     */
+    @Override
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * 設定聲道音量的平衡，範圍-100~100，數值愈大愈靠近右邊，0為平衡狀態。
+     *
+     * @param balance 傳入聲道音量的平衡值
+     */
+    @Override
+    public void setBalance(final int balance) {
+        if (balance < -100 || balance > 100) {
+            throw new RuntimeException("Balance must be at least -100 and at most 100!");
+        }
+        this.balance = balance;
+        this.pan = balance / 100.0f;
+        applyPan();
+    }
+
+    /**
+     * 取得聲道音量的平衡值。
+     *
+     * @return 傳回聲道音量的平衡值
+     */
+    @Override
+    public int getBalance() {
+        return balance;
+    }
+
+    /**
+     * 設定聲道平衡，範圍-1~1，數值愈大愈靠近右邊，0為平衡狀態。比起setBalance可以更精細地調整。
+     *
+     * @param pan 傳入聲道平衡
+     */
+    @Override
+    public void setPan(final float pan) {
+        if (!(pan >= -1 && pan <= 1)) {
+            throw new RuntimeException("Pan must be at least -1 and at most 1!");
+        }
+        this.pan = pan;
+        this.balance = Math.round(pan * 100);
+        applyPan();
+    }
+
+    /**
+     * 取得聲道平衡。
+     *
+     * @return 傳回聲道平衡
+     */
+    @Override
+    public float getPan() {
+        return pan;
+    }
+
+    /**
+     * 設定響度正規化的增益，這個增益會與音量疊加。
+     *
+     * @param db 傳入增益(dB)
+     */
+    @Override
+    public void setNormalizationGain(final float db) {
+        if (Float.isNaN(db) || Float.isInfinite(db)) {
+            throw new RuntimeException("The normalization gain must be a finite number!");
+        }
+        this.normalizationGain = db;
+        applyGain();
+    }
+
+    /**
+     * 取得響度正規化的增益。
+     *
+     * @return 傳回增益(dB)
+     */
+    @Override
+    public float getNormalizationGain() {
+        return normalizationGain;
+    }
+
+    /**
+     * 取得音訊的長度(微秒)。
+     *
+     * @return 傳回音訊的長度，無法得知時傳回AudioSystem.NOT_SPECIFIED
+     */
+    @Override
+    public long getAudioLength() {
+        if (frameLength == AudioSystem.NOT_SPECIFIED) {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+        return AudioDecoding.framesToMicros(frameLength, audioFormat);
+    }
+
+    /**
+     * 取得音訊目前的位置(微秒)。
+     *
+     * @return 傳回音訊目前的位置
+     */
+    @Override
+    public long getAudioPosition() {
+        return AudioDecoding.framesToMicros(Math.max(0, writtenFrames - getQueuedFrames()), audioFormat);
+    }
+
+    /**
+     * 設定音訊的位置(微秒)。
+     *
+     * @param position 傳入音訊的位置
+     *
+     */
+    @Override
+    public void setAudioPosition(final long position) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            try {
+                PlayerEvents.seek(this, getAudioPosition(), position);
+                reposition(AudioDecoding.microsToFrames(Math.max(0, position), audioFormat));
+            } catch (final Exception ex) {
+                throw new RuntimeException(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 取得實際的輸出延遲(微秒)，也就是輸出端的緩衝大小所對應的時間。
+     *
+     * @return 傳回輸出延遲
+     */
+    @Override
+    public long getOutputLatency() {
+        return AudioDecoding.framesToMicros(sink.getBufferSize() / frameSize, audioFormat);
+    }
+
+    /**
+     * 加入音訊監聽點，用來取得正在播放的音訊的峰值、RMS值以及頻譜。
+     *
+     * @param tap 傳入音訊監聽點
+     */
+    @Override
+    public void addAudioTap(final AudioTap tap) {
+        tap.attach(audioFormat);
+        synchronized (lock) {
+            final AudioTap[] newTaps = Arrays.copyOf(taps, taps.length + 1);
+            newTaps[taps.length] = tap;
+            taps = newTaps;
+        }
+    }
+
+    /**
+     * 移除音訊監聽點。
+     *
+     * @param tap 傳入音訊監聽點
+     */
+    @Override
+    public void removeAudioTap(final AudioTap tap) {
+        synchronized (lock) {
+            final ArrayList<AudioTap> list = new ArrayList<>(Arrays.asList(taps));
+            if (!list.remove(tap)) {
+                return;
+            }
+            taps = list.toArray(new AudioTap[list.size()]);
+        }
+        tap.detach();
+    }
+
+    /**
+     * 加入提示點，當音訊播放到這個位置時會執行動作。提示點會在寫入輸出端時被找出，並依照它實際被播放的時間在排程器的事件執行緒中被執行，準確度不受週期大小的影響。
+     *
+     * @param frame 傳入位置(音框)
+     * @param action 傳入動作
+     */
+    @Override
+    public void addCuePoint(final long frame, final Runnable action) {
+        cues.add(frame, action);
+    }
+
+    /**
+     * 加入提示點，當音訊播放到這個位置時會執行動作。
+     *
+     * @param micros 傳入位置(微秒)
+     * @param action 傳入動作
+     */
+    @Override
+    public void addCuePointMicros(final long micros, final Runnable action) {
+        cues.add(AudioDecoding.microsToFrames(micros, audioFormat), action);
+    }
+
+    /**
+     * 移除使用某個動作的所有提示點。
+     *
+     * @param action 傳入動作
+     * @return 傳回是否有提示點被移除
+     */
+    @Override
+    public boolean removeCuePoint(final Runnable action) {
+        return cues.remove(action);
+    }
+
+    /**
+     * 移除所有提示點。
+     */
+    @Override
+    public void clearCuePoints() {
+        cues.clear();
+    }
+
+    /**
+     * 取得提示點的準確度統計。
+     *
+     * @return 傳回準確度統計
+     */
+    @Override
+    public CueStatistics getCueStatistics() {
+        return cueStatistics;
+    }
+
+    /**
+     * 取得延遲設定。
+     *
+     * @return 傳回延遲設定
+     */
+    public LatencyConfig getLatencyConfig() {
+        return latencyConfig;
+    }
+
+    /**
+     * 取得輸出端。
+     *
+     * @return 傳回輸出端
+     */
+    public AudioSink getAudioSink() {
+        return sink;
+    }
+
+    /**
+     * 關閉音訊。
+     */
+    @Override
+    public void close() {
+        close(StatusEvent.Cause.USER);
+    }
+
+    /**
+     * 關閉音訊。
+     *
+     * @param cause 傳入關閉的原因
+     */
+    private void close(final StatusEvent.Cause cause) {
+        final AudioInputStream stream;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            playing = false;
+            ++cueGeneration;
+            stream = audioInputStream;
+            audioInputStream = null;
+        }
+        sink.close();
+        for (final AudioTap tap : taps) {
+            tap.detach();
+        }
+        closeStream(stream);
+        if (source != null) {
+            source.close();
+        }
+        registration.close();
+        changeStatus(Status.CLOSE, cause);
+    }
+
+    /**
+     * 設定播放結束後是否自動關閉。
+     *
+     * @param autoClose 傳入播放結束後是否自動關閉
+     */
+    @Override
+    public void setAutoClose(final boolean autoClose) {
+        this.autoClose = autoClose;
+    }
+
+    /**
+     * 取得播放結束後是否自動關閉。
+     *
+     * @return 傳回播放結束後是否自動關閉
+     */
+    @Override
+    public boolean isAutoClose() {
+        return autoClose;
+    }
+
+    /**
+     * 設定狀態改變後的監聽事件。
+     *
+     * @param listener 傳入狀態改變的監聽事件
+     */
+    @Override
+    public void setStatusChangedListener(final StatusChangedListener listener) {
+        dispatcher.setStatusChangedListener(listener);
+    }
+
+    /**
+     * 取得狀態改變後的監聽事件。
+     *
+     * @return 傳回狀態改變後的監聽事件
+     */
+    @Override
+    public StatusChangedListener getStatusChangedListener() {
+        return dispatcher.getStatusChangedListener();
+    }
+
+    /**
+     * 等待直到條件成立。條件會在播放器的狀態改變時被重新檢查，等待的執行緒會被停放(park)，不會持有任何鎖。
+     *
+     * @param condition 傳入條件
+     * @param timeout 傳入最長的等待時間
+     * @param unit 傳入等待時間的單位
+     * @return 傳回條件是否成立，超過等待時間時傳回false
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    @Override
+    public boolean await(final BooleanSupplier condition, final long timeout, final TimeUnit unit) throws InterruptedException {
+        return dispatcher.await(condition, unit.toNanos(timeout));
+    }
+
+    /**
+     * 設定狀態改變事件的監聽者。
+     *
+     * @param listener 傳入監聽者
+     */
+    @Override
+    public void setStatusEventListener(final StatusEvent.Listener listener) {
+        dispatcher.setStatusEventListener(listener);
+    }
+
+    /**
+     * 取得狀態改變事件的監聽者。
+     *
+     * @return 傳回監聽者
+     */
+    @Override
+    public StatusEvent.Listener getStatusEventListener() {
+        return dispatcher.getStatusEventListener();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import java.util.Set;
+
+/**
+ * StreamingPlayer的提供者。
+ *
+ * @author Magic Len
+ */
+final class StreamingPlayerProvider implements AudioPlayerProvider {
+
+    // -----類別常數-----
+    private static final Set<String> FORMATS = TraditionalPlayerProvider.FORMATS;
+
+    // -----物件方法-----
+    /**
+     * 取得提供者的名稱。
+     *
+     * @return 傳回提供者的名稱
+     */
+    @Override
+    public String getName() {
+        return "Streaming";
+    }
+
+    /**
+     * 取得提供者對於某種格式的優先順序。排在TraditionalPlayer之後，當Clip無法使用時(例如音訊太大)會被使用。
+     *
+     * @param format 傳入格式
+     * @return 傳回優先順序
+     */
+    @Override
+    public int getPriority(final String format) {
+        return FORMATS.contains(format) ? 90 : 15;
+    }
+
+    /**
+     * 取得提供者明確支援的格式。
+     *
+     * @return 傳回支援的格式
+     */
+    @Override
+    public Set<String> getSupportedFormats() {
+        return FORMATS;
+    }
+
+    /**
+     * 判斷播放器是否以串流的方式播放。
+     *
+     * @return 傳回true，音訊會邊解碼邊播放
+     */
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    /**
+     * 取得播放器的延遲等級。
+     *
+     * @return 傳回延遲等級
+     */
+    @Override
+    public LatencyClass getLatencyClass() {
+        return LatencyClass.LOW;
+    }
+
+    /**
+     * 建立聲音播放器。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回聲音播放器
+     */
+    @Override
+    public AudioPlayer createPlayer(final URL url) {
+        return new StreamingPlayer(url);
+    }
+}
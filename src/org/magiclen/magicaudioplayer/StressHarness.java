@@ -0,0 +1,404 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.Line;
+
+/**
+ * <p>
+ * 模擬實際使用情況的負載測試，用來得知函式庫可以同時支撐多少播放器。</p>
+ *
+ * <p>
+ * 所有播放器都輸出到即時模式的NullSink：短音效由SpritePlayer混音播放；長串流是重複播放的StreamingPlayer；常駐的聲音是重複播放的OffHeapClipPlayer。執行期間每50毫秒調整一次所有串流與常駐聲音的音量，每100毫秒讓一個串流跳到隨機的位置，每250毫秒重新開始播放一個串流，並在每個串流上放置提示點。</p>
+ *
+ * <p>
+ * TraditionalPlayer和FXPlayer無法輸出到NullSink，只有在指定了裝置播放器的數量時才會加入測試：它們會和長串流一樣重複播放、被自動調整音量並放置提示點，每500毫秒讓其中一個跳到隨機的位置。沒有音訊裝置時會略過TraditionalPlayer，JavaFX不存在或無法啟動時會略過FXPlayer。</p>
+ *
+ * <p>
+ * 結束後輸出每個聲部使用的CPU時間、堆積與堆積外的記憶體、狀態事件從發生到被傳遞的延遲百分位數、提示點的時間誤差以及欠載次數。</p>
+ *
+ * <p>
+ * 在命令列可以傳入五個參數：第一個參數為每秒播放的短音效數量，預設為50；第二個參數為長串流的數量，預設為100；第三個參數為常駐聲音的數量，預設為20；第四個參數為測試的時間(秒)，預設為10；第五個參數為TraditionalPlayer和FXPlayer各自的數量，預設為0，也就是不測試它們。</p>
+ *
+ * @author Magic Len
+ */
+public class StressHarness {
+
+    // -----類別常數-----
+    private static final long TICK = 5000000L;
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    // -----類別變數-----
+    private static final long[] latencies = new long[MAX_SAMPLES];
+    private static final AtomicInteger latencyCount = new AtomicInteger();
+
+    public static void main(final String[] args) throws Exception {
+        final int effectsPerSecond = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        final int streamCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int clipCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        final int deviceCount = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        final URL effectURL = createSine(1, 880);
+        final URL streamURL = createSine(10, 440);
+        final URL clipURL = createSine(2, 660);
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final LatencyConfig latencyConfig = new LatencyConfig();
+        final StatusEvent.Listener listener = e -> record(System.nanoTime() - e.getNanoTime());
+        final List<NullSink> sinks = new ArrayList<>();
+        System.out.println("Effects per second: ".concat(String.valueOf(effectsPerSecond)));
+        System.out.println("Streams: ".concat(String.valueOf(streamCount)));
+        System.out.println("Clips: ".concat(String.valueOf(clipCount)));
+        System.out.println("Device players per backend: ".concat(String.valueOf(deviceCount)));
+        System.out.println("Processors: ".concat(String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        //確認需要音訊裝置或JavaFX的播放器是否能使用，JavaFX的啟動不計入播放器使用的記憶體
+        final boolean traditionalAvailable = deviceCount > 0 && AudioSystem.isLineSupported(new Line.Info(Clip.class));
+        final boolean fxAvailable = deviceCount > 0 && startJavaFX();
+        if (deviceCount > 0 && !traditionalAvailable) {
+            System.out.println("TraditionalPlayer: skipped, no audio device");
+        }
+        if (deviceCount > 0 && !fxAvailable) {
+            System.out.println("FXPlayer: skipped, no JavaFX runtime");
+        }
+
+        //建立播放器，並計算它們使用的記憶體
+        final long heapBefore = usedHeap();
+        final long directBefore = usedDirect();
+        final NullSink spriteSink = new NullSink();
+        sinks.add(spriteSink);
+        final SpritePlayer sprites = new SpritePlayer(effectURL, LatencyConfig.lowLatency(), spriteSink);
+        sprites.defineSegmentMicros("effect", 0, 150000);
+        sprites.setMaxVoices(Math.max(32, effectsPerSecond));
+        final StreamingPlayer[] streams = new StreamingPlayer[streamCount];
+        for (int i = 0; i < streamCount; ++i) {
+            final NullSink sink = new NullSink();
+            sinks.add(sink);
+            streams[i] = new StreamingPlayer(streamURL, latencyConfig, sink);
+            streams[i].setPlayCount(0);
+            streams[i].setStatusEventListener(listener);
+            for (int s = 1; s < 10; ++s) {
+                streams[i].addCuePointMicros(s * 1000000L, () -> {
+                });
+            }
+        }
+        final OffHeapSampleStore store = new OffHeapSampleStore();
+        final OffHeapClipPlayer[] clips = new OffHeapClipPlayer[clipCount];
+        for (int i = 0; i < clipCount; ++i) {
+            final NullSink sink = new NullSink();
+            sinks.add(sink);
+            clips[i] = new OffHeapClipPlayer(clipURL, latencyConfig, sink, store);
+            clips[i].setPlayCount(0);
+            clips[i].setStatusEventListener(listener);
+        }
+        final List<AudioPlayer> devicePlayers = new ArrayList<>();
+        if (traditionalAvailable) {
+            createDevicePlayers("TraditionalPlayer", deviceCount, () -> new TraditionalPlayer(streamURL), listener, devicePlayers);
+        }
+        if (fxAvailable) {
+            createDevicePlayers("FXPlayer", deviceCount, () -> new FXPlayer(streamURL), listener, devicePlayers);
+        }
+        final long heap = usedHeap() - heapBefore;
+        final long direct = usedDirect() - directBefore;
+        final int players = streamCount + clipCount + devicePlayers.size();
+
+        //開始播放
+        final long cpuStart = threadBean.getCurrentThreadCpuTime();
+        final long processCpuStart = getProcessCpuTime();
+        final long start = System.nanoTime();
+        for (final StreamingPlayer stream : streams) {
+            stream.play();
+        }
+        for (final OffHeapClipPlayer clip : clips) {
+            clip.play();
+        }
+        for (final AudioPlayer player : devicePlayers) {
+            player.play();
+        }
+        final Random random = new Random(1);
+        final long duration = seconds * 1000000000L;
+        long next = start, effects = 0, voiceSamples = 0, ticks = 0;
+        double effectCredit = 0;
+        while (next - start < duration) {
+            next += TICK;
+            ++ticks;
+            effectCredit += effectsPerSecond * TICK / 1e9;
+            while (effectCredit >= 1) {
+                sprites.play("effect");
+                effectCredit -= 1;
+                ++effects;
+            }
+            if (ticks % 10 == 0) {
+                //音量自動化
+                final int volume = (int) (60 + 30 * Math.sin(2 * Math.PI * (next - start) / 1e9));
+                for (final StreamingPlayer stream : streams) {
+                    stream.setVolume(volume);
+                }
+                for (final OffHeapClipPlayer clip : clips) {
+                    clip.setVolume(volume);
+                }
+                for (final AudioPlayer player : devicePlayers) {
+                    player.setVolume(volume);
+                }
+            }
+            if (streamCount > 0) {
+                if (ticks % 20 == 0) {
+                    final StreamingPlayer stream = streams[random.nextInt(streamCount)];
+                    stream.setAudioPosition((long) (random.nextDouble() * stream.getAudioLength()));
+                }
+                if (ticks % 50 == 0) {
+                    final StreamingPlayer stream = streams[random.nextInt(streamCount)];
+                    stream.stop();
+                    stream.play();
+                }
+            }
+            if (!devicePlayers.isEmpty() && ticks % 100 == 0) {
+                final AudioPlayer player = devicePlayers.get(random.nextInt(devicePlayers.size()));
+                player.setAudioPosition((long) (random.nextDouble() * player.getAudioLength()));
+            }
+            voiceSamples += sprites.getVoiceCount();
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long driverCpu = threadBean.getCurrentThreadCpuTime() - cpuStart;
+        final long processCpu = getProcessCpuTime() - processCpuStart - driverCpu;
+
+        //統計
+        final double averageVoices = players + (double) voiceSamples / ticks;
+        long underruns = 0;
+        for (final NullSink sink : sinks) {
+            underruns += sink.getUnderruns();
+        }
+        long cues = 0, maxCueError = 0;
+        double cueErrorSum = 0;
+        final List<AudioPlayer> cuePlayers = new ArrayList<>(Arrays.asList(streams));
+        cuePlayers.addAll(devicePlayers);
+        for (final AudioPlayer player : cuePlayers) {
+            final CueStatistics statistics = player.getCueStatistics();
+            if (statistics == null) {
+                continue;
+            }
+            cues += statistics.getCount();
+            cueErrorSum += statistics.getMeanAbsErrorMicros() * statistics.getCount();
+            maxCueError = Math.max(maxCueError, statistics.getMaxAbsErrorMicros());
+        }
+        final int n = Math.min(latencyCount.get(), MAX_SAMPLES);
+        final long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+
+        System.out.println("Effects played: ".concat(String.valueOf(effects)).concat(", average sprite voices: ").concat(String.format("%.1f", (double) voiceSamples / ticks)));
+        System.out.println("Average voices: ".concat(String.format("%.1f", averageVoices)));
+        System.out.println("Process CPU: ".concat(String.valueOf(processCpu / 1000000)).concat("ms in ").concat(String.valueOf(elapsed / 1000000)).concat("ms (").concat(String.format("%.1f", processCpu * 100.0 / elapsed)).concat("% of one core)"));
+        System.out.println("CPU per voice: ".concat(String.format("%.3f", processCpu * 100.0 / elapsed / averageVoices)).concat("% of one core"));
+        System.out.println("Driver CPU (automation): ".concat(String.valueOf(driverCpu / 1000000)).concat("ms"));
+        System.out.println("Heap per player: ".concat(players == 0 ? "-" : String.valueOf(heap / players / 1024).concat("KB")));
+        System.out.println("Off-heap per clip: ".concat(clipCount == 0 ? "-" : String.valueOf(store.getUsedBytes() / clipCount / 1024).concat("KB")).concat(" (direct memory reserved: ").concat(String.valueOf(direct / 1024)).concat("KB)"));
+        System.out.println("Status events: ".concat(String.valueOf(n)).concat(", latency p50/p99/p99.9/max: ").concat(percentile(sorted, 0.5)).concat("/").concat(percentile(sorted, 0.99)).concat("/").concat(percentile(sorted, 0.999)).concat("/").concat(percentile(sorted, 1)).concat("us"));
+        System.out.println("Cues: ".concat(String.valueOf(cues)).concat(", mean/max error: ").concat(String.format("%.0f", cues == 0 ? 0 : cueErrorSum / cues)).concat("/").concat(String.valueOf(maxCueError)).concat("us"));
+        System.out.println("Underruns: ".concat(String.valueOf(underruns)));
+
+        sprites.close();
+        for (final StreamingPlayer stream : streams) {
+            stream.close();
+        }
+        for (final OffHeapClipPlayer clip : clips) {
+            clip.close();
+        }
+        for (final AudioPlayer player : devicePlayers) {
+            player.close();
+        }
+        store.trim();
+        if (fxAvailable) {
+            Class.forName("javafx.application.Platform").getMethod("exit").invoke(null);
+        }
+    }
+
+    /**
+     * 建立需要音訊裝置或JavaFX的播放器，讓它們重複播放並放置提示點。任何一個播放器無法建立時，這個種類的播放器都會被略過。
+     *
+     * @param name 傳入播放器種類的名稱
+     * @param count 傳入播放器的數量
+     * @param factory 傳入建立播放器的方法
+     * @param listener 傳入狀態事件的監聽者
+     * @param players 傳入用來存放播放器的列表
+     */
+    private static void createDevicePlayers(final String name, final int count, final Callable<AudioPlayer> factory, final StatusEvent.Listener listener, final List<AudioPlayer> players) {
+        final List<AudioPlayer> created = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; ++i) {
+                final AudioPlayer player = factory.call();
+                created.add(player);
+                player.setPlayCount(0);
+                player.setStatusEventListener(listener);
+                for (int s = 1; s < 10; ++s) {
+                    player.addCuePointMicros(s * 1000000L, () -> {
+                    });
+                }
+            }
+        } catch (final Exception ex) {
+            for (final AudioPlayer player : created) {
+                player.close();
+            }
+            System.out.println(name.concat(": skipped, ").concat(String.valueOf(ex.getMessage())));
+            return;
+        }
+        players.addAll(created);
+        System.out.println(name.concat(": ").concat(String.valueOf(count)));
+    }
+
+    /**
+     * 啟動JavaFX，使FXPlayer可以被使用。
+     *
+     * @return 傳回JavaFX是否存在並且已經啟動
+     */
+    private static boolean startJavaFX() {
+        try {
+            Class.forName("javafx.scene.media.MediaPlayer", false, StressHarness.class.getClassLoader());
+            final Class<?> platform = Class.forName("javafx.application.Platform");
+            try {
+                platform.getMethod("startup", Runnable.class).invoke(null, (Runnable) () -> {
+                });
+            } catch (final NoSuchMethodException ex) {
+                //JavaFX 8沒有Platform.startup，建立JFXPanel時會啟動JavaFX
+                Class.forName("javafx.embed.swing.JFXPanel").getConstructor().newInstance();
+            } catch (final InvocationTargetException ex) {
+                //已經被啟動過
+                if (!(ex.getCause() instanceof IllegalStateException)) {
+                    throw ex;
+                }
+            }
+            return true;
+        } catch (final Throwable ex) {
+            return false;
+        }
+    }
+
+    /**
+     * 記錄一個狀態事件的延遲。
+     *
+     * @param nanos 傳入延遲(奈秒)
+     */
+    private static void record(final long nanos) {
+        final int i = latencyCount.getAndIncrement();
+        if (i < MAX_SAMPLES) {
+            latencies[i] = nanos;
+        }
+    }
+
+    /**
+     * 取得已經排序的延遲的百分位數。
+     *
+     * @param sorted 傳入已經排序的延遲(奈秒)
+     * @param p 傳入百分位數，範圍0~1
+     * @return 傳回延遲(微秒)的字串，沒有任何延遲時傳回"-"
+     */
+    private static String percentile(final long[] sorted, final double p) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        final int index = Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1);
+        return String.valueOf(sorted[Math.max(0, index)] / 1000);
+    }
+
+    /**
+     * 建立正弦波的WAV暫存檔案。
+     *
+     * @param seconds 傳入長度(秒)
+     * @param frequency 傳入頻率
+     * @return 傳回檔案的URL
+     * @throws Exception 拋出例外
+     */
+    private static URL createSine(final int seconds, final double frequency) throws Exception {
+        final AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        final int frames = 44100 * seconds;
+        final byte[] data = new byte[frames * 4];
+        for (int i = 0; i < frames; ++i) {
+            final short sample = (short) (Math.sin(2 * Math.PI * frequency * i / 44100) * 8000);
+            for (int c = 0; c < 2; ++c) {
+                data[i * 4 + c * 2] = (byte) sample;
+                data[i * 4 + c * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+        final File file = File.createTempFile("MagicAudioPlayer-", ".wav");
+        file.deleteOnExit();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, frames), AudioFileFormat.Type.WAVE, file);
+        return file.toURI().toURL();
+    }
+
+    /**
+     * 取得垃圾回收之後使用中的堆積記憶體(位元組)。
+     *
+     * @return 傳回記憶體
+     * @throws Exception 拋出例外
+     */
+    private static long usedHeap() throws Exception {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 取得使用中的直接緩衝區記憶體(位元組)。
+     *
+     * @return 傳回記憶體
+     */
+    private static long usedDirect() {
+        for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 取得整個程序使用的CPU時間(奈秒)，不支援時傳回0。
+     *
+     * @return 傳回CPU時間
+     */
+    private static long getProcessCpuTime() {
+        final java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
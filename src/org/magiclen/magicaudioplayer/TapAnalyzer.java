@@ -0,0 +1,90 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 所有音訊監聽點共用的分析執行緒。
+ *
+ * @author Magic Len
+ */
+final class TapAnalyzer {
+
+    // -----類別常數-----
+    /**
+     * 分析的間隔時間(毫秒)。
+     */
+    private static final int INTERVAL = 25;
+    private static final CopyOnWriteArrayList<AudioTap> TAPS = new CopyOnWriteArrayList<>();
+
+    // -----類別變數-----
+    private static Thread thread;
+
+    // -----建構子-----
+    /**
+     * 私有的建構子，將無法被實體化。
+     */
+    private TapAnalyzer() {
+
+    }
+
+    // -----類別方法-----
+    /**
+     * 註冊音訊監聽點，如果分析執行緒還沒啟動就啟動它。
+     *
+     * @param tap 傳入音訊監聽點
+     */
+    static synchronized void register(final AudioTap tap) {
+        TAPS.add(tap);
+        if (thread == null) {
+            thread = new Thread(TapAnalyzer::run, "MagicAudioPlayer-TapAnalyzer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 取消註冊音訊監聽點。
+     *
+     * @param tap 傳入音訊監聽點
+     */
+    static void unregister(final AudioTap tap) {
+        TAPS.remove(tap);
+    }
+
+    /**
+     * 分析執行緒的工作。
+     */
+    private static void run() {
+        while (true) {
+            for (final AudioTap tap : TAPS) {
+                try {
+                    tap.analyze();
+                } catch (final Exception ex) {
+                    //分析或監聽者的例外不能影響其他音訊監聽點
+                }
+            }
+            try {
+                Thread.sleep(INTERVAL);
+            } catch (final InterruptedException ex) {
+                return;
+            }
+        }
+    }
+}
@@ -17,34 +17,51 @@
  */
 package org.magiclen.magicaudioplayer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
 import javax.sound.sampled.DataLine;
-import javax.sound.sampled.FloatControl;
 import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineListener;
 
 /**
- * 傳統的聲音播放器，支援WAV、AIFF、AU等未壓縮格式的音訊。
+ * <p>
+ * 傳統的聲音播放器，支援WAV、AIFF、AU等未壓縮格式的音訊。</p>
+ *
+ * <p>
+ * 音量、增益與聲道平衡是透過Clip線路的控制來調整的。Clip的資料在載入之後就不能再被處理，因此無法像StreamingPlayer一樣改用軟體處理：線路沒有增益控制時，播放器會以原本的音量(0dB)播放，設定其他的音量、增益或正規化增益會拋出UnsupportedOperationException；線路沒有聲道平衡控制時，設定聲道平衡為0以外的數值也會拋出UnsupportedOperationException。</p>
  *
  * @author Magic Len
  */
 public class TraditionalPlayer implements AudioPlayer {
 
     //-----物件變數-----
-    private AudioInputStream audioInputStream;
     private AudioFormat audioFormat;
     private DataLine.Info dataLineInfo;
     private Clip clip;
+    private LineControls lineControls;
     private int playCount = 1, playCountBuffer = 1;
     private int volume, balance;
-    private Status status = null;
-    private boolean autoClose = false, playing = false;
-    private StatusChangedListener statusListener;
+    private float gain, pan, normalizationGain;
+    private volatile Status status = null;
+    private boolean autoClose = false, looping = false;
+    private volatile boolean playing = false;
+    private volatile StatusEvent.Cause closeCause = StatusEvent.Cause.USER;
+    private final StatusDispatcher dispatcher = new StatusDispatcher(this);
+    private PlayerRegistry.Registration registration;
+    private final CueList cues = new CueList();
+    private final CueStatistics cueStatistics = new CueStatistics();
+    private final Object cueLock = new Object();
+    private boolean cueTaskScheduled;
+    private long lastCueFrame;
 
     // -----建構子-----
     /**
@@ -96,54 +113,184 @@ public class TraditionalPlayer implements AudioPlayer {
      * @throws Exception 拋出例外
      */
     private void init(final URL url) throws Exception {
+        final PlayerEvents.Open openEvent = new PlayerEvents.Open();
+        openEvent.begin();
+        //本機的無壓縮音訊檔案可以分成多個區塊同時載入
+        PcmBlock block = loadParallel(url);
+        final StoragePolicy storagePolicy = LoadingConfig.getStoragePolicy();
+        if (storagePolicy != null) {
+            if (block == null) {
+                block = loadStream(url);
+            }
+            if (block != null) {
+                block = storagePolicy.apply(url.toString(), block);
+            }
+        }
+        if (block != null) {
+            audioFormat = block.getFormat();
+            dataLineInfo = new DataLine.Info(Clip.class, audioFormat, block.getLength());
+            clip = (Clip) AudioSystem.getLine(dataLineInfo);
+            clip.addLineListener(createLineListener(this));
+            clip.open(audioFormat, block.getData(), 0, block.getLength());
+        } else {
+            initStream(url);
+        }
+        registration = PlayerRegistry.register(this, url.toString(), 1);
+        registration.setResource(0, clip);
+        lineControls = new LineControls(clip);
+        if (lineControls.hasGain()) {
+            halfPower();
+        } else {
+            //線路沒有增益控制時，只能以原本的音量播放
+            volume = 100;
+            gain = 0;
+        }
+        balance();
+        openEvent.end(this, url, (long) clip.getFrameLength() * audioFormat.getFrameSize());
+    }
+
+    /**
+     * 使用平行載入器載入整個音訊檔案。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回音訊資料，不是本機檔案、沒有設定平行載入器或是不支援的檔案傳回null
+     */
+    private static PcmBlock loadParallel(final URL url) {
+        final ParallelLoader loader = LoadingConfig.getParallelLoader();
+        if (loader == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return loader.load(new File(url.toURI()));
+        } catch (final Exception ex) {
+            //交給音訊輸入串流處理
+            return null;
+        }
+    }
+
+    /**
+     * 使用音訊輸入串流載入整個音訊。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回音訊資料，不是PCM格式的音訊傳回null
+     */
+    private static PcmBlock loadStream(final URL url) {
+        try (final AudioInputStream audioInputStream = AudioDecoding.open(url)) {
+            final AudioFormat format = audioInputStream.getFormat();
+            if (!PcmCodec.isSupported(format)) {
+                return null;
+            }
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final byte[] b = new byte[65536];
+            int c;
+            while ((c = AudioDecoding.readFully(audioInputStream, b, 0, b.length)) > 0) {
+                baos.write(b, 0, c);
+            }
+            final byte[] data = baos.toByteArray();
+            return new PcmBlock(format, data, data.length - data.length % format.getFrameSize(), 0);
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    /**
+     * 使用音訊輸入串流將音訊載入到Clip中。
+     *
+     * @param url 傳入聲音URL
+     * @throws Exception 拋出例外
+     */
+    private void initStream(final URL url) throws Exception {
         //讀取音樂輸入串流
+        final AudioInputStream audioInputStream;
         try {
-            audioInputStream = AudioSystem.getAudioInputStream(url);
+            audioInputStream = AudioDecoding.open(url);
         } catch (final Exception ex) {
             throw new RuntimeException(ex.getMessage());
         }
         //進行播放設定
         audioFormat = audioInputStream.getFormat();
-        int bufferSize = (int) Math.min(audioInputStream.getFrameLength() * audioFormat.getFrameSize(), Integer.MAX_VALUE); //緩衝大小，如果音訊檔案不大，可以全部存入緩衝空間。這個數值應該要按照用途來決定
+        final long frameLength = audioInputStream.getFrameLength();
+        int bufferSize = frameLength == AudioSystem.NOT_SPECIFIED ? AudioSystem.NOT_SPECIFIED : (int) Math.min(frameLength * audioFormat.getFrameSize(), Integer.MAX_VALUE); //緩衝大小，如果音訊檔案不大，可以全部存入緩衝空間。這個數值應該要按照用途來決定
         dataLineInfo = new DataLine.Info(Clip.class, audioFormat, bufferSize);
-        clip = (Clip) AudioSystem.getLine(dataLineInfo);
-        clip.addLineListener(e -> {
-            final LineEvent.Type type = e.getType();
-            final Status preStatus = status;
-            if (type.equals(LineEvent.Type.START)) {
-                status = Status.START;
-            } else if (type.equals(LineEvent.Type.STOP)) {
-                boolean stop = true;
-                if (clip.getMicrosecondPosition() == clip.getMicrosecondLength()) {
-                    clip.setMicrosecondPosition(0);
-                    if (playing && playCount == 0 || (playCount > 0 && playCountBuffer < playCount)) {
-                        ++playCountBuffer;
-                        clip.start();
-                        stop = false;
-                    }
-                }
-                status = Status.STOP;
-                if (stop) {
-                    playing = false;
-                    playCountBuffer = 1;
-                    if (autoClose) {
-                        clip.close();
-                    }
+        try {
+            clip = (Clip) AudioSystem.getLine(dataLineInfo);
+            clip.addLineListener(createLineListener(this));
+            clip.open(audioInputStream);
+        } finally {
+            //資料已經被複製到Clip中，不再需要音訊輸入串流
+            audioInputStream.close();
+        }
+    }
+
+    /**
+     * 建立Clip的監聽者。監聽者只會弱參考播放器，讓沒有被關閉的播放器也可以被回收。
+     *
+     * @param player 傳入播放器
+     * @return 傳回監聽者
+     */
+    private static LineListener createLineListener(final TraditionalPlayer player) {
+        final WeakReference<TraditionalPlayer> reference = new WeakReference<>(player);
+        return e -> {
+            final TraditionalPlayer p = reference.get();
+            if (p != null) {
+                p.lineUpdate(e);
+            }
+        };
+    }
+
+    /**
+     * 處理Clip的事件。
+     *
+     * @param e 傳入事件
+     */
+    private void lineUpdate(final LineEvent e) {
+        final LineEvent.Type type = e.getType();
+        final Status preStatus = status;
+        final long framePosition = e.getFramePosition();
+        int loopIndex = playCountBuffer - 1;
+        StatusEvent.Cause cause = StatusEvent.Cause.USER;
+        boolean close = false;
+        if (type.equals(LineEvent.Type.START)) {
+            status = Status.START;
+            if (looping) {
+                looping = false;
+                cause = StatusEvent.Cause.LOOP;
+            }
+        } else if (type.equals(LineEvent.Type.STOP)) {
+            boolean stop = true;
+            if (clip.getMicrosecondPosition() == clip.getMicrosecondLength()) {
+                cause = StatusEvent.Cause.END_OF_MEDIA;
+                fireRemainingCues();
+                clip.setMicrosecondPosition(0);
+                if (playing && playCount == 0 || (playCount > 0 && playCountBuffer < playCount)) {
+                    ++playCountBuffer;
+                    looping = true;
+                    clip.start();
+                    stop = false;
                 }
-            } else if (type.equals(LineEvent.Type.OPEN)) {
-                status = Status.OPEN;
-            } else if (type.equals(LineEvent.Type.CLOSE)) {
-                status = Status.CLOSE;
-            } else {
-                return;
             }
-            if (statusListener != null) {
-                statusListener.statusChanged(preStatus, status);
+            status = Status.STOP;
+            if (stop) {
+                playing = false;
+                playCountBuffer = 1;
+                close = autoClose;
             }
-        });
-        clip.open(audioInputStream);
-        halfPower();
-        balance();
+        } else if (type.equals(LineEvent.Type.OPEN)) {
+            status = Status.OPEN;
+        } else if (type.equals(LineEvent.Type.CLOSE)) {
+            status = Status.CLOSE;
+            cause = closeCause;
+            loopIndex = 0;
+        } else {
+            return;
+        }
+        dispatcher.fire(preStatus, status, framePosition, framePosition == AudioSystem.NOT_SPECIFIED ? AudioSystem.NOT_SPECIFIED : AudioDecoding.framesToMicros(framePosition, audioFormat), loopIndex, cause);
+        if (close) {
+            closeCause = StatusEvent.Cause.AUTO_CLOSE;
+            close();
+        }
     }
 
     /**
@@ -154,6 +301,77 @@ public class TraditionalPlayer implements AudioPlayer {
         if (!playing) {
             playing = true;
             clip.start();
+            scheduleCueTask();
+        }
+    }
+
+    /**
+     * 如果有提示點，讓共用的排程器開始檢查播放的位置。Clip沒有可以讓我們插入的播放流程，因此只能輪詢它的位置。
+     */
+    private void scheduleCueTask() {
+        synchronized (cueLock) {
+            if (!cueTaskScheduled && playing && !cues.isEmpty()) {
+                cueTaskScheduled = true;
+                lastCueFrame = clip.getLongFramePosition();
+                AudioScheduler.getShared().add(this::pollCues);
+            }
+        }
+    }
+
+    /**
+     * 排程器的工作，觸發上次檢查之後已經被播放的提示點。
+     *
+     * @return 傳回距離下一次需要被服務的時間(奈秒)，停止播放或沒有提示點時傳回-1
+     */
+    private long pollCues() {
+        synchronized (cueLock) {
+            if (!playing || cues.isEmpty()) {
+                cueTaskScheduled = false;
+                return -1;
+            }
+            final CueList.Snapshot snapshot = cues.snapshot();
+            final long position = clip.getLongFramePosition();
+            if (position < lastCueFrame) {
+                //重新開始播放了，先觸發結尾的提示點
+                fireCues(snapshot, lastCueFrame, clip.getFrameLength(), clip.getFrameLength() + position);
+                lastCueFrame = 0;
+            }
+            fireCues(snapshot, lastCueFrame, position + 1, position);
+            lastCueFrame = position + 1;
+            final int next = snapshot.ceiling(lastCueFrame);
+            final long maxDelay = 10000000;
+            if (next == snapshot.size()) {
+                return maxDelay;
+            }
+            return Math.min(maxDelay, (long) ((snapshot.positions[next] - position) * 1e9 / audioFormat.getFrameRate()));
+        }
+    }
+
+    /**
+     * 音訊播放完畢時，觸發上次檢查之後到結尾的提示點。Clip停止之後位置會被移回開頭，輪詢的工作就看不到最後這段區間了。
+     */
+    private void fireRemainingCues() {
+        synchronized (cueLock) {
+            if (cueTaskScheduled) {
+                final long frameLength = clip.getFrameLength();
+                fireCues(cues.snapshot(), lastCueFrame, frameLength + 1, frameLength);
+                lastCueFrame = 0;
+            }
+        }
+    }
+
+    /**
+     * 觸發某個範圍中的提示點。
+     *
+     * @param snapshot 傳入提示點
+     * @param from 傳入範圍的開始位置(音框)
+     * @param to 傳入範圍的結束位置(音框)，不包含這個位置
+     * @param position 傳入目前的播放位置(音框)，用來計算誤差。重新開始播放時要加上音訊的長度
+     */
+    private void fireCues(final CueList.Snapshot snapshot, final long from, final long to, final long position) {
+        for (int i = snapshot.ceiling(from); i < snapshot.size() && snapshot.positions[i] < to; ++i) {
+            cueStatistics.record(AudioDecoding.framesToMicros(position - snapshot.positions[i], audioFormat));
+            AudioScheduler.getShared().dispatch(snapshot.actions[i]);
         }
     }
 
@@ -192,6 +410,9 @@ public class TraditionalPlayer implements AudioPlayer {
         } else {
             clip.setMicrosecondPosition(0);
         }
+        synchronized (cueLock) {
+            lastCueFrame = 0;
+        }
     }
 
     /**
@@ -217,10 +438,47 @@ public class TraditionalPlayer implements AudioPlayer {
         if (volume < 0 || volume > 100) {
             throw new RuntimeException("Volumn must be at least 0 and at most 100!");
         }
+        final float db = AudioPlayer.volumeToDB((float) volume);
+        requireGainControl(db + normalizationGain);
         this.volume = volume;
-        final FloatControl floatControl = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-        final float db = AudioPlayer.volumeToDB(volume);
-        floatControl.setValue(db);
+        this.gain = db;
+        applyGain();
+    }
+
+    /**
+     * 確認線路可以套用增益。線路沒有增益控制時，只能套用0dB。
+     *
+     * @param db 傳入要套用的總增益(dB)
+     */
+    private void requireGainControl(final float db) {
+        if (db != 0 && !lineControls.hasGain()) {
+            throw new UnsupportedOperationException("The line of this player doesn't support gain control!");
+        }
+    }
+
+    /**
+     * 確認線路可以套用聲道平衡。線路沒有聲道平衡控制時，只能套用0。
+     *
+     * @param pan 傳入要套用的聲道平衡
+     */
+    private void requirePanControl(final float pan) {
+        if (pan != 0 && !lineControls.hasPan()) {
+            throw new UnsupportedOperationException("The line of this player doesn't support pan control!");
+        }
+    }
+
+    /**
+     * 將增益和正規化增益套用到Clip上。
+     */
+    private void applyGain() {
+        lineControls.setGain(gain + normalizationGain);
+    }
+
+    /**
+     * 將聲道平衡套用到Clip上。
+     */
+    private void applyPan() {
+        lineControls.setPan(pan);
     }
 
     /**
@@ -233,6 +491,32 @@ public class TraditionalPlayer implements AudioPlayer {
         return volume;
     }
 
+    /**
+     * 設定增益(dB)，比起setVolume可以更精細地調整音量。
+     *
+     * @param db 傳入增益，Float.NEGATIVE_INFINITY表示靜音
+     */
+    @Override
+    public void setGain(final float db) {
+        if (Float.isNaN(db)) {
+            throw new RuntimeException("Gain can't be NaN!");
+        }
+        requireGainControl(db + normalizationGain);
+        this.gain = db;
+        this.volume = GainTable.dbToVolume(db);
+        applyGain();
+    }
+
+    /**
+     * 取得增益(dB)。
+     *
+     * @return 傳回增益
+     */
+    @Override
+    public float getGain() {
+        return gain;
+    }
+
     /**
      * 取得目前音訊播放器的狀態。
      *
@@ -250,17 +534,13 @@ public class TraditionalPlayer implements AudioPlayer {
      */
     @Override
     public void setBalance(final int balance) {
-        if (volume < 0 || volume > 100) {
+        if (balance < -100 || balance > 100) {
             throw new RuntimeException("Balance must be at least -100 and at most 100!");
         }
+        requirePanControl(balance / 100.0f);
         this.balance = balance;
-        try {
-            final FloatControl floatControl = (FloatControl) clip.getControl(FloatControl.Type.PAN);
-            final float pan = balance / 100.0f;
-            floatControl.setValue(pan);
-        } catch (final Exception ex) {
-            //可能是單聲道音訊檔造成的例外
-        }
+        this.pan = balance / 100.0f;
+        applyPan();
     }
 
     /**
@@ -273,6 +553,57 @@ public class TraditionalPlayer implements AudioPlayer {
         return balance;
     }
 
+    /**
+     * 設定聲道平衡，範圍-1~1，數值愈大愈靠近右邊，0為平衡狀態。比起setBalance可以更精細地調整。
+     *
+     * @param pan 傳入聲道平衡
+     */
+    @Override
+    public void setPan(final float pan) {
+        if (!(pan >= -1 && pan <= 1)) {
+            throw new RuntimeException("Pan must be at least -1 and at most 1!");
+        }
+        requirePanControl(pan);
+        this.pan = pan;
+        this.balance = Math.round(pan * 100);
+        applyPan();
+    }
+
+    /**
+     * 取得聲道平衡。
+     *
+     * @return 傳回聲道平衡
+     */
+    @Override
+    public float getPan() {
+        return pan;
+    }
+
+    /**
+     * 設定響度正規化的增益，這個增益會與音量疊加。
+     *
+     * @param db 傳入增益(dB)
+     */
+    @Override
+    public void setNormalizationGain(final float db) {
+        if (Float.isNaN(db) || Float.isInfinite(db)) {
+            throw new RuntimeException("The normalization gain must be a finite number!");
+        }
+        requireGainControl(gain + db);
+        this.normalizationGain = db;
+        applyGain();
+    }
+
+    /**
+     * 取得響度正規化的增益。
+     *
+     * @return 傳回增益(dB)
+     */
+    @Override
+    public float getNormalizationGain() {
+        return normalizationGain;
+    }
+
     /**
      * 取得音訊的長度(微秒)。
      *
@@ -301,7 +632,63 @@ public class TraditionalPlayer implements AudioPlayer {
      */
     @Override
     public void setAudioPosition(final long position) {
-        clip.setMicrosecondPosition(position);
+        synchronized (cueLock) {
+            PlayerEvents.seek(this, clip.getMicrosecondPosition(), position);
+            clip.setMicrosecondPosition(position);
+            lastCueFrame = clip.getLongFramePosition();
+        }
+    }
+
+    /**
+     * 加入提示點，當音訊播放到這個位置時會執行動作。Clip的位置是由共用的排程器輪詢的，準確度取決於Clip更新位置的頻率，可以從getCueStatistics方法得知。
+     *
+     * @param frame 傳入位置(音框)
+     * @param action 傳入動作
+     */
+    @Override
+    public void addCuePoint(final long frame, final Runnable action) {
+        cues.add(frame, action);
+        scheduleCueTask();
+    }
+
+    /**
+     * 加入提示點，當音訊播放到這個位置時會執行動作。
+     *
+     * @param micros 傳入位置(微秒)
+     * @param action 傳入動作
+     */
+    @Override
+    public void addCuePointMicros(final long micros, final Runnable action) {
+        addCuePoint(AudioDecoding.microsToFrames(micros, audioFormat), action);
+    }
+
+    /**
+     * 移除使用某個動作的所有提示點。
+     *
+     * @param action 傳入動作
+     * @return 傳回是否有提示點被移除
+     */
+    @Override
+    public boolean removeCuePoint(final Runnable action) {
+        return cues.remove(action);
+    }
+
+    /**
+     * 移除所有提示點。
+     */
+    @Override
+    public void clearCuePoints() {
+        cues.clear();
+    }
+
+    /**
+     * 取得提示點的準確度統計。
+     *
+     * @return 傳回準確度統計
+     */
+    @Override
+    public CueStatistics getCueStatistics() {
+        return cueStatistics;
     }
 
     /**
@@ -311,6 +698,7 @@ public class TraditionalPlayer implements AudioPlayer {
     public void close() {
         playing = false;
         clip.close();
+        registration.close();
     }
 
     /**
@@ -340,7 +728,7 @@ public class TraditionalPlayer implements AudioPlayer {
      */
     @Override
     public void setStatusChangedListener(final StatusChangedListener listener) {
-        this.statusListener = listener;
+        dispatcher.setStatusChangedListener(listener);
     }
 
     /**
@@ -350,6 +738,40 @@ public class TraditionalPlayer implements AudioPlayer {
      */
     @Override
     public StatusChangedListener getStatusChangedListener() {
-        return statusListener;
+        return dispatcher.getStatusChangedListener();
+    }
+
+    /**
+     * 等待直到條件成立。條件會在播放器的狀態改變時被重新檢查，等待的執行緒會被停放(park)，不會持有任何鎖。
+     *
+     * @param condition 傳入條件
+     * @param timeout 傳入最長的等待時間
+     * @param unit 傳入等待時間的單位
+     * @return 傳回條件是否成立，超過等待時間時傳回false
+     * @throws InterruptedException 執行緒在等待時被中斷時拋出
+     */
+    @Override
+    public boolean await(final BooleanSupplier condition, final long timeout, final TimeUnit unit) throws InterruptedException {
+        return dispatcher.await(condition, unit.toNanos(timeout));
+    }
+
+    /**
+     * 設定狀態改變事件的監聽者。
+     *
+     * @param listener 傳入監聽者
+     */
+    @Override
+    public void setStatusEventListener(final StatusEvent.Listener listener) {
+        dispatcher.setStatusEventListener(listener);
+    }
+
+    /**
+     * 取得狀態改變事件的監聽者。
+     *
+     * @return 傳回監聽者
+     */
+    @Override
+    public StatusEvent.Listener getStatusEventListener() {
+        return dispatcher.getStatusEventListener();
     }
 }
@@ -0,0 +1,101 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * TraditionalPlayer的提供者。
+ *
+ * @author Magic Len
+ */
+final class TraditionalPlayerProvider implements AudioPlayerProvider {
+
+    // -----類別常數-----
+    /**
+     * JDK內建的AudioFileReader可以解碼的格式。AudioSystem.getAudioFileTypes傳回的是可以寫入的格式，不能用來判斷可以讀取的格式；其他透過SPI安裝的讀取器無法得知它們的副檔名，它們的格式會以較低的優先順序被嘗試。
+     */
+    static final Set<String> FORMATS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("wav", "au", "snd", "aif", "aiff", "aifc")));
+
+    // -----物件方法-----
+    /**
+     * 取得提供者的名稱。
+     *
+     * @return 傳回提供者的名稱
+     */
+    @Override
+    public String getName() {
+        return "Traditional";
+    }
+
+    /**
+     * 取得提供者對於某種格式的優先順序。已被AudioSystem支援的格式優先使用，其他格式只作為嘗試。
+     *
+     * @param format 傳入格式
+     * @return 傳回優先順序
+     */
+    @Override
+    public int getPriority(final String format) {
+        return FORMATS.contains(format) ? 100 : 20;
+    }
+
+    /**
+     * 取得提供者明確支援的格式。
+     *
+     * @return 傳回支援的格式
+     */
+    @Override
+    public Set<String> getSupportedFormats() {
+        return FORMATS;
+    }
+
+    /**
+     * 判斷播放器是否以串流的方式播放。
+     *
+     * @return 傳回false，整個音訊會被載入到Clip中
+     */
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * 取得播放器的延遲等級。
+     *
+     * @return 傳回延遲等級
+     */
+    @Override
+    public LatencyClass getLatencyClass() {
+        return LatencyClass.NORMAL;
+    }
+
+    /**
+     * 建立聲音播放器。
+     *
+     * @param url 傳入聲音URL
+     * @return 傳回聲音播放器
+     */
+    @Override
+    public AudioPlayer createPlayer(final URL url) {
+        return new TraditionalPlayer(url);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * <p>
+ * 虛擬時鐘，只有在使用它的排程器呼叫advance方法時才會前進。</p>
+ *
+ * <p>
+ * 搭配使用虛擬時鐘的AudioScheduler與VirtualSink，可以在幾毫秒內快轉好幾個小時的播放，並得到每次都完全相同的事件順序、重複次數與位置。</p>
+ *
+ * @author Magic Len
+ */
+public final class VirtualClock {
+
+    //-----物件變數-----
+    private volatile long nanoTime;
+
+    // -----建構子-----
+    /**
+     * 建構子，時間從0開始。
+     */
+    public VirtualClock() {
+
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得目前的虛擬時間。
+     *
+     * @return 傳回時間(奈秒)
+     */
+    public long nanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * 設定目前的虛擬時間，時間不能倒退。
+     *
+     * @param nanoTime 傳入時間(奈秒)
+     */
+    void set(final long nanoTime) {
+        if (nanoTime < this.nanoTime) {
+            throw new RuntimeException("The virtual clock can't go backwards!");
+        }
+        this.nanoTime = nanoTime;
+    }
+}
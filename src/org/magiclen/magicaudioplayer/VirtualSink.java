@@ -0,0 +1,67 @@
+/*
+ *
+ * Copyright 2015-2017 magiclen.org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.magiclen.magicaudioplayer;
+
+/**
+ * <p>
+ * 以虛擬時鐘消耗資料的輸出端。</p>
+ *
+ * <p>
+ * 行為和即時模式的NullSink相同，但是緩衝中的資料是依照虛擬時鐘的時間被消耗的，因此播放的進度完全由虛擬時鐘決定。</p>
+ *
+ * @author Magic Len
+ */
+public class VirtualSink extends NullSink {
+
+    //-----物件常數-----
+    private final VirtualClock clock;
+
+    // -----建構子-----
+    /**
+     * 建構子。
+     *
+     * @param clock 傳入虛擬時鐘
+     */
+    public VirtualSink(final VirtualClock clock) {
+        super(true);
+        if (clock == null) {
+            throw new RuntimeException("The clock can't be null!");
+        }
+        this.clock = clock;
+    }
+
+    // -----物件方法-----
+    /**
+     * 取得虛擬時鐘的時間。
+     *
+     * @return 傳回時間(奈秒)
+     */
+    @Override
+    protected long nanoTime() {
+        return clock.nanoTime();
+    }
+
+    /**
+     * 取得虛擬時鐘。
+     *
+     * @return 傳回虛擬時鐘
+     */
+    public VirtualClock getClock() {
+        return clock;
+    }
+}